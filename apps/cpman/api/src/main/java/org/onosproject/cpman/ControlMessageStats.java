@@ -0,0 +1,344 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.cpman;
+
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.DeviceId;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Snapshot of the control messages exchanged with a device by the local
+ * controller instance, per message type and direction, together with the
+ * latency of the barriers which confirm the flow programming of the device.
+ * Counts and bytes are totals since {@link #since()}; rates are obtained
+ * from the difference of two snapshots.
+ */
+public final class ControlMessageStats {
+
+    private final DeviceId deviceId;
+    private final long since;
+    private final long time;
+    private final Map<String, Counter> inbound;
+    private final Map<String, Counter> outbound;
+    private final Latency barrierLatency;
+
+    /**
+     * Creates a control message snapshot.
+     *
+     * @param deviceId       device identifier
+     * @param since          time the counting started, in milliseconds
+     * @param time           time of the snapshot, in milliseconds
+     * @param inbound        counters of received messages, by message type
+     * @param outbound       counters of sent messages, by message type
+     * @param barrierLatency latency of the barrier requests
+     */
+    public ControlMessageStats(DeviceId deviceId, long since, long time,
+                               Map<String, Counter> inbound,
+                               Map<String, Counter> outbound,
+                               Latency barrierLatency) {
+        this.deviceId = checkNotNull(deviceId);
+        this.since = since;
+        this.time = time;
+        this.inbound = ImmutableMap.copyOf(inbound);
+        this.outbound = ImmutableMap.copyOf(outbound);
+        this.barrierLatency = checkNotNull(barrierLatency);
+    }
+
+    /**
+     * Returns the device identifier.
+     *
+     * @return device identifier
+     */
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Returns the time the counting started.
+     *
+     * @return time in milliseconds
+     */
+    public long since() {
+        return since;
+    }
+
+    /**
+     * Returns the time of the snapshot.
+     *
+     * @return time in milliseconds
+     */
+    public long time() {
+        return time;
+    }
+
+    /**
+     * Returns the counters of the messages received from the device, keyed
+     * by message type. Types never received are left out.
+     *
+     * @return inbound counters
+     */
+    public Map<String, Counter> inbound() {
+        return inbound;
+    }
+
+    /**
+     * Returns the counters of the messages sent to the device, keyed by
+     * message type. Types never sent are left out.
+     *
+     * @return outbound counters
+     */
+    public Map<String, Counter> outbound() {
+        return outbound;
+    }
+
+    /**
+     * Returns the time from sending the first flow or table modification
+     * ahead of a barrier request until the reply to the barrier. As the
+     * device replies only once it has processed the messages sent ahead of
+     * the barrier, this is the time taken to apply a batch of modifications.
+     * Barriers sent with no modification ahead of them are timed from their
+     * own request.
+     *
+     * @return barrier latency
+     */
+    public Latency barrierLatency() {
+        return barrierLatency;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deviceId, since, time, inbound, outbound, barrierLatency);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof ControlMessageStats) {
+            final ControlMessageStats other = (ControlMessageStats) obj;
+            return Objects.equals(this.deviceId, other.deviceId) &&
+                    this.since == other.since &&
+                    this.time == other.time &&
+                    Objects.equals(this.inbound, other.inbound) &&
+                    Objects.equals(this.outbound, other.outbound) &&
+                    Objects.equals(this.barrierLatency, other.barrierLatency);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("deviceId", deviceId)
+                .add("since", since)
+                .add("time", time)
+                .add("inbound", inbound)
+                .add("outbound", outbound)
+                .add("barrierLatency", barrierLatency)
+                .toString();
+    }
+
+    /**
+     * Number and total size of the messages of a type.
+     */
+    public static final class Counter {
+
+        private final long count;
+        private final long bytes;
+
+        /**
+         * Creates a message counter.
+         *
+         * @param count number of messages
+         * @param bytes total length of the messages
+         */
+        public Counter(long count, long bytes) {
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the number of messages.
+         *
+         * @return message count
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Returns the total length of the messages.
+         *
+         * @return length in bytes
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(count, bytes);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof Counter) {
+                final Counter other = (Counter) obj;
+                return this.count == other.count && this.bytes == other.bytes;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return toStringHelper(this)
+                    .add("count", count)
+                    .add("bytes", bytes)
+                    .toString();
+        }
+    }
+
+    /**
+     * Latency distribution in power of two buckets of microseconds. Bucket
+     * 0 holds the samples below one microsecond, and bucket i the samples
+     * from 2^(i-1) up to 2^i microseconds; the last bucket also holds all
+     * longer samples.
+     */
+    public static final class Latency {
+
+        private final long[] buckets;
+        private final long sum;
+        private final long max;
+
+        /**
+         * Creates a latency distribution.
+         *
+         * @param buckets number of samples in each bucket
+         * @param sum     sum of the samples, in microseconds
+         * @param max     largest sample, in microseconds
+         */
+        public Latency(long[] buckets, long sum, long max) {
+            checkArgument(buckets.length > 0, "Latency needs at least one bucket");
+            this.buckets = buckets.clone();
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of samples.
+         *
+         * @return sample count
+         */
+        public long count() {
+            long count = 0;
+            for (long bucket : buckets) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        /**
+         * Returns the mean of the samples.
+         *
+         * @return mean in microseconds, or 0 if there are no samples
+         */
+        public long mean() {
+            long count = count();
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * Returns the largest sample.
+         *
+         * @return maximum in microseconds
+         */
+        public long max() {
+            return max;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile of the samples: the
+         * upper bound of the bucket holding it, but no more than the largest
+         * sample.
+         *
+         * @param percentile percentile, from 0 to 100
+         * @return percentile in microseconds, or 0 if there are no samples
+         */
+        public long percentile(double percentile) {
+            checkArgument(percentile >= 0 && percentile <= 100, "Percentile out of range");
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length - 1; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Returns the number of samples of each bucket.
+         *
+         * @return bucket counts
+         */
+        public long[] buckets() {
+            return buckets.clone();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(Arrays.hashCode(buckets), sum, max);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof Latency) {
+                final Latency other = (Latency) obj;
+                return Arrays.equals(this.buckets, other.buckets) &&
+                        this.sum == other.sum && this.max == other.max;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return toStringHelper(this)
+                    .add("count", count())
+                    .add("mean", mean())
+                    .add("max", max)
+                    .toString();
+        }
+    }
+}
@@ -194,6 +194,18 @@ public interface ControlPlaneMonitorService {
                 TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, null);
     }
 
+    /**
+     * Obtains the counters of the control messages exchanged with a device
+     * by this instance, per message type and direction, and the latency of
+     * the barriers confirming its flow programming. They are summed up only
+     * when asked for, so collecting them adds no noticeable cost.
+     *
+     * @param deviceId device identifier
+     * @return control message snapshot, or null if the device is not
+     * connected to this instance
+     */
+    ControlMessageStats getMessageStats(DeviceId deviceId);
+
     /**
      * Obtains a list of names of available resources.
      *
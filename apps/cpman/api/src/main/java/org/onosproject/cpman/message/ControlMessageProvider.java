@@ -15,10 +15,25 @@
  */
 package org.onosproject.cpman.message;
 
+import org.onosproject.cpman.ControlMessageStats;
+import org.onosproject.net.DeviceId;
 import org.onosproject.net.provider.Provider;
 
 /**
  * Abstraction of a control message provider.
  */
 public interface ControlMessageProvider extends Provider {
+
+    /**
+     * Returns the counters of the control messages exchanged with the given
+     * device by this instance. They are collected all the time, and only
+     * summed up when asked for.
+     *
+     * @param deviceId device identifier
+     * @return control message snapshot, or null if the device is not
+     * connected to this instance or the provider does not count messages
+     */
+    default ControlMessageStats messageStats(DeviceId deviceId) {
+        return null;
+    }
 }
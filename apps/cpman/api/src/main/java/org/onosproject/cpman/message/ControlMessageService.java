@@ -15,7 +15,9 @@
  */
 package org.onosproject.cpman.message;
 
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.event.ListenerService;
+import org.onosproject.net.DeviceId;
 
 /**
  * Service for obtaining control message statistic information.
@@ -23,5 +25,12 @@ import org.onosproject.event.ListenerService;
 public interface ControlMessageService
         extends ListenerService<ControlMessageEvent, ControlMessageListener> {
 
-
+    /**
+     * Returns the counters of the control messages exchanged with the given
+     * device by this instance, as kept by the provider of the device.
+     *
+     * @param deviceId device identifier
+     * @return control message snapshot, or null if none is available
+     */
+    ControlMessageStats getMessageStats(DeviceId deviceId);
 }
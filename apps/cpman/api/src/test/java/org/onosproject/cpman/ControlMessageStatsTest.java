@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.cpman;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.onlab.junit.ImmutableClassChecker.assertThatClassIsImmutable;
+
+/**
+ * Unit tests for the control message stats class.
+ */
+public class ControlMessageStatsTest {
+
+    private static final DeviceId DID = DeviceId.deviceId("pof:0000000000000001");
+
+    /**
+     * Checks that the ControlMessageStats class is immutable.
+     */
+    @Test
+    public void testImmutability() {
+        assertThatClassIsImmutable(ControlMessageStats.class);
+        assertThatClassIsImmutable(ControlMessageStats.Counter.class);
+        assertThatClassIsImmutable(ControlMessageStats.Latency.class);
+    }
+
+    /**
+     * Tests creation of a ControlMessageStats using a regular constructor.
+     */
+    @Test
+    public void testBasic() {
+        ControlMessageStats.Latency latency = new ControlMessageStats.Latency(new long[]{0}, 0, 0);
+        ControlMessageStats stats = new ControlMessageStats(DID, 1L, 2L,
+                ImmutableMap.of("PACKET_IN", new ControlMessageStats.Counter(3L, 384L)),
+                ImmutableMap.of(), latency);
+        assertThat(stats.deviceId(), is(DID));
+        assertThat(stats.since(), is(1L));
+        assertThat(stats.time(), is(2L));
+        assertThat(stats.inbound().get("PACKET_IN").count(), is(3L));
+        assertThat(stats.inbound().get("PACKET_IN").bytes(), is(384L));
+        assertThat(stats.outbound().isEmpty(), is(true));
+        assertThat(stats.barrierLatency(), is(latency));
+    }
+
+    /**
+     * Tests the summary values of a latency distribution.
+     */
+    @Test
+    public void testLatency() {
+        // 6 samples from 2 to 4us, 3 from 512 to 1024us, and one of 5000us
+        long[] buckets = new long[16];
+        buckets[2] = 6;
+        buckets[10] = 3;
+        buckets[13] = 1;
+        ControlMessageStats.Latency latency =
+                new ControlMessageStats.Latency(buckets, 6 * 3 + 3 * 700 + 5000, 5000);
+
+        assertThat(latency.count(), is(10L));
+        assertThat(latency.mean(), is(711L));
+        assertThat(latency.max(), is(5000L));
+        assertThat(latency.percentile(50), is(4L));
+        assertThat(latency.percentile(90), is(1024L));
+        assertThat(latency.percentile(100), is(5000L));
+
+        ControlMessageStats.Latency empty = new ControlMessageStats.Latency(new long[16], 0, 0);
+        assertThat(empty.count(), is(0L));
+        assertThat(empty.mean(), is(0L));
+        assertThat(empty.percentile(99), is(0L));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.cpman.codec;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.onosproject.codec.CodecContext;
+import org.onosproject.codec.JsonCodec;
+import org.onosproject.cpman.ControlMessageStats;
+
+import java.util.Map;
+
+/**
+ * Control message stats codec.
+ */
+public final class ControlMessageStatsCodec extends JsonCodec<ControlMessageStats> {
+
+    private static final String DEVICE_ID = "deviceId";
+    private static final String SINCE = "since";
+    private static final String TIME = "time";
+    private static final String INBOUND = "inbound";
+    private static final String OUTBOUND = "outbound";
+    private static final String COUNT = "count";
+    private static final String BYTES = "bytes";
+    private static final String BARRIER_LATENCY = "barrierLatency";
+    private static final String MEAN = "mean";
+    private static final String P50 = "p50";
+    private static final String P99 = "p99";
+    private static final String MAX = "max";
+
+    @Override
+    public ObjectNode encode(ControlMessageStats stats, CodecContext context) {
+        ObjectNode result = context.mapper().createObjectNode()
+                .put(DEVICE_ID, stats.deviceId().toString())
+                .put(SINCE, stats.since())
+                .put(TIME, stats.time());
+        result.set(INBOUND, encodeCounters(stats.inbound(), context));
+        result.set(OUTBOUND, encodeCounters(stats.outbound(), context));
+
+        ControlMessageStats.Latency latency = stats.barrierLatency();
+        result.set(BARRIER_LATENCY, context.mapper().createObjectNode()
+                .put(COUNT, latency.count())
+                .put(MEAN, latency.mean())
+                .put(P50, latency.percentile(50))
+                .put(P99, latency.percentile(99))
+                .put(MAX, latency.max()));
+        return result;
+    }
+
+    private ObjectNode encodeCounters(Map<String, ControlMessageStats.Counter> counters,
+                                      CodecContext context) {
+        ObjectNode node = context.mapper().createObjectNode();
+        counters.forEach((type, counter) -> node.set(type, context.mapper().createObjectNode()
+                .put(COUNT, counter.count())
+                .put(BYTES, counter.bytes())));
+        return node;
+    }
+}
@@ -30,6 +30,7 @@ import org.onosproject.cluster.ClusterService;
 import org.onosproject.cluster.NodeId;
 import org.onosproject.cpman.ControlLoad;
 import org.onosproject.cpman.ControlLoadSnapshot;
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.ControlMetric;
 import org.onosproject.cpman.ControlMetricType;
 import org.onosproject.cpman.ControlMetricsRequest;
@@ -37,6 +38,7 @@ import org.onosproject.cpman.ControlPlaneMonitorService;
 import org.onosproject.cpman.ControlResource;
 import org.onosproject.cpman.ControlResourceRequest;
 import org.onosproject.cpman.MetricsDatabase;
+import org.onosproject.cpman.message.ControlMessageService;
 import org.onosproject.net.DeviceId;
 import org.onosproject.store.cluster.messaging.ClusterCommunicationService;
 import org.onosproject.store.cluster.messaging.MessageSubject;
@@ -80,6 +82,9 @@ public class ControlPlaneMonitor implements ControlPlaneMonitorService {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected ClusterCommunicationService communicationService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ControlMessageService messageService;
+
     private static final String DEFAULT_RESOURCE = "default";
 
     private static final Set RESOURCE_TYPE_SET =
@@ -297,6 +302,12 @@ public class ControlPlaneMonitor implements ControlPlaneMonitorService {
         }
     }
 
+    @Override
+    public ControlMessageStats getMessageStats(DeviceId deviceId) {
+        // the counters are kept by the instance connected to the device
+        return messageService.getMessageStats(deviceId);
+    }
+
     @Override
     public CompletableFuture<Set<String>> availableResources(NodeId nodeId,
                                                              Type resourceType) {
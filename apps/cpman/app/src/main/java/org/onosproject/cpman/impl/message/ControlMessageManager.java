@@ -22,6 +22,7 @@ import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.Service;
 import org.onosproject.cpman.ControlMessage;
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.message.ControlMessageAdminService;
 import org.onosproject.cpman.message.ControlMessageEvent;
 import org.onosproject.cpman.message.ControlMessageListener;
@@ -77,6 +78,13 @@ public class ControlMessageManager
         log.info("Stopped");
     }
 
+    @Override
+    public ControlMessageStats getMessageStats(DeviceId deviceId) {
+        checkNotNull(deviceId, DEVICE_ID_NULL);
+        ControlMessageProvider provider = getProvider(deviceId);
+        return provider == null ? null : provider.messageStats(deviceId);
+    }
+
     @Override
     protected ControlMessageProviderService createProviderService(ControlMessageProvider provider) {
         return new InternalControlMessageProviderService(provider);
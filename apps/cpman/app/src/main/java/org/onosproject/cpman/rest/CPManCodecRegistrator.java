@@ -22,7 +22,9 @@ import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.onosproject.codec.CodecService;
 import org.onosproject.cpman.ControlLoadSnapshot;
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.codec.ControlLoadSnapshotCodec;
+import org.onosproject.cpman.codec.ControlMessageStatsCodec;
 import org.slf4j.Logger;
 
 import static org.slf4j.LoggerFactory.getLogger;
@@ -41,6 +43,7 @@ public class CPManCodecRegistrator {
     @Activate
     public void activate() {
         codecService.registerCodec(ControlLoadSnapshot.class, new ControlLoadSnapshotCodec());
+        codecService.registerCodec(ControlMessageStats.class, new ControlMessageStatsCodec());
 
         log.info("Started");
     }
@@ -48,6 +51,7 @@ public class CPManCodecRegistrator {
     @Deactivate
     public void deactivate() {
         codecService.unregisterCodec(ControlLoadSnapshot.class);
+        codecService.unregisterCodec(ControlMessageStats.class);
 
         log.info("Stopped");
     }
@@ -21,6 +21,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.onosproject.cluster.ClusterService;
 import org.onosproject.cluster.NodeId;
 import org.onosproject.cpman.ControlLoadSnapshot;
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.ControlMetricType;
 import org.onosproject.cpman.ControlPlaneMonitorService;
 import org.onosproject.net.DeviceId;
@@ -35,6 +36,7 @@ import javax.ws.rs.core.Response;
 import java.util.Optional;
 import java.util.Set;
 
+import static org.onlab.util.Tools.nullIsNotFound;
 import static org.onosproject.cpman.ControlResource.CONTROL_MESSAGE_METRICS;
 import static org.onosproject.cpman.ControlResource.CPU_METRICS;
 import static org.onosproject.cpman.ControlResource.DISK_METRICS;
@@ -101,6 +103,27 @@ public class ControlMetricsWebResource extends AbstractWebResource {
         return ok(root).build();
     }
 
+    /**
+     * Returns the control message counters of a given device, per message
+     * type and direction, and the barrier latency of its flow programming,
+     * as kept by this instance.
+     *
+     * @param deviceId device identification
+     * @return control message counters of a given device
+     * @onos.rsModel ControlMessageStats
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("messages/{deviceId}/stats")
+    public Response controlMessageStats(@PathParam("deviceId") String deviceId) {
+
+        ControlMessageStats stats = nullIsNotFound(
+                monitorService.getMessageStats(DeviceId.deviceId(deviceId)),
+                "No control message stats for " + deviceId);
+
+        return ok(codec(ControlMessageStats.class).encode(stats, this)).build();
+    }
+
     /**
      * Returns cpu metrics.
      *
@@ -25,6 +25,7 @@ import org.onosproject.cluster.NodeId;
 import org.onosproject.cpman.ControlMetric;
 import org.onosproject.cpman.ControlMetricType;
 import org.onosproject.cpman.MetricValue;
+import org.onosproject.cpman.impl.message.ControlMessageServiceAdaptor;
 import org.onosproject.net.DeviceId;
 import org.onosproject.store.cluster.messaging.ClusterCommunicationService;
 import org.onosproject.store.cluster.messaging.ClusterCommunicationServiceAdapter;
@@ -67,6 +68,7 @@ public class ControlPlaneMonitorTest {
 
         mockCommunicationService = new ClusterCommunicationServiceAdapter();
         monitor.communicationService = mockCommunicationService;
+        monitor.messageService = new ControlMessageServiceAdaptor();
 
         nodeId = new NodeId("1");
         mockControllerNode = new MockControllerNode(nodeId);
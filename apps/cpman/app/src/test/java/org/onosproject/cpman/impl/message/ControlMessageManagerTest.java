@@ -15,11 +15,13 @@
  */
 package org.onosproject.cpman.impl.message;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.onosproject.cpman.ControlMessage;
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.DefaultControlMessage;
 import org.onosproject.cpman.message.ControlMessageEvent;
 import org.onosproject.cpman.message.ControlMessageListener;
@@ -42,6 +44,7 @@ import java.util.Set;
 import static com.google.common.base.Preconditions.checkState;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.onosproject.net.DeviceId.deviceId;
 import static org.onosproject.net.NetTestTools.injectEventDispatcher;
@@ -118,6 +121,15 @@ public class ControlMessageManagerTest {
         cms.clear();
     }
 
+    /**
+     * Tests that message counters are obtained from the provider of the device.
+     */
+    @Test
+    public void getMessageStats() {
+        assertEquals("wrong message stats", provider.stats, service.getMessageStats(DID));
+        assertNull("unexpected message stats", service.getMessageStats(deviceId("foo:bar")));
+    }
+
     /**
      * Validates whether the manager receives the right events.
      *
@@ -138,9 +150,18 @@ public class ControlMessageManagerTest {
      */
     private class TestProvider extends AbstractProvider implements ControlMessageProvider {
 
+        final ControlMessageStats stats = new ControlMessageStats(DID, 0, 1,
+                ImmutableMap.of("PACKET_IN", new ControlMessageStats.Counter(2, 256)),
+                ImmutableMap.of(), new ControlMessageStats.Latency(new long[]{0, 1}, 1, 1));
+
         public TestProvider() {
             super(PID);
         }
+
+        @Override
+        public ControlMessageStats messageStats(DeviceId deviceId) {
+            return DID.equals(deviceId) ? stats : null;
+        }
     }
 
     /**
@@ -15,8 +15,10 @@
  */
 package org.onosproject.cpman.impl.message;
 
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.message.ControlMessageListener;
 import org.onosproject.cpman.message.ControlMessageService;
+import org.onosproject.net.DeviceId;
 
 /**
  * Test adapter for control message service.
@@ -29,4 +31,9 @@ public class ControlMessageServiceAdaptor implements ControlMessageService {
     @Override
     public void removeListener(ControlMessageListener listener) {
     }
+
+    @Override
+    public ControlMessageStats getMessageStats(DeviceId deviceId) {
+        return null;
+    }
 }
@@ -17,6 +17,7 @@ package org.onosproject.cpman.impl.message;
 
 import org.onosproject.cluster.NodeId;
 import org.onosproject.cpman.ControlLoadSnapshot;
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.ControlMetric;
 import org.onosproject.cpman.ControlMetricType;
 import org.onosproject.cpman.ControlPlaneMonitorService;
@@ -79,4 +80,9 @@ public class ControlPlaneMonitorServiceAdaptor implements ControlPlaneMonitorSer
                                                              ControlResource.Type resourceType) {
         return null;
     }
+
+    @Override
+    public ControlMessageStats getMessageStats(DeviceId deviceId) {
+        return null;
+    }
 }
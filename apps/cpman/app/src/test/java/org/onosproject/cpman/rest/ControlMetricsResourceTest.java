@@ -15,6 +15,7 @@
  */
 package org.onosproject.cpman.rest;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.junit.Before;
@@ -30,10 +31,14 @@ import org.onosproject.codec.CodecService;
 import org.onosproject.codec.impl.CodecManager;
 import org.onosproject.cpman.ControlLoad;
 import org.onosproject.cpman.ControlLoadSnapshot;
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.ControlPlaneMonitorService;
 import org.onosproject.cpman.codec.ControlLoadSnapshotCodec;
+import org.onosproject.cpman.codec.ControlMessageStatsCodec;
+import org.onosproject.net.DeviceId;
 import org.onosproject.rest.resources.ResourceTest;
 
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.client.WebTarget;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -46,6 +51,7 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * Unit test for ControlMetrics REST API.
@@ -145,6 +151,7 @@ public class ControlMetricsResourceTest extends ResourceTest {
         final CodecManager codecService = new CodecManager();
         codecService.activate();
         codecService.registerCodec(ControlLoadSnapshot.class, new ControlLoadSnapshotCodec());
+        codecService.registerCodec(ControlMessageStats.class, new ControlMessageStatsCodec());
         ServiceDirectory testDirectory =
                 new TestServiceDirectory()
                         .add(ControlPlaneMonitorService.class,
@@ -192,4 +199,48 @@ public class ControlMetricsResourceTest extends ResourceTest {
         assertThat(response, is("{\"disks\":[{\"name\":\"resource1\",\"value\":{\"metrics\":[]}}," +
                 "{\"name\":\"resource2\",\"value\":{\"metrics\":[]}}]}"));
     }
+
+    /**
+     * Tests the results of the REST API GET of the control message counters
+     * of a device.
+     */
+    @Test
+    public void testMessageStats() {
+        DeviceId did = DeviceId.deviceId("pof:0000000000000001");
+        long[] buckets = new long[12];
+        buckets[11] = 2;
+        ControlMessageStats stats = new ControlMessageStats(did, 10L, 20L,
+                ImmutableMap.of("BARRIER_REPLY", new ControlMessageStats.Counter(2L, 16L)),
+                ImmutableMap.of("BARRIER_REQUEST", new ControlMessageStats.Counter(2L, 16L)),
+                new ControlMessageStats.Latency(buckets, 3000L, 1600L));
+        expect(mockControlPlaneMonitorService.getMessageStats(did)).andReturn(stats).once();
+        replay(mockControlPlaneMonitorService);
+
+        final WebTarget wt = target();
+        final String response = wt.path(PREFIX + "/messages/" + did + "/stats").request().get(String.class);
+        assertThat(response, is("{\"deviceId\":\"pof:0000000000000001\",\"since\":10,\"time\":20," +
+                "\"inbound\":{\"BARRIER_REPLY\":{\"count\":2,\"bytes\":16}}," +
+                "\"outbound\":{\"BARRIER_REQUEST\":{\"count\":2,\"bytes\":16}}," +
+                "\"barrierLatency\":{\"count\":2,\"mean\":1500,\"p50\":1600,\"p99\":1600,\"max\":1600}}"));
+
+        verify(mockControlPlaneMonitorService);
+    }
+
+    /**
+     * Tests the REST API GET of the control message counters of a device
+     * not connected to this instance.
+     */
+    @Test
+    public void testMessageStatsMissing() {
+        expect(mockControlPlaneMonitorService.getMessageStats(anyObject())).andReturn(null).once();
+        replay(mockControlPlaneMonitorService);
+
+        final WebTarget wt = target();
+        try {
+            wt.path(PREFIX + "/messages/pof:0000000000000002/stats").request().get(String.class);
+            fail("GET of missing message stats did not throw an exception");
+        } catch (NotFoundException ex) {
+            assertThat(ex.getMessage(), is("HTTP 404 Not Found"));
+        }
+    }
 }
@@ -15,11 +15,16 @@
  */
 package org.onosproject.poflldp;
 
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.onlab.util.Timer;
 import org.onosproject.cluster.ClusterService;
 import org.onosproject.cluster.NodeId;
 import org.onosproject.core.ApplicationId;
@@ -30,6 +35,8 @@ import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
 import org.onosproject.floodlightpof.protocol.table.OFTableType;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
 import org.onosproject.mastership.MastershipService;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.table.DefaultFlowTable;
 import org.onosproject.net.table.FlowTable;
@@ -44,22 +51,39 @@ import org.onosproject.net.AnnotationKeys;
 import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
 import org.onosproject.net.device.DeviceAdminService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
- * An auxiliary application to send default pof flow tables for lldp
+ * An auxiliary application to send default pof flow tables for lldp, and to
+ * enable the data ports of pof switches so that lldp probes can pass them.
+ * Ports are enabled as device and port events come in, in one batch per
+ * switch on the hashed-wheel timer, and enabled again if they do not come up.
  */
 @Component(immediate = true)
 public class PofLinkDiscovery {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    private static final String POF_SCHEME = "pof";
+    private static final String MANAGEMENT_PORT = "eth0";
+
+    // delay coalescing the port changes of a switch into one batch
+    private static final long BATCH_DELAY_MS = 50;
+    // time an enabled port is given to come up before it is enabled again
+    private static final long PORT_RETRY_MS = 5000;
+    private static final int MAX_PORT_ATTEMPTS = 3;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected CoreService coreService;
 
@@ -89,6 +113,9 @@ public class PofLinkDiscovery {
     private NodeId local;
 
     private final InternalDeviceProvider listener = new InternalDeviceProvider();
+    private final InternalDeviceListener deviceListener = new InternalDeviceListener();
+
+    private final Map<DeviceId, PortEnabler> enablers = Maps.newConcurrentMap();
 
     @Activate
     protected void activate() {
@@ -97,12 +124,12 @@ public class PofLinkDiscovery {
 
         local = clusterService.getLocalNode().id();
 
+        deviceService.addListener(deviceListener);
+
         //Send flow tables to the switches that have been connected
         for (Device device : deviceService.getAvailableDevices()) {
             DeviceId deviceId = device.id();
-            NodeId master = mastershipService.getMasterFor(deviceId);
-
-            if (Objects.equals(local, master)) {
+            if (isLocalMaster(deviceId)) {
                 changePorts(deviceId);
                 sendPofFlowTables(deviceId);
             }
@@ -114,27 +141,40 @@ public class PofLinkDiscovery {
     @Deactivate
     protected void deactivate() {
 
+        controller.removeListener(listener);
+        deviceService.removeListener(deviceListener);
+        enablers.values().forEach(PortEnabler::stop);
+        enablers.clear();
+
         for (Device device:deviceService.getAvailableDevices()) {
             DeviceId deviceId = device.id();
-            NodeId master = mastershipService.getMasterFor(deviceId);
-            if (Objects.equals(local, master)) {
+            if (isLocalMaster(deviceId)) {
                 removePofFlowTable(deviceId, 0);
             }
         }
-        controller.removeListener(listener);
         log.info("Stopped");
     }
 
+    /**
+     * Queues all data ports of a pof switch to be enabled.
+     *
+     * @param deviceId device identifier
+     */
     public void changePorts(DeviceId deviceId) {
-        if (deviceId.toString().split(":")[0].equals("pof")) {
-            for (Port port:deviceService.getPorts(deviceId)) {
-                if (!port.annotations().value(AnnotationKeys.PORT_NAME).equals("eth0")) {
-                    deviceService.changePortState(deviceId, port.number(), true);
-                }
-            }
+        if (isPof(deviceId)) {
+            PortEnabler enabler = enablers.computeIfAbsent(deviceId, PortEnabler::new);
+            deviceService.getPorts(deviceId).forEach(enabler::addPort);
         }
     }
 
+    private boolean isPof(DeviceId deviceId) {
+        return deviceId.toString().split(":")[0].equals(POF_SCHEME);
+    }
+
+    private boolean isLocalMaster(DeviceId deviceId) {
+        return Objects.equals(local, mastershipService.getMasterFor(deviceId));
+    }
+
     public int sendPofFlowTables(DeviceId deviceId) {
         int tableId = (byte) tableStore.getNewGlobalFlowTableId(deviceId, OFTableType.OF_MM_TABLE);
         log.info("globalTableId: {}", tableId);
@@ -173,14 +213,21 @@ public class PofLinkDiscovery {
         flowTableService.removeFlowTablesByTableId(deviceId, FlowTableId.valueOf(tableId));
     }
 
+    private void stopPorts(DeviceId deviceId) {
+        PortEnabler enabler = enablers.remove(deviceId);
+        if (enabler != null) {
+            enabler.stop();
+        }
+    }
+
     private class InternalDeviceProvider implements PofSwitchListener {
         @Override
         public void switchAdded(Dpid dpid) {
         }
         @Override
         public void handleConnectionUp(Dpid dpid){
+            // the ports follow with the device events
             DeviceId deviceId = DeviceId.deviceId(Dpid.uri(dpid));
-            changePorts(deviceId);
             sendPofFlowTables(deviceId);
         }
         @Override
@@ -199,4 +246,160 @@ public class PofLinkDiscovery {
         public void receivedRoleReply(Dpid dpid, RoleState requested, RoleState response) {
         }
     }
+
+    // Only the switch and port of an event are looked at, never the whole network.
+    private class InternalDeviceListener implements DeviceListener {
+        @Override
+        public boolean isRelevant(DeviceEvent event) {
+            return isPof(event.subject().id());
+        }
+
+        @Override
+        public void event(DeviceEvent event) {
+            DeviceId deviceId = event.subject().id();
+            switch (event.type()) {
+                case DEVICE_ADDED:
+                case DEVICE_AVAILABILITY_CHANGED:
+                case DEVICE_MASTERSHIP_CHANGED:
+                    if (deviceService.isAvailable(deviceId) && isLocalMaster(deviceId)) {
+                        changePorts(deviceId);
+                    } else {
+                        stopPorts(deviceId);
+                    }
+                    break;
+                case DEVICE_REMOVED:
+                    stopPorts(deviceId);
+                    break;
+                case PORT_ADDED:
+                    if (isLocalMaster(deviceId)) {
+                        enablers.computeIfAbsent(deviceId, PortEnabler::new).addPort(event.port());
+                    }
+                    break;
+                case PORT_UPDATED:
+                    PortEnabler enabler = enablers.get(deviceId);
+                    if (enabler != null && event.port().isEnabled()) {
+                        enabler.portUp(event.port().number());
+                    }
+                    break;
+                case PORT_REMOVED:
+                    enabler = enablers.get(deviceId);
+                    if (enabler != null) {
+                        enabler.removePort(event.port().number());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Enables the queued ports of a switch in one batch, and enables again
+     * the ports that have not come up in time. A switch with nothing queued
+     * or pending has no timeout scheduled.
+     */
+    private final class PortEnabler implements TimerTask {
+
+        private final DeviceId deviceId;
+
+        // ports to enable with the next batch
+        private final Set<PortNumber> queued = Sets.newHashSet();
+        // ports enabled but not yet reported up, with the attempts made
+        private final Map<PortNumber, Integer> pending = Maps.newHashMap();
+
+        private Timeout timeout;
+        private long nextRun;
+        private long retryAt;
+        private boolean stopped;
+
+        private PortEnabler(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        synchronized void addPort(Port port) {
+            if (stopped || port.isEnabled()
+                    || MANAGEMENT_PORT.equals(port.annotations().value(AnnotationKeys.PORT_NAME))) {
+                return;
+            }
+            if (queued.add(port.number())) {
+                schedule(BATCH_DELAY_MS);
+            }
+        }
+
+        synchronized void portUp(PortNumber port) {
+            queued.remove(port);
+            pending.remove(port);
+        }
+
+        synchronized void removePort(PortNumber port) {
+            queued.remove(port);
+            pending.remove(port);
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            queued.clear();
+            pending.clear();
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        private void schedule(long delay) {
+            long at = System.currentTimeMillis() + delay;
+            if (timeout != null && !timeout.isExpired()) {
+                if (nextRun <= at) {
+                    return;
+                }
+                timeout.cancel();
+            }
+            nextRun = at;
+            timeout = Timer.getTimer().newTimeout(this, delay, MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void run(Timeout t) {
+            if (stopped || t.isCancelled()) {
+                return;
+            }
+            if (!isLocalMaster(deviceId)) {
+                queued.clear();
+                pending.clear();
+                retryAt = 0;
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            boolean retry = retryAt != 0 && now >= retryAt;
+            if (retry) {
+                pending.forEach((port, attempts) -> {
+                    if (attempts < MAX_PORT_ATTEMPTS) {
+                        queued.add(port);
+                    } else {
+                        log.warn("Port {} of {} did not come up after {} attempts",
+                                 port, deviceId, attempts);
+                    }
+                });
+                pending.keySet().retainAll(queued);
+            }
+
+            if (!queued.isEmpty()) {
+                log.debug("Enabling ports {} of {}", queued, deviceId);
+                for (PortNumber port : queued) {
+                    deviceService.changePortState(deviceId, port, true);
+                    pending.merge(port, 1, Integer::sum);
+                }
+                queued.clear();
+            }
+
+            if (pending.isEmpty()) {
+                retryAt = 0;
+                return;
+            }
+            if (retryAt == 0 || retry) {
+                retryAt = now + PORT_RETRY_MS;
+            }
+            schedule(retryAt - now);
+        }
+    }
 }
@@ -78,14 +78,15 @@ public class DefaultFlowRule implements FlowRule {
 
     private DefaultFlowRule(DeviceId deviceId, TrafficSelector selector,
                             TrafficTreatment treatment, Integer priority,
-                            FlowId flowId, Boolean permanent, Integer timeout, Integer hardTimeout,
-                            FlowRemoveReason reason, Integer tableId) {
+                            FlowId flowId, GroupId groupId, Boolean permanent, Integer timeout,
+                            Integer hardTimeout, FlowRemoveReason reason, Integer tableId) {
 
         this.deviceId = deviceId;
         this.selector = selector;
         this.treatment = treatment;
         this.priority = priority;
         this.appId = (short) (flowId.value() >>> 48);
+        this.groupId = groupId;
         this.id = flowId;
         this.permanent = permanent;
         this.timeout = timeout;
@@ -96,7 +97,6 @@ public class DefaultFlowRule implements FlowRule {
 
 
         //FIXME: fields below will be removed.
-        this.groupId = new GroupId(0);
         this.payLoad = null;
     }
 
@@ -167,8 +167,8 @@ public class DefaultFlowRule implements FlowRule {
          * id consists of the following. | appId (16 bits) | groupId (16 bits) |
          * flowId (32 bits) |
          */
-        this.id = FlowId.valueOf((((long) this.appId) << 48)
-                | (((long) this.groupId.id()) << 32)
+        this.id = FlowId.valueOf(((this.appId & 0xffffL) << 48)
+                | ((this.groupId.id() & 0xffffL) << 32)
                 | (this.hash() & 0xffffffffL));
     }
 
@@ -242,8 +242,8 @@ public class DefaultFlowRule implements FlowRule {
          * id consists of the following. | appId (16 bits) | groupId (16 bits) |
          * flowId (32 bits) |
          */
-        this.id = FlowId.valueOf((((long) this.appId) << 48)
-                | (((long) this.groupId.id()) << 32)
+        this.id = FlowId.valueOf(((this.appId & 0xffffL) << 48)
+                | ((this.groupId.id() & 0xffffL) << 32)
                 | (this.hash() & 0xffffffffL));
     }
 
@@ -393,6 +393,7 @@ public class DefaultFlowRule implements FlowRule {
 
         private FlowId flowId;
         private ApplicationId appId;
+        private GroupId groupId = new GroupId(0);
         private Integer priority;
         private DeviceId deviceId;
         private Integer tableId = 0;
@@ -415,6 +416,12 @@ public class DefaultFlowRule implements FlowRule {
             return this;
         }
 
+        @Override
+        public FlowRule.Builder withGroupId(GroupId groupId) {
+            this.groupId = checkNotNull(groupId);
+            return this;
+        }
+
         @Override
         public FlowRule.Builder withPriority(int priority) {
             this.priority = priority;
@@ -476,6 +483,7 @@ public class DefaultFlowRule implements FlowRule {
         @Override
         public FlowRule build() {
             FlowId localFlowId;
+            GroupId localGroupId;
             checkArgument((flowId != null) ^ (appId != null), "Either an application" +
                     " id or a cookie must be supplied");
             checkNotNull(selector, "Traffic selector cannot be null");
@@ -491,16 +499,24 @@ public class DefaultFlowRule implements FlowRule {
             // the flow ID directly
             if (appId != null) {
                 localFlowId = computeFlowId(appId);
+                localGroupId = new GroupId(groupId.id() & 0xffff);
             } else {
                 localFlowId = flowId;
+                localGroupId = new GroupId(0);
             }
 
             return new DefaultFlowRule(deviceId, selector, treatment, priority,
-                                       localFlowId, permanent, timeout, hardTimeout, reason, tableId);
+                                       localFlowId, localGroupId, permanent, timeout, hardTimeout, reason,
+                                       tableId);
         }
 
+        /*
+         * id consists of the following. | appId (16 bits) | groupId (16 bits) |
+         * flowId (32 bits) |
+         */
         private FlowId computeFlowId(ApplicationId appId) {
-            return FlowId.valueOf((((long) appId.id()) << 48)
+            return FlowId.valueOf(((appId.id() & 0xffffL) << 48)
+                                   | ((groupId.id() & 0xffffL) << 32)
                                    | (hash() & 0xffffffffL));
         }
 
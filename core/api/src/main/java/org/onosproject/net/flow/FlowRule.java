@@ -210,6 +210,16 @@ public interface FlowRule {
          */
         Builder fromApp(ApplicationId appId);
 
+        /**
+         * Sets the group id encoded in the flow id of this flow rule, next
+         * to the application id. Only taken into account along with the
+         * fromApp method. Default value is 0.
+         *
+         * @param groupId a group id, of which the lower 16 bits are kept
+         * @return this
+         */
+        Builder withGroupId(GroupId groupId);
+
         /**
          * Sets the priority for this flow rule.
          *
@@ -114,6 +114,17 @@ public interface FlowRuleService
      */
     Iterable<FlowEntry> getFlowEntriesById(ApplicationId id);
 
+    /**
+     * Returns a list of rules with this application ID on the specified device.
+     *
+     * @param deviceId the device id to lookup
+     * @param id       the application ID to look up
+     * @return collection of flow entries
+     */
+    default Iterable<FlowEntry> getFlowEntriesById(DeviceId deviceId, ApplicationId id) {
+        return Iterables.filter(getFlowEntries(deviceId), fe -> fe.appId() == id.id());
+    }
+
     /**
      * Returns a list of rules filtered by application and group id.
      * <p>
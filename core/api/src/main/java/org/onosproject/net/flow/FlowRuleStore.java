@@ -15,8 +15,12 @@
  */
 package org.onosproject.net.flow;
 
+import java.util.Collection;
 import java.util.List;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.onosproject.core.ApplicationId;
 import org.onosproject.net.DeviceId;
 import org.onosproject.store.Store;
 
@@ -48,6 +52,49 @@ public interface FlowRuleStore extends Store<FlowRuleBatchEvent, FlowRuleStoreDe
      */
     Iterable<FlowEntry> getFlowEntries(DeviceId deviceId);
 
+    /**
+     * Returns the flow entries of an application on a device.
+     *
+     * @param deviceId the device ID
+     * @param appId    the application ID
+     * @return the flow entries
+     */
+    default Iterable<FlowEntry> getFlowEntries(DeviceId deviceId, ApplicationId appId) {
+        return Iterables.filter(getFlowEntries(deviceId), e -> e.appId() == appId.id());
+    }
+
+    /**
+     * Returns the flow entries of an application on a device whose flow id
+     * carries the given group id.
+     *
+     * @param deviceId the device ID
+     * @param appId    the application ID
+     * @param groupId  the group id encoded in the flow id
+     * @return the flow entries
+     */
+    default Iterable<FlowEntry> getFlowEntries(DeviceId deviceId, ApplicationId appId, short groupId) {
+        long toLookUp = ((appId.id() & 0xFFFFL) << 16) | (groupId & 0xFFFF);
+        return Iterables.filter(getFlowEntries(deviceId), e -> (e.id().value() >>> 32) == toLookUp);
+    }
+
+    /**
+     * Returns the flow entries of an application on all devices.
+     *
+     * @param appId the application ID
+     * @return the flow entries
+     */
+    Iterable<FlowEntry> getFlowEntries(ApplicationId appId);
+
+    /**
+     * Returns the flow entries of an application on all devices whose flow
+     * id carries the given group id.
+     *
+     * @param appId   the application ID
+     * @param groupId the group id encoded in the flow id
+     * @return the flow entries
+     */
+    Iterable<FlowEntry> getFlowEntries(ApplicationId appId, short groupId);
+
     /**
      * // TODO: Better description of method behavior.
      * Stores a new flow rule without generating events.
@@ -90,6 +137,25 @@ public interface FlowRuleStore extends Store<FlowRuleBatchEvent, FlowRuleStoreDe
      */
     FlowRuleEvent addOrUpdateFlowRule(FlowEntry rule);
 
+    /**
+     * Stores new flow rules, or updates existing entries, of a device in
+     * one pass, as reported by the device statistics.
+     *
+     * @param deviceId the device ID
+     * @param rules    the flow rules of the device to add or update
+     * @return flow_added and flow_updated events of the rules
+     */
+    default List<FlowRuleEvent> addOrUpdateFlowRules(DeviceId deviceId, Collection<FlowEntry> rules) {
+        List<FlowRuleEvent> events = Lists.newArrayList();
+        for (FlowEntry rule : rules) {
+            FlowRuleEvent event = addOrUpdateFlowRule(rule);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
     /**
      * @param rule the flow entry to remove
      * @return flow_removed event, or null if nothing removed
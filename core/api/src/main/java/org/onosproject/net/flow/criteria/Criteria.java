@@ -23,6 +23,7 @@ import org.onlab.packet.MacAddress;
 import org.onlab.packet.MplsLabel;
 import org.onlab.packet.TpPort;
 import org.onlab.packet.VlanId;
+import org.onlab.util.ImmutableByteSequence;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.Lambda;
 import org.onosproject.net.OchSignal;
@@ -656,6 +657,54 @@ public final class Criteria {
         return new PofCriterion(fieldName, fieldId, offset, length, value, mask);
     }
 
+    /**
+     * Creates a pof criterion from a binary value and mask. The arrays are
+     * used without copying and must not be modified afterwards.
+     *
+     * @param fieldId the id of field to match
+     * @param offset the offset of field to match, in bits
+     * @param length the length of field to match, in bits
+     * @param value the value of field to match
+     * @param mask the mask of field to match
+     * @return pof criterion
+     */
+    public static Criterion matchOffsetLength(short fieldId, short offset, short length,
+                                              byte[] value, byte[] mask) {
+        return new PofCriterion(null, fieldId, offset, length, value, mask);
+    }
+
+    /**
+     * Creates a named pof criterion from a binary value and mask. The arrays
+     * are used without copying and must not be modified afterwards.
+     *
+     * @param fieldName the name of field to match
+     * @param fieldId the id of field to match
+     * @param offset the offset of field to match, in bits
+     * @param length the length of field to match, in bits
+     * @param value the value of field to match
+     * @param mask the mask of field to match
+     * @return pof criterion
+     */
+    public static Criterion matchOffsetLength(String fieldName, short fieldId, short offset,
+                                              short length, byte[] value, byte[] mask) {
+        return new PofCriterion(fieldName, fieldId, offset, length, value, mask);
+    }
+
+    /**
+     * Creates a pof criterion from a value and mask byte sequence.
+     *
+     * @param fieldId the id of field to match
+     * @param offset the offset of field to match, in bits
+     * @param length the length of field to match, in bits
+     * @param value the value of field to match
+     * @param mask the mask of field to match
+     * @return pof criterion
+     */
+    public static Criterion matchOffsetLength(short fieldId, short offset, short length,
+                                              ImmutableByteSequence value, ImmutableByteSequence mask) {
+        return new PofCriterion(null, fieldId, offset, length, value.asArray(), mask.asArray());
+    }
+
     /**
      * creates pof criterion List.
      * @return pof criterion
@@ -15,6 +15,8 @@
  */
 package org.onosproject.net.flow.criteria;
 
+import org.onlab.util.HexString;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Objects;
@@ -43,13 +45,28 @@ public final class PofCriterion implements Criterion {
      * @param mask  the mask of field to match
      */
     PofCriterion(String filedName, short fieldId, short offset, short length, String value, String mask) {
+        this(filedName, fieldId, offset, length, hexStringToBytes(value), hexStringToBytes(mask));
+    }
+
+    /**
+     * Constructor taking the value and mask in binary form. The arrays are
+     * used as they are, without copying, and must not be modified afterwards.
+     *
+     * @param filedName the name of field to match
+     * @param fieldId the id of field to match
+     * @param offset the offset of field to match
+     * @param length  the length of field to match
+     * @param value the value of field to match
+     * @param mask  the mask of field to match
+     */
+    PofCriterion(String filedName, short fieldId, short offset, short length, byte[] value, byte[] mask) {
         this.list = null;
         this.fieldName = filedName;
         this.fieldId = fieldId;
         this.offset = offset;
         this.length = length;
-        this.value = hexStringToBytes(value);
-        this.mask = hexStringToBytes(mask);
+        this.value = value;
+        this.mask = mask;
     }
 
     /**
@@ -61,13 +78,7 @@ public final class PofCriterion implements Criterion {
      * @param mask  the mask of field to match
      */
     PofCriterion(short fieldId, short offset, short length, String value, String mask) {
-        this.list = null;
-        this.fieldName = null;
-        this.fieldId = fieldId;
-        this.offset = offset;
-        this.length = length;
-        this.value = hexStringToBytes(value);
-        this.mask = hexStringToBytes(mask);
+        this(null, fieldId, offset, length, hexStringToBytes(value), hexStringToBytes(mask));
     }
 
     PofCriterion(ArrayList<Criterion> list) {
@@ -158,20 +169,33 @@ public final class PofCriterion implements Criterion {
                 ";val=" + HexString.toHex(value) +
                 ";mask=" + HexString.toHex(mask);
                 */
-        String str = "";
-        for (int i = 0; i < list.size(); i++) {
-            PofCriterion criterion = (PofCriterion) list.get(i);
-            str += criterion.type().toString() + SEPARATOR + criterion.fieldId()
-                    + SEPARATOR + criterion.offset() + "/" + criterion.length()
-                    + SEPARATOR + criterion.value().toString() + "/" + criterion.mask().toString()
-                    + ";";
+        if (list == null) {
+            return fieldToString(this);
+        }
+        StringBuilder str = new StringBuilder();
+        for (Criterion criterion : list) {
+            str.append(fieldToString((PofCriterion) criterion)).append(';');
+        }
+        return str.toString();
+    }
+
+    private static String fieldToString(PofCriterion criterion) {
+        return criterion.type().toString() + SEPARATOR + criterion.fieldId()
+                + SEPARATOR + criterion.offset() + "/" + criterion.length()
+                + SEPARATOR + toHex(criterion.value()) + "/" + toHex(criterion.mask());
+    }
+
+    private static String toHex(byte[] bytes) {
+        if (bytes == null) {
+            return "null";
         }
-        return str;
+        return bytes.length == 0 ? "" : HexString.toHexString(bytes, "");
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(type.ordinal(), fieldId, offset, length, value, mask);
+        return Objects.hash(type.ordinal(), fieldId, offset, length,
+                            Arrays.hashCode(value), Arrays.hashCode(mask), list);
     }
 
     @Override
@@ -184,8 +208,6 @@ public final class PofCriterion implements Criterion {
             return Objects.equals(fieldId, that.fieldId) &&
                     Objects.equals(offset, that.offset) &&
                     Objects.equals(length, that.length) &&
-                    Objects.equals(value, that.value) &&
-                    Objects.equals(mask, that.mask) &&
                     Arrays.equals(value, that.value) &&
                     Arrays.equals(mask, that.mask) &&
                     Objects.equals(list, that.list) &&
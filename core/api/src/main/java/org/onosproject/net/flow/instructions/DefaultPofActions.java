@@ -15,6 +15,7 @@
  */
 package org.onosproject.net.flow.instructions;
 
+import org.onlab.util.ImmutableByteSequence;
 import org.onosproject.floodlightpof.protocol.OFMatch20;
 import org.onosproject.floodlightpof.protocol.OFMatchX;
 import org.onosproject.floodlightpof.protocol.action.OFAction;
@@ -80,6 +81,22 @@ public final class DefaultPofActions {
         return new PofActionAddField(fieldId, fieldPosition, fieldLength, hexStringToBytes(fieldValue));
     }
 
+    /**
+     * Creates an add field action from a binary field value. The array is
+     * used without copying and must not be modified afterwards.
+     *
+     * @param fieldId the id of the field to add
+     * @param fieldPosition the position of the field, in bits
+     * @param fieldLength the length of the field, in bits
+     * @param fieldValue the value of the field
+     * @return add field action
+     */
+    public static PofAction addField(short fieldId, short fieldPosition, int fieldLength, byte[] fieldValue) {
+        checkNotNull(fieldValue, "fieldValue cannot be null");
+
+        return new PofActionAddField(fieldId, fieldPosition, fieldLength, fieldValue);
+    }
+
     public static PofAction addField(OFActionAddField action) {
         checkNotNull(action, "action cannot be null");
 
@@ -258,13 +275,47 @@ public final class DefaultPofActions {
         checkArgument(mask.length() == fieldLen / 4, "The length of mask must equals to the" +
                 "length of field");
 
-        OFMatchX ofMatchX = new OFMatchX();
-        ofMatchX.setFieldId(fieldId);
-        ofMatchX.setLength((short) fieldLen);
-        ofMatchX.setOffset(fieldOffset);
-        ofMatchX.setValue(hexStringToBytes((value)));
-        ofMatchX.setMask(hexStringToBytes(mask));
-        return new PofActionSetField(ofMatchX);
+        return newSetField(fieldId, fieldOffset, (short) fieldLen, null,
+                           hexStringToBytes(value), hexStringToBytes(mask));
+    }
+
+    /**
+     * Creates a set field action from a binary value and mask. The arrays are
+     * used without copying and must not be modified afterwards.
+     *
+     * @param fieldId the id of the field to set
+     * @param fieldOffset the offset of the field, in bits
+     * @param fieldLen the length of the field, in bits
+     * @param value the value to set
+     * @param mask the mask to apply to the value
+     * @return set field action
+     */
+    public static PofAction setField(short fieldId, short fieldOffset, int fieldLen, byte[] value, byte[] mask) {
+        checkNotNull(value, "value cannot be null");
+        checkNotNull(mask, "mask cannot be null");
+        checkArgument(value.length == bytesOf(fieldLen), "The length of value must equal to the " +
+                "length of field");
+        checkArgument(mask.length == bytesOf(fieldLen), "The length of mask must equal to the " +
+                "length of field");
+
+        return newSetField(fieldId, fieldOffset, (short) fieldLen, null, value, mask);
+    }
+
+    /**
+     * Creates a set field action from a value and mask byte sequence.
+     *
+     * @param fieldId the id of the field to set
+     * @param fieldOffset the offset of the field, in bits
+     * @param fieldLen the length of the field, in bits
+     * @param value the value to set
+     * @param mask the mask to apply to the value
+     * @return set field action
+     */
+    public static PofAction setField(short fieldId, short fieldOffset, int fieldLen,
+                                     ImmutableByteSequence value, ImmutableByteSequence mask) {
+        checkNotNull(value, "value cannot be null");
+        checkNotNull(mask, "mask cannot be null");
+        return setField(fieldId, fieldOffset, fieldLen, value.asArray(), mask.asArray());
     }
 
 
@@ -277,13 +328,44 @@ public final class DefaultPofActions {
                 "length of field");
         checkArgument(mask.length() == field.getLength() / 4, "The length of mask must equals to the " +
                 "length of field");
+        return newSetField(field.getFieldId(), field.getOffset(), field.getLength(), field.getFieldName(),
+                           hexStringToBytes(value), hexStringToBytes(mask));
+    }
+
+    /**
+     * Creates a set field action for the given field from a binary value and
+     * mask. The arrays are used without copying and must not be modified
+     * afterwards.
+     *
+     * @param field the field to set
+     * @param value the value to set
+     * @param mask the mask to apply to the value
+     * @return set field action
+     */
+    public static PofAction setField(OFMatch20 field, byte[] value, byte[] mask) {
+        checkNotNull(field, "fieldSetting cannot be null");
+        checkNotNull(value, "value cannot be null");
+        checkNotNull(mask, "mask cannot be null");
+        checkArgument(value.length == bytesOf(field.getLength()), "The length of value must equal to the " +
+                "length of field");
+        checkArgument(mask.length == bytesOf(field.getLength()), "The length of mask must equal to the " +
+                "length of field");
+
+        return newSetField(field.getFieldId(), field.getOffset(), field.getLength(), field.getFieldName(),
+                           value, mask);
+    }
+
+    private static PofAction newSetField(short fieldId, short fieldOffset, short fieldLen, String fieldName,
+                                         byte[] value, byte[] mask) {
         OFMatchX ofMatchX = new OFMatchX();
-        ofMatchX.setFieldId(field.getFieldId());
-        ofMatchX.setLength(field.getLength());
-        ofMatchX.setOffset(field.getOffset());
-        ofMatchX.setFieldName(field.getFieldName());
-        ofMatchX.setValue(hexStringToBytes(value));
-        ofMatchX.setMask(hexStringToBytes(mask));
+        ofMatchX.setFieldId(fieldId);
+        ofMatchX.setLength(fieldLen);
+        ofMatchX.setOffset(fieldOffset);
+        if (fieldName != null) {
+            ofMatchX.setFieldName(fieldName);
+        }
+        ofMatchX.setValue(value);
+        ofMatchX.setMask(mask);
         return new PofActionSetField(ofMatchX);
     }
 
@@ -927,6 +1009,10 @@ public final class DefaultPofActions {
         }
     }
 
+    private static int bytesOf(int bits) {
+        return (bits + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
     public static byte[] hexStringToBytes(String hexString) {
         if (hexString == null || hexString.equals("")) {
             return null;
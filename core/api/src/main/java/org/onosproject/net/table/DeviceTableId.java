@@ -1,7 +1,10 @@
 package org.onosproject.net.table;
 
+import com.google.common.base.MoreObjects;
 import org.onosproject.net.DeviceId;
 
+import java.util.Objects;
+
 /**
  * TableId of the given DeviceId
  */
@@ -19,4 +22,28 @@ public class DeviceTableId {
         return this.deviceId;
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(deviceId, tableId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof DeviceTableId) {
+            DeviceTableId that = (DeviceTableId) obj;
+            return Objects.equals(deviceId, that.deviceId) && tableId == that.tableId;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(getClass())
+                .add("deviceId", deviceId)
+                .add("tableId", tableId)
+                .toString();
+    }
 }
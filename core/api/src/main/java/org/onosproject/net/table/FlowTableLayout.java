@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.net.table;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import org.onosproject.floodlightpof.protocol.OFMatch20;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiled, immutable view of the match key layout of a POF flow table:
+ * field order, ids, offsets and lengths, metadata field positions and
+ * total key length. It is built once per table so that flow entries can be
+ * validated against the table without walking the table schema each time.
+ */
+public final class FlowTableLayout {
+
+    private final OFTableType tableType;
+    private final List<OFMatch20> fields;
+    private final short[] fieldIds;
+    private final short[] offsets;
+    private final short[] lengths;
+    private final String[] metadataNames;
+    private final int[] metadataPositions;
+    private final int keyLength;
+
+    private FlowTableLayout(OFFlowTable table) {
+        this.tableType = table.getTableType();
+        this.keyLength = table.getKeyLength();
+
+        List<OFMatch20> matchFields = table.getMatchFieldList();
+        this.fields = matchFields == null ? ImmutableList.of() : ImmutableList.copyOf(matchFields);
+
+        int count = fields.size();
+        this.fieldIds = new short[count];
+        this.offsets = new short[count];
+        this.lengths = new short[count];
+        this.metadataNames = new String[count];
+        int metadataCount = 0;
+        for (int i = 0; i < count; i++) {
+            OFMatch20 field = fields.get(i);
+            fieldIds[i] = field.getFieldId();
+            offsets[i] = field.getOffset();
+            lengths[i] = field.getLength();
+            if (field.getFieldId() == OFMatch20.METADATA_FIELD_ID) {
+                metadataNames[i] = field.getFieldName();
+                metadataCount++;
+            }
+        }
+
+        this.metadataPositions = new int[metadataCount];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (fieldIds[i] == OFMatch20.METADATA_FIELD_ID) {
+                metadataPositions[j++] = i;
+            }
+        }
+    }
+
+    /**
+     * Compiles the layout of the given POF flow table.
+     *
+     * @param table POF flow table
+     * @return table layout
+     */
+    public static FlowTableLayout of(OFFlowTable table) {
+        checkNotNull(table, "table cannot be null");
+        return new FlowTableLayout(table);
+    }
+
+    /**
+     * Returns the type of the table.
+     *
+     * @return table type
+     */
+    public OFTableType tableType() {
+        return tableType;
+    }
+
+    /**
+     * Returns the number of match fields of the table.
+     *
+     * @return match field count
+     */
+    public int fieldCount() {
+        return fieldIds.length;
+    }
+
+    /**
+     * Returns the match field at the given position.
+     *
+     * @param index position of the field in the match key
+     * @return match field
+     */
+    public OFMatch20 field(int index) {
+        return fields.get(index);
+    }
+
+    /**
+     * Returns the id of the match field at the given position.
+     *
+     * @param index position of the field in the match key
+     * @return field id
+     */
+    public short fieldId(int index) {
+        return fieldIds[index];
+    }
+
+    /**
+     * Returns the offset of the match field at the given position.
+     *
+     * @param index position of the field in the match key
+     * @return field offset, in bits
+     */
+    public short offset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Returns the length of the match field at the given position.
+     *
+     * @param index position of the field in the match key
+     * @return field length, in bits
+     */
+    public short length(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * Returns whether the match field at the given position is metadata.
+     *
+     * @param index position of the field in the match key
+     * @return true for a metadata field
+     */
+    public boolean isMetadata(int index) {
+        return fieldIds[index] == OFMatch20.METADATA_FIELD_ID;
+    }
+
+    /**
+     * Returns the name of the metadata field at the given position.
+     *
+     * @param index position of the field in the match key
+     * @return metadata field name, or null if the field is not named metadata
+     */
+    public String metadataName(int index) {
+        return metadataNames[index];
+    }
+
+    /**
+     * Returns the number of metadata fields in the match key.
+     *
+     * @return metadata field count
+     */
+    public int metadataFieldCount() {
+        return metadataPositions.length;
+    }
+
+    /**
+     * Returns the position in the match key of the n-th metadata field.
+     *
+     * @param n ordinal of the metadata field
+     * @return position of the field in the match key
+     */
+    public int metadataPosition(int n) {
+        return metadataPositions[n];
+    }
+
+    /**
+     * Returns the total length of the match key as declared by the table.
+     *
+     * @return key length, in bits
+     */
+    public int keyLength() {
+        return keyLength;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(getClass())
+                .add("tableType", tableType)
+                .add("fieldCount", fieldCount())
+                .add("metadataFieldCount", metadataFieldCount())
+                .add("keyLength", keyLength)
+                .toString();
+    }
+}
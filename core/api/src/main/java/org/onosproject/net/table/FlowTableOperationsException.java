@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.net.table;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * Signals that some flow table operations were not applied to their
+ * devices, either because the devices rejected them or because an earlier
+ * stage failed on the same device.
+ */
+public class FlowTableOperationsException extends RuntimeException {
+
+    private static final long serialVersionUID = -3529870262180938217L;
+
+    private final transient Set<FlowTable> failedTables;
+
+    /**
+     * Constructs an exception for the given tables.
+     *
+     * @param failedTables the tables whose operations were not applied
+     */
+    public FlowTableOperationsException(Set<? extends FlowTable> failedTables) {
+        super("Failed to apply flow tables " + failedTables);
+        this.failedTables = ImmutableSet.copyOf(failedTables);
+    }
+
+    /**
+     * Returns the tables whose operations were not applied.
+     *
+     * @return failed tables
+     */
+    public Set<FlowTable> failedTables() {
+        return failedTables;
+    }
+}
@@ -18,8 +18,12 @@ package org.onosproject.net.table;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.event.ListenerService;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
 import org.onosproject.net.DeviceId;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Service for injecting flow tables into the environment and for obtaining
  * information about flow tables already in the environment. This implements
@@ -126,10 +130,70 @@ public interface FlowTableService
      */
     FlowTable getFlowTablesByTableId(DeviceId deviceId, FlowTableId tableId);
 
+    /**
+     * Allocates global table ids for a number of new flow tables of the given
+     * type. All ids are obtained in a single round trip to the device master.
+     *
+     * @param deviceId the device id
+     * @param tableType the flow table type
+     * @param count number of table ids to allocate
+     * @return future completed with the allocated global table ids
+     */
+    CompletableFuture<List<Integer>> allocateGlobalFlowTableIds(DeviceId deviceId, OFTableType tableType,
+                                                                int count);
+
+    /**
+     * Creates a number of flow tables on a device as a single batch. The
+     * global table ids of all tables are allocated with one request per
+     * table type, and all tables are then written to the device at once and
+     * confirmed together. If the device runs out of tables of some type, or
+     * an allocation fails, no table is created and the ids allocated are
+     * given back.
+     * <p>
+     * This is meant for applications setting up a pipeline of several
+     * tables, and is how the tables posted to the REST API are created.
+     * </p>
+     *
+     * @param deviceId the device id
+     * @param ofTables the tables to create; their table ids are assigned here
+     * @param appId the application id
+     * @return future completed with the created tables, in the order given,
+     * or completed exceptionally if the device ran out of tables or failed
+     * to create some of them
+     */
+    CompletableFuture<List<FlowTable>> createFlowTables(DeviceId deviceId, List<OFFlowTable> ofTables,
+                                                        ApplicationId appId);
+
+    /**
+     * Allocates entry ids for a number of new flow entries of a flow table.
+     * All ids are obtained in a single round trip to the device master.
+     *
+     * @param deviceId the device id
+     * @param globalTableId the global table id of the flow table
+     * @param count number of entry ids to allocate
+     * @return future completed with the allocated entry ids
+     */
+    CompletableFuture<List<Integer>> allocateFlowEntryIds(DeviceId deviceId, int globalTableId, int count);
+
     /**
      * Applies a batch operation of FlowTables.
      *
      *   batch operation to apply
      */
     void apply(FlowTableOperations ops);
+
+    /**
+     * Applies a batch operation of FlowTables and reports the outcome of
+     * each stage. Stages are ordered per device only: the batch of a stage
+     * for a device is sent once the previous stage on that device is done,
+     * while other devices may already be further along. A failure on a
+     * device skips the later stages on that device. The callback of the
+     * operations, if any, is invoked once all stages are done.
+     *
+     * @param ops batch operation to apply
+     * @return one future per stage, completed once the stage is applied on
+     * all of its devices, or completed exceptionally with a
+     * {@link FlowTableOperationsException} holding the tables not applied
+     */
+    List<CompletableFuture<Void>> applyAsync(FlowTableOperations ops);
 }
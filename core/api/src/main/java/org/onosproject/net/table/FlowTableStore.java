@@ -15,6 +15,7 @@
  */
 package org.onosproject.net.table;
 
+import org.onosproject.core.ApplicationId;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
 import org.onosproject.floodlightpof.protocol.table.OFTableType;
 import org.onosproject.net.DeviceId;
@@ -24,8 +25,11 @@ import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.FlowRule;
 import org.onosproject.store.Store;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Manages inventory of flow tables; not intended for direct use.
@@ -56,6 +60,19 @@ public interface FlowTableStore extends Store<FlowTableBatchEvent, FlowTableStor
      */
     FlowTable getFlowTableInternal(DeviceId deviceId, FlowTableId flowTableId);
 
+    /**
+     * Returns the compiled match layout of the stored flow table associated
+     * with a device and table id.
+     *
+     * @param deviceId the device id
+     * @param flowTableId the table id
+     * @return the table layout, or null if there is no such table
+     */
+    default FlowTableLayout getFlowTableLayout(DeviceId deviceId, FlowTableId flowTableId) {
+        FlowTable table = getFlowTableInternal(deviceId, flowTableId);
+        return table == null ? null : FlowTableLayout.of(table.flowTable());
+    }
+
     /**
      * Returns the flow tables associated with a device.
      *
@@ -63,6 +80,14 @@ public interface FlowTableStore extends Store<FlowTableBatchEvent, FlowTableStor
      * @return the flow tables
      */
     Iterable<FlowTable> getFlowTables(DeviceId deviceId);
+
+    /**
+     * Returns the flow tables of an application, across all devices.
+     *
+     * @param appId the application id
+     * @return the flow tables
+     */
+    Iterable<FlowTable> getFlowTablesByAppId(ApplicationId appId);
 //    /**
 //     * Returns the flow tables associated with a device.
 //     *
@@ -180,6 +205,69 @@ public interface FlowTableStore extends Store<FlowTableBatchEvent, FlowTableStor
      */
     int getNewFlowEntryId(DeviceId deviceId, int tableId);
 
+    /**
+     * Allocates a number of global table ids of the given type with a single
+     * request to the device master.
+     *
+     * @param deviceId the device id
+     * @param type the flow table type
+     * @param count number of table ids to allocate
+     * @return future completed with the allocated table ids; it holds fewer
+     * ids than requested if the device ran out of tables of that type
+     */
+    default CompletableFuture<List<Integer>> getNewGlobalFlowTableIds(DeviceId deviceId, OFTableType type,
+                                                                      int count) {
+        List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = getNewGlobalFlowTableId(deviceId, type);
+            if (id < 0) {
+                break;
+            }
+            ids.add(id);
+        }
+        return CompletableFuture.completedFuture(ids);
+    }
+
+    /**
+     * Gives back global table ids that were allocated but not used for a
+     * table, so that they can be allocated again.
+     *
+     * @param deviceId the device id
+     * @param type the flow table type
+     * @param tableIds the global table ids to give back
+     */
+    default void addFreeFlowTableIds(DeviceId deviceId, OFTableType type, List<Integer> tableIds) {
+        Map<OFTableType, List<Byte>> freeIds = getFreeFlowTableIDListMap(deviceId);
+        List<Byte> free = freeIds == null ? null : freeIds.get(type);
+        if (free == null) {
+            return;
+        }
+        tableIds.forEach(id -> free.add((byte) id.intValue()));
+        Collections.sort(free);
+    }
+
+    /**
+     * Allocates a number of flow entry ids in the specified flow table with
+     * a single request to the device master.
+     *
+     * @param deviceId the device id
+     * @param tableId the table id
+     * @param count number of entry ids to allocate
+     * @return future completed with the allocated entry ids; it holds fewer
+     * ids than requested if the table ran out of entry ids
+     */
+    default CompletableFuture<List<Integer>> getNewFlowEntryIds(DeviceId deviceId, int tableId, int count) {
+        List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = getNewFlowEntryId(deviceId, tableId);
+            if (id < 0) {
+                break;
+            }
+            ids.add(id);
+        }
+        return CompletableFuture.completedFuture(ids);
+    }
+
     Map<OFTableType, Byte> getFlowTableNoMap(DeviceId deviceId);
 
     Map<OFTableType, List<Byte>> getFreeFlowTableIDListMap(DeviceId deviceId);
@@ -188,4 +188,27 @@ public class DefaultFlowRuleTest {
 
         new EqualsTester().addEqualityGroup(rule1.id(), rule2.id()).testEquals();
     }
+
+    /**
+     * Tests that the group id set on the builder is encoded in the flow ID,
+     * next to the application id, whatever its upper bits.
+     */
+    @Test
+    public void testCreationWithGroupId() {
+        final FlowRule rule =
+                DefaultFlowRule.builder()
+                        .forDevice(did("1"))
+                        .withSelector(SELECTOR)
+                        .withTreatment(TREATMENT)
+                        .withPriority(22)
+                        .fromApp(APP_ID)
+                        .withGroupId(new GroupId((short) 0x8001))
+                        .makePermanent()
+                        .build();
+
+        assertThat(rule.appId(), is(APP_ID.id()));
+        assertThat(rule.groupId(), is(new GroupId(0x8001)));
+        assertThat(rule.id().value() >>> 48, is((long) APP_ID.id()));
+        assertThat((rule.id().value() >>> 32) & 0xffff, is(0x8001L));
+    }
 }
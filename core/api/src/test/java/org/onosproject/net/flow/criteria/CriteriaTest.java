@@ -33,6 +33,7 @@ import org.onlab.packet.MacAddress;
 import org.onlab.packet.MplsLabel;
 import org.onlab.packet.TpPort;
 import org.onlab.packet.VlanId;
+import org.onlab.util.ImmutableByteSequence;
 import org.onosproject.net.ChannelSpacing;
 import org.onosproject.net.GridType;
 import org.onosproject.net.Lambda;
@@ -1239,4 +1240,43 @@ public class CriteriaTest {
                 .addEqualityGroup(matchPbbIsid2)
                 .testEquals();
     }
+
+    // PofCriterion class
+
+    /**
+     * Test the binary matchOffsetLength method.
+     */
+    @Test
+    public void testMatchOffsetLengthBinaryMethod() {
+        byte[] value = {(byte) 0x0a, (byte) 0xff};
+        byte[] mask = {(byte) 0xff, (byte) 0xff};
+        Criterion matchPof = Criteria.matchOffsetLength((short) 1, (short) 96, (short) 16, value, mask);
+        PofCriterion pofCriterion =
+                checkAndConvert(matchPof,
+                        Criterion.Type.POF,
+                        PofCriterion.class);
+        assertThat(pofCriterion.fieldId(), is((short) 1));
+        assertThat(pofCriterion.offset(), is((short) 96));
+        assertThat(pofCriterion.length(), is((short) 16));
+        assertThat(pofCriterion.value(), is(value));
+        assertThat(pofCriterion.mask(), is(mask));
+    }
+
+    /**
+     * Test the equals() method of the PofCriterion class across the hex
+     * string and binary representations.
+     */
+    @Test
+    public void testPofCriterionEquals() {
+        Criterion fromHex = Criteria.matchOffsetLength((short) 1, (short) 96, (short) 16, "0aff", "ffff");
+        Criterion fromBytes = Criteria.matchOffsetLength((short) 1, (short) 96, (short) 16,
+                new byte[] {(byte) 0x0a, (byte) 0xff}, new byte[] {(byte) 0xff, (byte) 0xff});
+        Criterion fromSequence = Criteria.matchOffsetLength((short) 1, (short) 96, (short) 16,
+                ImmutableByteSequence.copyFrom((short) 0x0aff), ImmutableByteSequence.ofOnes(2));
+        Criterion other = Criteria.matchOffsetLength((short) 1, (short) 96, (short) 16, "0a00", "ffff");
+        new EqualsTester()
+                .addEqualityGroup(fromHex, fromBytes, fromSequence)
+                .addEqualityGroup(other)
+                .testEquals();
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.net.table;
+
+import org.junit.Test;
+import org.onosproject.floodlightpof.protocol.OFMatch20;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+
+import java.util.ArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.onlab.junit.ImmutableClassChecker.assertThatClassIsImmutable;
+
+/**
+ * Unit tests for the compiled flow table layout.
+ */
+public class FlowTableLayoutTest {
+
+    private static OFMatch20 match20(short fieldId, String name, short offset, short length) {
+        OFMatch20 ofMatch20 = new OFMatch20();
+        ofMatch20.setFieldId(fieldId);
+        ofMatch20.setFieldName(name);
+        ofMatch20.setOffset(offset);
+        ofMatch20.setLength(length);
+        return ofMatch20;
+    }
+
+    private static OFFlowTable ofFlowTable() {
+        ArrayList<OFMatch20> match20List = new ArrayList<>();
+        match20List.add(match20((short) 1, "dmac", (short) 0, (short) 48));
+        match20List.add(match20((short) OFMatch20.METADATA_FIELD_ID, "inport", (short) 32, (short) 16));
+        match20List.add(match20((short) 2, "type", (short) 96, (short) 16));
+
+        OFFlowTable ofFlowTable = new OFFlowTable();
+        ofFlowTable.setTableId((byte) 1);
+        ofFlowTable.setTableName("FirstEntryTable");
+        ofFlowTable.setTableSize(128);
+        ofFlowTable.setTableType(OFTableType.OF_MM_TABLE);
+        ofFlowTable.setMatchFieldList(match20List);
+        return ofFlowTable;
+    }
+
+    /**
+     * Checks that the FlowTableLayout class is immutable.
+     */
+    @Test
+    public void testImmutability() {
+        assertThatClassIsImmutable(FlowTableLayout.class);
+    }
+
+    /**
+     * Tests that the layout reflects the fields of the table in order.
+     */
+    @Test
+    public void testLayout() {
+        OFFlowTable table = ofFlowTable();
+        FlowTableLayout layout = FlowTableLayout.of(table);
+
+        assertThat(layout.tableType(), is(OFTableType.OF_MM_TABLE));
+        assertThat(layout.fieldCount(), is(3));
+        assertThat(layout.keyLength(), is((int) table.getKeyLength()));
+
+        assertThat(layout.fieldId(0), is((short) 1));
+        assertThat(layout.offset(2), is((short) 96));
+        assertThat(layout.length(0), is((short) 48));
+        assertThat(layout.field(2).getFieldName(), is("type"));
+
+        assertThat(layout.isMetadata(0), is(false));
+        assertThat(layout.isMetadata(1), is(true));
+        assertThat(layout.metadataName(1), is("inport"));
+        assertThat(layout.metadataFieldCount(), is(1));
+        assertThat(layout.metadataPosition(0), is(1));
+    }
+
+    /**
+     * Tests that later changes to the table do not leak into the layout.
+     */
+    @Test
+    public void testLayoutIsDetached() {
+        OFFlowTable table = ofFlowTable();
+        FlowTableLayout layout = FlowTableLayout.of(table);
+
+        table.getMatchFieldList().add(match20((short) 3, "extra", (short) 112, (short) 8));
+        assertThat(layout.fieldCount(), is(3));
+    }
+}
@@ -47,6 +47,7 @@ public final class FlowTableCodec extends JsonCodec<FlowTable> {
     protected static final String OFFSET = "offset";
     protected static final String LENGTH = "length";
     private static final String DEVICE_ID = "deviceId";
+    private static final String TABLE_ID = "tableId";
     private static final String SELECTOR = "selector";
     private static final String CRITERIA = "criteria";
     private static final String MISSING_MEMBER_MESSAGE =
@@ -77,8 +78,10 @@ public final class FlowTableCodec extends JsonCodec<FlowTable> {
         FlowTableTypeCodec tableTypeCodec = new FlowTableTypeCodec(json
                 .get(TABLE_TYPE).asText());
         OFTableType tableType = tableTypeCodec.getFlowTbleType();
-        byte tableId = (byte) tableStore.getTableStore()
-                .getNewGlobalFlowTableId(deviceId, tableType);
+        // a table id given along is used as is, otherwise one is allocated
+        JsonNode tableIdJson = json.get(TABLE_ID);
+        byte tableId = tableIdJson != null ? (byte) tableIdJson.asInt() :
+                (byte) tableStore.getTableStore().getNewGlobalFlowTableId(deviceId, tableType);
 
         ObjectNode selectorJson = get(json, SELECTOR);
         JsonNode criteriaJson = selectorJson.get(CRITERIA);
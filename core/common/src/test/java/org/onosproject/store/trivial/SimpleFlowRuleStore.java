@@ -31,6 +31,7 @@ import org.apache.felix.scr.annotations.Modified;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Service;
 import org.onlab.util.Tools;
+import org.onosproject.core.ApplicationId;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.flow.CompletedBatchOperation;
 import org.onosproject.net.flow.DefaultFlowEntry;
@@ -207,6 +208,18 @@ public class SimpleFlowRuleStore
                 .transformAndConcat(Collections::unmodifiableList);
     }
 
+    @Override
+    public Iterable<FlowEntry> getFlowEntries(ApplicationId appId) {
+        return FluentIterable.from(flowEntries.keySet())
+                .transformAndConcat(deviceId -> getFlowEntries(deviceId, appId));
+    }
+
+    @Override
+    public Iterable<FlowEntry> getFlowEntries(ApplicationId appId, short groupId) {
+        return FluentIterable.from(flowEntries.keySet())
+                .transformAndConcat(deviceId -> getFlowEntries(deviceId, appId, groupId));
+    }
+
     @Override
     public void storeFlowRule(FlowRule rule) {
         storeFlowRuleInternal(rule);
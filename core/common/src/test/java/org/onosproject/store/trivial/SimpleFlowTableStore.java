@@ -30,6 +30,7 @@ import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Service;
 import org.onlab.util.NewConcurrentHashMap;
 import org.onosproject.cluster.NodeId;
+import org.onosproject.core.ApplicationId;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
 import org.onosproject.floodlightpof.protocol.table.OFTableResource;
 import org.onosproject.floodlightpof.protocol.table.OFTableType;
@@ -136,7 +137,6 @@ public class SimpleFlowTableStore
             deviceTableStats = new ConcurrentHashMap<>();
 
 
-    private final AtomicInteger localBatchIdGen = new AtomicInteger();
     private int pendingFutureTimeoutMinutes = 5;
 
     private Cache<Integer, SettableFuture<CompletedTableBatchOperation>> pendingFutures =
@@ -543,6 +543,16 @@ public class SimpleFlowTableStore
                 .transformAndConcat(Collections::unmodifiableList);
     }
 
+    @Override
+    public Iterable<FlowTable> getFlowTablesByAppId(ApplicationId appId) {
+        return FluentIterable.from(flowTables.values())
+                .transformAndConcat(ConcurrentMap::values)
+                .transformAndConcat(Collections::unmodifiableList)
+                .filter(table -> table.appId() == appId.id())
+                .transform(FlowTable.class::cast)
+                .toSet();
+    }
+
 
 
     @Override
@@ -603,9 +613,10 @@ public class SimpleFlowTableStore
         }
 
         SettableFuture<CompletedTableBatchOperation> r = SettableFuture.create();
-        final int batchId = localBatchIdGen.incrementAndGet();
+        // the batch keeps the id given by the manager, as in the distributed store
+        final long batchId = operation.id();
 
-        pendingFutures.put(batchId, r);
+        pendingFutures.put((int) batchId, r);
 
         toAdd.addAll(toRemove);
         notifyDelegate(FlowTableBatchEvent.requested(
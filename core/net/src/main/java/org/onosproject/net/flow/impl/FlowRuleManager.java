@@ -16,6 +16,7 @@
 package org.onosproject.net.flow.impl;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -29,13 +30,15 @@ import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.Service;
+import org.onlab.util.AbstractAccumulator;
 import org.onlab.util.Tools;
 import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.core.IdGenerator;
+import org.onosproject.mastership.MastershipEvent;
+import org.onosproject.mastership.MastershipListener;
 import org.onosproject.mastership.MastershipService;
-import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.device.DeviceEvent;
 import org.onosproject.net.device.DeviceListener;
@@ -66,16 +69,22 @@ import org.onosproject.net.provider.ProviderId;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -118,8 +127,32 @@ public class FlowRuleManager
             label = "Frequency (in seconds) for polling flow statistics via fallback provider")
     private int fallbackFlowPollFrequency = DEFAULT_POLL_FREQUENCY;
 
+    private static final boolean DEFAULT_COALESCE_OPERATIONS = false;
+    @Property(name = "coalesceOperations", boolValue = DEFAULT_COALESCE_OPERATIONS,
+            label = "Merge the flow rule operations submitted for a device within a window into one batch")
+    private boolean coalesceOperations = DEFAULT_COALESCE_OPERATIONS;
+
+    private static final int DEFAULT_COALESCE_WINDOW_MILLIS = 5;
+    @Property(name = "coalesceWindowMillis", intValue = DEFAULT_COALESCE_WINDOW_MILLIS,
+            label = "Window (in milliseconds) within which the flow rule operations of a device are merged")
+    private int coalesceWindowMillis = DEFAULT_COALESCE_WINDOW_MILLIS;
+
+    private static final int DEFAULT_COALESCE_MAX_BATCH_SIZE = 500;
+    @Property(name = "coalesceMaxBatchSize", intValue = DEFAULT_COALESCE_MAX_BATCH_SIZE,
+            label = "Maximum number of flow rules in a merged batch")
+    private int coalesceMaxBatchSize = DEFAULT_COALESCE_MAX_BATCH_SIZE;
+
+    private static final int DEFAULT_COALESCE_BATCH_TIMEOUT_MILLIS = 10000;
+    @Property(name = "coalesceBatchTimeoutMillis", intValue = DEFAULT_COALESCE_BATCH_TIMEOUT_MILLIS,
+            label = "Time (in milliseconds) after which a merged batch not completed is failed, " +
+                    "and the next batch of the device is sent")
+    private int coalesceBatchTimeoutMillis = DEFAULT_COALESCE_BATCH_TIMEOUT_MILLIS;
+
+    private Timer timer;
+
     private final FlowRuleStoreDelegate delegate = new InternalStoreDelegate();
     private final DeviceListener deviceListener = new InternalDeviceListener();
+    private final MastershipListener mastershipListener = new InternalMastershipListener();
 
     private final FlowRuleDriverProvider driverProvider = new FlowRuleDriverProvider();
 
@@ -129,10 +162,28 @@ public class FlowRuleManager
     protected ExecutorService operationsService =
             Executors.newFixedThreadPool(32, groupedThreads("onos/flowservice", "operations-%d", log));
 
+    protected ExecutorService statsReconcilers =
+            Executors.newFixedThreadPool(8, groupedThreads("onos/flowservice", "stats-reconciler-%d", log));
+
+    // latest flow statistics of each device waiting for or under reconciliation
+    private final Map<DeviceId, FlowMetrics> pendingMetrics = Maps.newConcurrentMap();
+    // devices whose stored entries were last found in sync with their statistics
+    private final Map<DeviceId, ReconciledDevice> reconciledDevices = Maps.newConcurrentMap();
+    // count of the changes made to the stored entries of each device other than by reconciliation
+    private final Map<DeviceId, Long> storeChanges = Maps.newConcurrentMap();
+
     private IdGenerator idGenerator;
 
     private final Map<Long, FlowOperationsProcessor> pendingFlowOperations = new ConcurrentHashMap<>();
 
+    // accumulators of the stages submitted for each device, and the stages merged in each batch
+    private final Map<DeviceId, DeviceBatchAccumulator> accumulators = new ConcurrentHashMap<>();
+    private final Map<Long, List<PendingBatch>> pendingMergedBatches = new ConcurrentHashMap<>();
+    // merged batches of each device, kept across accumulators so that they are sent one at a time
+    private final Map<DeviceId, DeviceBatchQueue> batchQueues = new ConcurrentHashMap<>();
+    // queue of each merged batch sent to the store, to send the next batch of the device once completed
+    private final Map<Long, DeviceBatchQueue> sentMergedBatches = new ConcurrentHashMap<>();
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected FlowRuleStore store;
 
@@ -150,10 +201,12 @@ public class FlowRuleManager
 
     @Activate
     public void activate(ComponentContext context) {
+        timer = new Timer("onos-flow-op-batching");
         modified(context);
         store.setDelegate(delegate);
         eventDispatcher.addSink(FlowRuleEvent.class, listenerRegistry);
         deviceService.addListener(deviceListener);
+        mastershipService.addListener(mastershipListener);
         cfgService.registerProperties(getClass());
         idGenerator = coreService.getIdGenerator(FLOW_OP_TOPIC);
         log.info("Started");
@@ -162,9 +215,12 @@ public class FlowRuleManager
     @Deactivate
     public void deactivate() {
         deviceService.removeListener(deviceListener);
+        mastershipService.removeListener(mastershipListener);
         cfgService.unregisterProperties(getClass(), false);
         deviceInstallers.shutdownNow();
         operationsService.shutdownNow();
+        statsReconcilers.shutdownNow();
+        timer.cancel();
         store.unsetDelegate(delegate);
         eventDispatcher.removeSink(FlowRuleEvent.class);
         log.info("Stopped");
@@ -219,6 +275,42 @@ public class FlowRuleManager
         } catch (NumberFormatException e) {
             fallbackFlowPollFrequency = DEFAULT_POLL_FREQUENCY;
         }
+
+        flag = Tools.isPropertyEnabled(properties, "coalesceOperations");
+        if (flag != null) {
+            coalesceOperations = flag;
+        }
+
+        int newWindowMillis;
+        int newMaxBatchSize;
+        int newTimeoutMillis;
+        try {
+            s = get(properties, "coalesceWindowMillis");
+            newWindowMillis = isNullOrEmpty(s) ? coalesceWindowMillis : Integer.parseInt(s.trim());
+            s = get(properties, "coalesceMaxBatchSize");
+            newMaxBatchSize = isNullOrEmpty(s) ? coalesceMaxBatchSize : Integer.parseInt(s.trim());
+            s = get(properties, "coalesceBatchTimeoutMillis");
+            newTimeoutMillis = isNullOrEmpty(s) ? coalesceBatchTimeoutMillis : Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Malformed configuration detected; using defaults", e);
+            newWindowMillis = DEFAULT_COALESCE_WINDOW_MILLIS;
+            newMaxBatchSize = DEFAULT_COALESCE_MAX_BATCH_SIZE;
+            newTimeoutMillis = DEFAULT_COALESCE_BATCH_TIMEOUT_MILLIS;
+        }
+        if (newWindowMillis > 0 && newMaxBatchSize > 1 &&
+                (newWindowMillis != coalesceWindowMillis || newMaxBatchSize != coalesceMaxBatchSize)) {
+            coalesceWindowMillis = newWindowMillis;
+            coalesceMaxBatchSize = newMaxBatchSize;
+            // the replaced accumulators still flush their pending stages, into the same device queues
+            accumulators.clear();
+        }
+        if (newTimeoutMillis > 0) {
+            coalesceBatchTimeoutMillis = newTimeoutMillis;
+        }
+        log.info("Configured. CoalesceOperations is {} with coalesceWindowMillis = {}, coalesceMaxBatchSize = {}, " +
+                         "coalesceBatchTimeoutMillis = {}",
+                 coalesceOperations ? "enabled" : "disabled", coalesceWindowMillis, coalesceMaxBatchSize,
+                 coalesceBatchTimeoutMillis);
     }
 
     @Override
@@ -247,6 +339,7 @@ public class FlowRuleManager
     @Override
     public void purgeFlowRules(DeviceId deviceId) {
         checkPermission(FLOWRULE_WRITE);
+        storeChanged(deviceId);
         store.purgeFlowRule(deviceId);
     }
 
@@ -271,47 +364,25 @@ public class FlowRuleManager
     @Override
     public Iterable<FlowRule> getFlowRulesById(ApplicationId id) {
         checkPermission(FLOWRULE_READ);
-
-        Set<FlowRule> flowEntries = Sets.newHashSet();
-        for (Device d : deviceService.getDevices()) {
-            for (FlowEntry flowEntry : store.getFlowEntries(d.id())) {
-                if (flowEntry.appId() == id.id()) {
-                    flowEntries.add(flowEntry);
-                }
-            }
-        }
-        return flowEntries;
+        return Sets.newHashSet(store.getFlowEntries(id));
     }
 
     @Override
     public Iterable<FlowEntry> getFlowEntriesById(ApplicationId id) {
         checkPermission(FLOWRULE_READ);
+        return Sets.newHashSet(store.getFlowEntries(id));
+    }
 
-        Set<FlowEntry> flowEntries = Sets.newHashSet();
-        for (Device d : deviceService.getDevices()) {
-            for (FlowEntry flowEntry : store.getFlowEntries(d.id())) {
-                if (flowEntry.appId() == id.id()) {
-                    flowEntries.add(flowEntry);
-                }
-            }
-        }
-        return flowEntries;
+    @Override
+    public Iterable<FlowEntry> getFlowEntriesById(DeviceId deviceId, ApplicationId id) {
+        checkPermission(FLOWRULE_READ);
+        return store.getFlowEntries(deviceId, id);
     }
 
     @Override
     public Iterable<FlowRule> getFlowRulesByGroupId(ApplicationId appId, short groupId) {
         checkPermission(FLOWRULE_READ);
-
-        Set<FlowRule> matches = Sets.newHashSet();
-        long toLookUp = ((long) appId.id() << 16) | groupId;
-        for (Device d : deviceService.getDevices()) {
-            for (FlowEntry flowEntry : store.getFlowEntries(d.id())) {
-                if ((flowEntry.id().value() >>> 32) == toLookUp) {
-                    matches.add(flowEntry);
-                }
-            }
-        }
-        return matches;
+        return Sets.newHashSet(store.getFlowEntries(appId, groupId));
     }
 
     @Override
@@ -364,6 +435,7 @@ public class FlowRuleManager
             checkValidity();
             lastSeen.remove(flowEntry);
             firstSeen.remove(flowEntry);
+            storeChanged(flowEntry.deviceId());
             FlowEntry stored = store.getFlowEntry(flowEntry);
             if (stored == null) {
                 log.debug("Rule already evicted from store: {}", flowEntry);
@@ -436,25 +508,15 @@ public class FlowRuleManager
             log.debug("Flow {} is on switch but not in store.", flowRule);
         }
 
-        private void flowAdded(FlowEntry flowEntry) {
-            checkNotNull(flowEntry, FLOW_RULE_NULL);
-            checkValidity();
-
-            if (checkRuleLiveness(flowEntry, store.getFlowEntry(flowEntry))) {
-                FlowRuleEvent event = store.addOrUpdateFlowRule(flowEntry);
-                if (event == null) {
-                    log.debug("No flow store event generated.");
-                } else {
-                    log.trace("Flow {} {}", flowEntry, event.type());
-                    post(event);
-                }
-            } else {
-                log.debug("Removing flow rules....");
-                removeFlowRules(flowEntry);
-            }
+        private boolean checkRuleLiveness(FlowEntry swRule, FlowEntry storedRule) {
+            return storedRule != null && checkRuleLiveness(swRule, storedRule, storedRule.packets());
         }
 
-        private boolean checkRuleLiveness(FlowEntry swRule, FlowEntry storedRule) {
+        /**
+         * Checks the liveness of a stored entry against the statistics of the
+         * device, given the packet count it was last updated with.
+         */
+        private boolean checkRuleLiveness(FlowEntry swRule, FlowEntry storedRule, long storedPackets) {
             if (storedRule == null) {
                 return false;
             }
@@ -479,7 +541,7 @@ public class FlowRuleManager
                 }
             }
 
-            if (storedRule.packets() != swRule.packets()) {
+            if (storedPackets != swRule.packets()) {
                 lastSeen.put(storedRule, currentTime);
                 return true;
             }
@@ -507,35 +569,99 @@ public class FlowRuleManager
 
         private void pushFlowMetricsInternal(DeviceId deviceId, Iterable<FlowEntry> flowEntries,
                                              boolean useMissingFlow) {
+            // only the latest statistics of a device are worth reconciling; the
+            // statistics stay pending until reconciled, so a single task runs per device
+            if (pendingMetrics.put(deviceId, new FlowMetrics(flowEntries, useMissingFlow)) == null) {
+                statsReconcilers.execute(() -> reconcile(deviceId));
+            }
+        }
+
+        private void reconcile(DeviceId deviceId) {
+            FlowMetrics metrics = pendingMetrics.get(deviceId);
+            while (metrics != null) {
+                try {
+                    reconcile(deviceId, metrics);
+                } catch (RuntimeException e) {
+                    // the next statistics pushed schedule a new task
+                    pendingMetrics.remove(deviceId);
+                    throw e;
+                }
+                // done unless newer statistics came in meanwhile
+                if (pendingMetrics.remove(deviceId, metrics)) {
+                    return;
+                }
+                metrics = pendingMetrics.get(deviceId);
+            }
+        }
+
+        private void reconcile(DeviceId deviceId, FlowMetrics metrics) {
+            checkValidity();
+
+            // read before the store, changes made meanwhile invalidate the outcome
+            long changes = storeChanges.getOrDefault(deviceId, 0L);
+            long hash = identityHash(metrics.flowEntries);
+            ReconciledDevice reconciled = reconciledDevices.get(deviceId);
+            if (reconciled != null && reconciled.hash == hash && reconciled.changes == changes &&
+                    refresh(deviceId, metrics, reconciled)) {
+                return;
+            }
+
             Map<FlowEntry, FlowEntry> storedRules = Maps.newHashMap();
             store.getFlowEntries(deviceId).forEach(f -> storedRules.put(f, f));
 
-            for (FlowEntry rule : flowEntries) {
+            // in sync once every entry is installed and the device holds nothing else
+            boolean inSync = true;
+            Map<FlowEntry, FlowEntry> temporaryRules = Maps.newHashMap();
+            Map<FlowEntry, Long> packets = Maps.newHashMap();
+            List<FlowEntry> updates = Lists.newArrayList();
+            for (FlowEntry rule : metrics.flowEntries) {
                 try {
                     FlowEntry storedRule = storedRules.remove(rule);
                     if (storedRule != null) {
                         if (storedRule.exactMatch(rule)) {
                             // we both have the rule, let's update some info then.
-                            flowAdded(rule);
+                            if (checkRuleLiveness(rule, storedRule)) {
+                                updates.add(rule);
+                                inSync &= storedRule.state() == FlowEntry.FlowEntryState.ADDED;
+                                if (!storedRule.isPermanent()) {
+                                    temporaryRules.put(storedRule, storedRule);
+                                    packets.put(storedRule, rule.packets());
+                                }
+                            } else {
+                                log.debug("Removing flow rules....");
+                                removeFlowRules(rule);
+                                inSync = false;
+                            }
                         } else {
                             // the two rules are not an exact match - remove the
                             // switch's rule and install our rule
                             extraneousFlow(rule);
                             flowMissing(storedRule);
+                            inSync = false;
                         }
                     } else {
-                        // the device has a rule the store does not have
+                        // the device has a rule the store does not have; an allowed
+                        // one is left alone, but must not be updated in the store
                         if (!allowExtraneousRules) {
                             extraneousFlow(rule);
                         }
+                        inSync = false;
                     }
                 } catch (Exception e) {
                     log.warn("Can't process added or extra rule {}", e);
+                    inSync = false;
                 }
             }
 
+            try {
+                postUpdates(deviceId, updates);
+            } catch (Exception e) {
+                log.warn("Can't update flow rules of {}", deviceId, e);
+                inSync = false;
+            }
+
             // DO NOT reinstall
-            if (useMissingFlow) {
+            if (metrics.useMissingFlow) {
                 for (FlowEntry rule : storedRules.keySet()) {
                     try {
                         // there are rules in the store that aren't on the switch
@@ -546,6 +672,52 @@ public class FlowRuleManager
                     }
                 }
             }
+            inSync &= storedRules.isEmpty();
+
+            if (inSync) {
+                reconciledDevices.put(deviceId, new ReconciledDevice(hash, changes, temporaryRules, packets));
+            } else {
+                reconciledDevices.remove(deviceId);
+            }
+        }
+
+        /**
+         * Updates the counters and life of the entries of a device found in
+         * sync with the same entries, without reading them from the store.
+         *
+         * @return false if a temporary entry expired, and the device needs
+         * to be reconciled in full
+         */
+        private boolean refresh(DeviceId deviceId, FlowMetrics metrics, ReconciledDevice reconciled) {
+            Map<FlowEntry, Long> packets = Maps.newHashMap();
+            for (FlowEntry rule : metrics.flowEntries) {
+                FlowEntry storedRule = reconciled.temporaryRules.get(rule);
+                if (storedRule != null) {
+                    if (!checkRuleLiveness(rule, storedRule, reconciled.packets.get(storedRule))) {
+                        return false;
+                    }
+                    packets.put(storedRule, rule.packets());
+                }
+            }
+
+            log.trace("Flow entries of {} in sync, updating their statistics", deviceId);
+            try {
+                postUpdates(deviceId, ImmutableList.copyOf(metrics.flowEntries));
+            } catch (Exception e) {
+                log.warn("Can't update flow rules of {}", deviceId, e);
+                reconciledDevices.remove(deviceId);
+                return true;
+            }
+            reconciledDevices.replace(deviceId, reconciled, new ReconciledDevice(
+                    reconciled.hash, reconciled.changes, reconciled.temporaryRules, packets));
+            return true;
+        }
+
+        private void postUpdates(DeviceId deviceId, List<FlowEntry> updates) {
+            store.addOrUpdateFlowRules(deviceId, updates).forEach(event -> {
+                log.trace("Flow {} {}", event.subject(), event.type());
+                post(event);
+            });
         }
 
         @Override
@@ -563,6 +735,86 @@ public class FlowRuleManager
         }
     }
 
+    /**
+     * Returns an order independent hash of the identities and states of the
+     * entries reported by a device. The counters are left out, they change
+     * on every poll of an active device.
+     */
+    private static long identityHash(Iterable<FlowEntry> flowEntries) {
+        long hash = 0;
+        for (FlowEntry rule : flowEntries) {
+            hash += mix(rule.id().value() * 31 + rule.state().ordinal());
+        }
+        return hash;
+    }
+
+    /**
+     * Records a change to the stored entries of a device, made other than
+     * by reconciliation.
+     *
+     * @param deviceId device id
+     */
+    private void storeChanged(DeviceId deviceId) {
+        storeChanges.merge(deviceId, 1L, Long::sum);
+    }
+
+    /**
+     * Forgets that the stored entries of a device were in sync.
+     *
+     * @param deviceId device id
+     */
+    private void forgetReconciled(DeviceId deviceId) {
+        // counted as a change too, so a reconciliation under way is not kept
+        storeChanged(deviceId);
+        reconciledDevices.remove(deviceId);
+    }
+
+    // finalization step of MurmurHash3, spreads the bits of each term over the sum
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Stored entries of a device found in sync with the statistics of the
+     * device.
+     */
+    private static final class ReconciledDevice {
+        // hash of the identities and states of the entries the device reported
+        private final long hash;
+        // changes made to the stored entries when they were read
+        private final long changes;
+        // temporary entries, with the packet counts they were last updated with
+        private final Map<FlowEntry, FlowEntry> temporaryRules;
+        private final Map<FlowEntry, Long> packets;
+
+        private ReconciledDevice(long hash, long changes, Map<FlowEntry, FlowEntry> temporaryRules,
+                                 Map<FlowEntry, Long> packets) {
+            this.hash = hash;
+            this.changes = changes;
+            this.temporaryRules = temporaryRules;
+            this.packets = packets;
+        }
+    }
+
+    /**
+     * Flow statistics reported by a device.
+     */
+    private static final class FlowMetrics {
+        private final Iterable<FlowEntry> flowEntries;
+        private final boolean useMissingFlow;
+
+        private FlowMetrics(Iterable<FlowEntry> flowEntries, boolean useMissingFlow) {
+            this.flowEntries = flowEntries;
+            this.useMissingFlow = useMissingFlow;
+        }
+    }
+
     // Store delegate to re-post events emitted from the store.
     private class InternalStoreDelegate implements FlowRuleStoreDelegate {
 
@@ -572,6 +824,7 @@ public class FlowRuleManager
         @Override
         public void notify(FlowRuleBatchEvent event) {
             final FlowRuleBatchRequest request = event.subject();
+            storeChanged(event.deviceId());
             switch (event.type()) {
             case BATCH_OPERATION_REQUESTED:
                 // Request has been forwarded to MASTER Node, and was
@@ -605,13 +858,24 @@ public class FlowRuleManager
 
             case BATCH_OPERATION_COMPLETED:
 
+                List<PendingBatch> merged = pendingMergedBatches.remove(event.subject().batchId());
+                if (merged != null) {
+                    completeMerged(event.deviceId(), merged, event.result());
+                    DeviceBatchQueue queue = sentMergedBatches.remove(event.subject().batchId());
+                    if (queue != null) {
+                        queue.completed(event.subject().batchId());
+                    }
+                    break;
+                }
+
+                // also reached by merged batches completed after they timed out
                 FlowOperationsProcessor fops = pendingFlowOperations.remove(
                         event.subject().batchId());
                 if (event.result().isSuccess()) {
                     if (fops != null) {
                         fops.satisfy(event.deviceId());
                     }
-                } else {
+                } else if (fops != null) {
                     fops.fail(event.deviceId(), event.result().failedItems());
                 }
 
@@ -636,6 +900,190 @@ public class FlowRuleManager
         }
     }
 
+    /**
+     * Completes the stages merged in a batch, failing those whose rules
+     * are among the failed items of the batch.
+     */
+    private static void completeMerged(DeviceId deviceId, List<PendingBatch> merged,
+                                       CompletedBatchOperation result) {
+        Set<FlowRule> failedItems = result.isSuccess() ?
+                Collections.emptySet() : Sets.newHashSet(result.failedItems());
+        for (PendingBatch pending : merged) {
+            Set<FlowRule> failures = pending.entries.stream()
+                    .map(FlowRuleBatchEntry::target)
+                    .filter(failedItems::contains)
+                    .collect(Collectors.toSet());
+            if (failures.isEmpty()) {
+                pending.processor.satisfy(deviceId);
+            } else {
+                pending.processor.fail(deviceId, failures);
+            }
+        }
+    }
+
+    /**
+     * Fails all the stages merged in a batch whose outcome is unknown.
+     */
+    private static void failMerged(DeviceId deviceId, List<PendingBatch> merged) {
+        Set<FlowRule> rules = merged.stream()
+                .flatMap(pending -> pending.entries.stream())
+                .map(FlowRuleBatchEntry::target)
+                .collect(Collectors.toSet());
+        completeMerged(deviceId, merged, new CompletedBatchOperation(false, rules, deviceId));
+    }
+
+    /**
+     * Stage of a flow rule operations object for a device, waiting to be
+     * merged with the stages of other operations.
+     */
+    private static final class PendingBatch {
+        private final FlowOperationsProcessor processor;
+        private final List<FlowRuleBatchEntry> entries;
+
+        private PendingBatch(FlowOperationsProcessor processor, Collection<FlowRuleBatchEntry> entries) {
+            this.processor = processor;
+            this.entries = ImmutableList.copyOf(entries);
+        }
+    }
+
+    // Accumulator merging the stages submitted for a device into batches,
+    // handed to the batch queue of the device.
+    private class DeviceBatchAccumulator extends AbstractAccumulator<PendingBatch> {
+        private final DeviceId deviceId;
+
+        DeviceBatchAccumulator(DeviceId deviceId) {
+            super(timer, coalesceMaxBatchSize, coalesceWindowMillis, coalesceWindowMillis);
+            this.deviceId = deviceId;
+        }
+
+        @Override
+        public void processItems(List<PendingBatch> items) {
+            List<PendingBatch> merged = Lists.newArrayList();
+            List<FlowRuleBatchEntry> entries = Lists.newArrayList();
+            Set<FlowRule> rules = Sets.newHashSet();
+            for (PendingBatch pending : items) {
+                // a rule touched twice starts a new batch, as entries within a batch are unordered
+                boolean conflicts = pending.entries.stream().anyMatch(e -> rules.contains(e.target()));
+                if (!merged.isEmpty() &&
+                        (conflicts || entries.size() + pending.entries.size() > coalesceMaxBatchSize)) {
+                    submit(merged, entries);
+                    merged = Lists.newArrayList();
+                    entries = Lists.newArrayList();
+                    rules.clear();
+                }
+                merged.add(pending);
+                entries.addAll(pending.entries);
+                pending.entries.forEach(e -> rules.add(e.target()));
+            }
+            if (!merged.isEmpty()) {
+                submit(merged, entries);
+            }
+        }
+
+        private void submit(List<PendingBatch> merged, List<FlowRuleBatchEntry> entries) {
+            long id = idGenerator.getNewId();
+            pendingMergedBatches.put(id, merged);
+            batchQueues.computeIfAbsent(deviceId, DeviceBatchQueue::new)
+                    .submit(new FlowRuleBatchOperation(entries, deviceId, id));
+        }
+    }
+
+    // Merged batches of a device, sent to the store one at a time so that a
+    // rule touched by two batches is applied in order. A batch not completed
+    // in time is failed, so that the batches behind it are still sent.
+    private class DeviceBatchQueue {
+        private final DeviceId deviceId;
+        // batches waiting for the previous one to complete
+        private final Deque<FlowRuleBatchOperation> queued = new ArrayDeque<>();
+        private FlowRuleBatchOperation inFlight;
+        private TimerTask timeout;
+
+        DeviceBatchQueue(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        synchronized void submit(FlowRuleBatchOperation batch) {
+            queued.add(batch);
+            if (inFlight == null) {
+                sendNext();
+            }
+        }
+
+        /**
+         * Sends the next queued batch once the batch in flight completed.
+         *
+         * @param batchId id of the completed batch
+         */
+        synchronized void completed(long batchId) {
+            if (inFlight != null && inFlight.id() == batchId) {
+                timeout.cancel();
+                sendNext();
+            }
+        }
+
+        /**
+         * Fails the batch in flight, whose completion may never come, and
+         * sends the next queued batch.
+         */
+        synchronized void abandon() {
+            if (inFlight != null) {
+                failInFlight();
+                sendNext();
+            }
+        }
+
+        /**
+         * Fails the batch in flight and the queued batches.
+         */
+        synchronized void clear() {
+            if (inFlight != null) {
+                failInFlight();
+                inFlight = null;
+            }
+            for (FlowRuleBatchOperation batch : queued) {
+                List<PendingBatch> merged = pendingMergedBatches.remove(batch.id());
+                if (merged != null) {
+                    failMerged(deviceId, merged);
+                }
+            }
+            queued.clear();
+        }
+
+        private synchronized void timedOut(long batchId) {
+            if (inFlight != null && inFlight.id() == batchId) {
+                log.warn("Merged batch {} of {} not completed within {} ms",
+                         batchId, deviceId, coalesceBatchTimeoutMillis);
+                abandon();
+            }
+        }
+
+        private void failInFlight() {
+            timeout.cancel();
+            sentMergedBatches.remove(inFlight.id());
+            // a completion coming in meanwhile already completed the stages
+            List<PendingBatch> merged = pendingMergedBatches.remove(inFlight.id());
+            if (merged != null) {
+                failMerged(deviceId, merged);
+            }
+        }
+
+        private void sendNext() {
+            inFlight = queued.poll();
+            if (inFlight != null) {
+                FlowRuleBatchOperation batch = inFlight;
+                sentMergedBatches.put(batch.id(), this);
+                timeout = new TimerTask() {
+                    @Override
+                    public void run() {
+                        timedOut(batch.id());
+                    }
+                };
+                timer.schedule(timeout, coalesceBatchTimeoutMillis);
+                deviceInstallers.execute(() -> store.storeBatch(batch));
+            }
+        }
+    }
+
     private class FlowOperationsProcessor implements Runnable {
         // Immutable
         private final FlowRuleOperations fops;
@@ -669,6 +1117,11 @@ public class FlowRuleManager
             pendingDevices.addAll(perDeviceBatches.keySet());
 
             for (DeviceId deviceId : perDeviceBatches.keySet()) {
+                if (coalesceOperations) {
+                    accumulators.computeIfAbsent(deviceId, DeviceBatchAccumulator::new)
+                            .add(new PendingBatch(this, perDeviceBatches.get(deviceId)));
+                    continue;
+                }
                 long id = idGenerator.getNewId();
                 final FlowRuleBatchOperation b = new FlowRuleBatchOperation(perDeviceBatches.get(deviceId),
                                                deviceId, id);
@@ -711,6 +1164,13 @@ public class FlowRuleManager
                 case DEVICE_REMOVED:
                 case DEVICE_AVAILABILITY_CHANGED:
                     DeviceId deviceId = event.subject().id();
+                    forgetReconciled(deviceId);
+                    if (event.type() == DeviceEvent.Type.DEVICE_REMOVED) {
+                        DeviceBatchQueue queue = batchQueues.remove(deviceId);
+                        if (queue != null) {
+                            queue.clear();
+                        }
+                    }
                     if (!deviceService.isAvailable(deviceId)) {
                         if (purgeOnDisconnection) {
                             store.purgeFlowRule(deviceId);
@@ -722,4 +1182,19 @@ public class FlowRuleManager
             }
         }
     }
+
+    private class InternalMastershipListener implements MastershipListener {
+        @Override
+        public void event(MastershipEvent event) {
+            // the entries may have changed under another master meanwhile
+            forgetReconciled(event.subject());
+            if (event.type() == MastershipEvent.Type.MASTER_CHANGED) {
+                // the previous master may never complete the batch in flight
+                DeviceBatchQueue queue = batchQueues.get(event.subject());
+                if (queue != null) {
+                    queue.abandon();
+                }
+            }
+        }
+    }
 }
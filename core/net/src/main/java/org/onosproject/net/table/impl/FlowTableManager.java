@@ -29,12 +29,17 @@ import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.Service;
+import org.onlab.util.SharedScheduledExecutors;
 import org.onlab.util.Tools;
 import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.core.IdGenerator;
+import org.onosproject.floodlightpof.protocol.OFMatch20;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.onosproject.mastership.MastershipEvent;
+import org.onosproject.mastership.MastershipListener;
 import org.onosproject.mastership.MastershipService;
 import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
@@ -60,6 +65,7 @@ import org.onosproject.net.table.FlowTableListener;
 import org.onosproject.net.table.FlowTableOperation;
 import org.onosproject.net.table.FlowTableOperations;
 import org.onosproject.net.table.FlowTableOperationsContext;
+import org.onosproject.net.table.FlowTableOperationsException;
 import org.onosproject.net.table.FlowTableProvider;
 import org.onosproject.net.table.FlowTableProviderRegistry;
 import org.onosproject.net.table.FlowTableProviderService;
@@ -69,16 +75,27 @@ import org.onosproject.net.table.FlowTableStoreDelegate;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static org.onlab.util.Tools.get;
@@ -99,6 +116,7 @@ public class FlowTableManager
     private final Logger log = getLogger(getClass());
 
     public static final String FLOW_TABLE_NULL = "FlowTable cannot be null";
+    private static final String DEVICE_ID_NULL = "Device ID cannot be null";
     private static final boolean ALLOW_EXTRANEOUS_TABLES = false;
 
     @Property(name = "allowExtraneousTables", boolValue = ALLOW_EXTRANEOUS_TABLES,
@@ -114,8 +132,26 @@ public class FlowTableManager
             label = "Frequency (in seconds) for polling flow statistics via fallback provider")
     private int fallbackFlowPollFrequency = DEFAULT_POLL_FREQUENCY;
 
+    private static final boolean INCREMENTAL_TABLE_RECONCILIATION = false;
+    @Property(name = "incrementalTableReconciliation", boolValue = INCREMENTAL_TABLE_RECONCILIATION,
+            label = "Only reconcile the table statistics of a device when its reported " +
+                    "or stored tables changed since the last poll")
+    private boolean incrementalTableReconciliation = INCREMENTAL_TABLE_RECONCILIATION;
+
+    private static final int DEFAULT_BATCH_TIMEOUT = 30000;
+    @Property(name = "batchTimeout", intValue = DEFAULT_BATCH_TIMEOUT,
+            label = "Time (in ms) to wait for a device to complete a table batch before failing it")
+    private int batchTimeout = DEFAULT_BATCH_TIMEOUT;
+
+    // number of polls reconciled incrementally before a device gets a full pass again
+    private static final int FULL_RECONCILIATION_PERIOD = 10;
+
     private final FlowTableStoreDelegate delegate = new FlowTableManager.InternalStoreDelegate();
     private final DeviceListener deviceListener = new InternalDeviceListener();
+    private final MastershipListener mastershipListener = new InternalMastershipListener();
+
+    // bumped whenever the stored tables of a device may have changed
+    private final Map<DeviceId, AtomicLong> tableVersions = Maps.newConcurrentMap();
 
     private final FlowTableDriverProvider defaultProvider = new FlowTableDriverProvider();
 
@@ -130,6 +166,10 @@ public class FlowTableManager
     private Map<Long, FlowOperationsProcessor> pendingFlowOperations
             = new ConcurrentHashMap<>();
 
+    // batches sent by applyAsync, by batch id
+    private Map<Long, CompletableFuture<CompletedTableBatchOperation>> pendingBatchFutures
+            = new ConcurrentHashMap<>();
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected FlowTableStore store;
 
@@ -154,6 +194,7 @@ public class FlowTableManager
         store.setDelegate(delegate);
         eventDispatcher.addSink(FlowTableEvent.class, listenerRegistry);
         deviceService.addListener(deviceListener);
+        mastershipService.addListener(mastershipListener);
         cfgService.registerProperties(getClass());
         idGenerator = coreService.getIdGenerator(FLOW_OP_TOPIC);
         log.info("Started FlowTableManager!");
@@ -162,6 +203,7 @@ public class FlowTableManager
     @Deactivate
     public void deactivate() {
         deviceService.removeListener(deviceListener);
+        mastershipService.removeListener(mastershipListener);
         cfgService.unregisterProperties(getClass(), false);
         deviceInstallers.shutdownNow();
         operationsService.shutdownNow();
@@ -213,15 +255,47 @@ public class FlowTableManager
                     purgeOnDisconnection ? "enabled" : "disabled");
         }
 
+        flag = Tools.isPropertyEnabled(properties, "incrementalTableReconciliation");
+        if (flag == null) {
+            log.info("incrementalTableReconciliation is not configured, " +
+                    "using current value of {}", incrementalTableReconciliation);
+        } else {
+            incrementalTableReconciliation = flag;
+            log.info("Configured. incrementalTableReconciliation is {}",
+                    incrementalTableReconciliation ? "enabled" : "disabled");
+        }
+
         String s = get(properties, "fallbackFlowPollFrequency");
         try {
             fallbackFlowPollFrequency = isNullOrEmpty(s) ? DEFAULT_POLL_FREQUENCY : Integer.parseInt(s);
         } catch (NumberFormatException e) {
             fallbackFlowPollFrequency = DEFAULT_POLL_FREQUENCY;
         }
+
+        s = get(properties, "batchTimeout");
+        try {
+            batchTimeout = isNullOrEmpty(s) ? DEFAULT_BATCH_TIMEOUT : Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            batchTimeout = DEFAULT_BATCH_TIMEOUT;
+        }
     }
 
 
+    /**
+     * Records that the stored tables of a device may have changed, so that
+     * the next statistics poll of the device is fully reconciled.
+     *
+     * @param deviceId device identifier
+     */
+    private void tablesChanged(DeviceId deviceId) {
+        tableVersions.computeIfAbsent(deviceId, d -> new AtomicLong()).incrementAndGet();
+    }
+
+    private long tableVersion(DeviceId deviceId) {
+        AtomicLong version = tableVersions.get(deviceId);
+        return version == null ? 0 : version.get();
+    }
+
     @Override
     public int getFlowTableCount() {
         return store.getFlowTableCount();
@@ -305,16 +379,7 @@ public class FlowTableManager
 
     @Override
     public Iterable<FlowTable> getFlowTablesById(ApplicationId id) {
-
-        Set<FlowTable> flowTables = Sets.newHashSet();
-        for (Device d : deviceService.getDevices()) {
-            for (FlowTable flowTable : store.getFlowTables(d.id())) {
-                if (flowTable.appId() == id.id()) {
-                    flowTables.add(flowTable);
-                }
-            }
-        }
-        return flowTables;
+        return store.getFlowTablesByAppId(id);
     }
 
     @Override
@@ -327,12 +392,222 @@ public class FlowTableManager
         flowRuleService.removeFlowRules(flowRule);
     }
 
+    @Override
+    public CompletableFuture<List<Integer>> allocateGlobalFlowTableIds(DeviceId deviceId, OFTableType tableType,
+                                                                       int count) {
+        checkNotNull(deviceId, DEVICE_ID_NULL);
+        checkNotNull(tableType, "Table type cannot be null");
+        checkArgument(count > 0, "count must be positive, but %s", count);
+        return store.getNewGlobalFlowTableIds(deviceId, tableType, count);
+    }
+
+    @Override
+    public CompletableFuture<List<FlowTable>> createFlowTables(DeviceId deviceId, List<OFFlowTable> ofTables,
+                                                               ApplicationId appId) {
+        checkNotNull(deviceId, DEVICE_ID_NULL);
+        checkNotNull(ofTables, "Flow tables cannot be null");
+        checkNotNull(appId, "Application id cannot be null");
+        if (ofTables.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        // a single id allocation per table type, all of them in flight at once
+        Map<OFTableType, Integer> counts = Maps.newLinkedHashMap();
+        ofTables.forEach(ofTable -> counts.merge(ofTable.getTableType(), 1, Integer::sum));
+        Map<OFTableType, CompletableFuture<List<Integer>>> allocations = Maps.newLinkedHashMap();
+        counts.forEach((type, count) -> allocations.put(type, store.getNewGlobalFlowTableIds(deviceId, type, count)));
+
+        return CompletableFuture.allOf(allocations.values().toArray(new CompletableFuture[allocations.size()]))
+                .exceptionally(error -> {
+                    // none of the tables is created, so the ids the other
+                    // allocations took go back
+                    releaseTableIds(deviceId, allocations);
+                    log.warn("Failed to allocate table ids on {} for {}: {}", deviceId, appId, error.getMessage());
+                    throw error instanceof CompletionException ?
+                            (CompletionException) error : new CompletionException(error);
+                })
+                .thenCompose(v -> {
+                    Map<OFTableType, Iterator<Integer>> tableIds = Maps.newHashMap();
+                    allocations.forEach((type, ids) -> tableIds.put(type, ids.join().iterator()));
+
+                    List<FlowTable> tables = new ArrayList<>(ofTables.size());
+                    FlowTableOperations.Builder builder = FlowTableOperations.builder();
+                    for (OFFlowTable ofTable : ofTables) {
+                        Iterator<Integer> ids = tableIds.get(ofTable.getTableType());
+                        if (!ids.hasNext()) {
+                            // none of the tables is created, so every id allocated goes back
+                            releaseTableIds(deviceId, allocations);
+                            log.warn("No {} table left on {} for {}", ofTable.getTableType(), deviceId, appId);
+                            return Tools.<List<FlowTable>>exceptionalFuture(new IllegalStateException(
+                                    "No " + ofTable.getTableType() + " table left on " + deviceId));
+                        }
+                        FlowTable table = DefaultFlowTable.builder()
+                                .forDevice(deviceId)
+                                .forTable(ids.next())
+                                .withFlowTable(ofTable)
+                                .fromApp(appId)
+                                .build();
+                        tables.add(table);
+                        builder.add(table);
+                    }
+
+                    // all tables go to the device as one batch, in one stage
+                    CompletableFuture<List<FlowTable>> created = new CompletableFuture<>();
+                    apply(builder.build(new FlowTableOperationsContext() {
+                        @Override
+                        public void onSuccess(FlowTableOperations ops) {
+                            created.complete(tables);
+                        }
+
+                        @Override
+                        public void onError(FlowTableOperations ops) {
+                            created.completeExceptionally(new IllegalStateException(
+                                    "Failed to create flow tables on " + deviceId + ": " + ops));
+                        }
+                    }));
+                    return created;
+                });
+    }
+
+    // Gives back the table ids of the allocations that succeeded.
+    private void releaseTableIds(DeviceId deviceId,
+                                 Map<OFTableType, CompletableFuture<List<Integer>>> allocations) {
+        allocations.forEach((type, allocated) -> {
+            if (!allocated.isCompletedExceptionally() && !allocated.join().isEmpty()) {
+                store.addFreeFlowTableIds(deviceId, type, allocated.join());
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> allocateFlowEntryIds(DeviceId deviceId, int globalTableId, int count) {
+        checkNotNull(deviceId, DEVICE_ID_NULL);
+        checkArgument(count > 0, "count must be positive, but %s", count);
+        return store.getNewFlowEntryIds(deviceId, globalTableId, count);
+    }
+
     @Override
     public void apply(FlowTableOperations ops) {
         log.info("+++++ table manager apply");
         operationsService.execute(new FlowOperationsProcessor(ops));
     }
 
+    @Override
+    public List<CompletableFuture<Void>> applyAsync(FlowTableOperations ops) {
+        checkNotNull(ops, "Flow table operations cannot be null");
+
+        // last batch sent to each device; its next batch is chained onto it
+        Map<DeviceId, CompletableFuture<Void>> deviceTails = Maps.newHashMap();
+        List<CompletableFuture<Void>> stages = new ArrayList<>(ops.stages().size());
+        for (Set<FlowTableOperation> stage : ops.stages()) {
+            Multimap<DeviceId, FlowTableBatchEntry> perDeviceBatches = ArrayListMultimap.create();
+            stage.forEach(op -> perDeviceBatches.put(op.table().deviceId(), batchEntry(op)));
+
+            List<CompletableFuture<Void>> batches = new ArrayList<>(perDeviceBatches.keySet().size());
+            perDeviceBatches.asMap().forEach((deviceId, entries) -> {
+                CompletableFuture<Void> batch = deviceTails
+                        .getOrDefault(deviceId, CompletableFuture.completedFuture(null))
+                        .handle((v, error) -> error)
+                        .thenCompose(error -> error == null ? submitBatch(deviceId, entries)
+                                : Tools.<Void>exceptionalFuture(new FlowTableOperationsException(tablesOf(entries))));
+                deviceTails.put(deviceId, batch);
+                batches.add(batch);
+            });
+            stages.add(allOf(batches));
+        }
+
+        FlowTableOperationsContext context = ops.callback();
+        if (context != null) {
+            allOf(stages).whenComplete((v, error) -> {
+                if (error == null) {
+                    context.onSuccess(ops);
+                } else {
+                    FlowTableOperations.Builder failedOpsBuilder = FlowTableOperations.builder();
+                    failedTables(error).forEach(failedOpsBuilder::add);
+                    context.onError(failedOpsBuilder.build());
+                }
+            });
+        }
+        return stages;
+    }
+
+    /**
+     * Sends a batch to a device through the store.
+     *
+     * @param deviceId device the batch is for
+     * @param entries  entries of the batch
+     * @return future completed once the device applied the batch, or
+     * completed exceptionally with the tables it did not apply; a batch the
+     * device did not complete within the batch timeout fails as a whole
+     */
+    private CompletableFuture<Void> submitBatch(DeviceId deviceId, Collection<FlowTableBatchEntry> entries) {
+        long id = idGenerator.getNewId();
+        CompletableFuture<CompletedTableBatchOperation> completed = new CompletableFuture<>();
+        pendingBatchFutures.put(id, completed);
+        ScheduledFuture<?> timeout = SharedScheduledExecutors.getPoolThreadExecutor().schedule(() -> {
+            if (pendingBatchFutures.remove(id, completed)) {
+                log.warn("Table batch {} timed out on {}", id, deviceId);
+                Set<FlowTable> tables = entries.stream()
+                        .map(FlowTableBatchEntry::target)
+                        .collect(Collectors.toSet());
+                completed.complete(new CompletedTableBatchOperation(false, tables, deviceId));
+            }
+        }, batchTimeout, TimeUnit.MILLISECONDS);
+        completed.whenComplete((result, error) -> timeout.cancel(false));
+        FlowTableBatchOperation b = new FlowTableBatchOperation(entries, deviceId, id);
+        deviceInstallers.execute(() -> store.storeBatch(b));
+        return completed.thenCompose(result -> result.isSuccess() ? CompletableFuture.<Void>completedFuture(null)
+                : Tools.<Void>exceptionalFuture(new FlowTableOperationsException(result.failedItems())));
+    }
+
+    /**
+     * Returns a future completed once all given futures are, and completed
+     * exceptionally with the failed tables of all of them if any failed.
+     */
+    private static CompletableFuture<Void> allOf(List<CompletableFuture<Void>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                .handle((v, error) -> error)
+                .thenCompose(error -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    Set<FlowTable> failed = Sets.newHashSet();
+                    futures.stream()
+                            .filter(CompletableFuture::isCompletedExceptionally)
+                            .forEach(f -> f.handle((v, e) -> failed.addAll(failedTables(e))).join());
+                    return Tools.<Void>exceptionalFuture(new FlowTableOperationsException(failed));
+                });
+    }
+
+    private static Set<FlowTable> failedTables(Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        if (cause instanceof FlowTableOperationsException) {
+            return ((FlowTableOperationsException) cause).failedTables();
+        }
+        return Collections.emptySet();
+    }
+
+    private static Set<FlowTable> tablesOf(Collection<FlowTableBatchEntry> entries) {
+        return entries.stream().map(FlowTableBatchEntry::target).collect(Collectors.toSet());
+    }
+
+    private static FlowTableBatchEntry batchEntry(FlowTableOperation flowTableOperation) {
+        switch (flowTableOperation.type()) {
+            // FIXME: Brian needs imagination when creating class names.
+            case ADD:
+                return new FlowTableBatchEntry(
+                        FlowTableBatchEntry.FlowTableOperation.ADD, flowTableOperation.table());
+            case MODIFY:
+                return new FlowTableBatchEntry(
+                        FlowTableBatchEntry.FlowTableOperation.MODIFY, flowTableOperation.table());
+            case REMOVE:
+                return new FlowTableBatchEntry(
+                        FlowTableBatchEntry.FlowTableOperation.REMOVE, flowTableOperation.table());
+            default:
+                throw new UnsupportedOperationException("Unknown flow table type " + flowTableOperation.type());
+        }
+    }
+
     @Override
     protected FlowTableProviderService createProviderService(
             FlowTableProvider provider) {
@@ -345,6 +620,9 @@ public class FlowTableManager
 
         final Map<FlowTable, Long> lastSeen = Maps.newConcurrentMap();
 
+        // outcome of the last reconciled poll of each device
+        private final Map<DeviceId, ReconciledTables> reconciled = Maps.newConcurrentMap();
+
         protected InternalFlowTableProviderService(FlowTableProvider provider) {
             super(provider);
         }
@@ -359,6 +637,7 @@ public class FlowTableManager
                 log.debug("table already evicted from store: {}", flowTable);
                 return;
             }
+            tablesChanged(flowTable.deviceId());
             Device device = deviceService.getDevice(flowTable.deviceId());
             FlowTableProvider frp = getProvider(device.providerId());
             FlowTableEvent event = null;
@@ -384,6 +663,7 @@ public class FlowTableManager
         private void flowMissing(FlowTableEntry flowTable) {
             checkNotNull(flowTable, FLOW_TABLE_NULL);
             checkValidity();
+            tablesChanged(flowTable.deviceId());
             Device device = deviceService.getDevice(flowTable.deviceId());
             FlowTableProvider frp = getProvider(device.providerId());
             FlowTableEvent event = null;
@@ -418,6 +698,8 @@ public class FlowTableManager
         private void extraneousFlow(FlowTable flowTable) {
             checkNotNull(flowTable, FLOW_TABLE_NULL);
             checkValidity();
+            // keep checking the device until the switch dropped the table
+            tablesChanged(flowTable.deviceId());
             FlowTableProvider frp = getProvider(flowTable.deviceId());
             frp.removeFlowTable(flowTable);
             log.debug("Flow {} is on switch but not in store.", flowTable);
@@ -433,6 +715,9 @@ public class FlowTableManager
                     log.debug("No flow store event generated.");
                 } else {
                     log.trace("Flow {} {}", flowTable, event.type());
+                    if (event.type() == FlowTableEvent.Type.TABLE_ADDED) {
+                        tablesChanged(flowTable.deviceId());
+                    }
                     post(event);
                 }
             } else {
@@ -461,43 +746,121 @@ public class FlowTableManager
 
         private void pushTableMetricsInternal(DeviceId deviceId, Iterable<FlowTableEntry> flowTables,
                                              boolean useMissingFlow) {
+            if (!incrementalTableReconciliation) {
+                reconciled.remove(deviceId);
+                reconcileAll(deviceId, flowTables, useMissingFlow);
+                return;
+            }
+
+            // read the version first so that changes made during this pass
+            // get picked up by the next one
+            long version = tableVersion(deviceId);
+            Map<FlowTableId, Integer> fingerprints = Maps.newHashMap();
+            flowTables.forEach(t -> fingerprints.put(t.id(), fingerprint(t)));
+
+            ReconciledTables last = reconciled.get(deviceId);
+            if (last == null || last.version != version || last.incrementalPolls >= FULL_RECONCILIATION_PERIOD) {
+                reconcileAll(deviceId, flowTables, useMissingFlow);
+                reconciled.put(deviceId, new ReconciledTables(version, fingerprints, 0));
+                return;
+            }
+
+            if (!last.fingerprints.equals(fingerprints)) {
+                reconcileChanged(deviceId, flowTables, last.fingerprints, fingerprints, useMissingFlow);
+            }
+            reconciled.put(deviceId, new ReconciledTables(version, fingerprints, last.incrementalPolls + 1));
+        }
+
+        private void reconcileAll(DeviceId deviceId, Iterable<FlowTableEntry> flowTables,
+                                  boolean useMissingFlow) {
             Map<FlowTableEntry, FlowTableEntry> storedTables = Maps.newHashMap();
             store.getFlowTables(deviceId).forEach(f -> storedTables.put((FlowTableEntry) f, (FlowTableEntry) f));
 
             for (FlowTableEntry table : flowTables) {
-                try {
-                    FlowTableEntry storedTable = storedTables.remove(table);
-                    if (storedTable != null) {
-                        if (storedTable.exactMatch(table)) {
-                            // we both have the table, let's update some info then.
-                            flowAdded(table);
-                        } else {
-                            // the two tables are not an exact match - remove the
-                            // switch's table and install our table
-                            extraneousFlow(table);
-                            flowMissing(storedTable);
-                        }
-                    } else {
-                        // the device has a table the store does not have
-                        if (!allowExtraneousTables) {
-                            extraneousFlow(table);
+                reconcileTable(table, storedTables.remove(table));
+            }
+            // DO NOT reinstall
+            if (useMissingFlow) {
+                storedTables.keySet().forEach(this::reconcileMissing);
+            }
+        }
+
+        /**
+         * Reconciles only the tables the device reported differently than on
+         * the previous poll, given that the stored tables did not change since.
+         */
+        private void reconcileChanged(DeviceId deviceId, Iterable<FlowTableEntry> flowTables,
+                                      Map<FlowTableId, Integer> previous, Map<FlowTableId, Integer> current,
+                                      boolean useMissingFlow) {
+            for (FlowTableEntry table : flowTables) {
+                if (!Objects.equals(previous.get(table.id()), fingerprint(table))) {
+                    reconcileTable(table, (FlowTableEntry) store.getFlowTable(table));
+                }
+            }
+            if (useMissingFlow) {
+                for (FlowTableId tableId : previous.keySet()) {
+                    if (!current.containsKey(tableId)) {
+                        FlowTableEntry stored = (FlowTableEntry) store.getFlowTableInternal(deviceId, tableId);
+                        if (stored != null) {
+                            reconcileMissing(stored);
                         }
                     }
-                } catch (Exception e) {
-                    log.debug("Can't process added or extra table {}", e.getMessage());
                 }
             }
-            // DO NOT reinstall
-            if (useMissingFlow) {
-                for (FlowTableEntry table : storedTables.keySet()) {
-                    try {
-                        // there are tables in the store that aren't on the switch
-                        log.debug("Adding table in store, but not on switch {}", table);
-                        flowMissing(table);
-                    } catch (Exception e) {
-                        log.debug("Can't add missing flow table:", e);
+        }
+
+        /**
+         * Fingerprints a reported table from the fields reconciliation looks
+         * at, so that it does not depend on how OFFlowTable implements hashCode.
+         */
+        private int fingerprint(FlowTableEntry table) {
+            int hash = Objects.hash(table.id(), table.state());
+            OFFlowTable ofTable = table.flowTable();
+            if (ofTable == null) {
+                return hash;
+            }
+            hash = 31 * hash + Objects.hash(ofTable.getTableId(), ofTable.getTableType(), ofTable.getTableName(),
+                                            ofTable.getTableSize(), ofTable.getKeyLength(),
+                                            ofTable.getMatchFieldNum());
+            if (ofTable.getMatchFieldList() != null) {
+                for (OFMatch20 field : ofTable.getMatchFieldList()) {
+                    hash = 31 * hash + Objects.hash(field.getFieldId(), field.getFieldName(),
+                                                    field.getOffset(), field.getLength());
+                }
+            }
+            return hash;
+        }
+
+        private void reconcileTable(FlowTableEntry table, FlowTableEntry storedTable) {
+            try {
+                if (storedTable != null) {
+                    if (storedTable.exactMatch(table)) {
+                        // we both have the table, let's update some info then.
+                        flowAdded(table);
+                    } else {
+                        // the two tables are not an exact match - remove the
+                        // switch's table and install our table
+                        extraneousFlow(table);
+                        flowMissing(storedTable);
+                    }
+                } else {
+                    // the device has a table the store does not have
+                    if (!allowExtraneousTables) {
+                        extraneousFlow(table);
                     }
                 }
+            } catch (Exception e) {
+                log.debug("Can't process added or extra table {}", e.getMessage());
+            }
+        }
+
+        private void reconcileMissing(FlowTableEntry table) {
+            try {
+                // there are tables in the store that aren't on the switch
+                log.debug("Adding table in store, but not on switch {}", table);
+                flowMissing(table);
+            } catch (Exception e) {
+                log.debug("Can't add missing flow table:", e);
             }
         }
 
@@ -512,6 +875,23 @@ public class FlowTableManager
 
     }
 
+    /**
+     * Tables a device reported on its last reconciled poll, along with the
+     * version of the stored tables they were reconciled against.
+     */
+    private static final class ReconciledTables {
+        private final long version;
+        private final Map<FlowTableId, Integer> fingerprints;
+        private final int incrementalPolls;
+
+        private ReconciledTables(long version, Map<FlowTableId, Integer> fingerprints,
+                                 int incrementalPolls) {
+            this.version = version;
+            this.fingerprints = fingerprints;
+            this.incrementalPolls = incrementalPolls;
+        }
+    }
+
     // Store delegate to re-post events emitted from the store.
     private class InternalStoreDelegate implements FlowTableStoreDelegate {
 
@@ -521,6 +901,7 @@ public class FlowTableManager
         @Override
         public void notify(FlowTableBatchEvent event) {
             final FlowTableBatchRequest request = event.subject();
+            tablesChanged(event.deviceId());
             switch (event.type()) {
             case BATCH_OPERATION_REQUESTED:
                 // Request has been forwarded to MASTER Node, and was
@@ -559,12 +940,20 @@ public class FlowTableManager
 
             case BATCH_OPERATION_COMPLETED:
 
+                CompletableFuture<CompletedTableBatchOperation> batchFuture =
+                        pendingBatchFutures.remove(event.subject().batchId());
+                if (batchFuture != null) {
+                    batchFuture.complete(event.result());
+                    break;
+                }
+
                 FlowOperationsProcessor fops = pendingFlowOperations.remove(
                         event.subject().batchId());
+                if (fops == null) {
+                    break;
+                }
                 if (event.result().isSuccess()) {
-                    if (fops != null) {
-                        fops.satisfy(event.deviceId());
-                    }
+                    fops.satisfy(event.deviceId());
                 } else {
                     fops.fail(event.deviceId(), event.result().failedItems());
                 }
@@ -613,27 +1002,9 @@ public class FlowTableManager
             Multimap<DeviceId, FlowTableBatchEntry> perDeviceBatches =
                     ArrayListMultimap.create();
 
-            FlowTableBatchEntry fbe;
             for (FlowTableOperation flowTableOperation : ops) {
-                switch (flowTableOperation.type()) {
-                    // FIXME: Brian needs imagination when creating class names.
-                    case ADD:
-                        fbe = new FlowTableBatchEntry(
-                                FlowTableBatchEntry.FlowTableOperation.ADD, flowTableOperation.table());
-                        break;
-                    case MODIFY:
-                        fbe = new FlowTableBatchEntry(
-                                FlowTableBatchEntry.FlowTableOperation.MODIFY, flowTableOperation.table());
-                        break;
-                    case REMOVE:
-                        fbe = new FlowTableBatchEntry(
-                                FlowTableBatchEntry.FlowTableOperation.REMOVE, flowTableOperation.table());
-                        break;
-                    default:
-                        throw new UnsupportedOperationException("Unknown flow table type " + flowTableOperation.type());
-                }
                 pendingDevices.add(flowTableOperation.table().deviceId());
-                perDeviceBatches.put(flowTableOperation.table().deviceId(), fbe);
+                perDeviceBatches.put(flowTableOperation.table().deviceId(), batchEntry(flowTableOperation));
             }
 
 
@@ -681,6 +1052,7 @@ public class FlowTableManager
                 case DEVICE_REMOVED:
                 case DEVICE_AVAILABILITY_CHANGED:
                     DeviceId deviceId = event.subject().id();
+                    tablesChanged(deviceId);
                     if (!deviceService.isAvailable(deviceId)) {
                         if (purgeOnDisconnection) {
                             store.purgeFlowTable(deviceId);
@@ -692,4 +1064,13 @@ public class FlowTableManager
             }
         }
     }
+
+    private class InternalMastershipListener implements MastershipListener {
+        @Override
+        public void event(MastershipEvent event) {
+            // the stored tables of a device may have moved on while another
+            // node was its master
+            tablesChanged(event.subject());
+        }
+    }
 }
@@ -17,14 +17,17 @@ package org.onosproject.net.flow.impl;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ForwardingExecutorService;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.onlab.junit.TestTools;
+import org.onlab.osgi.ComponentContextAdapter;
 import org.onosproject.cfg.ComponentConfigAdapter;
 import org.onosproject.common.event.impl.TestEventDispatcher;
 import org.onosproject.core.ApplicationId;
@@ -39,6 +42,8 @@ import org.onosproject.net.Device;
 import org.onosproject.net.Device.Type;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.MastershipRole;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceServiceAdapter;
 import org.onosproject.net.driver.AbstractHandlerBehaviour;
 import org.onosproject.net.driver.DefaultDriver;
@@ -51,9 +56,12 @@ import org.onosproject.net.flow.DefaultFlowRule;
 import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.FlowEntry.FlowEntryState;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleBatchEntry;
 import org.onosproject.net.flow.FlowRuleBatchOperation;
 import org.onosproject.net.flow.FlowRuleEvent;
 import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
 import org.onosproject.net.flow.FlowRuleProgrammable;
 import org.onosproject.net.flow.FlowRuleProvider;
 import org.onosproject.net.flow.FlowRuleProviderRegistry;
@@ -73,15 +81,20 @@ import org.onosproject.store.trivial.SimpleFlowRuleStore;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.*;
@@ -110,6 +123,7 @@ public class FlowRuleManagerTest {
             new DefaultDevice(FOO_PID, FOO_DID, Type.SWITCH, "", "", "", "", null, ANNOTATIONS);
 
     private FlowRuleManager mgr;
+    private CountingFlowRuleStore store;
 
     protected FlowRuleService service;
     protected FlowRuleProviderRegistry registry;
@@ -123,13 +137,15 @@ public class FlowRuleManagerTest {
     @Before
     public void setUp() {
         mgr = new FlowRuleManager();
-        mgr.store = new SimpleFlowRuleStore();
+        store = new CountingFlowRuleStore();
+        mgr.store = store;
         injectEventDispatcher(mgr, new TestEventDispatcher());
         mgr.deviceService = new TestDeviceService();
         mgr.mastershipService = new TestMastershipService();
         mgr.coreService = new TestCoreService();
         mgr.operationsService = MoreExecutors.newDirectExecutorService();
         mgr.deviceInstallers = MoreExecutors.newDirectExecutorService();
+        mgr.statsReconcilers = MoreExecutors.newDirectExecutorService();
         mgr.cfgService = new ComponentConfigAdapter();
         service = mgr;
         registry = mgr;
@@ -363,6 +379,250 @@ public class FlowRuleManagerTest {
                        RULE_ADDED, RULE_ADDED);
     }
 
+    /*
+     * Tests that the statistics of a device in sync with the store update
+     * the stored entries without reading them again, until the stored
+     * entries change.
+     */
+    @Test
+    public void flowMetricsInSync() {
+        FlowRule f1 = flowRule(1, 1);
+        mgr.applyFlowRules(f1);
+        StoredFlowEntry fe1 = new DefaultFlowEntry(f1);
+
+        providerService.pushFlowMetrics(DID, Lists.newArrayList(fe1));
+        providerService.pushFlowMetrics(DID, Lists.newArrayList(fe1));
+        validateEvents(RULE_ADD_REQUESTED, RULE_ADDED, RULE_UPDATED);
+
+        int reads = store.reads.get();
+        fe1.setPackets(10);
+        fe1.setLife(5);
+        providerService.pushFlowMetrics(DID, Lists.newArrayList(fe1));
+        validateEvents(RULE_UPDATED);
+        assertEquals("entries in sync should not be read", reads, store.reads.get());
+        FlowEntry stored = service.getFlowEntries(DID).iterator().next();
+        assertEquals("packets should be updated", 10, stored.packets());
+        assertEquals("life should be updated", 5, stored.life());
+
+        FlowRule f2 = flowRule(2, 2);
+        mgr.applyFlowRules(f2);
+        reads = store.reads.get();
+        providerService.pushFlowMetrics(DID, Lists.newArrayList(fe1, new DefaultFlowEntry(f2)));
+        validateEvents(RULE_ADD_REQUESTED, RULE_UPDATED, RULE_ADDED);
+        assertEquals("changed entries should be read", reads + 1, store.reads.get());
+    }
+
+    /*
+     * Tests that statistics pushed while the previous ones of the device are
+     * reconciled are picked up by the same task once it is done.
+     */
+    @Test
+    public void flowMetricsDuringReconciliation() {
+        AtomicInteger tasks = new AtomicInteger();
+        ExecutorService direct = MoreExecutors.newDirectExecutorService();
+        mgr.statsReconcilers = new ForwardingExecutorService() {
+            @Override
+            protected ExecutorService delegate() {
+                return direct;
+            }
+
+            @Override
+            public void execute(Runnable command) {
+                tasks.incrementAndGet();
+                super.execute(command);
+            }
+        };
+
+        FlowRule f1 = flowRule(1, 1);
+        mgr.applyFlowRules(f1);
+        StoredFlowEntry fe1 = new DefaultFlowEntry(f1);
+        StoredFlowEntry updated = new DefaultFlowEntry(f1);
+        updated.setPackets(10);
+
+        AtomicBoolean pushed = new AtomicBoolean();
+        FlowRuleListener pusher = event -> {
+            if (event.type() == RULE_ADDED && pushed.compareAndSet(false, true)) {
+                providerService.pushFlowMetrics(DID, Lists.newArrayList(updated));
+            }
+        };
+        mgr.addListener(pusher);
+        providerService.pushFlowMetrics(DID, Lists.newArrayList(fe1));
+        mgr.removeListener(pusher);
+
+        assertTrue("statistics should be pushed during the reconciliation", pushed.get());
+        assertEquals("a single task should reconcile the device", 1, tasks.get());
+        assertEquals("packets should be updated", 10, service.getFlowEntries(DID).iterator().next().packets());
+    }
+
+    /*
+     * Tests that operations submitted within the window are merged into
+     * one batch, and that each operation still gets its callback.
+     */
+    @Test
+    public void coalesceOperations() {
+        mgr.modified(new ComponentContextAdapter() {
+            @Override
+            public Dictionary getProperties() {
+                Hashtable<String, String> props = new Hashtable<>();
+                props.put("coalesceOperations", "true");
+                props.put("coalesceWindowMillis", "50");
+                return props;
+            }
+        });
+
+        FlowRule f1 = flowRule(1, 1);
+        FlowRule f2 = flowRule(2, 2);
+        FlowRule f3 = flowRule(3, 3);
+        List<FlowRuleOperations> succeeded = Collections.synchronizedList(new ArrayList<>());
+        List<FlowRuleOperations> failed = Collections.synchronizedList(new ArrayList<>());
+        FlowRuleOperationsContext context = new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations ops) {
+                succeeded.add(ops);
+            }
+
+            @Override
+            public void onError(FlowRuleOperations ops) {
+                failed.add(ops);
+            }
+        };
+        mgr.apply(FlowRuleOperations.builder().add(f1).build(context));
+        mgr.apply(FlowRuleOperations.builder().add(f2).build(context));
+        mgr.apply(FlowRuleOperations.builder().add(f3).build(context));
+
+        TestTools.assertAfter(2000, () -> assertEquals("one batch expected", 1, provider.batches.size()));
+        FlowRuleBatchOperation batch = provider.batches.get(0);
+        assertEquals("rules should be merged", 3, batch.size());
+
+        providerService.batchOperationCompleted(batch.id(), new CompletedBatchOperation(
+                false, ImmutableSet.of(f2), DID));
+        assertEquals("two operations should succeed", 2, succeeded.size());
+        assertEquals("one operation should fail", 1, failed.size());
+        assertTrue("failed rule expected", failed.get(0).stages().get(0).stream()
+                .anyMatch(op -> op.rule().equals(f2)));
+    }
+
+    /*
+     * Tests that a rule touched twice within the window splits the merged
+     * batch, and that the second batch waits for the first to complete.
+     */
+    @Test
+    public void coalesceConflictingOperations() {
+        mgr.modified(new ComponentContextAdapter() {
+            @Override
+            public Dictionary getProperties() {
+                Hashtable<String, String> props = new Hashtable<>();
+                props.put("coalesceOperations", "true");
+                props.put("coalesceWindowMillis", "50");
+                return props;
+            }
+        });
+
+        FlowRule f1 = flowRule(1, 1);
+        mgr.apply(FlowRuleOperations.builder().add(f1).build());
+        mgr.apply(FlowRuleOperations.builder().remove(f1).build());
+
+        TestTools.assertAfter(2000, () -> assertEquals("first batch expected", 1, provider.batches.size()));
+        FlowRuleBatchOperation first = provider.batches.get(0);
+        assertEquals("first batch should add", FlowRuleBatchEntry.FlowRuleOperation.ADD,
+                     first.getOperations().get(0).operator());
+        TestTools.delay(100);
+        assertEquals("second batch should wait for the first", 1, provider.batches.size());
+
+        providerService.batchOperationCompleted(first.id(), new CompletedBatchOperation(
+                true, Collections.emptySet(), DID));
+        TestTools.assertAfter(2000, () -> assertEquals("second batch expected", 2, provider.batches.size()));
+        assertEquals("second batch should remove", FlowRuleBatchEntry.FlowRuleOperation.REMOVE,
+                     provider.batches.get(1).getOperations().get(0).operator());
+    }
+
+    private ComponentContextAdapter coalescing(String name, String value) {
+        return new ComponentContextAdapter() {
+            @Override
+            public Dictionary getProperties() {
+                Hashtable<String, String> props = new Hashtable<>();
+                props.put("coalesceOperations", "true");
+                props.put("coalesceWindowMillis", "50");
+                props.put(name, value);
+                return props;
+            }
+        };
+    }
+
+    /*
+     * Tests that a merged batch not completed in time fails its operations,
+     * and that the next batch of the device is sent anyway.
+     */
+    @Test
+    public void coalesceBatchTimeout() {
+        mgr.modified(coalescing("coalesceBatchTimeoutMillis", "100"));
+
+        FlowRule f1 = flowRule(1, 1);
+        List<FlowRuleOperations> failed = Collections.synchronizedList(new ArrayList<>());
+        mgr.apply(FlowRuleOperations.builder().add(f1).build(new FlowRuleOperationsContext() {
+            @Override
+            public void onError(FlowRuleOperations ops) {
+                failed.add(ops);
+            }
+        }));
+        mgr.apply(FlowRuleOperations.builder().remove(f1).build());
+
+        TestTools.assertAfter(2000, () -> assertEquals("second batch expected", 2, provider.batches.size()));
+        assertEquals("first batch should add", FlowRuleBatchEntry.FlowRuleOperation.ADD,
+                     provider.batches.get(0).getOperations().get(0).operator());
+        assertEquals("timed out operation should fail", 1, failed.size());
+    }
+
+    /*
+     * Tests that the batches of a removed device are failed, and no longer
+     * hold back the batches submitted afterwards.
+     */
+    @Test
+    public void coalesceDeviceRemoved() {
+        mgr.modified(coalescing("coalesceBatchTimeoutMillis", "60000"));
+
+        FlowRule f1 = flowRule(1, 1);
+        List<FlowRuleOperations> failed = Collections.synchronizedList(new ArrayList<>());
+        FlowRuleOperationsContext context = new FlowRuleOperationsContext() {
+            @Override
+            public void onError(FlowRuleOperations ops) {
+                failed.add(ops);
+            }
+        };
+        mgr.apply(FlowRuleOperations.builder().add(f1).build(context));
+        mgr.apply(FlowRuleOperations.builder().remove(f1).build(context));
+        TestTools.assertAfter(2000, () -> assertEquals("first batch expected", 1, provider.batches.size()));
+        TestTools.delay(100);
+
+        ((TestDeviceService) mgr.deviceService).listener.event(new DeviceEvent(DeviceEvent.Type.DEVICE_REMOVED, DEV));
+        assertEquals("both operations should fail", 2, failed.size());
+
+        mgr.apply(FlowRuleOperations.builder().add(flowRule(2, 2)).build());
+        TestTools.assertAfter(2000, () -> assertEquals("new batch expected", 2, provider.batches.size()));
+    }
+
+    /*
+     * Tests that reconfiguring the window keeps the batch in flight, so the
+     * next batch of the device still waits for it to complete.
+     */
+    @Test
+    public void coalesceReconfigured() {
+        mgr.modified(coalescing("coalesceBatchTimeoutMillis", "60000"));
+
+        FlowRule f1 = flowRule(1, 1);
+        mgr.apply(FlowRuleOperations.builder().add(f1).build());
+        TestTools.assertAfter(2000, () -> assertEquals("first batch expected", 1, provider.batches.size()));
+
+        mgr.modified(coalescing("coalesceWindowMillis", "20"));
+        mgr.apply(FlowRuleOperations.builder().remove(f1).build());
+        TestTools.delay(100);
+        assertEquals("second batch should wait for the first", 1, provider.batches.size());
+
+        providerService.batchOperationCompleted(provider.batches.get(0).id(), new CompletedBatchOperation(
+                true, Collections.emptySet(), DID));
+        TestTools.assertAfter(2000, () -> assertEquals("second batch expected", 2, provider.batches.size()));
+    }
+
     @Test
     public void extraneousFlow() {
         FlowRule f1 = flowRule(1, 1);
@@ -491,6 +751,13 @@ public class FlowRuleManagerTest {
     }
 
     private static class TestDeviceService extends DeviceServiceAdapter {
+        DeviceListener listener;
+
+        @Override
+        public void addListener(DeviceListener listener) {
+            this.listener = listener;
+        }
+
         @Override
         public int getDeviceCount() {
             return 2;
@@ -514,6 +781,8 @@ public class FlowRuleManagerTest {
 
     private class TestProvider extends AbstractProvider implements FlowRuleProvider {
 
+        final List<FlowRuleBatchOperation> batches = Collections.synchronizedList(new ArrayList<>());
+
         protected TestProvider(ProviderId id) {
             super(PID);
         }
@@ -533,6 +802,7 @@ public class FlowRuleManagerTest {
         @Override
         public void executeBatch(FlowRuleBatchOperation batch) {
             // TODO: need to call batchOperationComplete
+            batches.add(batch);
         }
 
         private class TestInstallationFuture
@@ -691,6 +961,16 @@ public class FlowRuleManagerTest {
         }
     }
 
+    private static class CountingFlowRuleStore extends SimpleFlowRuleStore {
+        final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public Iterable<FlowEntry> getFlowEntries(DeviceId deviceId) {
+            reads.incrementAndGet();
+            return super.getFlowEntries(deviceId);
+        }
+    }
+
     private class TestMastershipService extends MastershipServiceAdapter {
         @Override
         public MastershipRole getLocalRole(DeviceId deviceId) {
@@ -17,6 +17,7 @@ package org.onosproject.net.table.impl;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -24,6 +25,8 @@ import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.onlab.osgi.ComponentContextAdapter;
+import org.onlab.util.Tools;
 import org.onosproject.cfg.ComponentConfigAdapter;
 import org.onosproject.common.event.impl.TestEventDispatcher;
 import org.onosproject.core.ApplicationId;
@@ -32,6 +35,8 @@ import org.onosproject.core.DefaultApplicationId;
 import org.onosproject.core.IdGenerator;
 import org.onosproject.floodlightpof.protocol.OFMatch20;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
+import org.onosproject.floodlightpof.protocol.table.OFTableResource;
 import org.onosproject.floodlightpof.protocol.table.OFTableType;
 import org.onosproject.mastership.MastershipServiceAdapter;
 import org.onosproject.net.AnnotationKeys;
@@ -57,6 +62,9 @@ import org.onosproject.net.table.FlowTableListener;
 import org.onosproject.net.table.FlowTableProvider;
 import org.onosproject.net.table.CompletedTableBatchOperation;
 import org.onosproject.net.table.FlowTableBatchOperation;
+import org.onosproject.net.table.FlowTableOperations;
+import org.onosproject.net.table.FlowTableOperationsContext;
+import org.onosproject.net.table.FlowTableOperationsException;
 import org.onosproject.net.table.StoredFlowTableEntry;
 import org.onosproject.net.table.FlowTableEntry.FlowTableState;
 import org.onosproject.net.provider.AbstractProvider;
@@ -66,10 +74,13 @@ import org.onosproject.store.trivial.SimpleFlowTableStore;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
@@ -401,6 +412,223 @@ public class FlowTableManagerTest {
 
     }
 
+    /*
+     * Tests that a poll reporting the same tables as the previous one is
+     * skipped, and that a later poll only reconciles the difference.
+     */
+    @Test
+    public void incrementalReconciliation() {
+        mgr.modified(new ComponentContextAdapter() {
+            @Override
+            public Dictionary getProperties() {
+                Hashtable<String, String> props = new Hashtable<>();
+                props.put("incrementalTableReconciliation", "true");
+                return props;
+            }
+        });
+
+        FlowTable f1 = flowTable((byte) 0, (byte) 0);
+        FlowTable f2 = flowTable((byte) 1, (byte) 1);
+        mgr.applyFlowTables(f1, f2);
+
+        FlowTableEntry fe1 = new DefaultFlowTableEntry(f1);
+        FlowTableEntry fe2 = new DefaultFlowTableEntry(f2);
+
+        providerService.pushTableMetrics(DID, Lists.newArrayList(fe1, fe2));
+        validateEvents(TABLE_ADD_REQUESTED, TABLE_ADD_REQUESTED, TABLE_ADDED, TABLE_ADDED);
+
+        // the store changed during the last poll, so this one is a full pass
+        providerService.pushTableMetrics(DID, Lists.newArrayList(fe1, fe2));
+        validateEvents(TABLE_UPDATED, TABLE_UPDATED);
+
+        providerService.pushTableMetrics(DID, Lists.newArrayList(fe1, fe2));
+        validateEvents();
+
+        providerService.pushTableMetrics(DID, Lists.newArrayList(fe1));
+        validateEvents(TABLE_UPDATED);
+        assertTrue("Missing table should be pending add.",
+                validateState(ImmutableMap.of(
+                        f1, FlowTableState.ADDED,
+                        f2, FlowTableState.PENDING_ADD)));
+    }
+
+    @Test
+    public void createFlowTables() throws Exception {
+        OFFlowTableResource resource = new OFFlowTableResource();
+        Map<OFTableType, OFTableResource> resources = new HashMap<>();
+        for (byte type = 0; type < OFTableType.OF_MAX_TABLE_TYPE.getValue(); type++) {
+            OFTableResource tableResource = new OFTableResource();
+            tableResource.setTableType(OFTableType.values()[type]);
+            tableResource.setTableNum((byte) 4);
+            resources.put(OFTableType.values()[type], tableResource);
+        }
+        resource.setTableResourcesMap(resources);
+        mgr.store.setFlowTableNoBase(DID, resource);
+
+        List<OFFlowTable> ofTables = ImmutableList.of(flowTable((byte) 0, (byte) 0).flowTable(),
+                                                      flowTable((byte) 0, (byte) 1).flowTable(),
+                                                      flowTable((byte) 0, (byte) 2).flowTable());
+        CompletableFuture<List<FlowTable>> created = service.createFlowTables(DID, ofTables, appId);
+
+        assertEquals("tables should be sent as one batch", 1, provider.batches.size());
+        FlowTableBatchOperation batch = provider.batches.get(0);
+        assertEquals("batch should hold every table", 3, batch.size());
+        assertFalse("tables should be pending", created.isDone());
+
+        providerService.batchOperationCompleted(batch.id(),
+                new CompletedTableBatchOperation(true, Collections.emptySet(), DID));
+
+        List<FlowTable> tables = created.get(1, TimeUnit.SECONDS);
+        assertEquals("all tables should be created", 3, tables.size());
+        assertEquals("table ids should be distinct", 3,
+                     tables.stream().map(FlowTable::id).distinct().count());
+    }
+
+    @Test
+    public void createFlowTablesOutOfTables() throws Exception {
+        Map<OFTableType, List<Integer>> released = new HashMap<>();
+        mgr.store = new SimpleFlowTableStore() {
+            @Override
+            public CompletableFuture<List<Integer>> getNewGlobalFlowTableIds(DeviceId deviceId, OFTableType type,
+                                                                             int count) {
+                // two tables left
+                return CompletableFuture.completedFuture(ImmutableList.of(0, 1));
+            }
+
+            @Override
+            public void addFreeFlowTableIds(DeviceId deviceId, OFTableType type, List<Integer> tableIds) {
+                released.put(type, tableIds);
+            }
+        };
+
+        List<OFFlowTable> ofTables = ImmutableList.of(flowTable((byte) 0, (byte) 0).flowTable(),
+                                                      flowTable((byte) 0, (byte) 1).flowTable(),
+                                                      flowTable((byte) 0, (byte) 2).flowTable());
+        CompletableFuture<List<FlowTable>> created = service.createFlowTables(DID, ofTables, appId);
+
+        assertTrue("creation should fail", created.isCompletedExceptionally());
+        assertTrue("no table should be sent", provider.batches.isEmpty());
+        assertEquals("allocated ids should be given back", ImmutableList.of(0, 1),
+                     released.get(OFTableType.OF_MM_TABLE));
+    }
+
+    @Test
+    public void createFlowTablesAllocationFailure() throws Exception {
+        Map<OFTableType, List<Integer>> released = new HashMap<>();
+        mgr.store = new SimpleFlowTableStore() {
+            @Override
+            public CompletableFuture<List<Integer>> getNewGlobalFlowTableIds(DeviceId deviceId, OFTableType type,
+                                                                             int count) {
+                // the allocation of the other table type fails
+                return type == OFTableType.OF_MM_TABLE ? CompletableFuture.completedFuture(ImmutableList.of(0)) :
+                        Tools.exceptionalFuture(new IllegalStateException("master unreachable"));
+            }
+
+            @Override
+            public void addFreeFlowTableIds(DeviceId deviceId, OFTableType type, List<Integer> tableIds) {
+                released.put(type, tableIds);
+            }
+        };
+
+        OFFlowTable other = flowTable((byte) 1, (byte) 0).flowTable();
+        other.setTableType(OFTableType.values()[1]);
+        List<OFFlowTable> ofTables = ImmutableList.of(flowTable((byte) 0, (byte) 0).flowTable(), other);
+        CompletableFuture<List<FlowTable>> created = service.createFlowTables(DID, ofTables, appId);
+
+        assertTrue("creation should fail", created.isCompletedExceptionally());
+        assertTrue("no table should be sent", provider.batches.isEmpty());
+        assertEquals("ids of the allocation that succeeded should be given back", ImmutableList.of(0),
+                     released.get(OFTableType.OF_MM_TABLE));
+        assertFalse("nothing to give back for the failed allocation", released.containsKey(OFTableType.values()[1]));
+    }
+
+    @Test
+    public void applyAsync() throws Exception {
+        FlowTable f1 = flowTable((byte) 0, (byte) 0);
+        FlowTable f2 = flowTable((byte) 1, (byte) 1);
+        List<CompletableFuture<Void>> stages = service.applyAsync(FlowTableOperations.builder()
+                .add(f1)
+                .newStage()
+                .add(f2)
+                .build());
+        assertEquals("should have a future per stage", 2, stages.size());
+
+        assertEquals("second stage should wait for the first", 1, provider.batches.size());
+        providerService.batchOperationCompleted(provider.batches.get(0).id(),
+                new CompletedTableBatchOperation(true, Collections.emptySet(), DID));
+        stages.get(0).get(1, TimeUnit.SECONDS);
+
+        assertEquals("second stage should be sent", 2, provider.batches.size());
+        assertFalse("second stage should be pending", stages.get(1).isDone());
+        providerService.batchOperationCompleted(provider.batches.get(1).id(),
+                new CompletedTableBatchOperation(true, Collections.emptySet(), DID));
+        stages.get(1).get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void applyAsyncFailure() throws Exception {
+        FlowTable f1 = flowTable((byte) 0, (byte) 0);
+        FlowTable f2 = flowTable((byte) 1, (byte) 1);
+        CompletableFuture<FlowTableOperations> failed = new CompletableFuture<>();
+        List<CompletableFuture<Void>> stages = service.applyAsync(FlowTableOperations.builder()
+                .add(f1)
+                .newStage()
+                .add(f2)
+                .build(new FlowTableOperationsContext() {
+                    @Override
+                    public void onError(FlowTableOperations ops) {
+                        failed.complete(ops);
+                    }
+                }));
+
+        providerService.batchOperationCompleted(provider.batches.get(0).id(),
+                new CompletedTableBatchOperation(false, ImmutableSet.of(f1), DID));
+
+        assertEquals("later stage should be skipped", 1, provider.batches.size());
+        for (int i = 0; i < stages.size(); i++) {
+            try {
+                stages.get(i).get(1, TimeUnit.SECONDS);
+                fail("stage " + i + " should have failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof FlowTableOperationsException);
+                FlowTable expected = i == 0 ? f1 : f2;
+                assertEquals(ImmutableSet.of(expected),
+                             ((FlowTableOperationsException) e.getCause()).failedTables());
+            }
+        }
+        assertEquals("callback should get every failed table", 2,
+                     failed.get(1, TimeUnit.SECONDS).stages().get(0).size());
+    }
+
+    @Test
+    public void applyAsyncTimeout() throws Exception {
+        mgr.modified(new ComponentContextAdapter() {
+            @Override
+            public Dictionary getProperties() {
+                Hashtable<String, String> props = new Hashtable<>();
+                props.put("batchTimeout", "50");
+                return props;
+            }
+        });
+
+        FlowTable f1 = flowTable((byte) 0, (byte) 0);
+        List<CompletableFuture<Void>> stages = service.applyAsync(FlowTableOperations.builder()
+                .add(f1)
+                .build());
+        try {
+            stages.get(0).get(1, TimeUnit.SECONDS);
+            fail("batch should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowTableOperationsException);
+            assertEquals(ImmutableSet.of(f1),
+                         ((FlowTableOperationsException) e.getCause()).failedTables());
+        }
+
+        // a late completion is ignored
+        providerService.batchOperationCompleted(provider.batches.get(0).id(),
+                new CompletedTableBatchOperation(true, Collections.emptySet(), DID));
+    }
+
     @Test
     public void getByAppId() {
         FlowTable f1 = flowTable((byte) 0, (byte) 0);
@@ -506,6 +734,8 @@ public class FlowTableManagerTest {
 
     private class TestProvider extends AbstractProvider implements FlowTableProvider {
 
+        private final List<FlowTableBatchOperation> batches = new ArrayList<>();
+
         protected TestProvider(ProviderId id) {
             super(PID);
         }
@@ -530,7 +760,8 @@ public class FlowTableManagerTest {
 
         @Override
         public void executeBatch(FlowTableBatchOperation batch) {
-            // TODO: need to call batchOperationComplete
+            // completed by the tests that need it
+            batches.add(batch);
         }
 
         private class TestInstallationFuture
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.Maps;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.StoredFlowEntry;
+import org.onosproject.net.flow.criteria.Criteria;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the flow rule store's per device table layouts, the default
+ * concurrent hash maps and the compact layout, for lookups, insertions and
+ * full scans as done by the statistics and backups. The heap retained by
+ * each layout is printed once the table is filled; run with {@code -prof gc}
+ * to compare the allocations as well.
+ * <p>
+ * The benchmark lives in the package of the store so that it can use the
+ * compact layout, which is private to the store, directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FlowRuleTableLayoutBenchmark {
+
+    private static final DeviceId DEVICE_ID = DeviceId.deviceId("pof:0000000000000001");
+    private static final int TABLE_ID = 1;
+
+    @Param({"concurrent", "compact"})
+    private String layout;
+
+    @Param({"10000", "100000"})
+    private int count;
+
+    private List<StoredFlowEntry> entries;
+    private Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> table;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new DefaultFlowEntry(flowRule(i)));
+        }
+
+        long before = usedHeap();
+        table = newTable();
+        entries.forEach(this::add);
+        long retained = usedHeap() - before;
+        System.out.printf("%n%s table of %d flows retains %d bytes per flow%n",
+                          layout, count, retained / count);
+    }
+
+    // a POF rule matching a destination MAC address, as the POF providers
+    // would install; the cookie keeps the flow ids apart
+    private static FlowRule flowRule(int entryId) {
+        ArrayList<Criterion> criteria = new ArrayList<>(1);
+        criteria.add(Criteria.matchOffsetLength("DMAC", (short) 0, (short) 0, (short) 48,
+                                                mac(entryId), mac(-1)));
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE_ID)
+                .forTable(TABLE_ID)
+                .withCookie(entryId)
+                .withPriority(entryId % 0xffff + 1)
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .add(Criteria.matchOffsetLength(criteria))
+                                      .build())
+                .withTreatment(DefaultTrafficTreatment.emptyTreatment())
+                .makePermanent()
+                .build();
+    }
+
+    private static byte[] mac(int value) {
+        return new byte[] {0x02, 0x00, (byte) (value >>> 24), (byte) (value >>> 16),
+                (byte) (value >>> 8), (byte) value};
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> newTable() {
+        return layout.equals("compact") ? new CompactFlowTable() : Maps.newConcurrentMap();
+    }
+
+    private Map<StoredFlowEntry, StoredFlowEntry> newFlowEntryMap() {
+        return layout.equals("compact") ? CompactFlowTable.newFlowEntryMap() : Maps.newConcurrentMap();
+    }
+
+    // as the store adds entries
+    private void add(StoredFlowEntry entry) {
+        table.computeIfAbsent(entry.id(), id -> newFlowEntryMap())
+                .compute(entry, (k, stored) -> entry);
+    }
+
+    private StoredFlowEntry nextEntry() {
+        StoredFlowEntry entry = entries.get(next);
+        next = (next + 1) % count;
+        return entry;
+    }
+
+    @Benchmark
+    public StoredFlowEntry lookup() {
+        StoredFlowEntry entry = nextEntry();
+        return table.get(entry.id()).get(entry);
+    }
+
+    @Benchmark
+    public Map<StoredFlowEntry, StoredFlowEntry> removeAndAdd() {
+        StoredFlowEntry entry = nextEntry();
+        table.computeIfPresent(entry.id(), (id, stored) -> {
+            stored.remove(entry);
+            return stored.isEmpty() ? null : stored;
+        });
+        add(entry);
+        return table.get(entry.id());
+    }
+
+    @Benchmark
+    public long scan() {
+        return table.values().stream()
+                .flatMap(m -> m.values().stream())
+                .filter(e -> e.state() != null)
+                .count();
+    }
+}
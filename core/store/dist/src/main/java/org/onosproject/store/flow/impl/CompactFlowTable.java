@@ -0,0 +1,481 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.Maps;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Flow table of a device laid out for large numbers of flows. Flow ids are
+ * kept as primitive longs in an open addressing table instead of boxed
+ * keys of hash map nodes, and the entries of each flow id in a small array
+ * map instead of a concurrent hash map of their own.
+ * <p>
+ * All operations lock the table, and the compute methods are atomic as on
+ * a concurrent map. Iterations are weakly consistent, as on a concurrent
+ * map: they walk the slots in place, without copying the table, and see
+ * each flow id present throughout the iteration exactly once. Removed flow
+ * ids leave a tombstone rather than moving other ids back, so no id moves
+ * under an iterator; a resize swaps in new arrays and leaves the old ones
+ * to the iterators still walking them. Removing through an iterator removes
+ * from the table.
+ */
+final class CompactFlowTable extends AbstractMap<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> {
+
+    private static final int MIN_CAPACITY = 16;
+    // slots in use, removed ones included, per slot at most
+    private static final float LOAD_FACTOR = 0.6f;
+    // value of the slots of removed flow ids
+    private static final Object REMOVED = new Object();
+
+    private long[] keys;
+    // null for free slots
+    private Object[] values;
+    private int size;
+    // slots not free, removed ones included
+    private int used;
+
+    /**
+     * Creates an empty flow table.
+     */
+    CompactFlowTable() {
+        keys = new long[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+    }
+
+    /**
+     * Creates an empty map of the flow entries of a flow id, laid out like
+     * the entries of this table.
+     *
+     * @return flow entry map
+     */
+    static Map<StoredFlowEntry, StoredFlowEntry> newFlowEntryMap() {
+        return new FlowEntryMap();
+    }
+
+    private static int hash(long key) {
+        // 64 bit finalizer of MurmurHash3, flow ids of an application differ in few bits
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    // slot of the key, or the slot where it would go
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        int removed = -1;
+        while (values[i] != null) {
+            if (values[i] == REMOVED) {
+                if (removed < 0) {
+                    removed = i;
+                }
+            } else if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return removed < 0 ? i : removed;
+    }
+
+    private static long key(Object key) {
+        return key instanceof FlowId ? ((FlowId) key).value() : 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<StoredFlowEntry, StoredFlowEntry> value(Object value) {
+        return value == REMOVED ? null : (Map<StoredFlowEntry, StoredFlowEntry>) value;
+    }
+
+    private Map<StoredFlowEntry, StoredFlowEntry> valueAt(int i) {
+        return value(values[i]);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return key instanceof FlowId && valueAt(slot(key(key))) != null;
+    }
+
+    @Override
+    public synchronized Map<StoredFlowEntry, StoredFlowEntry> get(Object key) {
+        return key instanceof FlowId ? valueAt(slot(key(key))) : null;
+    }
+
+    @Override
+    public synchronized Map<StoredFlowEntry, StoredFlowEntry> put(FlowId key,
+                                                                  Map<StoredFlowEntry, StoredFlowEntry> value) {
+        checkNotNull(value);
+        int i = slot(key.value());
+        Map<StoredFlowEntry, StoredFlowEntry> previous = valueAt(i);
+        boolean free = values[i] == null;
+        keys[i] = key.value();
+        values[i] = value;
+        if (previous == null) {
+            size++;
+            if (free && ++used > keys.length * LOAD_FACTOR) {
+                // doubles only if the live ids fill the table, else just drops the removed ones
+                resize(size > keys.length * LOAD_FACTOR / 2 ? keys.length * 2 : keys.length);
+            }
+        }
+        return previous;
+    }
+
+    @Override
+    public synchronized Map<StoredFlowEntry, StoredFlowEntry> remove(Object key) {
+        if (!(key instanceof FlowId)) {
+            return null;
+        }
+        int i = slot(key(key));
+        Map<StoredFlowEntry, StoredFlowEntry> previous = valueAt(i);
+        if (previous != null) {
+            values[i] = REMOVED;
+            size--;
+        }
+        return previous;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (value(oldValues[i]) != null) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+        used = size;
+    }
+
+    @Override
+    public synchronized void clear() {
+        keys = new long[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+        size = 0;
+        used = 0;
+    }
+
+    @Override
+    public synchronized Map<StoredFlowEntry, StoredFlowEntry> computeIfAbsent(
+            FlowId key, Function<? super FlowId, ? extends Map<StoredFlowEntry, StoredFlowEntry>> function) {
+        Map<StoredFlowEntry, StoredFlowEntry> value = get(key);
+        if (value == null) {
+            value = function.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized Map<StoredFlowEntry, StoredFlowEntry> computeIfPresent(
+            FlowId key, BiFunction<? super FlowId, ? super Map<StoredFlowEntry, StoredFlowEntry>,
+            ? extends Map<StoredFlowEntry, StoredFlowEntry>> function) {
+        Map<StoredFlowEntry, StoredFlowEntry> value = get(key);
+        return value == null ? null : update(key, function.apply(key, value));
+    }
+
+    @Override
+    public synchronized Map<StoredFlowEntry, StoredFlowEntry> compute(
+            FlowId key, BiFunction<? super FlowId, ? super Map<StoredFlowEntry, StoredFlowEntry>,
+            ? extends Map<StoredFlowEntry, StoredFlowEntry>> function) {
+        return update(key, function.apply(key, get(key)));
+    }
+
+    private Map<StoredFlowEntry, StoredFlowEntry> update(FlowId key, Map<StoredFlowEntry, StoredFlowEntry> value) {
+        if (value == null) {
+            remove(key);
+        } else {
+            put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Set<Entry<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>> entrySet() {
+        return new AbstractSet<Entry<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>>() {
+            @Override
+            public Iterator<Entry<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>> iterator() {
+                return new TableIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactFlowTable.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterator walking the slots of the arrays of the table when it started.
+     */
+    private final class TableIterator extends InPlaceIterator<Entry<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>> {
+
+        private final long[] slotKeys;
+        private final Object[] slotValues;
+        private int slot = -1;
+
+        private TableIterator() {
+            synchronized (CompactFlowTable.this) {
+                slotKeys = keys;
+                slotValues = values;
+            }
+        }
+
+        @Override
+        protected Entry<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> advance() {
+            // the arrays are only written under the lock of the table
+            synchronized (CompactFlowTable.this) {
+                while (++slot < slotValues.length) {
+                    Map<StoredFlowEntry, StoredFlowEntry> value = value(slotValues[slot]);
+                    if (value != null) {
+                        return Maps.immutableEntry(FlowId.valueOf(slotKeys[slot]), value);
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void remove(Entry<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> entry) {
+            CompactFlowTable.this.remove(entry.getKey());
+        }
+    }
+
+    /**
+     * Iterator fetching its elements one at a time from the backing map,
+     * removing from the map itself.
+     */
+    private abstract static class InPlaceIterator<E> implements Iterator<E> {
+
+        private E next;
+        private E last;
+        private boolean started;
+
+        // next element of the map, or null once past the last one
+        protected abstract E advance();
+
+        protected abstract void remove(E element);
+
+        @Override
+        public boolean hasNext() {
+            if (!started) {
+                next = advance();
+                started = true;
+            }
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = advance();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            remove(last);
+            last = null;
+        }
+    }
+
+    /**
+     * Flow entries of a flow id, usually a single one, as an array of
+     * alternating keys and values.
+     */
+    private static final class FlowEntryMap extends AbstractMap<StoredFlowEntry, StoredFlowEntry> {
+
+        private static final Object[] EMPTY = new Object[0];
+
+        private Object[] pairs = EMPTY;
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < pairs.length; i += 2) {
+                if (pairs[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public synchronized int size() {
+            return pairs.length / 2;
+        }
+
+        @Override
+        public synchronized boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public synchronized StoredFlowEntry get(Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : (StoredFlowEntry) pairs[i + 1];
+        }
+
+        @Override
+        public synchronized StoredFlowEntry put(StoredFlowEntry key, StoredFlowEntry value) {
+            checkNotNull(value);
+            int i = indexOf(key);
+            if (i >= 0) {
+                StoredFlowEntry previous = (StoredFlowEntry) pairs[i + 1];
+                pairs[i + 1] = value;
+                return previous;
+            }
+            Object[] grown = new Object[pairs.length + 2];
+            System.arraycopy(pairs, 0, grown, 0, pairs.length);
+            grown[pairs.length] = key;
+            grown[pairs.length + 1] = value;
+            pairs = grown;
+            return null;
+        }
+
+        @Override
+        public synchronized StoredFlowEntry remove(Object key) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return null;
+            }
+            StoredFlowEntry previous = (StoredFlowEntry) pairs[i + 1];
+            Object[] shrunk = pairs.length == 2 ? EMPTY : new Object[pairs.length - 2];
+            System.arraycopy(pairs, 0, shrunk, 0, i);
+            System.arraycopy(pairs, i + 2, shrunk, i, pairs.length - i - 2);
+            pairs = shrunk;
+            return previous;
+        }
+
+        @Override
+        public synchronized void clear() {
+            pairs = EMPTY;
+        }
+
+        @Override
+        public synchronized StoredFlowEntry computeIfAbsent(
+                StoredFlowEntry key, Function<? super StoredFlowEntry, ? extends StoredFlowEntry> function) {
+            StoredFlowEntry value = get(key);
+            if (value == null) {
+                value = function.apply(key);
+                if (value != null) {
+                    put(key, value);
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public synchronized StoredFlowEntry computeIfPresent(
+                StoredFlowEntry key,
+                BiFunction<? super StoredFlowEntry, ? super StoredFlowEntry, ? extends StoredFlowEntry> function) {
+            StoredFlowEntry value = get(key);
+            return value == null ? null : update(key, function.apply(key, value));
+        }
+
+        @Override
+        public synchronized StoredFlowEntry compute(
+                StoredFlowEntry key,
+                BiFunction<? super StoredFlowEntry, ? super StoredFlowEntry, ? extends StoredFlowEntry> function) {
+            return update(key, function.apply(key, get(key)));
+        }
+
+        private StoredFlowEntry update(StoredFlowEntry key, StoredFlowEntry value) {
+            if (value == null) {
+                remove(key);
+            } else {
+                put(key, value);
+            }
+            return value;
+        }
+
+        @Override
+        public Set<Entry<StoredFlowEntry, StoredFlowEntry>> entrySet() {
+            return new AbstractSet<Entry<StoredFlowEntry, StoredFlowEntry>>() {
+                @Override
+                public Iterator<Entry<StoredFlowEntry, StoredFlowEntry>> iterator() {
+                    return new PairIterator();
+                }
+
+                @Override
+                public int size() {
+                    return FlowEntryMap.this.size();
+                }
+            };
+        }
+
+        /**
+         * Iterator walking the array of pairs of the map when it started;
+         * adding or removing entries swaps in a new array.
+         */
+        private final class PairIterator extends InPlaceIterator<Entry<StoredFlowEntry, StoredFlowEntry>> {
+
+            private final Object[] iterated;
+            private int index = -2;
+
+            private PairIterator() {
+                synchronized (FlowEntryMap.this) {
+                    iterated = pairs;
+                }
+            }
+
+            @Override
+            protected Entry<StoredFlowEntry, StoredFlowEntry> advance() {
+                index += 2;
+                if (index >= iterated.length) {
+                    return null;
+                }
+                // values are replaced in place under the lock of the map
+                synchronized (FlowEntryMap.this) {
+                    return Maps.immutableEntry((StoredFlowEntry) iterated[index],
+                                               (StoredFlowEntry) iterated[index + 1]);
+                }
+            }
+
+            @Override
+            protected void remove(Entry<StoredFlowEntry, StoredFlowEntry> entry) {
+                FlowEntryMap.this.remove(entry.getKey());
+            }
+        }
+    }
+}
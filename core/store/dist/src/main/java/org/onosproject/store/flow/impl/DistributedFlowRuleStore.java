@@ -15,14 +15,16 @@
  */
 package org.onosproject.store.flow.impl;
 
+ import java.io.IOException;
+ import java.util.Collection;
  import java.util.Collections;
  import java.util.Dictionary;
  import java.util.HashSet;
  import java.util.List;
  import java.util.Map;
  import java.util.Objects;
- import java.util.Optional;
  import java.util.Set;
+ import java.util.concurrent.CompletableFuture;
  import java.util.concurrent.ExecutorService;
  import java.util.concurrent.Executors;
  import java.util.concurrent.ScheduledExecutorService;
@@ -30,6 +32,7 @@ package org.onosproject.store.flow.impl;
  import java.util.concurrent.TimeUnit;
  import java.util.concurrent.atomic.AtomicInteger;
  import java.util.concurrent.atomic.AtomicReference;
+ import java.util.function.IntPredicate;
  import java.util.stream.Collectors;
 
  import org.apache.felix.scr.annotations.Activate;
@@ -44,7 +47,9 @@ package org.onosproject.store.flow.impl;
  import org.onlab.util.Tools;
  import org.onosproject.cfg.ComponentConfigService;
  import org.onosproject.cluster.ClusterService;
+ import org.onosproject.cluster.ControllerNode;
  import org.onosproject.cluster.NodeId;
+ import org.onosproject.core.ApplicationId;
  import org.onosproject.core.CoreService;
  import org.onosproject.core.IdGenerator;
  import org.onosproject.mastership.MastershipService;
@@ -69,7 +74,6 @@ package org.onosproject.store.flow.impl;
  import org.onosproject.net.flow.StoredFlowEntry;
  import org.onosproject.net.flow.TableStatisticsEntry;
  import org.onosproject.net.flow.criteria.Criterion;
- import org.onosproject.net.table.FlowTable;
  import org.onosproject.net.table.FlowTableId;
  import org.onosproject.net.table.FlowTableStore;
  import org.onosproject.persistence.PersistenceService;
@@ -92,7 +96,9 @@ package org.onosproject.store.flow.impl;
  import org.slf4j.Logger;
 
  import com.google.common.collect.ImmutableList;
+ import com.google.common.collect.ImmutableMap;
  import com.google.common.collect.Iterables;
+ import com.google.common.collect.Lists;
  import com.google.common.collect.Maps;
  import com.google.common.collect.Sets;
  import com.google.common.util.concurrent.Futures;
@@ -104,6 +110,9 @@ package org.onosproject.store.flow.impl;
  import static org.onosproject.store.flow.ReplicaInfoEvent.Type.MASTER_CHANGED;
  import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.APPLY_BATCH_FLOWS;
  import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.FLOW_TABLE_BACKUP;
+ import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.FLOW_TABLE_DIGEST;
+ import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.GET_APP_FLOW_ENTRIES;
+ import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.GET_DEVICE_APP_FLOW_ENTRIES;
  import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.GET_DEVICE_FLOW_ENTRIES;
  import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.GET_FLOW_ENTRY;
  import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.REMOTE_APPLY_COMPLETED;
@@ -124,10 +133,19 @@ public class DistributedFlowRuleStore
     private static final int MESSAGE_HANDLER_THREAD_POOL_SIZE = 8;
     private static final int DEFAULT_MAX_BACKUP_COUNT = 2;
     private static final boolean DEFAULT_PERSISTENCE_ENABLED = false;
+    private static final boolean DEFAULT_COMPACT_FLOW_TABLE = false;
     private static final int DEFAULT_BACKUP_PERIOD_MILLIS = 2000;
     private static final long FLOW_RULE_STORE_TIMEOUT_MILLIS = 5000;
     // number of devices whose flow entries will be backed up in one communication round
     private static final int FLOW_TABLE_BACKUP_BATCH_SIZE = 1;
+    // number of devices whose changed flow entries will be backed up in one communication round
+    private static final int FLOW_TABLE_DELTA_BATCH_SIZE = 32;
+    // delay in ms between successive comparisons of the backups with the master's tables
+    private static final int FLOW_TABLE_DIGEST_PERIOD_MILLIS = 10000;
+    private static final int DEFAULT_SNAPSHOT_PERIOD_MILLIS = 0;
+    private static final String FLOW_TABLE_SNAPSHOT_FILE = "flow-tables.snapshot";
+    // snapshots older than this, or than two snapshot periods, are not restored
+    private static final long FLOW_TABLE_SNAPSHOT_MAX_AGE_MILLIS = 300000;
 
     @Property(name = "msgHandlerPoolSize", intValue = MESSAGE_HANDLER_THREAD_POOL_SIZE,
             label = "Number of threads in the message handler pool")
@@ -144,6 +162,16 @@ public class DistributedFlowRuleStore
             label = "Max number of backup copies for each device")
     private volatile int backupCount = DEFAULT_MAX_BACKUP_COUNT;
 
+    @Property(name = "compactFlowTable", boolValue = DEFAULT_COMPACT_FLOW_TABLE,
+            label = "Indicates whether or not flow tables should use the compact layout for large numbers " +
+                    "of flows; applies to the tables of devices seen afterwards, when not persisted")
+    private volatile boolean compactFlowTable = DEFAULT_COMPACT_FLOW_TABLE;
+
+    @Property(name = "snapshotPeriod", intValue = DEFAULT_SNAPSHOT_PERIOD_MILLIS,
+            label = "Delay in ms between successive snapshots of the locally mastered flow tables to disk, " +
+                    "used to warm start the tables after a restart; 0 disables the snapshots")
+    private int snapshotPeriod = DEFAULT_SNAPSHOT_PERIOD_MILLIS;
+
     private InternalFlowTable flowTable = new InternalFlowTable();
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
@@ -178,6 +206,9 @@ public class DistributedFlowRuleStore
     private ExecutorService eventHandler;
 
     private ScheduledFuture<?> backupTask;
+    private ScheduledFuture<?> digestTask;
+    private ScheduledFuture<?> snapshotTask;
+    private FlowTableSnapshotFile snapshotFile;
     private final ScheduledExecutorService backupSenderExecutor =
             Executors.newSingleThreadScheduledExecutor(groupedThreads("onos/flow", "backup-sender", log));
 
@@ -188,7 +219,15 @@ public class DistributedFlowRuleStore
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected StorageService storageService;
 
-    protected final Serializer serializer = Serializer.using(KryoNamespaces.POF);
+    protected final Serializer serializer = Serializer.using(KryoNamespaces.POF,
+                                                                      FlowTableBackup.class,
+                                                                      FlowTableDigest.class,
+                                                                      FlowRuleIndex.Query.class);
+
+    private final KryoNamespace snapshotNamespace = KryoNamespace.newBuilder()
+            .register(KryoNamespaces.POF)
+            .register(FlowTableBackup.class)
+            .build();
 
     protected final KryoNamespace.Builder serializerBuilder = KryoNamespace.newBuilder()
             .register(KryoNamespaces.POF)
@@ -206,6 +245,21 @@ public class DistributedFlowRuleStore
 
         local = clusterService.getLocalNode().id();
 
+        if (context != null) {
+            // bundle's persistent storage area directory
+            snapshotFile = new FlowTableSnapshotFile(
+                    context.getBundleContext().getDataFile("").toPath().resolve(FLOW_TABLE_SNAPSHOT_FILE),
+                    snapshotNamespace);
+            snapshotPeriod = Tools.getIntegerProperty(context.getProperties(), "snapshotPeriod", snapshotPeriod);
+            if (snapshotPeriod > 0) {
+                flowTable.loadSnapshot();
+                rescheduleSnapshots();
+            } else {
+                // a snapshot left behind would be stale by the time snapshots are enabled again
+                flowTable.dropSnapshot();
+            }
+        }
+
         eventHandler = Executors.newSingleThreadExecutor(
                 groupedThreads("onos/flow", "event-handler", log));
         messageHandlingExecutor = Executors.newFixedThreadPool(
@@ -219,6 +273,11 @@ public class DistributedFlowRuleStore
                 0,
                 backupPeriod,
                 TimeUnit.MILLISECONDS);
+        digestTask = backupSenderExecutor.scheduleWithFixedDelay(
+                flowTable::checkBackups,
+                FLOW_TABLE_DIGEST_PERIOD_MILLIS,
+                FLOW_TABLE_DIGEST_PERIOD_MILLIS,
+                TimeUnit.MILLISECONDS);
 
         deviceTableStats = storageService.<DeviceId, List<TableStatisticsEntry>>eventuallyConsistentMapBuilder()
                 .withName("onos-flow-table-stats")
@@ -236,6 +295,11 @@ public class DistributedFlowRuleStore
     public void deactivate(ComponentContext context) {
         replicaInfoManager.removeListener(flowTable);
         backupTask.cancel(true);
+        digestTask.cancel(true);
+        if (snapshotTask != null) {
+            snapshotTask.cancel(false);
+            flowTable.snapshot();
+        }
         configService.unregisterProperties(getClass(), false);
         unregisterMessageHandlers();
         deviceTableStats.removeListener(tableStatsListener);
@@ -258,6 +322,8 @@ public class DistributedFlowRuleStore
         int newPoolSize;
         int newBackupPeriod;
         int newBackupCount;
+        boolean newCompactFlowTable;
+        int newSnapshotPeriod;
         try {
             String s = get(properties, "msgHandlerPoolSize");
             newPoolSize = isNullOrEmpty(s) ? msgHandlerPoolSize : Integer.parseInt(s.trim());
@@ -267,10 +333,18 @@ public class DistributedFlowRuleStore
 
             s = get(properties, "backupCount");
             newBackupCount = isNullOrEmpty(s) ? backupCount : Integer.parseInt(s.trim());
+
+            s = get(properties, "compactFlowTable");
+            newCompactFlowTable = isNullOrEmpty(s) ? compactFlowTable : Boolean.parseBoolean(s.trim());
+
+            s = get(properties, "snapshotPeriod");
+            newSnapshotPeriod = isNullOrEmpty(s) ? snapshotPeriod : Integer.parseInt(s.trim());
         } catch (NumberFormatException | ClassCastException e) {
             newPoolSize = MESSAGE_HANDLER_THREAD_POOL_SIZE;
             newBackupPeriod = DEFAULT_BACKUP_PERIOD_MILLIS;
             newBackupCount = DEFAULT_MAX_BACKUP_COUNT;
+            newCompactFlowTable = DEFAULT_COMPACT_FLOW_TABLE;
+            newSnapshotPeriod = DEFAULT_SNAPSHOT_PERIOD_MILLIS;
         }
 
         boolean restartBackupTask = false;
@@ -303,9 +377,34 @@ public class DistributedFlowRuleStore
         if (backupCount != newBackupCount) {
             backupCount = newBackupCount;
         }
+        compactFlowTable = newCompactFlowTable;
+        if (newSnapshotPeriod != snapshotPeriod || (snapshotTask == null && snapshotPeriod > 0)) {
+            snapshotPeriod = newSnapshotPeriod;
+            rescheduleSnapshots();
+        }
         logConfig("Reconfigured");
     }
 
+    private void rescheduleSnapshots() {
+        if (snapshotTask != null) {
+            snapshotTask.cancel(false);
+            snapshotTask = null;
+        }
+        if (snapshotFile == null) {
+            return;
+        }
+        if (snapshotPeriod > 0) {
+            snapshotTask = backupSenderExecutor.scheduleWithFixedDelay(
+                    flowTable::snapshot,
+                    snapshotPeriod,
+                    snapshotPeriod,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            // a snapshot left behind would be stale by the time snapshots are enabled again
+            backupSenderExecutor.execute(flowTable::dropSnapshot);
+        }
+    }
+
     private void registerMessageHandlers(ExecutorService executor) {
 
         clusterCommunicator.addSubscriber(APPLY_BATCH_FLOWS, new OnStoreBatch(), executor);
@@ -315,24 +414,36 @@ public class DistributedFlowRuleStore
                 GET_FLOW_ENTRY, serializer::decode, flowTable::getFlowEntry, serializer::encode, executor);
         clusterCommunicator.addSubscriber(
                 GET_DEVICE_FLOW_ENTRIES, serializer::decode, flowTable::getFlowEntries, serializer::encode, executor);
+        clusterCommunicator.addSubscriber(
+                GET_DEVICE_APP_FLOW_ENTRIES, serializer::decode, flowTable::getAppFlowEntries, serializer::encode,
+                executor);
+        clusterCommunicator.addSubscriber(
+                GET_APP_FLOW_ENTRIES, serializer::decode, flowTable::getMasteredAppFlowEntries, serializer::encode,
+                executor);
         clusterCommunicator.addSubscriber(
                 REMOVE_FLOW_ENTRY, serializer::decode, this::removeFlowRuleInternal, serializer::encode, executor);
         clusterCommunicator.addSubscriber(
                 FLOW_TABLE_BACKUP, serializer::decode, flowTable::onBackupReceipt, serializer::encode, executor);
+        clusterCommunicator.addSubscriber(
+                FLOW_TABLE_DIGEST, serializer::decode, flowTable::onDigestReceipt, serializer::encode, executor);
     }
 
     private void unregisterMessageHandlers() {
         clusterCommunicator.removeSubscriber(REMOVE_FLOW_ENTRY);
         clusterCommunicator.removeSubscriber(GET_DEVICE_FLOW_ENTRIES);
+        clusterCommunicator.removeSubscriber(GET_DEVICE_APP_FLOW_ENTRIES);
+        clusterCommunicator.removeSubscriber(GET_APP_FLOW_ENTRIES);
         clusterCommunicator.removeSubscriber(GET_FLOW_ENTRY);
         clusterCommunicator.removeSubscriber(APPLY_BATCH_FLOWS);
         clusterCommunicator.removeSubscriber(REMOTE_APPLY_COMPLETED);
         clusterCommunicator.removeSubscriber(FLOW_TABLE_BACKUP);
+        clusterCommunicator.removeSubscriber(FLOW_TABLE_DIGEST);
     }
 
     private void logConfig(String prefix) {
-        log.info("{} with msgHandlerPoolSize = {}; backupPeriod = {}, backupCount = {}",
-                 prefix, msgHandlerPoolSize, backupPeriod, backupCount);
+        log.info("{} with msgHandlerPoolSize = {}; backupPeriod = {}, backupCount = {}, compactFlowTable = {}, " +
+                         "snapshotPeriod = {}",
+                 prefix, msgHandlerPoolSize, backupPeriod, backupCount, compactFlowTable, snapshotPeriod);
     }
 
     // This is not a efficient operation on a distributed sharded
@@ -397,6 +508,74 @@ public class DistributedFlowRuleStore
                                Collections.emptyList());
     }
 
+    @Override
+    public Iterable<FlowEntry> getFlowEntries(DeviceId deviceId, ApplicationId appId) {
+        return getAppFlowEntries(new FlowRuleIndex.Query(deviceId, appId.id(), null));
+    }
+
+    @Override
+    public Iterable<FlowEntry> getFlowEntries(DeviceId deviceId, ApplicationId appId, short groupId) {
+        return getAppFlowEntries(new FlowRuleIndex.Query(deviceId, appId.id(),
+                                                      FlowRuleIndex.groupKey(appId.id(), groupId)));
+    }
+
+    @Override
+    public Iterable<FlowEntry> getFlowEntries(ApplicationId appId) {
+        return getClusterAppFlowEntries(new FlowRuleIndex.Query(null, appId.id(), null));
+    }
+
+    @Override
+    public Iterable<FlowEntry> getFlowEntries(ApplicationId appId, short groupId) {
+        return getClusterAppFlowEntries(new FlowRuleIndex.Query(null, appId.id(),
+                                                             FlowRuleIndex.groupKey(appId.id(), groupId)));
+    }
+
+    /**
+     * Looks up the entries of an application on all devices. The tables are
+     * sharded by master, so every active node is asked once for the devices
+     * it masters, and answers from their indexes.
+     */
+    private Iterable<FlowEntry> getClusterAppFlowEntries(FlowRuleIndex.Query query) {
+        List<CompletableFuture<Set<FlowEntry>>> replies = clusterService.getNodes().stream()
+                .map(ControllerNode::id)
+                .filter(nodeId -> !Objects.equals(local, nodeId) && clusterService.getState(nodeId).isActive())
+                .map(nodeId -> clusterCommunicator.<FlowRuleIndex.Query, Set<FlowEntry>>sendAndReceive(
+                        query, GET_APP_FLOW_ENTRIES, serializer::encode, serializer::decode, nodeId))
+                .collect(Collectors.toList());
+
+        Set<FlowEntry> entries = Sets.newHashSet(flowTable.getMasteredAppFlowEntries(query));
+        replies.forEach(reply -> entries.addAll(Tools.futureGetOrElse(reply,
+                                                                      FLOW_RULE_STORE_TIMEOUT_MILLIS,
+                                                                      TimeUnit.MILLISECONDS,
+                                                                      Collections.emptySet())));
+        return entries;
+    }
+
+    private Iterable<FlowEntry> getAppFlowEntries(FlowRuleIndex.Query query) {
+        NodeId master = mastershipService.getMasterFor(query.deviceId());
+
+        if (master == null) {
+            log.debug("Failed to getFlowEntries: No master for {}", query.deviceId());
+            return Collections.emptyList();
+        }
+
+        if (Objects.equals(local, master)) {
+            return flowTable.getAppFlowEntries(query);
+        }
+
+        log.trace("Forwarding getFlowEntries of app {} to {}, which is the primary (master) for device {}",
+                  query.appId(), master, query.deviceId());
+
+        return Tools.futureGetOrElse(clusterCommunicator.sendAndReceive(query,
+                                    GET_DEVICE_APP_FLOW_ENTRIES,
+                                    serializer::encode,
+                                    serializer::decode,
+                                    master),
+                               FLOW_RULE_STORE_TIMEOUT_MILLIS,
+                               TimeUnit.MILLISECONDS,
+                               Collections.emptyList());
+    }
+
     @Override
     public void storeFlowRule(FlowRule rule) {
         storeBatch(new FlowRuleBatchOperation(
@@ -428,21 +607,7 @@ public class DistributedFlowRuleStore
         }
 
         if (Objects.equals(local, master)) {
-            log.info("++++ judge whether this flowRule belongs to POF");
-            if (deviceId.uri().getScheme().equals("pof")) {
-                FlowRule flowRule = operation.getOperations().get(0).target();
-                FlowTable flowTable = flowTableStore.getFlowTableInternal(flowRule.deviceId(),
-                        FlowTableId.valueOf(flowRule.tableId()));
-                Set<Criterion> criterions = flowRule.selector().criteria();
-                Optional<Criterion> criterionOptional = criterions.stream()
-                        .filter(criterion -> criterion.type() != Criterion.Type.POF)
-                        .findFirst();
-                if (flowTable != null && !criterionOptional.isPresent()) {
-                    storeBatchInternal(operation);
-                }
-            } else {
-                storeBatchInternal(operation);
-            }
+            storeBatchInternal(operation);
             return;
         }
 
@@ -472,6 +637,19 @@ public class DistributedFlowRuleStore
     private void storeBatchInternal(FlowRuleBatchOperation operation) {
 
         final DeviceId did = operation.deviceId();
+        Set<FlowRule> rejected = rejectedPofRules(operation);
+        if (!rejected.isEmpty()) {
+            // the entries of a batch complete together, so the whole batch fails
+            log.warn("Failing batch {} for {}: rules without their table or with non POF matches {}",
+                     operation.id(), did, rejected);
+            Set<FlowRule> allFailures = operation.getOperations().stream()
+                    .map(FlowRuleBatchEntry::target)
+                    .collect(Collectors.toSet());
+            batchOperationComplete(FlowRuleBatchEvent.completed(
+                    new FlowRuleBatchRequest(operation.id(), Collections.emptySet()),
+                    new CompletedBatchOperation(false, allFailures, did)));
+            return;
+        }
         //final Collection<FlowEntry> ft = flowTable.getFlowEntries(did);
         Set<FlowRuleBatchEntry> currentOps = updateStoreInternal(operation);
         if (currentOps.isEmpty()) {
@@ -486,6 +664,27 @@ public class DistributedFlowRuleStore
                                                 currentOps), operation.deviceId()));
     }
 
+    /**
+     * Returns the rules of a batch for a POF device that cannot be installed,
+     * as their table is not stored or they match on other than POF fields.
+     * Removals go through whatever their table.
+     *
+     * @param operation batch of flow rules
+     * @return rules to reject
+     */
+    private Set<FlowRule> rejectedPofRules(FlowRuleBatchOperation operation) {
+        if (!operation.deviceId().uri().getScheme().equals("pof")) {
+            return Collections.emptySet();
+        }
+        return operation.getOperations().stream()
+                .filter(op -> op.operator() != FlowRuleBatchEntry.FlowRuleOperation.REMOVE)
+                .map(FlowRuleBatchEntry::target)
+                .filter(rule -> flowTableStore.getFlowTableInternal(rule.deviceId(),
+                                                                    FlowTableId.valueOf(rule.tableId())) == null ||
+                        rule.selector().criteria().stream().anyMatch(c -> c.type() != Criterion.Type.POF))
+                .collect(Collectors.toSet());
+    }
+
     private Set<FlowRuleBatchEntry> updateStoreInternal(FlowRuleBatchOperation operation) {
         return operation.getOperations().stream().map(
                 op -> {
@@ -504,6 +703,7 @@ public class DistributedFlowRuleStore
                             if (entry != null) {
                                 //FIXME modification of "stored" flow entry outside of flow table
                                 entry.setState(FlowEntryState.PENDING_REMOVE);
+                                flowTable.changed(entry);
                                 log.debug("Setting state of rule to pending remove: {}", entry);
                                 return op;
                             }
@@ -536,6 +736,7 @@ public class DistributedFlowRuleStore
             if (stored != null &&
                     stored.state() != FlowEntryState.PENDING_ADD) {
                 stored.setState(FlowEntryState.PENDING_ADD);
+                flowTable.changed(stored);
                 return new FlowRuleEvent(Type.RULE_UPDATED, rule);
             }
         }
@@ -554,6 +755,25 @@ public class DistributedFlowRuleStore
         return null;
     }
 
+    @Override
+    public List<FlowRuleEvent> addOrUpdateFlowRules(DeviceId deviceId, Collection<FlowEntry> rules) {
+        NodeId master = mastershipService.getMasterFor(deviceId);
+        if (!Objects.equals(local, master)) {
+            log.warn("Tried to update {} FlowRule states of {},"
+                             + " while the Node was not the master.", rules.size(), deviceId);
+            return Collections.emptyList();
+        }
+
+        List<FlowRuleEvent> events = Lists.newArrayList();
+        for (FlowEntry rule : rules) {
+            FlowRuleEvent event = addOrUpdateFlowRuleInternal(rule);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
     private FlowRuleEvent addOrUpdateFlowRuleInternal(FlowEntry rule) {
         // check if this new rule is an update to an existing entry
         StoredFlowEntry stored = flowTable.getFlowEntry(rule);
@@ -566,6 +786,7 @@ public class DistributedFlowRuleStore
             stored.setLastSeen();
             if (stored.state() == FlowEntryState.PENDING_ADD) {
                 stored.setState(FlowEntryState.ADDED);
+                flowTable.changed(stored);
                 return new FlowRuleEvent(Type.RULE_ADDED, rule);
             }
             return new FlowRuleEvent(Type.RULE_UPDATED, rule);
@@ -695,8 +916,18 @@ public class DistributedFlowRuleStore
         private final Map<DeviceId, Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>>
                 flowEntries = Maps.newConcurrentMap();
 
-        private final Map<BackupOperation, Long> lastBackupTimes = Maps.newConcurrentMap();
-        private final Map<DeviceId, Long> lastUpdateTimes = Maps.newConcurrentMap();
+        // on the master: table versions, and the versions each backup node acknowledged
+        private final Map<DeviceId, FlowTableChangeLog> changeLogs = Maps.newConcurrentMap();
+        private final Map<BackupOperation, Long> backupVersions = Maps.newConcurrentMap();
+        private final Set<BackupOperation> pendingBackups = Sets.newConcurrentHashSet();
+        // on the backup nodes: version of the backup held for each device
+        private final Map<DeviceId, Long> receivedVersions = Maps.newConcurrentMap();
+        // on the master: flow ids of the table by application and group
+        private final Map<DeviceId, FlowRuleIndex> indexes = Maps.newConcurrentMap();
+        // tables read from the snapshot file at startup, until their devices are mastered locally
+        private final Map<DeviceId, FlowTableBackup> restoredTables = Maps.newConcurrentMap();
+        // table versions written with the last snapshot
+        private Map<DeviceId, Long> snapshotVersions = ImmutableMap.of();
 
         @Override
         public void event(ReplicaInfoEvent event) {
@@ -706,50 +937,94 @@ public class DistributedFlowRuleStore
         private void handleEvent(ReplicaInfoEvent event) {
             DeviceId deviceId = event.subject();
             if (!mastershipService.isLocalMaster(deviceId)) {
+                indexes.remove(deviceId);
                 return;
             }
             if (event.type() == MASTER_CHANGED) {
-                lastUpdateTimes.put(deviceId, System.currentTimeMillis());
+                // the backups may have been written by another master meanwhile
+                backupVersions.keySet().removeIf(op -> op.deviceId.equals(deviceId));
+                restoreTable(deviceId);
+                // the table was last written as a backup, which is not indexed
+                rebuildIndex(deviceId);
             }
             backupSenderExecutor.schedule(this::backup, 0, TimeUnit.SECONDS);
         }
 
         private void sendBackups(NodeId nodeId, Set<DeviceId> deviceIds) {
+            Map<DeviceId, FlowTableBackup> snapshots = Maps.newHashMap();
+            Map<DeviceId, FlowTableBackup> deltas = Maps.newHashMap();
+            deviceIds.forEach(deviceId -> {
+                FlowTableBackup backup = getBackup(nodeId, deviceId);
+                (backup.isSnapshot() ? snapshots : deltas).put(deviceId, backup);
+            });
             // split up the devices into smaller batches and send them separately.
-            Iterables.partition(deviceIds, FLOW_TABLE_BACKUP_BATCH_SIZE)
-                     .forEach(ids -> backupFlowEntries(nodeId, Sets.newHashSet(ids)));
+            Iterables.partition(snapshots.keySet(), FLOW_TABLE_BACKUP_BATCH_SIZE)
+                     .forEach(ids -> backupFlowEntries(nodeId, Maps.newHashMap(Maps.toMap(ids, snapshots::get))));
+            Iterables.partition(deltas.keySet(), FLOW_TABLE_DELTA_BATCH_SIZE)
+                     .forEach(ids -> backupFlowEntries(nodeId, Maps.newHashMap(Maps.toMap(ids, deltas::get))));
+        }
+
+        /**
+         * Returns the backup of a device for a backup node: the entries
+         * changed since the version the node acknowledged last, or the whole
+         * table if the node holds no known version.
+         */
+        private FlowTableBackup getBackup(NodeId nodeId, DeviceId deviceId) {
+            FlowTableChangeLog changeLog = getChangeLog(deviceId);
+            Long acknowledged = backupVersions.get(new BackupOperation(nodeId, deviceId));
+            if (acknowledged != null) {
+                FlowTableBackup delta = changeLog.delta(acknowledged, this::getStoredFlowEntry);
+                if (delta != null) {
+                    return delta;
+                }
+            }
+            // the version is taken first, later changes are sent again with the next delta
+            long version = changeLog.version();
+            return FlowTableBackup.snapshot(version, getStoredFlowEntries(deviceId, bucket -> true));
         }
 
-        private void backupFlowEntries(NodeId nodeId, Set<DeviceId> deviceIds) {
-            if (deviceIds.isEmpty()) {
+        /**
+         * Returns the stored entries of a device whose flow ids fall into
+         * the given digest buckets.
+         */
+        private List<StoredFlowEntry> getStoredFlowEntries(DeviceId deviceId, IntPredicate buckets) {
+            return getFlowTable(deviceId).entrySet().stream()
+                    .filter(e -> buckets.test(FlowTableDigest.bucket(e.getKey())))
+                    .flatMap(e -> e.getValue().values().stream())
+                    .collect(Collectors.toList());
+        }
+
+        private void backupFlowEntries(NodeId nodeId, Map<DeviceId, FlowTableBackup> backups) {
+            if (backups.isEmpty()) {
                 return;
             }
-            log.debug("Sending flowEntries for devices {} to {} for backup.", deviceIds, nodeId);
-            Map<DeviceId, Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>>
-                    deviceFlowEntries = Maps.newConcurrentMap();
-            deviceIds.forEach(id -> deviceFlowEntries.put(id, getFlowTableCopy(id)));
-            clusterCommunicator.<Map<DeviceId,
-                                 Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>>,
-                                 Set<DeviceId>>
-                    sendAndReceive(deviceFlowEntries,
+            log.debug("Sending flowEntries for devices {} to {} for backup.", backups, nodeId);
+            backups.keySet().forEach(id -> pendingBackups.add(new BackupOperation(nodeId, id)));
+            clusterCommunicator.<Map<DeviceId, FlowTableBackup>, Set<DeviceId>>
+                    sendAndReceive(backups,
                                    FLOW_TABLE_BACKUP,
                                    serializer::encode,
                                    serializer::decode,
                                    nodeId)
                     .whenComplete((backedupDevices, error) -> {
                         Set<DeviceId> devicesNotBackedup = error != null ?
-                            deviceFlowEntries.keySet() :
-                            Sets.difference(deviceFlowEntries.keySet(), backedupDevices);
+                            backups.keySet() :
+                            Sets.difference(backups.keySet(), backedupDevices);
                         if (devicesNotBackedup.size() > 0) {
                             log.warn("Failed to backup devices: {}. Reason: {}, Node: {}",
                                      devicesNotBackedup, error != null ? error.getMessage() : "none",
                                      nodeId);
                         }
-                        if (backedupDevices != null) {
-                            backedupDevices.forEach(id -> {
-                                lastBackupTimes.put(new BackupOperation(nodeId, id), System.currentTimeMillis());
-                            });
-                        }
+                        backups.forEach((id, backup) -> {
+                            BackupOperation op = new BackupOperation(nodeId, id);
+                            if (devicesNotBackedup.contains(id)) {
+                                // the node holds an unknown version, it gets a snapshot next
+                                backupVersions.remove(op);
+                            } else {
+                                backupVersions.put(op, backup.version());
+                            }
+                            pendingBackups.remove(op);
+                        });
                     });
         }
 
@@ -777,38 +1052,59 @@ public class DistributedFlowRuleStore
                         })
                         .build());
             } else {
-                return flowEntries.computeIfAbsent(deviceId, id -> Maps.newConcurrentMap());
+                return flowEntries.computeIfAbsent(deviceId, id -> compactFlowTable ?
+                        new CompactFlowTable() : Maps.newConcurrentMap());
             }
         }
 
-        private Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> getFlowTableCopy(DeviceId deviceId) {
-            Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> copy = Maps.newHashMap();
-            if (persistenceEnabled) {
-                return flowEntries.computeIfAbsent(deviceId, id -> persistenceService
-                        .<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>persistentMapBuilder()
-                        .withName("FlowTable:" + deviceId.toString())
-                        .withSerializer(new Serializer() {
-                            @Override
-                            public <T> byte[] encode(T object) {
-                                return serializer.encode(object);
-                            }
+        private FlowRuleIndex getIndex(DeviceId deviceId) {
+            return indexes.computeIfAbsent(deviceId, this::buildIndex);
+        }
 
-                            @Override
-                            public <T> T decode(byte[] bytes) {
-                                return serializer.decode(bytes);
-                            }
-                        })
-                        .build());
-            } else {
-                flowEntries.computeIfAbsent(deviceId, id -> Maps.newConcurrentMap()).forEach((k, v) -> {
-                    copy.put(k, Maps.newHashMap(v));
-                });
-                return copy;
-            }
+        private FlowRuleIndex buildIndex(DeviceId deviceId) {
+            FlowRuleIndex index = new FlowRuleIndex();
+            indexTable(deviceId, index);
+            return index;
+        }
+
+        private void indexTable(DeviceId deviceId, FlowRuleIndex index) {
+            getFlowTable(deviceId).values().forEach(entries -> entries.keySet().forEach(index::add));
+        }
+
+        /**
+         * Rebuilds the index of a device from its local table. The new index
+         * is built aside and swapped in, so that lookups meanwhile still go
+         * through the previous one.
+         *
+         * @param deviceId identifier of the device
+         */
+        private void rebuildIndex(DeviceId deviceId) {
+            FlowRuleIndex index = buildIndex(deviceId);
+            indexes.put(deviceId, index);
+            // entries added during the first scan may have been indexed in the previous index only
+            indexTable(deviceId, index);
+        }
+
+        private FlowTableChangeLog getChangeLog(DeviceId deviceId) {
+            return changeLogs.computeIfAbsent(deviceId, id -> new FlowTableChangeLog());
+        }
+
+        private StoredFlowEntry getStoredFlowEntry(StoredFlowEntry entry) {
+            Map<StoredFlowEntry, StoredFlowEntry> entries = getFlowTable(entry.deviceId()).get(entry.id());
+            return entries != null ? entries.get(entry) : null;
         }
 
         private Map<StoredFlowEntry, StoredFlowEntry> getFlowEntriesInternal(DeviceId deviceId, FlowId flowId) {
-            return getFlowTable(deviceId).computeIfAbsent(flowId, id -> Maps.newConcurrentMap());
+            return getFlowTable(deviceId).computeIfAbsent(flowId, id -> newFlowEntryMap(deviceId));
+        }
+
+        /**
+         * Returns an empty map for the entries of a flow id, laid out like
+         * the flow table of the device.
+         */
+        private Map<StoredFlowEntry, StoredFlowEntry> newFlowEntryMap(DeviceId deviceId) {
+            return flowEntries.get(deviceId) instanceof CompactFlowTable ?
+                    CompactFlowTable.newFlowEntryMap() : Maps.newConcurrentMap();
         }
 
         private StoredFlowEntry getFlowEntryInternal(FlowRule rule) {
@@ -829,6 +1125,42 @@ public class DistributedFlowRuleStore
             return getFlowEntriesInternal(deviceId);
         }
 
+        /**
+         * Returns the entries of an application on a device, looked up
+         * through the index of the device.
+         *
+         * @param query device, application and optional group to look up
+         * @return flow entries
+         */
+        public Set<FlowEntry> getAppFlowEntries(FlowRuleIndex.Query query) {
+            FlowRuleIndex index = getIndex(query.deviceId());
+            Set<FlowId> flowIds = query.groupKey() != null ?
+                    index.groupFlowIds(query.groupKey()) : index.flowIds(query.appId());
+            Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> table = getFlowTable(query.deviceId());
+            return flowIds.stream()
+                    .map(table::get)
+                    .filter(Objects::nonNull)
+                    .flatMap(m -> m.values().stream())
+                    .filter(e -> query.groupKey() != null ?
+                            FlowRuleIndex.groupKey(e.id()) == query.groupKey() : e.appId() == query.appId())
+                    .collect(Collectors.toSet());
+        }
+
+        /**
+         * Returns the entries of an application on all the devices mastered
+         * by this node, looked up through their indexes.
+         *
+         * @param query application and optional group to look up
+         * @return flow entries
+         */
+        public Set<FlowEntry> getMasteredAppFlowEntries(FlowRuleIndex.Query query) {
+            return flowEntries.keySet().stream()
+                    .filter(mastershipService::isLocalMaster)
+                    .flatMap(deviceId -> getAppFlowEntries(
+                            new FlowRuleIndex.Query(deviceId, query.appId(), query.groupKey())).stream())
+                    .collect(Collectors.toSet());
+        }
+
         public void add(FlowEntry rule) {
             getFlowEntriesInternal(rule.deviceId(), rule.id())
                     .compute((StoredFlowEntry) rule, (k, stored) -> {
@@ -836,7 +1168,17 @@ public class DistributedFlowRuleStore
                         //TODO the key is not updated
                         return (StoredFlowEntry) rule;
                     });
-            lastUpdateTimes.put(rule.deviceId(), System.currentTimeMillis());
+            getIndex(rule.deviceId()).add(rule);
+            changed((StoredFlowEntry) rule);
+        }
+
+        /**
+         * Records a change of an entry, to be sent with the next backups.
+         *
+         * @param entry entry added, updated or removed
+         */
+        public void changed(StoredFlowEntry entry) {
+            getChangeLog(entry.deviceId()).changed(entry);
         }
 
         public FlowEntry remove(DeviceId deviceId, FlowEntry rule) {
@@ -860,19 +1202,132 @@ public class DistributedFlowRuleStore
                 });
 
             if (removedRule.get() != null) {
-                lastUpdateTimes.put(deviceId, System.currentTimeMillis());
+                unindex(deviceId, removedRule.get());
+                changed((StoredFlowEntry) removedRule.get());
                 return removedRule.get();
             } else {
                 return null;
             }
         }
 
+        /**
+         * Drops a removed entry from the index, unless other entries of the
+         * table still hold its flow id.
+         */
+        private void unindex(DeviceId deviceId, FlowEntry removed) {
+            FlowRuleIndex index = indexes.get(deviceId);
+            if (index == null) {
+                return;
+            }
+            Map<StoredFlowEntry, StoredFlowEntry> entries = getFlowTable(deviceId).get(removed.id());
+            if (entries == null || entries.isEmpty()) {
+                index.removeApp(removed.appId(), removed.id());
+                index.removeGroup(removed.id());
+            } else if (entries.keySet().stream().noneMatch(e -> e.appId() == removed.appId())) {
+                index.removeApp(removed.appId(), removed.id());
+            }
+        }
+
         public void purgeFlowRule(DeviceId deviceId) {
             flowEntries.remove(deviceId);
+            indexes.remove(deviceId);
+            // the clock keeps counting, so that late acknowledgements stay behind it
+            getChangeLog(deviceId).reset();
+            backupVersions.keySet().removeIf(op -> op.deviceId.equals(deviceId));
+            receivedVersions.remove(deviceId);
         }
 
         public void purgeFlowRules() {
             flowEntries.clear();
+            indexes.clear();
+            changeLogs.values().forEach(FlowTableChangeLog::reset);
+            backupVersions.clear();
+            receivedVersions.clear();
+        }
+
+        /**
+         * Reads the tables of the last snapshot of this node, to restore
+         * them once their devices are mastered again.
+         */
+        private void loadSnapshot() {
+            try {
+                long maxAge = Math.max(FLOW_TABLE_SNAPSHOT_MAX_AGE_MILLIS, 2L * snapshotPeriod);
+                Map<DeviceId, FlowTableBackup> tables = snapshotFile.read(local, maxAge);
+                restoredTables.putAll(tables);
+                log.info("Read {} flow tables from snapshot {}", tables.size(), snapshotFile.path());
+            } catch (IOException e) {
+                log.warn("Failed to read flow table snapshot", e);
+            }
+        }
+
+        /**
+         * Restores the table of a device from the snapshot, unless a backup
+         * sent by the previous master holds a more recent copy. The entries
+         * are restored as pending, they are only trusted once the switch
+         * statistics report them; those missing from the switch are
+         * installed again, and the switch entries missing from the snapshot
+         * are removed.
+         */
+        private void restoreTable(DeviceId deviceId) {
+            FlowTableBackup restored = restoredTables.remove(deviceId);
+            if (restored == null || receivedVersions.containsKey(deviceId) || !getFlowTable(deviceId).isEmpty()) {
+                return;
+            }
+            int count = 0;
+            for (StoredFlowEntry entry : restored.updated()) {
+                switch (entry.state()) {
+                    case ADDED:
+                    case PENDING_ADD:
+                        entry.setState(FlowEntryState.PENDING_ADD);
+                        break;
+                    case PENDING_REMOVE:
+                        break;
+                    default:
+                        continue;
+                }
+                add(entry);
+                count++;
+            }
+            log.info("Restored {} flow entries of {} from snapshot, pending verification", count, deviceId);
+        }
+
+        /**
+         * Writes the tables of the locally mastered devices, along with the
+         * restored tables not claimed yet, to the snapshot file, unless no
+         * table changed since the last snapshot.
+         */
+        private synchronized void snapshot() {
+            try {
+                Set<DeviceId> mastered = flowEntries.keySet().stream()
+                        .filter(mastershipService::isLocalMaster)
+                        .collect(Collectors.toSet());
+                Map<DeviceId, Long> versions = Maps.newHashMap();
+                mastered.forEach(deviceId -> versions.put(deviceId, getChangeLog(deviceId).version()));
+                restoredTables.forEach((deviceId, table) -> versions.putIfAbsent(deviceId, table.version()));
+                if (versions.equals(snapshotVersions)) {
+                    return;
+                }
+                Map<DeviceId, FlowTableBackup> tables = Maps.newHashMap();
+                versions.forEach((deviceId, version) -> tables.put(deviceId, mastered.contains(deviceId) ?
+                        FlowTableBackup.snapshot(version, getStoredFlowEntries(deviceId, bucket -> true)) :
+                        restoredTables.get(deviceId)));
+                tables.values().removeIf(Objects::isNull);
+                snapshotFile.write(local, tables);
+                snapshotVersions = ImmutableMap.copyOf(versions);
+                log.debug("Wrote snapshot of {} flow tables", tables.size());
+            } catch (Exception e) {
+                log.warn("Failed to write flow table snapshot", e);
+            }
+        }
+
+        private synchronized void dropSnapshot() {
+            restoredTables.clear();
+            snapshotVersions = ImmutableMap.of();
+            try {
+                snapshotFile.delete();
+            } catch (IOException e) {
+                log.warn("Failed to remove flow table snapshot", e);
+            }
         }
 
         private List<NodeId> getBackupNodes(DeviceId deviceId) {
@@ -887,10 +1342,18 @@ public class DistributedFlowRuleStore
                 // compute a mapping from node to the set of devices whose flow entries it should backup
                 Map<NodeId, Set<DeviceId>> devicesToBackupByNode = Maps.newHashMap();
                 flowEntries.keySet().forEach(deviceId -> {
+                    // the tables held as backups for other masters are theirs to send
+                    if (!mastershipService.isLocalMaster(deviceId)) {
+                        return;
+                    }
+                    FlowTableChangeLog changeLog = getChangeLog(deviceId);
                     List<NodeId> backupNodes = getBackupNodes(deviceId);
+                    pruneChangeLog(deviceId, changeLog, backupNodes);
+                    long version = changeLog.version();
                     backupNodes.forEach(backupNode -> {
-                            if (lastBackupTimes.getOrDefault(new BackupOperation(backupNode, deviceId), 0L)
-                                    < lastUpdateTimes.getOrDefault(deviceId, 0L)) {
+                            BackupOperation op = new BackupOperation(backupNode, deviceId);
+                            if (backupVersions.getOrDefault(op, -1L) < version
+                                    && !pendingBackups.contains(op)) {
                                 devicesToBackupByNode.computeIfAbsent(backupNode,
                                                                       nodeId -> Sets.newHashSet()).add(deviceId);
                             }
@@ -903,18 +1366,32 @@ public class DistributedFlowRuleStore
             }
         }
 
-        private Set<DeviceId> onBackupReceipt(Map<DeviceId,
-                Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>>> flowTables) {
-            log.debug("Received flowEntries for {} to backup", flowTables.keySet());
+        /**
+         * Drops the changes every backup node holds already. Once more
+         * changes are logged than the table has entries, snapshots are
+         * cheaper to send than deltas and the log is dropped altogether.
+         */
+        private void pruneChangeLog(DeviceId deviceId, FlowTableChangeLog changeLog, List<NodeId> backupNodes) {
+            if (changeLog.size() > getFlowTable(deviceId).size()) {
+                changeLog.reset();
+                return;
+            }
+            backupNodes.stream()
+                    .map(nodeId -> backupVersions.get(new BackupOperation(nodeId, deviceId)))
+                    .filter(Objects::nonNull)
+                    .mapToLong(Long::longValue)
+                    .min()
+                    .ifPresent(changeLog::prune);
+        }
+
+        private Set<DeviceId> onBackupReceipt(Map<DeviceId, FlowTableBackup> backups) {
+            log.debug("Received flowEntries for {} to backup", backups.keySet());
             Set<DeviceId> backedupDevices = Sets.newHashSet();
             try {
-                flowTables.forEach((deviceId, deviceFlowTable) -> {
+                backups.forEach((deviceId, backup) -> {
                     // Only process those devices are that not managed by the local node.
-                    if (!Objects.equals(local, mastershipService.getMasterFor(deviceId))) {
-                        Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> backupFlowTable =
-                                getFlowTable(deviceId);
-                        backupFlowTable.clear();
-                        backupFlowTable.putAll(deviceFlowTable);
+                    if (!Objects.equals(local, mastershipService.getMasterFor(deviceId))
+                            && applyBackup(deviceId, backup)) {
                         backedupDevices.add(deviceId);
                     }
                 });
@@ -923,6 +1400,142 @@ public class DistributedFlowRuleStore
             }
             return backedupDevices;
         }
+
+        /**
+         * Compares the backups claimed up to date with the local tables,
+         * by sending each backup node the digests of the tables it holds.
+         */
+        private void checkBackups() {
+            try {
+                Map<NodeId, Map<DeviceId, FlowTableDigest>> digestsByNode = Maps.newHashMap();
+                Map<DeviceId, FlowTableDigest> digests = Maps.newHashMap();
+                flowEntries.keySet().forEach(deviceId -> {
+                    if (!mastershipService.isLocalMaster(deviceId)) {
+                        return;
+                    }
+                    long version = getChangeLog(deviceId).version();
+                    getBackupNodes(deviceId).forEach(backupNode -> {
+                        BackupOperation op = new BackupOperation(backupNode, deviceId);
+                        // the other backups get their changes with the next backup round anyway
+                        if (backupVersions.getOrDefault(op, -1L) == version && !pendingBackups.contains(op)) {
+                            digestsByNode.computeIfAbsent(backupNode, nodeId -> Maps.newHashMap())
+                                    .put(deviceId, digests.computeIfAbsent(deviceId, id -> getDigest(id, version)));
+                        }
+                    });
+                });
+                digestsByNode.forEach(this::sendDigests);
+            } catch (Exception e) {
+                log.error("Backup check failed.", e);
+            }
+        }
+
+        private FlowTableDigest getDigest(DeviceId deviceId, long version) {
+            // streamed over the table, since digests are taken every check period
+            return FlowTableDigest.of(version, Iterables.concat(
+                    Iterables.transform(getFlowTable(deviceId).values(), Map::values)));
+        }
+
+        private void sendDigests(NodeId nodeId, Map<DeviceId, FlowTableDigest> digests) {
+            log.debug("Sending digests for devices {} to {}.", digests.keySet(), nodeId);
+            clusterCommunicator.<Map<DeviceId, FlowTableDigest>, Map<DeviceId, List<Integer>>>
+                    sendAndReceive(digests,
+                                   FLOW_TABLE_DIGEST,
+                                   serializer::encode,
+                                   serializer::decode,
+                                   nodeId)
+                    .whenComplete((differences, error) -> {
+                        if (error != null) {
+                            log.debug("Failed to check backups of {} on {}: {}",
+                                      digests.keySet(), nodeId, error.getMessage());
+                        } else if (!differences.isEmpty()) {
+                            log.info("Backups of {} on {} out of sync", differences.keySet(), nodeId);
+                            backupSenderExecutor.execute(() -> repairBackups(nodeId, differences));
+                        }
+                    });
+        }
+
+        /**
+         * Sends the entries of the buckets a backup node is out of sync in,
+         * along with the changes since its version.
+         *
+         * @param nodeId      backup node
+         * @param differences out of sync buckets by device; no buckets if
+         *                    the node holds another version than digested
+         */
+        private void repairBackups(NodeId nodeId, Map<DeviceId, List<Integer>> differences) {
+            Map<DeviceId, FlowTableBackup> repairs = Maps.newHashMap();
+            differences.forEach((deviceId, buckets) -> {
+                BackupOperation op = new BackupOperation(nodeId, deviceId);
+                Long acknowledged = backupVersions.get(op);
+                if (acknowledged == null || pendingBackups.contains(op)) {
+                    return;
+                }
+                FlowTableBackup delta = buckets.isEmpty() ? null
+                        : getChangeLog(deviceId).delta(acknowledged, this::getStoredFlowEntry);
+                if (delta == null) {
+                    // the node gets a snapshot with the next backup round
+                    backupVersions.remove(op);
+                    return;
+                }
+                Set<Integer> bucketSet = Sets.newHashSet(buckets);
+                repairs.put(deviceId, delta.withBuckets(buckets,
+                                                        getStoredFlowEntries(deviceId, bucketSet::contains)));
+            });
+            Iterables.partition(repairs.keySet(), FLOW_TABLE_BACKUP_BATCH_SIZE)
+                     .forEach(ids -> backupFlowEntries(nodeId, Maps.newHashMap(Maps.toMap(ids, repairs::get))));
+        }
+
+        private Map<DeviceId, List<Integer>> onDigestReceipt(Map<DeviceId, FlowTableDigest> digests) {
+            log.debug("Received digests for {} to compare", digests.keySet());
+            Map<DeviceId, List<Integer>> differences = Maps.newHashMap();
+            try {
+                digests.forEach((deviceId, digest) -> {
+                    if (Objects.equals(local, mastershipService.getMasterFor(deviceId))) {
+                        return;
+                    }
+                    Long version = receivedVersions.get(deviceId);
+                    if (version == null || version < digest.version()) {
+                        // a backup was lost, or this node missed the latest one
+                        differences.put(deviceId, Lists.newArrayList());
+                    } else if (version == digest.version()) {
+                        List<Integer> buckets = digest.differences(getDigest(deviceId, version));
+                        if (!buckets.isEmpty()) {
+                            differences.put(deviceId, buckets);
+                        }
+                    }
+                });
+            } catch (Exception e) {
+                log.warn("Failure processing digest request", e);
+            }
+            return differences;
+        }
+
+        private boolean applyBackup(DeviceId deviceId, FlowTableBackup backup) {
+            Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> backupFlowTable = getFlowTable(deviceId);
+            if (backup.isSnapshot()) {
+                backupFlowTable.clear();
+            } else if (!backup.appliesTo(receivedVersions.get(deviceId))) {
+                log.debug("Backup of {} at version {} does not apply to version {}",
+                          deviceId, backup.baseVersion(), receivedVersions.get(deviceId));
+                return false;
+            }
+            if (!backup.buckets().isEmpty()) {
+                Set<Integer> buckets = Sets.newHashSet(backup.buckets());
+                backupFlowTable.keySet().removeIf(flowId -> buckets.contains(FlowTableDigest.bucket(flowId)));
+            }
+            // the per flow id maps are written back, so that persistent tables see the change
+            backup.removed().forEach(entry -> backupFlowTable.computeIfPresent(entry.id(), (id, entries) -> {
+                entries.remove(entry);
+                return entries.isEmpty() ? null : entries;
+            }));
+            backup.updated().forEach(entry -> backupFlowTable.compute(entry.id(), (id, entries) -> {
+                Map<StoredFlowEntry, StoredFlowEntry> updated = entries != null ? entries : newFlowEntryMap(deviceId);
+                updated.put(entry, entry);
+                return updated;
+            }));
+            receivedVersions.put(deviceId, backup.version());
+            return true;
+        }
     }
 
     @Override
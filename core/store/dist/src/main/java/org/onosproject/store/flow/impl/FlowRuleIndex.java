@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.Set;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+/**
+ * Index of the flow ids of a device flow table by application, and by the
+ * application and group id encoded in the upper bits of the flow ids.
+ * <p>
+ * The index may hold flow ids whose entries are gone, lookups are expected
+ * to check the entries against the table.
+ */
+final class FlowRuleIndex {
+
+    private final SetMultimap<Short, FlowId> appFlowIds = HashMultimap.create();
+    private final SetMultimap<Long, FlowId> groupFlowIds = HashMultimap.create();
+
+    /**
+     * Returns the key of the group index for a flow id.
+     *
+     * @param flowId flow id
+     * @return application and group id of the flow id
+     */
+    static long groupKey(FlowId flowId) {
+        return flowId.value() >>> 32;
+    }
+
+    /**
+     * Returns the key of the group index for an application and group id.
+     *
+     * @param appId   application id
+     * @param groupId group id
+     * @return application and group id as encoded in flow ids
+     */
+    static long groupKey(short appId, short groupId) {
+        return ((appId & 0xFFFFL) << 16) | (groupId & 0xFFFF);
+    }
+
+    /**
+     * Indexes a flow rule.
+     *
+     * @param rule flow rule added to the table
+     */
+    synchronized void add(FlowRule rule) {
+        appFlowIds.put(rule.appId(), rule.id());
+        groupFlowIds.put(groupKey(rule.id()), rule.id());
+    }
+
+    /**
+     * Removes a flow id from the application index, once the table holds
+     * no more entries of the application under that flow id.
+     *
+     * @param appId  application id
+     * @param flowId flow id
+     */
+    synchronized void removeApp(short appId, FlowId flowId) {
+        appFlowIds.remove(appId, flowId);
+    }
+
+    /**
+     * Removes a flow id from the group index, once the table holds no more
+     * entries under that flow id.
+     *
+     * @param flowId flow id
+     */
+    synchronized void removeGroup(FlowId flowId) {
+        groupFlowIds.remove(groupKey(flowId), flowId);
+    }
+
+    /**
+     * Returns the flow ids of an application.
+     *
+     * @param appId application id
+     * @return flow ids
+     */
+    synchronized Set<FlowId> flowIds(short appId) {
+        return ImmutableSet.copyOf(appFlowIds.get(appId));
+    }
+
+    /**
+     * Returns the flow ids carrying an application and group id.
+     *
+     * @param groupKey key as returned by {@link #groupKey(short, short)}
+     * @return flow ids
+     */
+    synchronized Set<FlowId> groupFlowIds(long groupKey) {
+        return ImmutableSet.copyOf(groupFlowIds.get(groupKey));
+    }
+
+    /**
+     * Lookup of the entries of an application on a device, forwarded to
+     * the master of the device, or on all the devices a node masters.
+     */
+    static final class Query {
+
+        private final DeviceId deviceId;
+        private final short appId;
+        private final Long groupKey;
+
+        /**
+         * Creates a lookup of the entries of an application, or of the
+         * entries of an application and group id if a group key is given.
+         *
+         * @param deviceId device id, or null for all the devices mastered
+         *                 by the node answering
+         * @param appId    application id
+         * @param groupKey group key, or null
+         */
+        Query(DeviceId deviceId, short appId, Long groupKey) {
+            this.deviceId = deviceId;
+            this.appId = appId;
+            this.groupKey = groupKey;
+        }
+
+        DeviceId deviceId() {
+            return deviceId;
+        }
+
+        short appId() {
+            return appId;
+        }
+
+        Long groupKey() {
+            return groupKey;
+        }
+
+        @Override
+        public String toString() {
+            return toStringHelper(this)
+                    .add("deviceId", deviceId)
+                    .add("appId", appId)
+                    .add("groupKey", groupKey)
+                    .toString();
+        }
+    }
+}
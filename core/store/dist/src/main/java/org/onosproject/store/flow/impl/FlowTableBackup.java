@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.Lists;
+import org.onosproject.net.flow.StoredFlowEntry;
+import org.onosproject.store.impl.VersionedBackup;
+
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+/**
+ * Backup of the flow table of a device sent by its master: either a
+ * snapshot of the whole table, or the entries changed since a version the
+ * backup node already holds. A delta may also replace whole buckets of
+ * flow ids, to repair the buckets a digest found out of sync.
+ */
+final class FlowTableBackup extends VersionedBackup {
+
+    private final List<StoredFlowEntry> updated;
+    private final List<StoredFlowEntry> removed;
+    private final List<Integer> buckets;
+
+    private FlowTableBackup(long baseVersion, long version,
+                            Collection<StoredFlowEntry> updated,
+                            Collection<StoredFlowEntry> removed,
+                            Collection<Integer> buckets) {
+        super(baseVersion, version);
+        this.updated = Lists.newArrayList(updated);
+        this.removed = Lists.newArrayList(removed);
+        this.buckets = Lists.newArrayList(buckets);
+    }
+
+    /**
+     * Creates a backup replacing the whole table.
+     *
+     * @param version version of the table
+     * @param entries all entries of the table
+     * @return table snapshot
+     */
+    static FlowTableBackup snapshot(long version, Collection<StoredFlowEntry> entries) {
+        return new FlowTableBackup(SNAPSHOT, version, entries, Lists.newArrayList(), Lists.newArrayList());
+    }
+
+    /**
+     * Creates a backup of the changes between two versions of the table.
+     *
+     * @param baseVersion version the changes apply to
+     * @param version     version of the table once the changes are applied
+     * @param updated     entries added or updated since the base version
+     * @param removed     entries removed since the base version
+     * @return table delta
+     */
+    static FlowTableBackup delta(long baseVersion, long version,
+                                 Collection<StoredFlowEntry> updated,
+                                 Collection<StoredFlowEntry> removed) {
+        return new FlowTableBackup(baseVersion, version, updated, removed, Lists.newArrayList());
+    }
+
+    /**
+     * Returns this delta extended to replace some buckets of flow ids.
+     *
+     * @param buckets buckets to replace, as defined by {@link FlowTableDigest}
+     * @param entries all entries of the buckets
+     * @return table delta with the bucket entries
+     */
+    FlowTableBackup withBuckets(Collection<Integer> buckets, Collection<StoredFlowEntry> entries) {
+        List<StoredFlowEntry> allUpdated = Lists.newArrayList(updated);
+        allUpdated.addAll(entries);
+        return new FlowTableBackup(baseVersion(), version(), allUpdated, removed, buckets);
+    }
+
+    /**
+     * Returns the entries to store.
+     *
+     * @return added or updated entries
+     */
+    List<StoredFlowEntry> updated() {
+        return updated;
+    }
+
+    /**
+     * Returns the entries to remove.
+     *
+     * @return removed entries
+     */
+    List<StoredFlowEntry> removed() {
+        return removed;
+    }
+
+    /**
+     * Returns the buckets of flow ids whose entries are replaced by the
+     * updated entries; their other entries are to be removed.
+     *
+     * @return indexes of the replaced buckets
+     */
+    List<Integer> buckets() {
+        return buckets;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("baseVersion", baseVersion())
+                .add("version", version())
+                .add("updated", updated.size())
+                .add("removed", removed.size())
+                .add("buckets", buckets)
+                .toString();
+    }
+}
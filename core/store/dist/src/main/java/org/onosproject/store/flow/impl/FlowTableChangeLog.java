@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Logical clock of the flow table of a device, along with the version at
+ * which each entry last changed. Backups of the table are sent as the
+ * entries changed since the version a backup node acknowledged last.
+ */
+final class FlowTableChangeLog {
+
+    private long version;
+    // changes at or below this version are no longer logged
+    private long floor;
+    private final Map<StoredFlowEntry, Long> changes = Maps.newHashMap();
+
+    /**
+     * Records a change of an entry, added, updated or removed alike.
+     *
+     * @param entry entry that changed
+     * @return new version of the table
+     */
+    synchronized long changed(StoredFlowEntry entry) {
+        changes.put(entry, ++version);
+        return version;
+    }
+
+    /**
+     * Returns the current version of the table.
+     *
+     * @return table version
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Returns the number of changes logged.
+     *
+     * @return number of changed entries
+     */
+    synchronized int size() {
+        return changes.size();
+    }
+
+    /**
+     * Returns the changes since a version as a backup. Each changed entry
+     * is looked up in the table, and sent as removed if no longer there.
+     *
+     * @param since  version the backup node holds
+     * @param lookup returns the stored entry equal to a changed entry, or null
+     * @return backup delta, or null if the changes since the version are no
+     * longer logged
+     */
+    synchronized FlowTableBackup delta(long since, Function<StoredFlowEntry, StoredFlowEntry> lookup) {
+        if (since < floor || since > version) {
+            return null;
+        }
+        List<StoredFlowEntry> updated = Lists.newArrayList();
+        List<StoredFlowEntry> removed = Lists.newArrayList();
+        changes.forEach((entry, changedAt) -> {
+            if (changedAt > since) {
+                StoredFlowEntry stored = lookup.apply(entry);
+                if (stored != null) {
+                    updated.add(stored);
+                } else {
+                    removed.add(entry);
+                }
+            }
+        });
+        return FlowTableBackup.delta(since, version, updated, removed);
+    }
+
+    /**
+     * Forgets the changes all backup nodes already hold.
+     *
+     * @param acknowledged lowest version acknowledged by the backup nodes
+     */
+    synchronized void prune(long acknowledged) {
+        if (acknowledged > floor) {
+            changes.values().removeIf(changedAt -> changedAt <= acknowledged);
+            floor = acknowledged;
+        }
+    }
+
+    /**
+     * Forgets all changes, so that backup nodes behind the current version
+     * get a snapshot next.
+     */
+    synchronized void reset() {
+        changes.clear();
+        floor = version;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.Lists;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.StoredFlowEntry;
+
+import java.util.List;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Digest of the flow table of a device at a version, as one hash per bucket
+ * of flow ids. Master and backup nodes compare digests to find the buckets
+ * their copies of the table differ in, without sending the entries.
+ * <p>
+ * The hashes only cover what is transferred with the entries and stable
+ * across nodes, not the statistics which are never backed up.
+ */
+final class FlowTableDigest {
+
+    static final int BUCKETS = 32;
+
+    private final long version;
+    private final long[] buckets;
+
+    private FlowTableDigest(long version, long[] buckets) {
+        this.version = version;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Computes the digest of a table.
+     *
+     * @param version version of the table
+     * @param entries entries of the table
+     * @return table digest
+     */
+    static FlowTableDigest of(long version, Iterable<StoredFlowEntry> entries) {
+        long[] buckets = new long[BUCKETS];
+        // sums, so that the order of the entries does not matter
+        entries.forEach(entry -> buckets[bucket(entry.id())] += hash(entry));
+        return new FlowTableDigest(version, buckets);
+    }
+
+    /**
+     * Returns the bucket of a flow id.
+     *
+     * @param flowId flow id
+     * @return bucket index
+     */
+    static int bucket(FlowId flowId) {
+        return (int) (mix(flowId.value()) >>> 1) % BUCKETS;
+    }
+
+    private static long hash(StoredFlowEntry entry) {
+        long hash = mix(entry.id().value());
+        hash = mix(hash ^ entry.state().ordinal());
+        hash = mix(hash ^ entry.priority());
+        hash = mix(hash ^ entry.tableId());
+        if (entry instanceof DefaultFlowEntry) {
+            hash = mix(hash ^ ((DefaultFlowEntry) entry).created());
+        }
+        return hash;
+    }
+
+    // 64 bit finalizer of MurmurHash3
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Returns the version of the table digested.
+     *
+     * @return table version
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Returns the buckets this digest differs in from another one.
+     *
+     * @param other digest to compare with
+     * @return indexes of the differing buckets
+     */
+    List<Integer> differences(FlowTableDigest other) {
+        checkArgument(buckets.length == other.buckets.length, "Digests of different sizes");
+        List<Integer> differences = Lists.newArrayList();
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] != other.buckets[i]) {
+                differences.add(i);
+            }
+        }
+        return differences;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("version", version)
+                .add("buckets", buckets.length)
+                .toString();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.google.common.collect.Maps;
+import org.onlab.util.KryoNamespace;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.net.DeviceId;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Memory-mapped file holding snapshots of the flow tables a node masters,
+ * to warm start the tables of these devices when the node restarts.
+ * <p>
+ * The file starts with a magic number, a format version and the checksum
+ * of the rest of the file, which holds the writing node, the time of the
+ * snapshot and the length prefixed table of each device. A snapshot is
+ * encoded straight into the mapping of a temporary file, which grows as
+ * needed, and moved in place once complete.
+ */
+final class FlowTableSnapshotFile {
+
+    private static final int MAGIC = 0x464c5754;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final int MIN_MAPPING_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final KryoNamespace namespace;
+    // length of the last snapshot written, to map about as much the next time
+    private long lastLength;
+
+    /**
+     * Creates a snapshot file.
+     *
+     * @param path      path of the file
+     * @param namespace namespace encoding the tables
+     */
+    FlowTableSnapshotFile(Path path, KryoNamespace namespace) {
+        this.path = path;
+        this.namespace = namespace;
+    }
+
+    /**
+     * Returns the path of the file.
+     *
+     * @return file path
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Replaces the file with a snapshot of the given tables.
+     *
+     * @param nodeId node writing the snapshot
+     * @param tables snapshot of the table of each device
+     * @throws IOException if the snapshot could not be written
+     */
+    void write(NodeId nodeId, Map<DeviceId, FlowTableBackup> tables) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, READ, WRITE, TRUNCATE_EXISTING)) {
+            RecordWriter writer = new RecordWriter(channel, Math.max(MIN_MAPPING_SIZE, lastLength));
+            writer.buffer.position(HEADER_LENGTH);
+            writer.buffer.putLong(System.currentTimeMillis());
+            writer.buffer.putInt(tables.size());
+            writer.append(nodeId);
+            for (Map.Entry<DeviceId, FlowTableBackup> entry : tables.entrySet()) {
+                writer.append(entry.getKey());
+                writer.append(entry.getValue());
+            }
+            MappedByteBuffer buffer = writer.buffer;
+            int length = buffer.position();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, FORMAT_VERSION);
+            buffer.putLong(2 * Integer.BYTES, checksum(buffer, length));
+            buffer.force();
+            // drop the unused tail of the mapping
+            channel.truncate(length);
+            lastLength = length;
+        }
+        Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot written by the given node.
+     *
+     * @param nodeId       local node
+     * @param maxAgeMillis age in ms past which the snapshot is ignored
+     * @return snapshot of the table of each device, empty if there is no
+     * snapshot, or if it is damaged, too old or was written by another node
+     * @throws IOException if the file could not be read
+     */
+    Map<DeviceId, FlowTableBackup> read(NodeId nodeId, long maxAgeMillis) throws IOException {
+        Map<DeviceId, FlowTableBackup> tables = Maps.newHashMap();
+        if (!Files.isRegularFile(path)) {
+            return tables;
+        }
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            if (channel.size() < HEADER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+                return tables;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != FORMAT_VERSION ||
+                    buffer.getLong(2 * Integer.BYTES) != checksum(buffer, buffer.capacity())) {
+                return tables;
+            }
+            buffer.position(HEADER_LENGTH);
+            if (System.currentTimeMillis() - buffer.getLong() > maxAgeMillis) {
+                return tables;
+            }
+            int count = buffer.getInt();
+            if (!Objects.equals(nodeId, record(buffer))) {
+                return tables;
+            }
+            for (int i = 0; i < count; i++) {
+                DeviceId deviceId = record(buffer);
+                FlowTableBackup table = record(buffer);
+                tables.put(deviceId, table);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Damaged flow table snapshot " + path, e);
+        }
+        return tables;
+    }
+
+    /**
+     * Removes the file.
+     *
+     * @throws IOException if the file could not be removed
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private <T> T record(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer record = buffer.slice();
+        record.limit(length);
+        buffer.position(buffer.position() + length);
+        return namespace.deserialize(record);
+    }
+
+    private static long checksum(ByteBuffer buffer, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(length).position(HEADER_LENGTH);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    /**
+     * Appends length prefixed records to the mapping of a file, mapping a
+     * region twice as large whenever a record does not fit.
+     */
+    private final class RecordWriter {
+
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+
+        private RecordWriter(FileChannel channel, long size) throws IOException {
+            this.channel = channel;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        private void append(Object record) throws IOException {
+            int start = buffer.position();
+            while (true) {
+                try {
+                    buffer.putInt(0);
+                    namespace.serialize(record, buffer);
+                    buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+                    return;
+                } catch (BufferOverflowException e) {
+                    grow(start);
+                } catch (KryoException e) {
+                    if (!isOverflow(e)) {
+                        throw new IOException("Failed to encode " + record, e);
+                    }
+                    grow(start);
+                }
+            }
+        }
+
+        private void grow(int position) throws IOException {
+            long size = 2L * buffer.capacity();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Flow table snapshot exceeds " + buffer.capacity() + " bytes");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.position(position);
+        }
+
+        private boolean isOverflow(KryoException e) {
+            return e.getMessage() != null && e.getMessage().startsWith("Buffer overflow");
+        }
+    }
+}
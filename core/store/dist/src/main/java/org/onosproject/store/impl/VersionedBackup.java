@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.impl;
+
+import java.util.Objects;
+
+/**
+ * Base of the backups a device master sends to keep a replica of its store
+ * in step. A backup is either a snapshot, which replaces the replica, or a
+ * delta, which applies only to the replica version it was computed from.
+ */
+public abstract class VersionedBackup {
+
+    /**
+     * Base version of a snapshot, which applies to any replica.
+     */
+    public static final long SNAPSHOT = -1;
+
+    private final long baseVersion;
+    private final long version;
+
+    /**
+     * Creates a backup.
+     *
+     * @param baseVersion version of the replica the backup applies to, or
+     *                    {@link #SNAPSHOT} for a snapshot
+     * @param version     version of the replica once the backup is applied
+     */
+    protected VersionedBackup(long baseVersion, long version) {
+        this.baseVersion = baseVersion;
+        this.version = version;
+    }
+
+    /**
+     * Returns whether this backup replaces the whole replica.
+     *
+     * @return true for a snapshot
+     */
+    public boolean isSnapshot() {
+        return baseVersion == SNAPSHOT;
+    }
+
+    /**
+     * Returns the version of the replica a delta applies to.
+     *
+     * @return base version
+     */
+    public long baseVersion() {
+        return baseVersion;
+    }
+
+    /**
+     * Returns the version of the replica once this backup is applied.
+     *
+     * @return replica version
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Returns whether this backup can be applied to a replica.
+     *
+     * @param replicaVersion version of the replica, or null if there is none
+     * @return true for a snapshot, or for a delta from the replica version
+     */
+    public boolean appliesTo(Long replicaVersion) {
+        return isSnapshot() || Objects.equals(replicaVersion, baseVersion);
+    }
+}
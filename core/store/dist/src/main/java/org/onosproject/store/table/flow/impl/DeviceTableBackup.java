@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.table.flow.impl;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.StoredFlowTableEntry;
+import org.onosproject.store.impl.VersionedBackup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replicated POF flow table state of one device, sent by the device master
+ * to its backup node. A backup is either a snapshot, which replaces the
+ * replica, or a delta holding only what changed since the version the
+ * backup node already holds. A handoff is a snapshot sent by a former
+ * master to the node that took over the device.
+ */
+final class DeviceTableBackup extends VersionedBackup {
+
+    private final DeviceId deviceId;
+    private final boolean handoff;
+    private final Map<FlowTableId, StoredFlowTableEntry> tables;
+    private final Set<FlowTableId> removedTables;
+    private final Map<FlowTableId, Map<Integer, FlowRule>> entries;
+    private final Map<FlowTableId, Set<Integer>> removedEntries;
+    private final Map<OFTableType, Byte> tableNoBases;
+    private final Map<OFTableType, Byte> tableNums;
+    private final Map<OFTableType, Byte> nextTableNos;
+    private final Map<OFTableType, List<Byte>> freeTableIds;
+
+    private DeviceTableBackup(Builder builder) {
+        super(builder.baseVersion, builder.version);
+        this.deviceId = builder.deviceId;
+        this.handoff = builder.handoff;
+        this.tables = builder.tables;
+        this.removedTables = builder.removedTables;
+        this.entries = builder.entries;
+        this.removedEntries = builder.removedEntries;
+        this.tableNoBases = builder.tableNoBases;
+        this.tableNums = builder.tableNums;
+        this.nextTableNos = builder.nextTableNos;
+        this.freeTableIds = builder.freeTableIds;
+    }
+
+    /**
+     * Returns a new builder of a backup for the given device.
+     *
+     * @param deviceId    device identifier
+     * @param baseVersion version of the replica a delta applies to, or
+     *                    {@link VersionedBackup#SNAPSHOT} for a snapshot
+     * @param version     version of the replica once the backup is applied
+     * @return backup builder
+     */
+    static Builder builder(DeviceId deviceId, long baseVersion, long version) {
+        return new Builder(deviceId, baseVersion, version);
+    }
+
+    DeviceId deviceId() {
+        return deviceId;
+    }
+
+    boolean isHandoff() {
+        return handoff;
+    }
+
+    Map<FlowTableId, StoredFlowTableEntry> tables() {
+        return tables;
+    }
+
+    Set<FlowTableId> removedTables() {
+        return removedTables;
+    }
+
+    Map<FlowTableId, Map<Integer, FlowRule>> entries() {
+        return entries;
+    }
+
+    Map<FlowTableId, Set<Integer>> removedEntries() {
+        return removedEntries;
+    }
+
+    /**
+     * Returns the table id allocation state, or null if it did not change.
+     *
+     * @return first global table id per table type
+     */
+    Map<OFTableType, Byte> tableNoBases() {
+        return tableNoBases;
+    }
+
+    /**
+     * Returns the table id allocation state, or null if it did not change.
+     *
+     * @return number of tables the device has per table type
+     */
+    Map<OFTableType, Byte> tableNums() {
+        return tableNums;
+    }
+
+    /**
+     * Returns the table id allocation state, or null if it did not change.
+     *
+     * @return next unused global table id per table type
+     */
+    Map<OFTableType, Byte> nextTableNos() {
+        return nextTableNos;
+    }
+
+    /**
+     * Returns the table id allocation state, or null if it did not change.
+     *
+     * @return released global table ids per table type
+     */
+    Map<OFTableType, List<Byte>> freeTableIds() {
+        return freeTableIds;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(getClass())
+                .add("deviceId", deviceId)
+                .add("baseVersion", baseVersion())
+                .add("version", version())
+                .add("handoff", handoff)
+                .add("tables", tables.size())
+                .add("removedTables", removedTables.size())
+                .add("entryTables", entries.size())
+                .add("removedEntryTables", removedEntries.size())
+                .toString();
+    }
+
+    /**
+     * Builder of flow table backups.
+     */
+    static final class Builder {
+
+        private final DeviceId deviceId;
+        private final long baseVersion;
+        private final long version;
+        private boolean handoff;
+        private Map<FlowTableId, StoredFlowTableEntry> tables = ImmutableMap.of();
+        private Set<FlowTableId> removedTables = ImmutableSet.of();
+        private Map<FlowTableId, Map<Integer, FlowRule>> entries = ImmutableMap.of();
+        private Map<FlowTableId, Set<Integer>> removedEntries = ImmutableMap.of();
+        private Map<OFTableType, Byte> tableNoBases;
+        private Map<OFTableType, Byte> tableNums;
+        private Map<OFTableType, Byte> nextTableNos;
+        private Map<OFTableType, List<Byte>> freeTableIds;
+
+        private Builder(DeviceId deviceId, long baseVersion, long version) {
+            this.deviceId = deviceId;
+            this.baseVersion = baseVersion;
+            this.version = version;
+        }
+
+        Builder asHandoff() {
+            this.handoff = true;
+            return this;
+        }
+
+        Builder withTables(Map<FlowTableId, StoredFlowTableEntry> tables,
+                           Set<FlowTableId> removedTables) {
+            this.tables = tables;
+            this.removedTables = removedTables;
+            return this;
+        }
+
+        Builder withEntries(Map<FlowTableId, Map<Integer, FlowRule>> entries,
+                            Map<FlowTableId, Set<Integer>> removedEntries) {
+            this.entries = entries;
+            this.removedEntries = removedEntries;
+            return this;
+        }
+
+        Builder withTableIds(Map<OFTableType, Byte> tableNoBases,
+                             Map<OFTableType, Byte> tableNums,
+                             Map<OFTableType, Byte> nextTableNos,
+                             Map<OFTableType, List<Byte>> freeTableIds) {
+            this.tableNoBases = tableNoBases;
+            this.tableNums = tableNums;
+            this.nextTableNos = nextTableNos;
+            this.freeTableIds = freeTableIds;
+            return this;
+        }
+
+        DeviceTableBackup build() {
+            return new DeviceTableBackup(this);
+        }
+    }
+}
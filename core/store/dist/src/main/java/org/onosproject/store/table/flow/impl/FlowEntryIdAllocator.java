@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.table.flow.impl;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Lock-free allocator of flow entry ids for a single POF flow table.
+ * <p>
+ * Ids are tracked in a bitmap of 64-bit words grouped into lazily created
+ * segments; allocation and release are single CAS operations on one word.
+ * Contiguous, word-aligned blocks of ids can be leased out as a whole so that
+ * non-master instances are able to hand out ids without a round trip to the
+ * device master for every entry.
+ */
+final class FlowEntryIdAllocator {
+
+    /**
+     * Value returned when no id is available.
+     */
+    static final int NO_ID = -1;
+
+    /**
+     * Number of ids covered by one bitmap word; leases are multiples of it.
+     */
+    static final int WORD_BITS = Long.SIZE;
+
+    /**
+     * Default upper bound (exclusive) on the ids handed out for a table.
+     */
+    static final int DEFAULT_CAPACITY = 1 << 22;
+
+    private static final int SEGMENT_WORDS = 64;
+    private static final long FULL = -1L;
+
+    private final int capacity;
+    private final int wordCount;
+    private final AtomicReferenceArray<AtomicLongArray> segments;
+
+    // advisory lower bound on the lowest free id; a stale value is never
+    // harmful since allocation falls back to a full scan before giving up
+    private final AtomicInteger lowestFreeHint = new AtomicInteger();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * Creates an allocator handing out ids in [0, DEFAULT_CAPACITY).
+     */
+    FlowEntryIdAllocator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an allocator handing out ids in [0, capacity).
+     *
+     * @param capacity number of ids managed by this allocator
+     */
+    FlowEntryIdAllocator(int capacity) {
+        checkArgument(capacity > 0, "capacity must be positive, but %s", capacity);
+        this.capacity = capacity;
+        this.wordCount = (int) (((long) capacity + WORD_BITS - 1) / WORD_BITS);
+        this.segments = new AtomicReferenceArray<>((wordCount + SEGMENT_WORDS - 1) / SEGMENT_WORDS);
+    }
+
+    /**
+     * Allocates the lowest free id that can be found.
+     *
+     * @return newly allocated id, or {@link #NO_ID} if the table is exhausted
+     */
+    int allocate() {
+        int hint = lowestFreeHint.get();
+        int id = allocateFrom(hint >>> 6, hint);
+        if (id == NO_ID && hint != 0) {
+            id = allocateFrom(0, lowestFreeHint.get());
+        }
+        return id;
+    }
+
+    private int allocateFrom(int firstWord, int hint) {
+        for (int word = firstWord; word < wordCount; word++) {
+            AtomicLongArray segment = segment(word, true);
+            int index = word % SEGMENT_WORDS;
+            long bits;
+            while ((bits = segment.get(index)) != FULL) {
+                int bit = Long.numberOfTrailingZeros(~bits);
+                int id = word * WORD_BITS + bit;
+                if (id >= capacity) {
+                    return NO_ID;
+                }
+                if (segment.compareAndSet(index, bits, bits | (1L << bit))) {
+                    allocated.incrementAndGet();
+                    // only advance the hint if no release happened meanwhile
+                    lowestFreeHint.compareAndSet(hint, word * WORD_BITS);
+                    return id;
+                }
+            }
+        }
+        return NO_ID;
+    }
+
+    /**
+     * Leases a contiguous, word-aligned block of ids.
+     *
+     * @param size requested block size; rounded up to a multiple of
+     *             {@link #WORD_BITS}
+     * @return first id of the leased block, or {@link #NO_ID} if no block of
+     *         the requested size is free
+     */
+    int leaseBlock(int size) {
+        checkArgument(size > 0, "size must be positive, but %s", size);
+        int words = blockSize(size) / WORD_BITS;
+        int first = lowestFreeHint.get() >>> 6;
+        for (int word = first; word + words <= wordCount; word++) {
+            int claimed = 0;
+            while (claimed < words && claimWord(word + claimed)) {
+                claimed++;
+            }
+            if (claimed == words) {
+                allocated.addAndGet(words * WORD_BITS);
+                return word * WORD_BITS;
+            }
+            for (int i = 0; i < claimed; i++) {
+                segment(word + i, false).set((word + i) % SEGMENT_WORDS, 0L);
+            }
+            word += claimed;
+        }
+        return NO_ID;
+    }
+
+    /**
+     * Returns the number of ids a block lease of the given size reserves.
+     *
+     * @param size requested block size
+     * @return size rounded up to a multiple of {@link #WORD_BITS}
+     */
+    static int blockSize(int size) {
+        return (size + WORD_BITS - 1) / WORD_BITS * WORD_BITS;
+    }
+
+    private boolean claimWord(int word) {
+        if ((word + 1) * WORD_BITS > capacity) {
+            return false;
+        }
+        return segment(word, true).compareAndSet(word % SEGMENT_WORDS, 0L, FULL);
+    }
+
+    /**
+     * Marks the given id as in use, regardless of how it was obtained.
+     *
+     * @param id id to reserve
+     * @return true if the id was free before
+     */
+    boolean reserve(int id) {
+        if (id < 0 || id >= capacity) {
+            return false;
+        }
+        int word = id / WORD_BITS;
+        AtomicLongArray segment = segment(word, true);
+        int index = word % SEGMENT_WORDS;
+        long mask = 1L << (id % WORD_BITS);
+        long bits;
+        do {
+            bits = segment.get(index);
+            if ((bits & mask) != 0) {
+                return false;
+            }
+        } while (!segment.compareAndSet(index, bits, bits | mask));
+        allocated.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the given id to the pool of free ids.
+     *
+     * @param id id to release
+     * @return true if the id was in use before
+     */
+    boolean release(int id) {
+        if (id < 0 || id >= capacity) {
+            return false;
+        }
+        int word = id / WORD_BITS;
+        AtomicLongArray segment = segment(word, false);
+        if (segment == null) {
+            return false;
+        }
+        int index = word % SEGMENT_WORDS;
+        long mask = 1L << (id % WORD_BITS);
+        long bits;
+        do {
+            bits = segment.get(index);
+            if ((bits & mask) == 0) {
+                return false;
+            }
+        } while (!segment.compareAndSet(index, bits, bits & ~mask));
+        allocated.decrementAndGet();
+        lowestFreeHint.accumulateAndGet(id, Math::min);
+        return true;
+    }
+
+    /**
+     * Returns whether the given id is currently in use.
+     *
+     * @param id id to check
+     * @return true if allocated, reserved or leased
+     */
+    boolean isAllocated(int id) {
+        if (id < 0 || id >= capacity) {
+            return false;
+        }
+        AtomicLongArray segment = segment(id / WORD_BITS, false);
+        return segment != null &&
+                (segment.get((id / WORD_BITS) % SEGMENT_WORDS) & (1L << (id % WORD_BITS))) != 0;
+    }
+
+    /**
+     * Returns the number of ids currently in use.
+     *
+     * @return allocated id count
+     */
+    int allocatedCount() {
+        return allocated.get();
+    }
+
+    /**
+     * Returns the free ids lying below the highest allocated id, i.e. the
+     * ids that were released and may be handed out again. This walks the
+     * bitmap and is meant for diagnostics only.
+     *
+     * @return list of free ids in ascending order
+     */
+    List<Integer> releasedIds() {
+        List<Integer> free = Lists.newArrayList();
+        int pending = 0;
+        for (int word = 0; word < wordCount; word++) {
+            AtomicLongArray segment = segment(word, false);
+            if (segment == null) {
+                break;
+            }
+            long bits = segment.get(word % SEGMENT_WORDS);
+            for (int bit = 0; bit < WORD_BITS; bit++) {
+                if ((bits & (1L << bit)) == 0) {
+                    pending++;
+                } else {
+                    // free ids followed by an allocated one are released ids
+                    for (int id = word * WORD_BITS + bit - pending; pending > 0; id++, pending--) {
+                        free.add(id);
+                    }
+                }
+            }
+        }
+        return free;
+    }
+
+    private AtomicLongArray segment(int word, boolean create) {
+        int index = word / SEGMENT_WORDS;
+        AtomicLongArray segment = segments.get(index);
+        if (segment == null && create) {
+            segments.compareAndSet(index, null, new AtomicLongArray(SEGMENT_WORDS));
+            segment = segments.get(index);
+        }
+        return segment;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.table.flow.impl;
+
+import com.google.common.base.MoreObjects;
+import org.onosproject.net.DeviceId;
+
+/**
+ * Unused part of a block of flow entry ids leased from the device master,
+ * sent back to the master so that the ids may be handed out again.
+ */
+final class FlowEntryIdBlock {
+
+    private final DeviceId deviceId;
+    private final int tableId;
+    private final int start;
+    private final int size;
+
+    /**
+     * Creates a block of flow entry ids.
+     *
+     * @param deviceId device identifier
+     * @param tableId  global table id
+     * @param start    first id of the block
+     * @param size     number of ids in the block
+     */
+    FlowEntryIdBlock(DeviceId deviceId, int tableId, int start, int size) {
+        this.deviceId = deviceId;
+        this.tableId = tableId;
+        this.start = start;
+        this.size = size;
+    }
+
+    DeviceId deviceId() {
+        return deviceId;
+    }
+
+    int tableId() {
+        return tableId;
+    }
+
+    int start() {
+        return start;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(getClass())
+                .add("deviceId", deviceId)
+                .add("tableId", tableId)
+                .add("start", start)
+                .add("size", size)
+                .toString();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.table.flow.impl;
+
+import com.google.common.base.MoreObjects;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.onosproject.net.DeviceId;
+
+import java.util.Arrays;
+
+/**
+ * Global table ids allocated but never used for a table, sent back to the
+ * device master so that they may be allocated again.
+ */
+final class FlowTableIdRelease {
+
+    private final DeviceId deviceId;
+    private final OFTableType tableType;
+    private final int[] tableIds;
+
+    /**
+     * Creates a release of global table ids.
+     *
+     * @param deviceId  device identifier
+     * @param tableType type of the tables
+     * @param tableIds  global table ids given back
+     */
+    FlowTableIdRelease(DeviceId deviceId, OFTableType tableType, int[] tableIds) {
+        this.deviceId = deviceId;
+        this.tableType = tableType;
+        this.tableIds = tableIds;
+    }
+
+    DeviceId deviceId() {
+        return deviceId;
+    }
+
+    OFTableType tableType() {
+        return tableType;
+    }
+
+    int[] tableIds() {
+        return tableIds;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(getClass())
+                .add("deviceId", deviceId)
+                .add("tableType", tableType)
+                .add("tableIds", Arrays.toString(tableIds))
+                .toString();
+    }
+}
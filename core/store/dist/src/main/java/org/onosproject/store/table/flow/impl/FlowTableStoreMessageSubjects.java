@@ -45,4 +45,19 @@ public final class FlowTableStoreMessageSubjects {
         = new MessageSubject("peer-forward-get-new-global-tableid");
     public static final MessageSubject GET_NEW_GLOBAL_ENTRYID
         = new MessageSubject("peer-forward-get-new-global-entryid");
+
+    public static final MessageSubject GET_NEW_GLOBAL_TABLEIDS
+        = new MessageSubject("peer-forward-get-new-global-tableids");
+
+    public static final MessageSubject GET_NEW_FLOW_ENTRYIDS
+        = new MessageSubject("peer-forward-get-new-flow-entryids");
+
+    public static final MessageSubject LEASE_FLOW_ENTRY_IDS
+        = new MessageSubject("peer-forward-lease-flow-entry-ids");
+
+    public static final MessageSubject RETURN_FLOW_ENTRY_IDS
+        = new MessageSubject("peer-return-flow-entry-ids");
+
+    public static final MessageSubject RETURN_GLOBAL_TABLEIDS
+        = new MessageSubject("peer-return-global-tableids");
 }
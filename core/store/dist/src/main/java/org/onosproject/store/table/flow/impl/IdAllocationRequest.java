@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.table.flow.impl;
+
+import com.google.common.base.MoreObjects;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.onosproject.net.DeviceId;
+
+/**
+ * Request for a batch of table or flow entry ids, sent to the device master.
+ */
+final class IdAllocationRequest {
+
+    private final DeviceId deviceId;
+    private final OFTableType tableType;
+    private final int tableId;
+    private final int count;
+
+    private IdAllocationRequest(DeviceId deviceId, OFTableType tableType, int tableId, int count) {
+        this.deviceId = deviceId;
+        this.tableType = tableType;
+        this.tableId = tableId;
+        this.count = count;
+    }
+
+    /**
+     * Creates a request for global flow table ids of the given type.
+     *
+     * @param deviceId  device identifier
+     * @param tableType type of the tables
+     * @param count     number of ids requested
+     * @return id allocation request
+     */
+    static IdAllocationRequest forTables(DeviceId deviceId, OFTableType tableType, int count) {
+        return new IdAllocationRequest(deviceId, tableType, -1, count);
+    }
+
+    /**
+     * Creates a request for flow entry ids in the given table.
+     *
+     * @param deviceId device identifier
+     * @param tableId  global table id
+     * @param count    number of ids requested
+     * @return id allocation request
+     */
+    static IdAllocationRequest forEntries(DeviceId deviceId, int tableId, int count) {
+        return new IdAllocationRequest(deviceId, null, tableId, count);
+    }
+
+    DeviceId deviceId() {
+        return deviceId;
+    }
+
+    OFTableType tableType() {
+        return tableType;
+    }
+
+    int tableId() {
+        return tableId;
+    }
+
+    int count() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(getClass())
+                .add("deviceId", deviceId)
+                .add("tableType", tableType)
+                .add("tableId", tableId)
+                .add("count", count)
+                .toString();
+    }
+}
@@ -16,9 +16,12 @@
 package org.onosproject.store.table.flow.impl;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.Futures;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -33,6 +36,7 @@ import org.onlab.util.Tools;
 import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.cluster.ClusterService;
 import org.onosproject.cluster.NodeId;
+import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.core.IdGenerator;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
@@ -46,6 +50,7 @@ import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.flow.FlowRule;
 import org.onosproject.net.flow.TableStatisticsEntry;
 import org.onosproject.net.table.CompletedTableBatchOperation;
+import org.onosproject.net.table.DefaultFlowTable;
 import org.onosproject.net.table.DefaultFlowTableEntry;
 import org.onosproject.net.table.FlowTable;
 import org.onosproject.net.table.FlowTableBatchEntry;
@@ -56,6 +61,7 @@ import org.onosproject.net.table.FlowTableBatchRequest;
 import org.onosproject.net.table.FlowTableEntry;
 import org.onosproject.net.table.FlowTableEvent;
 import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.FlowTableLayout;
 import org.onosproject.net.table.FlowTableService;
 import org.onosproject.net.table.FlowTableStore;
 import org.onosproject.net.table.FlowTableStoreDelegate;
@@ -77,6 +83,7 @@ import org.onosproject.store.service.ConsistentMap;
 import org.onosproject.store.service.EventuallyConsistentMap;
 import org.onosproject.store.service.EventuallyConsistentMapEvent;
 import org.onosproject.store.service.EventuallyConsistentMapListener;
+import org.onosproject.store.service.LogicalClockService;
 import org.onosproject.store.service.Serializer;
 import org.onosproject.store.service.StorageService;
 import org.onosproject.store.service.WallClockTimestamp;
@@ -84,6 +91,7 @@ import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashSet;
@@ -91,6 +99,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -105,6 +114,7 @@ import static com.google.common.base.Strings.isNullOrEmpty;
 import static org.onlab.util.Tools.get;
 import static org.onlab.util.Tools.groupedThreads;
 import static org.onosproject.net.table.FlowTableEvent.Type.TABLE_REMOVED;
+import static org.onosproject.store.impl.VersionedBackup.SNAPSHOT;
 import static org.onosproject.store.table.flow.impl.FlowTableStoreMessageSubjects.*;
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -120,14 +130,15 @@ public class NewDistributedFlowTableStore
     private final Logger log = getLogger(getClass());
 
     private static final int MESSAGE_HANDLER_THREAD_POOL_SIZE = 8;
-    private static final boolean DEFAULT_BACKUP_ENABLED = false;
+    private static final boolean DEFAULT_BACKUP_ENABLED = true;
     private static final boolean DEFAULT_PERSISTENCE_ENABLED = false;
     private static final int DEFAULT_BACKUP_PERIOD_MILLIS = 2000;
     private static final long FLOW_TABLE_STORE_TIMEOUT_MILLIS = 5000;
     private static final long GET_NEW_GLOBALTABLEID_TIMEOUT_MILLIS = 5000;
     private static final long GET_NEW_FLOWENTRYID_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_FLOW_ENTRY_ID_LEASE_SIZE = 64;
     // number of devices whose flow entries will be backed up in one communication round
-    private static final int FLOW_TABLE_BACKUP_BATCH_SIZE = 1;
+    private static final int FLOW_TABLE_BACKUP_BATCH_SIZE = 16;
 
     @Property(name = "msgHandlerPoolSize", intValue = MESSAGE_HANDLER_THREAD_POOL_SIZE,
             label = "Number of threads in the message handler pool")
@@ -144,33 +155,41 @@ public class NewDistributedFlowTableStore
             label = "Indicates whether or not changes in the flow table should be persisted to disk.")
     private boolean persistenceEnabled = DEFAULT_PERSISTENCE_ENABLED;
 
+    @Property(name = "flowEntryIdLeaseSize", intValue = DEFAULT_FLOW_ENTRY_ID_LEASE_SIZE,
+            label = "Number of flow entry ids leased at once by a non-master instance")
+    private int flowEntryIdLeaseSize = DEFAULT_FLOW_ENTRY_ID_LEASE_SIZE;
+
     private InternalFlowTable flowTable = new InternalFlowTable();
-    private static Map<DeviceId, Map<FlowTableId, Map<Integer, FlowRule>>>
+    private final Map<DeviceId, Map<FlowTableId, Map<Integer, FlowRule>>>
             flowEntries = Maps.newConcurrentMap();
 
-    private static Map<DeviceId, Map<FlowTableId, List<Integer>>>
-            freeFlowEntryIds = Maps.newConcurrentMap();
+    // owned by the device master; tracks the entry ids in use per table
+    private final Map<DeviceId, Map<FlowTableId, FlowEntryIdAllocator>>
+            flowEntryIdAllocators = Maps.newConcurrentMap();
 
-    private static Map<DeviceId, Map<FlowTableId, Integer>>
-            flowEntryCount = Maps.newConcurrentMap();
+    // blocks of entry ids leased from the master of devices we do not own
+    private final Map<DeviceId, Map<FlowTableId, FlowEntryIdLease>>
+            flowEntryIdLeases = Maps.newConcurrentMap();
 
-    private static Map<DeviceId, Map<OFTableType, Byte>>
+    private final Map<DeviceId, Map<OFTableType, Byte>>
             flowTableNoBaseMap = Maps.newConcurrentMap();    //<tableType, NumberBase>
 
-    private static Map<DeviceId, Map<OFTableType, Byte>>
+    private final Map<DeviceId, Map<OFTableType, Byte>>
+            flowTableNumMap = Maps.newConcurrentMap();       //<tableType, tableNum>
+
+    private final Map<DeviceId, Map<OFTableType, Byte>>
             flowTableNoMap = Maps.newConcurrentMap();        //<tableType, globalTableId>
 
-    private static Map<DeviceId, Map<OFTableType, List<Byte>>>
+    private final Map<DeviceId, Map<OFTableType, List<Byte>>>
             freeFlowTableIDListMap = Maps.newConcurrentMap();
-//    private ConsistentMap<DeviceId,Map<FlowTableId, Map<Integer, FlowRule>>>flowEntries;
-//    private ConsistentMap<DeviceId,Map<FlowTableId,List<Integer>>>freeFlowEntryIds;
-//    private ConsistentMap<DeviceId,Map<FlowTableId,Integer>>flowEntryCount;
-//    private ConsistentMap<DeviceId,Map<OFTableType,Byte>>flowTableNoBaseMap;
-//    private ConsistentMap<DeviceId,Map<OFTableType,Byte>>flowTableNoMap;
-//    private ConsistentMap<DeviceId,Map<OFTableType,List<Byte>>>freeFlowTableIDListMap;
 
-    private static final Map<DeviceId, Map<FlowTableId, StoredFlowTableEntry>>
-            FLOWTABLES = Maps.newConcurrentMap();
+    // tables and entries of the devices this instance masters, plus the
+    // replicas of the devices it backs up; kept in step by FLOW_TABLE_BACKUP
+    private final Map<DeviceId, Map<FlowTableId, StoredFlowTableEntry>>
+            deviceFlowTables = Maps.newConcurrentMap();
+
+    // changes made as device master that the backup node has not seen yet
+    private final Map<DeviceId, DeviceChanges> pendingChanges = Maps.newConcurrentMap();
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected ReplicaInfoService replicaInfoManager;
@@ -208,17 +227,32 @@ public class NewDistributedFlowTableStore
     private final EventuallyConsistentMapListener<DeviceId, List<TableStatisticsEntry>> tableStatsListener =
             new InternalTableStatsListener();
 
+    // every table in the cluster, written by the master of its device
+    private EventuallyConsistentMap<DeviceTableId, FlowTable> appTables;
+
+    // application id -> tables of the application, kept in step with appTables
+    private final Map<Short, Set<DeviceTableId>> appTableIndex = Maps.newConcurrentMap();
+
+    private final EventuallyConsistentMapListener<DeviceTableId, FlowTable> appTableListener =
+            new InternalAppTableListener();
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected StorageService storageService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected LogicalClockService clockService;
+
     protected static final StoreSerializer SERIALIZER = new KryoSerializer() {
         @Override
         protected void setupKryoPool() {
             serializerPool = KryoNamespace.newBuilder()
                     .register(DistributedStoreSerializers.STORE_COMMON)
                     .nextId(DistributedStoreSerializers.STORE_CUSTOM_BEGIN)
-//                    .register(DefaultFlowTableEntry.class)
-//                    .register(FlowTableEntry.FlowTableState.class)
+                    .register(IdAllocationRequest.class)
+                    .register(DeviceTableBackup.class)
+                    .register(FlowTableEntry.FlowTableState.class)
+                    .register(FlowEntryIdBlock.class)
+                    .register(FlowTableIdRelease.class)
                     .build();
         }
     };
@@ -244,8 +278,9 @@ public class NewDistributedFlowTableStore
 
         registerMessageHandlers(messageHandlingExecutor);
 
+        // mastership changes are followed for the id leases even without backups
+        replicaInfoManager.addListener(flowTable);
         if (backupEnabled) {
-            replicaInfoManager.addListener(flowTable);
             backupTask = backupSenderExecutor.scheduleWithFixedDelay(
                     flowTable::backup,
                     0,
@@ -260,36 +295,35 @@ public class NewDistributedFlowTableStore
                 .withTimestampProvider((k, v) -> new WallClockTimestamp())
                 .withTombstonesDisabled()
                 .build();
-//        flowEntries = storageService.<DeviceId,Map<FlowTableId, Map<Integer, FlowRule>>>consistentMapBuilder()
-//                .withName("onos-flow-entries")
-//                .withSerializer(SERIALIZER)
-//                .withRelaxedReadConsistency()
-//                .build();
-//        freeFlowEntryIds = storageService.<DeviceId,Map<FlowTableId,List<Integer>>>consistentMapBuilder()
-//                .withName("onos-freeflow-entryids")
-//                .withSerializer(SERIALIZER)
-//                .withRelaxedReadConsistency()
-//                .build();
-//        flowEntryCount = storageService.<DeviceId,Map<FlowTableId,Integer>>consistentMapBuilder()
-//                .withName("onos-freeflow-entryids")
-//                .withSerializer(SERIALIZER)
-//                .withRelaxedReadConsistency()
-//                .build();
         deviceTableStats.addListener(tableStatsListener);
 
+        appTables = storageService.<DeviceTableId, FlowTable>eventuallyConsistentMapBuilder()
+                .withName("onos-flow-table-apps")
+                .withSerializer(KryoNamespace.newBuilder()
+                        .register(DistributedStoreSerializers.STORE_COMMON))
+                // tables are removed and re-added within the same millisecond on update,
+                // and a new master must win over the writes of the former one
+                .withTimestampProvider((k, v) -> clockService.getTimestamp())
+                .build();
+        appTables.addListener(appTableListener);
+        appTables.entrySet().forEach(e -> indexAppTable(e.getKey(), e.getValue()));
+
         logConfig("Started");
     }
 
     @Deactivate
     public void deactivate(ComponentContext context) {
+        replicaInfoManager.removeListener(flowTable);
         if (backupEnabled) {
-            replicaInfoManager.removeListener(flowTable);
             backupTask.cancel(true);
         }
         configService.unregisterProperties(getClass(), false);
         unregisterMessageHandlers();
         deviceTableStats.removeListener(tableStatsListener);
         deviceTableStats.destroy();
+        appTables.removeListener(appTableListener);
+        appTables.destroy();
+        appTableIndex.clear();
         messageHandlingExecutor.shutdownNow();
         backupSenderExecutor.shutdownNow();
         log.info("Stopped");
@@ -308,6 +342,7 @@ public class NewDistributedFlowTableStore
         int newPoolSize;
         boolean newBackupEnabled;
         int newBackupPeriod;
+        int newLeaseSize;
         try {
             String s = get(properties, "msgHandlerPoolSize");
             newPoolSize = isNullOrEmpty(s) ? msgHandlerPoolSize : Integer.parseInt(s.trim());
@@ -318,23 +353,26 @@ public class NewDistributedFlowTableStore
             s = get(properties, "backupPeriod");
             newBackupPeriod = isNullOrEmpty(s) ? backupPeriod : Integer.parseInt(s.trim());
 
+            s = get(properties, "flowEntryIdLeaseSize");
+            newLeaseSize = isNullOrEmpty(s) ? flowEntryIdLeaseSize : Integer.parseInt(s.trim());
+
         } catch (NumberFormatException | ClassCastException e) {
             newPoolSize = MESSAGE_HANDLER_THREAD_POOL_SIZE;
             newBackupEnabled = DEFAULT_BACKUP_ENABLED;
             newBackupPeriod = DEFAULT_BACKUP_PERIOD_MILLIS;
+            newLeaseSize = DEFAULT_FLOW_ENTRY_ID_LEASE_SIZE;
+        }
+
+        if (newLeaseSize > 0) {
+            flowEntryIdLeaseSize = newLeaseSize;
         }
 
         boolean restartBackupTask = false;
         if (newBackupEnabled != backupEnabled) {
             backupEnabled = newBackupEnabled;
-            if (!backupEnabled) {
-                replicaInfoManager.removeListener(flowTable);
-                if (backupTask != null) {
-                    backupTask.cancel(false);
-                    backupTask = null;
-                }
-            } else {
-                replicaInfoManager.addListener(flowTable);
+            if (!backupEnabled && backupTask != null) {
+                backupTask.cancel(false);
+                backupTask = null;
             }
             restartBackupTask = backupEnabled;
         }
@@ -385,6 +423,17 @@ public class NewDistributedFlowTableStore
                 GET_NEW_GLOBAL_TABLEID, SERIALIZER::decode, flowTable::getGlobalFlowTableId, SERIALIZER::encode, executor);
         clusterCommunicator.addSubscriber(
                 GET_NEW_GLOBAL_ENTRYID, SERIALIZER::decode, flowTable::getFlowEntryId, SERIALIZER::encode, executor);
+        clusterCommunicator.addSubscriber(
+                GET_NEW_GLOBAL_TABLEIDS, SERIALIZER::decode, flowTable::getGlobalFlowTableIds,
+                SERIALIZER::encode, executor);
+        clusterCommunicator.addSubscriber(
+                GET_NEW_FLOW_ENTRYIDS, SERIALIZER::decode, flowTable::getFlowEntryIds, SERIALIZER::encode, executor);
+        clusterCommunicator.addSubscriber(
+                LEASE_FLOW_ENTRY_IDS, SERIALIZER::decode, flowTable::leaseFlowEntryIds, SERIALIZER::encode, executor);
+        clusterCommunicator.<FlowEntryIdBlock>addSubscriber(
+                RETURN_FLOW_ENTRY_IDS, SERIALIZER::decode, flowTable::returnFlowEntryIds, executor);
+        clusterCommunicator.addSubscriber(
+                RETURN_GLOBAL_TABLEIDS, SERIALIZER::decode, flowTable::returnGlobalFlowTableIds, executor);
     }
 
     private void unregisterMessageHandlers() {
@@ -396,11 +445,16 @@ public class NewDistributedFlowTableStore
         clusterCommunicator.removeSubscriber(FLOW_TABLE_BACKUP);
         clusterCommunicator.removeSubscriber(GET_NEW_GLOBAL_TABLEID);
         clusterCommunicator.removeSubscriber(GET_NEW_GLOBAL_ENTRYID);
+        clusterCommunicator.removeSubscriber(GET_NEW_GLOBAL_TABLEIDS);
+        clusterCommunicator.removeSubscriber(GET_NEW_FLOW_ENTRYIDS);
+        clusterCommunicator.removeSubscriber(LEASE_FLOW_ENTRY_IDS);
+        clusterCommunicator.removeSubscriber(RETURN_FLOW_ENTRY_IDS);
+        clusterCommunicator.removeSubscriber(RETURN_GLOBAL_TABLEIDS);
     }
 
     private void logConfig(String prefix) {
-        log.info("{} with msgHandlerPoolSize = {}; backupEnabled = {}, backupPeriod = {}",
-                prefix, msgHandlerPoolSize, backupEnabled, backupPeriod);
+        log.info("{} with msgHandlerPoolSize = {}; backupEnabled = {}, backupPeriod = {}, flowEntryIdLeaseSize = {}",
+                prefix, msgHandlerPoolSize, backupEnabled, backupPeriod, flowEntryIdLeaseSize);
     }
 
     /**
@@ -410,12 +464,7 @@ public class NewDistributedFlowTableStore
     public void initializeSwitchStore(DeviceId deviceId) {
 
         log.info("initializeSwitchStore for device: {}", deviceId);
-        Map<FlowTableId, Integer> tcount = new ConcurrentHashMap<>();
-        flowEntryCount.putIfAbsent(deviceId, tcount);
-
-        List<Integer> ids = new ArrayList<>();
-        Map<FlowTableId, List<Integer>> tids = new ConcurrentHashMap<>();
-        freeFlowEntryIds.putIfAbsent(deviceId, tids);//initialization map all is null
+        flowEntryIdAllocators.putIfAbsent(deviceId, new ConcurrentHashMap<>());
 
         Map<FlowTableId, Map<Integer, FlowRule>> tfs = new ConcurrentHashMap<>();
         flowEntries.putIfAbsent(deviceId, tfs);
@@ -425,13 +474,15 @@ public class NewDistributedFlowTableStore
     public void removeSwitchStore(DeviceId deviceId) {
 
         log.info("removeSwitchStore for device: {}", deviceId);
-        flowEntryCount.remove(deviceId);
-        freeFlowEntryIds.remove(deviceId);
+        flowEntryIdAllocators.remove(deviceId);
+        flowEntryIdLeases.remove(deviceId);
         flowEntries.remove(deviceId);
+        pendingChanges.remove(deviceId);
 
         freeFlowTableIDListMap.remove(deviceId);
         flowTableNoMap.remove(deviceId);
         flowTableNoBaseMap.remove(deviceId);
+        flowTableNumMap.remove(deviceId);
         flowTable.removeDevice(deviceId);
     }
 
@@ -448,7 +499,6 @@ public class NewDistributedFlowTableStore
 
     @Override
     public void setFlowTableNoBase(DeviceId deviceId, OFFlowTableResource of) {
-        log.info("@niubin setFlowTableNoBase");
         log.info("+++++ setFlowTableNoBase for device {}", deviceId.toString());
         byte base = 0;
         OFTableResource tableResource;
@@ -456,21 +506,31 @@ public class NewDistributedFlowTableStore
 
         Map<OFTableType, Byte> noMap = new ConcurrentHashMap<>();
         Map<OFTableType, Byte> noBaseMap = new ConcurrentHashMap<>();
+        Map<OFTableType, Byte> numMap = new ConcurrentHashMap<>();
         Map<OFTableType, List<Byte>> freeIDListMap = new ConcurrentHashMap<>();
 
         if (flowTableReourceMap == null) {
             return;
         }
+        Map<FlowTableId, StoredFlowTableEntry> storedTables = deviceFlowTables.get(deviceId);
+        if (flowTableNoMap.containsKey(deviceId) && storedTables != null && !storedTables.isEmpty()) {
+            // state handed over from the previous master is still in use by the switch
+            log.info("Keeping flow table ids of {} held by the store", deviceId);
+            return;
+        }
         for (byte tableType = 0; tableType < OFTableType.OF_MAX_TABLE_TYPE.getValue(); tableType++) {
             tableResource = flowTableReourceMap.get(OFTableType.values()[ tableType ]);
             noMap.put(OFTableType.values()[tableType], base);
             noBaseMap.put(OFTableType.values()[tableType], base);
+            numMap.put(OFTableType.values()[tableType], tableResource.getTableNum());
             freeIDListMap.put(OFTableType.values()[tableType], new ArrayList<Byte>());
             base += tableResource.getTableNum();
         }
         this.flowTableNoMap.put(deviceId, noMap);
         this.flowTableNoBaseMap.put(deviceId, noBaseMap);
+        this.flowTableNumMap.put(deviceId, numMap);
         this.freeFlowTableIDListMap.put(deviceId, freeIDListMap);
+        changesOf(deviceId).tableIdsChanged();
     }
 
 
@@ -479,8 +539,8 @@ public class NewDistributedFlowTableStore
     public byte parseToSmallTableId(DeviceId deviceId, int globalTableId) {
         FlowTableId tableId = FlowTableId.valueOf(globalTableId);
 
-        if (FLOWTABLES.get(deviceId) != null) {
-            FlowTable flowtable = FLOWTABLES.get(deviceId).get(tableId);
+        if (deviceFlowTables.get(deviceId) != null) {
+            FlowTable flowtable = deviceFlowTables.get(deviceId).get(tableId);
             if (flowtable != null) {
                 return flowtable.flowTable().getTableId();
             }
@@ -526,38 +586,45 @@ public class NewDistributedFlowTableStore
         return this.freeFlowTableIDListMap.get(deviceId);
     }
 
+    private DeviceChanges changesOf(DeviceId deviceId) {
+        return pendingChanges.computeIfAbsent(deviceId, id -> new DeviceChanges());
+    }
+
+    private FlowEntryIdAllocator getFlowEntryIdAllocator(DeviceId deviceId, FlowTableId flowTableId) {
+        return flowEntryIdAllocators.computeIfAbsent(deviceId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(flowTableId, id -> new FlowEntryIdAllocator());
+    }
+
     @Override
     public int getFlowEntryCount(DeviceId deviceId, FlowTableId flowTableId) {
-        return flowEntryCount.get(deviceId).get(flowTableId);
+        // the allocator also counts the ids leased out and not used yet
+        Map<Integer, FlowRule> rules = flowEntries.getOrDefault(deviceId, Collections.emptyMap()).get(flowTableId);
+        return rules == null ? 0 : rules.size();
     }
 
     @Override
     public void addFlowEntryCount(DeviceId deviceId, FlowTableId flowTableId) {
-        Integer tmp = flowEntryCount.get(deviceId).get(flowTableId);
-        flowEntryCount.get(deviceId).replace(flowTableId, tmp + 1);
-        log.info("++++addFlowEntryCount: {}", tmp + 1);
+        // the entry count is the number of stored rules, nothing to track here
     }
 
     @Override
     public void deleteFlowEntryCount(DeviceId deviceId, FlowTableId flowTableId) {
-        Integer tmp = flowEntryCount.get(deviceId).get(flowTableId);
-        flowEntryCount.get(deviceId).replace(flowTableId, tmp - 1);
+        // the entry count is the number of stored rules, nothing to track here
     }
 
     @Override
     public List<Integer> getFreeFlowEntryIds(DeviceId deviceId, FlowTableId flowTableId) {
-        return freeFlowEntryIds.get(deviceId).get(flowTableId);
+        return getFlowEntryIdAllocator(deviceId, flowTableId).releasedIds();
     }
 
     @Override
     public void addFreeFlowEntryIds(DeviceId deviceId, FlowTableId flowTableId, Integer flowEntryId) {
-        freeFlowEntryIds.get(deviceId).get(flowTableId).add(flowEntryId);
-
+        getFlowEntryIdAllocator(deviceId, flowTableId).release(flowEntryId);
     }
 
     @Override
     public void deleteFreeFlowEntryIds(DeviceId deviceId, FlowTableId flowTableId, Integer flowEntryId) {
-        freeFlowEntryIds.get(deviceId).get(flowTableId).remove((Object) flowEntryId);
+        getFlowEntryIdAllocator(deviceId, flowTableId).reserve(flowEntryId);
     }
 
     public Map<FlowTableId, Map<Integer, FlowRule>> getFlowEntries(DeviceId deviceId) {
@@ -583,20 +650,21 @@ public class NewDistributedFlowTableStore
     @Override
     public void addFlowEntry(DeviceId deviceId, FlowTableId flowTableId, FlowRule flowRule) {
         getFlowEntries(deviceId, flowTableId).putIfAbsent((int) flowRule.id().value(), flowRule);
+        changesOf(deviceId).entryChanged(flowTableId, (int) flowRule.id().value());
     }
 
     @Override
     public void modifyFlowEntry(DeviceId deviceId, FlowTableId flowTableId, FlowRule flowRule) {
         flowEntries.get(deviceId).get(flowTableId).replace((int) flowRule.id().value(), flowRule);
+        changesOf(deviceId).entryChanged(flowTableId, (int) flowRule.id().value());
     }
 
     @Override
     public void deleteFlowEntry(DeviceId deviceId, FlowTableId flowTableId, int flowEntryId) {
 
         flowEntries.get(deviceId).get(flowTableId).remove(flowEntryId);
-        log.info("before delete flow entry count");
-        deleteFlowEntryCount(deviceId, flowTableId);
         addFreeFlowEntryIds(deviceId, flowTableId, flowEntryId);
+        changesOf(deviceId).entryChanged(flowTableId, flowEntryId);
         if (flowEntries.get(deviceId).get(flowTableId) == null) {
             log.info("+++++ flow entry map is null!!!");
         }
@@ -607,6 +675,11 @@ public class NewDistributedFlowTableStore
         return flowTable.getFlowTableInternal(deviceId, flowTableId);
     }
 
+    @Override
+    public FlowTableLayout getFlowTableLayout(DeviceId deviceId, FlowTableId flowTableId) {
+        return flowTable.getFlowTableLayout(deviceId, flowTableId);
+    }
+
     @Override
     public FlowTable getFlowTable(FlowTable table) {
         NodeId master = mastershipService.getMasterFor(table.deviceId());
@@ -661,6 +734,50 @@ public class NewDistributedFlowTableStore
                 TimeUnit.MILLISECONDS,
                 Collections.emptyList());
     }
+    @Override
+    public Iterable<FlowTable> getFlowTablesByAppId(ApplicationId appId) {
+        Set<DeviceTableId> ids = appTableIndex.get(appId.id());
+        if (ids == null) {
+            return Collections.emptySet();
+        }
+        return ids.stream()
+                .map(appTables::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+    }
+
+    private void indexAppTable(DeviceTableId id, FlowTable table) {
+        appTableIndex.computeIfAbsent(table.appId(), appId -> Sets.newConcurrentHashSet()).add(id);
+    }
+
+    private void unindexAppTable(DeviceTableId id, FlowTable table) {
+        if (table == null) {
+            appTableIndex.values().forEach(ids -> ids.remove(id));
+            return;
+        }
+        Set<DeviceTableId> ids = appTableIndex.get(table.appId());
+        if (ids != null) {
+            ids.remove(id);
+        }
+    }
+
+    /**
+     * Rebuilds the index entries of a device from the tables published for
+     * it, dropping those left behind by a former master.
+     *
+     * @param deviceId device identifier
+     */
+    private void reindexAppTables(DeviceId deviceId) {
+        appTableIndex.values().forEach(ids -> ids.removeIf(id -> id.getDeviceId().equals(deviceId)));
+        appTables.entrySet().stream()
+                .filter(e -> e.getKey().getDeviceId().equals(deviceId))
+                .forEach(e -> indexAppTable(e.getKey(), e.getValue()));
+    }
+
+    private static DeviceTableId appTableKey(DeviceId deviceId, FlowTableId tableId) {
+        return new DeviceTableId(deviceId, (int) tableId.value());
+    }
+
     @Override
     public int getNewGlobalFlowTableId(DeviceId deviceId, OFTableType tableType) {
         DeviceOFTableType deviceOFTableType = new DeviceOFTableType(deviceId, tableType);
@@ -699,16 +816,160 @@ public class NewDistributedFlowTableStore
             return flowTable.getFlowEntryId(deviceTableId);
         }
 
-        log.info("Forwarding getFlowEntryId to {}, which is the primary(master) for device {}",
-                  master, deviceTableId.getDeviceId());
-        return Tools.futureGetOrElse(clusterCommunicator.sendAndReceive(deviceTableId,
-                FlowTableStoreMessageSubjects.GET_NEW_GLOBAL_ENTRYID,
+        return getLeasedFlowEntryId(deviceTableId, master);
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> getNewGlobalFlowTableIds(DeviceId deviceId, OFTableType tableType,
+                                                                     int count) {
+        NodeId master = mastershipService.getMasterFor(deviceId);
+        if (master == null) {
+            log.debug("Failed to getGlobalTableIds: No master for {}", deviceId);
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        IdAllocationRequest request = IdAllocationRequest.forTables(deviceId, tableType, count);
+        if (Objects.equals(local, master)) {
+            return CompletableFuture.completedFuture(Ints.asList(flowTable.getGlobalFlowTableIds(request)));
+        }
+
+        log.trace("Forwarding getGlobalTableIds to {}, which is the primary (master) for device {}",
+                  master, deviceId);
+        return clusterCommunicator.<IdAllocationRequest, int[]>sendAndReceive(request,
+                GET_NEW_GLOBAL_TABLEIDS,
+                SERIALIZER::encode,
+                SERIALIZER::decode,
+                master)
+                .thenApply(Ints::asList);
+    }
+
+    @Override
+    public void addFreeFlowTableIds(DeviceId deviceId, OFTableType tableType, List<Integer> tableIds) {
+        if (tableIds.isEmpty()) {
+            return;
+        }
+        NodeId master = mastershipService.getMasterFor(deviceId);
+        if (master == null) {
+            log.debug("Failed to return global table ids: No master for {}", deviceId);
+            return;
+        }
+
+        FlowTableIdRelease release = new FlowTableIdRelease(deviceId, tableType, Ints.toArray(tableIds));
+        if (Objects.equals(local, master)) {
+            flowTable.returnGlobalFlowTableIds(release);
+            return;
+        }
+        clusterCommunicator.unicast(release, RETURN_GLOBAL_TABLEIDS, SERIALIZER::encode, master);
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> getNewFlowEntryIds(DeviceId deviceId, int tableId, int count) {
+        NodeId master = mastershipService.getMasterFor(deviceId);
+        if (master == null) {
+            log.debug("Failed to getFlowEntryIds: No master for {}", deviceId);
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        IdAllocationRequest request = IdAllocationRequest.forEntries(deviceId, tableId, count);
+        if (Objects.equals(local, master)) {
+            return CompletableFuture.completedFuture(Ints.asList(flowTable.getFlowEntryIds(request)));
+        }
+
+        log.trace("Forwarding getFlowEntryIds to {}, which is the primary (master) for device {}",
+                  master, deviceId);
+        return clusterCommunicator.<IdAllocationRequest, int[]>sendAndReceive(request,
+                GET_NEW_FLOW_ENTRYIDS,
+                SERIALIZER::encode,
+                SERIALIZER::decode,
+                master)
+                .thenApply(Ints::asList);
+    }
+
+    /**
+     * Allocates a flow entry id from a block leased from the device master,
+     * leasing a new block only when the current one is used up.
+     *
+     * @param deviceTableId device and table to allocate the id in
+     * @param master        current master of the device
+     * @return new flow entry id, or -1 if no id could be obtained
+     */
+    private int getLeasedFlowEntryId(DeviceTableId deviceTableId, NodeId master) {
+        DeviceId deviceId = deviceTableId.getDeviceId();
+        FlowTableId tableId = FlowTableId.valueOf(deviceTableId.getTableId());
+        Map<FlowTableId, FlowEntryIdLease> leases =
+                flowEntryIdLeases.computeIfAbsent(deviceId, id -> Maps.newConcurrentMap());
+
+        FlowEntryIdLease lease = leases.get(tableId);
+        if (lease != null) {
+            if (lease.master.equals(master)) {
+                int id = lease.nextId();
+                if (id != FlowEntryIdAllocator.NO_ID) {
+                    return id;
+                }
+            }
+            if (leases.remove(tableId, lease)) {
+                returnLease(deviceTableId, lease);
+            }
+        }
+
+        log.debug("Leasing flow entry ids for table {} of {} from {}", tableId, deviceId, master);
+        int[] block = Tools.futureGetOrElse(clusterCommunicator.sendAndReceive(deviceTableId,
+                LEASE_FLOW_ENTRY_IDS,
                 SERIALIZER::encode,
                 SERIALIZER::decode,
                 master),
                 GET_NEW_FLOWENTRYID_TIMEOUT_MILLIS,
                 TimeUnit.MILLISECONDS,
-                0);
+                null);
+        if (block == null || block[0] == FlowEntryIdAllocator.NO_ID) {
+            log.warn("Failed to lease flow entry ids for table {} of {} from {}", tableId, deviceId, master);
+            return -1;
+        }
+
+        // concurrent callers may each lease a block; the lease replaced by
+        // the last one gives the ids it did not hand out back to its master
+        FlowEntryIdLease newLease = new FlowEntryIdLease(master, block[0], block[1]);
+        int id = newLease.nextId();
+        FlowEntryIdLease replaced = leases.put(tableId, newLease);
+        if (replaced != null) {
+            returnLease(deviceTableId, replaced);
+        }
+        return id;
+    }
+
+    /**
+     * Gives the ids of a lease that were not handed out back to the master
+     * the lease was taken from. Callers still holding the lease get no more
+     * ids from it.
+     *
+     * @param deviceTableId device and table the ids were leased in
+     * @param lease         lease to give back
+     */
+    private void returnLease(DeviceTableId deviceTableId, FlowEntryIdLease lease) {
+        FlowEntryIdBlock unused = lease.drain(deviceTableId);
+        if (unused == null) {
+            return;
+        }
+        log.debug("Returning flow entry ids {} to {}", unused, lease.master);
+        if (Objects.equals(local, lease.master)) {
+            flowTable.returnFlowEntryIds(unused);
+            return;
+        }
+        clusterCommunicator.unicast(unused, RETURN_FLOW_ENTRY_IDS, SERIALIZER::encode, lease.master);
+    }
+
+    /**
+     * Gives back the leases taken for a device whose master changed; the
+     * ids left in them would otherwise stay reserved on the former master.
+     *
+     * @param deviceId device identifier
+     */
+    private void returnLeases(DeviceId deviceId) {
+        Map<FlowTableId, FlowEntryIdLease> leases = flowEntryIdLeases.remove(deviceId);
+        if (leases != null) {
+            leases.forEach((tableId, lease) ->
+                    returnLease(new DeviceTableId(deviceId, (int) tableId.value()), lease));
+        }
     }
 
     @Override
@@ -841,6 +1102,7 @@ public class NewDistributedFlowTableStore
             if (stored != null &&
                     stored.state() != FlowTableEntry.FlowTableState.PENDING_ADD) {
                 stored.setState(FlowTableEntry.FlowTableState.PENDING_ADD);
+                changesOf(table.deviceId()).tableChanged(table.id());
                 return new FlowTableEvent(FlowTableEvent.Type.TABLE_UPDATED, table);
             }
         }
@@ -870,6 +1132,7 @@ public class NewDistributedFlowTableStore
             stored.setLastSeen();
             if (stored.state() == FlowTableEntry.FlowTableState.PENDING_ADD) {
                 stored.setState(FlowTableEntry.FlowTableState.ADDED);
+                changesOf(table.deviceId()).tableChanged(table.id());
                 return new FlowTableEvent(FlowTableEvent.Type.TABLE_ADDED, table);
             }
             return new FlowTableEvent(FlowTableEvent.Type.TABLE_UPDATED, table);
@@ -969,75 +1232,200 @@ public class NewDistributedFlowTableStore
     private class InternalFlowTable implements ReplicaInfoEventListener {
 
         public int getGlobalFlowTableId(DeviceOFTableType deviceOFTableType) {
-            int newFlowTableID = -1;
-            OFTableType tableType = deviceOFTableType.getOfTableType();
+            int newFlowTableID;
+            OFTableType ofTableType = deviceOFTableType.getOfTableType();
             DeviceId deviceId = deviceOFTableType.getDeviceId();
 
-            OFTableType ofTableType = tableType;
-            if (null == freeFlowTableIDListMap.get(deviceId)
-                    || null == freeFlowTableIDListMap.get(deviceId).get(ofTableType)
-                    || 0 == freeFlowTableIDListMap.get(deviceId).get(ofTableType).size()) {
-                log.info("getGlobalFlowTableIOFTableType flowTableNoMap:{}",deviceId);
-                log.info("@niubin flowTableNoMap:{}",flowTableNoMap.toString());
-                newFlowTableID = flowTableNoMap.get(deviceId).get(ofTableType);
-                flowTableNoMap.get(deviceId).replace(ofTableType, Byte.valueOf((byte) (newFlowTableID + 1)));
-                log.info("get new flow table id from flowTableNoMap: {}", newFlowTableID);
+            Map<OFTableType, List<Byte>> freeIds = freeFlowTableIDListMap.get(deviceId);
+            List<Byte> free = freeIds == null ? null : freeIds.get(ofTableType);
+            if (free != null && !free.isEmpty()) {
+                newFlowTableID = free.remove(0);
+                log.debug("Reusing table id {} of {}", newFlowTableID, deviceId);
             } else {
-                newFlowTableID = freeFlowTableIDListMap.get(deviceId).get(ofTableType).remove(0);
-                log.info("get new flow table id from freeFlowTableIDListMap: {}", newFlowTableID);
+                if (!hasUnusedTableId(deviceId, ofTableType)) {
+                    log.warn("No {} table left on {}", ofTableType, deviceId);
+                    return -1;
+                }
+                Map<OFTableType, Byte> nos = flowTableNoMap.get(deviceId);
+                newFlowTableID = nos.get(ofTableType);
+                nos.put(ofTableType, (byte) (newFlowTableID + 1));
+                log.debug("Allocated table id {} of {}", newFlowTableID, deviceId);
             }
 
-            log.info("getGlobalTableId internal");
-            flowEntryCount.get(deviceId).putIfAbsent(FlowTableId.valueOf(newFlowTableID), 0);
-            List<Integer> ids = new ArrayList<>();
-            freeFlowEntryIds.get(deviceId).putIfAbsent(FlowTableId.valueOf(newFlowTableID), ids);
+            changesOf(deviceId).tableIdsChanged();
+            getFlowEntryIdAllocator(deviceId, FlowTableId.valueOf(newFlowTableID));
             Map<Integer, FlowRule> fs = new ConcurrentHashMap<>();
             flowEntries.get(deviceId).putIfAbsent(FlowTableId.valueOf(newFlowTableID), fs);
 
             return newFlowTableID;
         }
 
+        // Tells whether a table id of the type was never handed out yet, that
+        // is whether the device has more tables of the type than were taken
+        // from its range of ids.
+        private boolean hasUnusedTableId(DeviceId deviceId, OFTableType tableType) {
+            Map<OFTableType, Byte> nos = flowTableNoMap.get(deviceId);
+            Byte next = nos == null ? null : nos.get(tableType);
+            if (next == null || next < 0) {
+                // unknown device, or the ids ran past what a table id can hold
+                return false;
+            }
+            Map<OFTableType, Byte> bases = flowTableNoBaseMap.get(deviceId);
+            Map<OFTableType, Byte> nums = flowTableNumMap.get(deviceId);
+            if (bases == null || nums == null || bases.get(tableType) == null || nums.get(tableType) == null) {
+                // held over from a master that did not hand over the table numbers
+                return true;
+            }
+            return next - bases.get(tableType) < nums.get(tableType);
+        }
+
         public int getFlowEntryId(DeviceTableId deviceTableId) {
-            int newFlowEntryId = -1;
-            log.info("++++ getNewFlowEntryId1");
-            DeviceId deviceId = deviceTableId.getDeviceId();
-            int tableId = deviceTableId.getTableId();
-
-            if (null == freeFlowEntryIds.get(deviceId)
-                    || null == freeFlowEntryIds.get(deviceId).get(FlowTableId.valueOf(tableId))
-                    || 0 == freeFlowEntryIds.get(deviceId).get(FlowTableId.valueOf(tableId)).size()) {
-
-                log.info("++++ getNewFlowEntryId2");
-                log.info("tableid is {}" , FlowTableId.valueOf(tableId));
-                newFlowEntryId = getFlowEntryCount(deviceId, FlowTableId.valueOf(tableId));
-                addFlowEntryCount(deviceId, FlowTableId.valueOf(tableId));
-                log.info("get new flow table id from flowEntryCount: {}", newFlowEntryId);
-                int tempNext = getFlowEntryCount(deviceId, FlowTableId.valueOf(tableId));
-                log.info("temp_next:{}", tempNext);
-            } else {
-                log.info("++++ getNewFlowEntryId3");
-                newFlowEntryId = freeFlowEntryIds.get(deviceId).get(FlowTableId.valueOf(tableId)).remove(0);
-                log.info("get new flow table id from freeFlowEntryIDListMap: {}", newFlowEntryId);
+            int newFlowEntryId = getFlowEntryIdAllocator(deviceTableId.getDeviceId(),
+                    FlowTableId.valueOf(deviceTableId.getTableId())).allocate();
+            if (newFlowEntryId == FlowEntryIdAllocator.NO_ID) {
+                log.warn("No free flow entry id left in table {} of {}",
+                         deviceTableId.getTableId(), deviceTableId.getDeviceId());
+            }
+            return newFlowEntryId;
+        }
 
+        public int[] getGlobalFlowTableIds(IdAllocationRequest request) {
+            int[] ids = new int[request.count()];
+            int allocated = 0;
+            DeviceOFTableType deviceOFTableType =
+                    new DeviceOFTableType(request.deviceId(), request.tableType());
+            // stops short once the device runs out of tables of the type
+            while (allocated < ids.length) {
+                int id = getGlobalFlowTableId(deviceOFTableType);
+                if (id < 0) {
+                    break;
+                }
+                ids[allocated++] = id;
             }
+            return allocated == ids.length ? ids : Arrays.copyOf(ids, allocated);
+        }
 
-            return newFlowEntryId;
+        /**
+         * Takes back global table ids that were allocated but never used for
+         * a table, so that they may be allocated again.
+         *
+         * @param release ids given back
+         */
+        public void returnGlobalFlowTableIds(FlowTableIdRelease release) {
+            DeviceId deviceId = release.deviceId();
+            Map<OFTableType, List<Byte>> freeIds = freeFlowTableIDListMap.get(deviceId);
+            if (freeIds == null || !Objects.equals(local, mastershipService.getMasterFor(deviceId))) {
+                return;
+            }
+            List<Byte> free = freeIds.computeIfAbsent(release.tableType(), type -> new ArrayList<>());
+            Map<FlowTableId, StoredFlowTableEntry> tables = getFlowTables(deviceId);
+            for (int id : release.tableIds()) {
+                FlowTableId tableId = FlowTableId.valueOf(id);
+                if (tables.containsKey(tableId) || free.contains((byte) id)) {
+                    continue;
+                }
+                // drop what the allocation set up for the table
+                Map<FlowTableId, Map<Integer, FlowRule>> entries = flowEntries.get(deviceId);
+                if (entries != null) {
+                    entries.computeIfPresent(tableId, (k, rules) -> rules.isEmpty() ? null : rules);
+                }
+                Map<FlowTableId, FlowEntryIdAllocator> allocators = flowEntryIdAllocators.get(deviceId);
+                if (allocators != null) {
+                    allocators.remove(tableId);
+                }
+                free.add((byte) id);
+            }
+            Collections.sort(free);
+            changesOf(deviceId).tableIdsChanged();
+        }
+
+        public int[] getFlowEntryIds(IdAllocationRequest request) {
+            if (!Objects.equals(local, mastershipService.getMasterFor(request.deviceId()))) {
+                return new int[0];
+            }
+            FlowEntryIdAllocator allocator =
+                    getFlowEntryIdAllocator(request.deviceId(), FlowTableId.valueOf(request.tableId()));
+            int[] ids = new int[request.count()];
+            int allocated = 0;
+            while (allocated < ids.length) {
+                int id = allocator.allocate();
+                if (id == FlowEntryIdAllocator.NO_ID) {
+                    log.warn("No free flow entry id left in table {} of {}",
+                             request.tableId(), request.deviceId());
+                    break;
+                }
+                ids[allocated++] = id;
+            }
+            return allocated == ids.length ? ids : Arrays.copyOf(ids, allocated);
+        }
+
+        /**
+         * Leases a contiguous block of flow entry ids to a non-master instance.
+         *
+         * @param deviceTableId device and table to lease the ids from
+         * @return first id and size of the leased block; the first id is -1
+         *         if this instance is not the master or the table is full
+         */
+        public int[] leaseFlowEntryIds(DeviceTableId deviceTableId) {
+            DeviceId deviceId = deviceTableId.getDeviceId();
+            if (!Objects.equals(local, mastershipService.getMasterFor(deviceId))) {
+                return new int[] {FlowEntryIdAllocator.NO_ID, 0};
+            }
+            // the allocator leases whole words, hand out all the ids it reserved
+            int size = FlowEntryIdAllocator.blockSize(flowEntryIdLeaseSize);
+            int start = getFlowEntryIdAllocator(deviceId, FlowTableId.valueOf(deviceTableId.getTableId()))
+                    .leaseBlock(size);
+            return new int[] {start, start == FlowEntryIdAllocator.NO_ID ? 0 : size};
+        }
+
+        /**
+         * Releases the unused part of a lease given back by another instance.
+         * The ids are released even if this instance is no longer the master,
+         * since it keeps its allocator in case it takes the device back.
+         *
+         * @param block ids given back
+         */
+        public void returnFlowEntryIds(FlowEntryIdBlock block) {
+            Map<FlowTableId, FlowEntryIdAllocator> allocators = flowEntryIdAllocators.get(block.deviceId());
+            FlowEntryIdAllocator allocator =
+                    allocators == null ? null : allocators.get(FlowTableId.valueOf(block.tableId()));
+            if (allocator == null) {
+                return;
+            }
+            for (int id = block.start(); id < block.start() + block.size(); id++) {
+                allocator.release(id);
+            }
         }
 
         //TODO replace the Map<V,V> with ExtendedSet
 
 
-        private final Map<DeviceId, Long> lastBackupTimes = Maps.newConcurrentMap();
-        private final Map<DeviceId, Long> lastUpdateTimes = Maps.newConcurrentMap();
         private final Map<DeviceId, NodeId> lastBackupNodes = Maps.newConcurrentMap();
 
+        // devices this instance has taken ownership of as master
+        private final Set<DeviceId> ownedDevices = Sets.newConcurrentHashSet();
+
+        // version of the replica of each device, as of the last backup applied
+        private final Map<DeviceId, Long> replicaVersions = Maps.newConcurrentMap();
+
+        // compiled match layouts, kept in step with the stored tables
+        private final Map<DeviceId, Map<FlowTableId, FlowTableLayout>> layouts = Maps.newConcurrentMap();
+
         @Override
         public void event(ReplicaInfoEvent event) {
+            DeviceId deviceId = event.subject();
+            if (event.type() == ReplicaInfoEvent.Type.MASTER_CHANGED) {
+                returnLeases(deviceId);
+                reindexAppTables(deviceId);
+            }
             if (!backupEnabled) {
                 return;
             }
+            if (event.type() == ReplicaInfoEvent.Type.MASTER_CHANGED) {
+                backupSenderExecutor.execute(() -> onMasterChanged(deviceId));
+                return;
+            }
             if (event.type() == ReplicaInfoEvent.Type.BACKUPS_CHANGED) {
-                DeviceId deviceId = event.subject();
                 NodeId master = mastershipService.getMasterFor(deviceId);
                 if (!Objects.equals(local, master)) {
                     // ignore since this event is for a device this node does not manage.
@@ -1057,54 +1445,206 @@ public class NewDistributedFlowTableStore
                     log.warn("Lost backup location {} for deviceId {} and no alternate backup node exists. "
                             + "Flows can be lost if the master goes down", currentBackupNode, deviceId);
                     lastBackupNodes.remove(deviceId);
-                    lastBackupTimes.remove(deviceId);
                     return;
-                    // TODO: Pick any available node as backup and ensure hand-off occurs when
-                    // a new master is elected.
                 }
                 log.debug("Backup location for {} has changed from {} to {}.",
                         deviceId, currentBackupNode, newBackupNode);
-                backupSenderExecutor.schedule(() -> backupFlowTables(newBackupNode, Sets.newHashSet(deviceId)),
+                // a new backup node gets a full snapshot
+                backupSenderExecutor.schedule(() -> sendBackups(newBackupNode, Sets.newHashSet(deviceId)),
                         0,
                         TimeUnit.SECONDS);
             }
         }
 
+        private void onMasterChanged(DeviceId deviceId) {
+            NodeId master = mastershipService.getMasterFor(deviceId);
+            if (Objects.equals(local, master)) {
+                if (ownedDevices.add(deviceId)) {
+                    promote(deviceId);
+                    backup();
+                }
+                return;
+            }
+            if (ownedDevices.remove(deviceId)) {
+                pendingChanges.remove(deviceId);
+                lastBackupNodes.remove(deviceId);
+                flowEntryIdAllocators.remove(deviceId);
+                if (master != null) {
+                    handOff(master, deviceId);
+                }
+            }
+        }
+
+        /**
+         * Takes over the replicated state of a device this instance just
+         * became master of, so that the tables and entries already on the
+         * switch need not be pushed again.
+         *
+         * @param deviceId device identifier
+         */
+        private void promote(DeviceId deviceId) {
+            log.info("Taking over flow tables of {} from the replica", deviceId);
+            Map<FlowTableId, Map<Integer, FlowRule>> entries =
+                    flowEntries.computeIfAbsent(deviceId, id -> new ConcurrentHashMap<>());
+            getFlowTables(deviceId).keySet()
+                    .forEach(tableId -> entries.computeIfAbsent(tableId, id -> new ConcurrentHashMap<>()));
+            entries.forEach((tableId, rules) -> {
+                FlowEntryIdAllocator allocator = getFlowEntryIdAllocator(deviceId, tableId);
+                rules.keySet().forEach(allocator::reserve);
+            });
+            publishAppTables(deviceId);
+            replicaVersions.remove(deviceId);
+            lastBackupNodes.remove(deviceId);
+        }
+
+        /**
+         * Publishes the tables of a device this instance just became master
+         * of, and withdraws those the former master removed but could not
+         * withdraw itself.
+         *
+         * @param deviceId device identifier
+         */
+        private void publishAppTables(DeviceId deviceId) {
+            Map<FlowTableId, StoredFlowTableEntry> tables = getFlowTables(deviceId);
+            Set<DeviceTableId> published = tables.keySet().stream()
+                    .map(tableId -> appTableKey(deviceId, tableId))
+                    .collect(Collectors.toSet());
+            appTables.keySet().stream()
+                    .filter(key -> key.getDeviceId().equals(deviceId) && !published.contains(key))
+                    .forEach(appTables::remove);
+            tables.forEach((tableId, table) -> appTables.put(appTableKey(deviceId, tableId),
+                                                             new DefaultFlowTable(table)));
+        }
+
+        private void handOff(NodeId master, DeviceId deviceId) {
+            log.info("Handing flow tables of {} over to {}", deviceId, master);
+            backupFlowTables(master, Lists.newArrayList(snapshot(deviceId, 0, true)));
+        }
+
         private void sendBackups(NodeId nodeId, Set<DeviceId> deviceIds) {
+            List<DeviceTableBackup> backups = deviceIds.stream()
+                    .map(deviceId -> prepareBackup(nodeId, deviceId))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
             // split up the devices into smaller batches and send them separately.
-            Iterables.partition(deviceIds, FLOW_TABLE_BACKUP_BATCH_SIZE)
-                    .forEach(ids -> backupFlowTables(nodeId, Sets.newHashSet(ids)));
+            Lists.partition(backups, FLOW_TABLE_BACKUP_BATCH_SIZE)
+                    .forEach(batch -> backupFlowTables(nodeId, Lists.newArrayList(batch)));
+        }
+
+        /**
+         * Builds the next backup of a device for the given node: a full
+         * snapshot if the node does not hold the replica yet, otherwise the
+         * changes made since the previous backup.
+         *
+         * @param nodeId   backup node
+         * @param deviceId device identifier
+         * @return backup to send, or null if there is nothing new to send
+         */
+        private DeviceTableBackup prepareBackup(NodeId nodeId, DeviceId deviceId) {
+            boolean full = !Objects.equals(nodeId, lastBackupNodes.get(deviceId));
+            DeviceChanges changes = changesOf(deviceId).drain(full);
+            if (changes == null) {
+                return null;
+            }
+            lastBackupNodes.put(deviceId, nodeId);
+            return full ? snapshot(deviceId, changes.version, false) : delta(deviceId, changes);
         }
 
-        private void backupFlowTables(NodeId nodeId, Set<DeviceId> deviceIds) {
-            if (deviceIds.isEmpty()) {
+        private DeviceTableBackup snapshot(DeviceId deviceId, long version, boolean handoff) {
+            Map<FlowTableId, Map<Integer, FlowRule>> entries = Maps.newHashMap();
+            Map<FlowTableId, Map<Integer, FlowRule>> storedEntries = flowEntries.get(deviceId);
+            if (storedEntries != null) {
+                storedEntries.forEach((tableId, rules) -> entries.put(tableId, Maps.newHashMap(rules)));
+            }
+            DeviceTableBackup.Builder builder = DeviceTableBackup.builder(deviceId, SNAPSHOT, version)
+                    .withTables(Maps.newHashMap(getFlowTables(deviceId)), ImmutableSet.of())
+                    .withEntries(entries, ImmutableMap.of());
+            withTableIds(builder, deviceId);
+            if (handoff) {
+                builder.asHandoff();
+            }
+            return builder.build();
+        }
+
+        private DeviceTableBackup delta(DeviceId deviceId, DeviceChanges changes) {
+            Map<FlowTableId, StoredFlowTableEntry> storedTables = getFlowTables(deviceId);
+            Map<FlowTableId, StoredFlowTableEntry> tables = Maps.newHashMap();
+            Set<FlowTableId> removedTables = Sets.newHashSet();
+            changes.tables.forEach(tableId -> {
+                StoredFlowTableEntry table = storedTables.get(tableId);
+                if (table == null) {
+                    removedTables.add(tableId);
+                } else {
+                    tables.put(tableId, table);
+                }
+            });
+
+            Map<FlowTableId, Map<Integer, FlowRule>> storedEntries =
+                    flowEntries.getOrDefault(deviceId, Collections.emptyMap());
+            Map<FlowTableId, Map<Integer, FlowRule>> entries = Maps.newHashMap();
+            Map<FlowTableId, Set<Integer>> removedEntries = Maps.newHashMap();
+            changes.entries.forEach((tableId, entryIds) -> {
+                Map<Integer, FlowRule> rules = storedEntries.get(tableId);
+                if (rules == null) {
+                    // the whole table is gone
+                    return;
+                }
+                entryIds.forEach(entryId -> {
+                    FlowRule rule = rules.get(entryId);
+                    if (rule == null) {
+                        removedEntries.computeIfAbsent(tableId, id -> Sets.newHashSet()).add(entryId);
+                    } else {
+                        entries.computeIfAbsent(tableId, id -> Maps.newHashMap()).put(entryId, rule);
+                    }
+                });
+            });
+
+            DeviceTableBackup.Builder builder =
+                    DeviceTableBackup.builder(deviceId, changes.version - 1, changes.version)
+                    .withTables(tables, removedTables)
+                    .withEntries(entries, removedEntries);
+            if (changes.tableIds) {
+                withTableIds(builder, deviceId);
+            }
+            return builder.build();
+        }
+
+        private void withTableIds(DeviceTableBackup.Builder builder, DeviceId deviceId) {
+            Map<OFTableType, Byte> noBases = flowTableNoBaseMap.get(deviceId);
+            Map<OFTableType, Byte> nums = flowTableNumMap.get(deviceId);
+            Map<OFTableType, Byte> nos = flowTableNoMap.get(deviceId);
+            Map<OFTableType, List<Byte>> freeIds = freeFlowTableIDListMap.get(deviceId);
+            if (noBases == null || nos == null || freeIds == null) {
                 return;
             }
-            log.debug("Sending flowEntries for devices {} to {} as backup.", deviceIds, nodeId);
-            Map<DeviceId, Map<FlowTableId,  StoredFlowTableEntry>>
-                    deviceFlowTables = Maps.newConcurrentMap();
-            deviceIds.forEach(id -> deviceFlowTables.put(id, ImmutableMap.copyOf(getFlowTables(id))));
-            clusterCommunicator.<Map<DeviceId,
-                    Map<FlowTableId,  StoredFlowTableEntry>>,
-                    Set<DeviceId>>
-                    sendAndReceive(deviceFlowTables,
+            Map<OFTableType, List<Byte>> freeIdsCopy = Maps.newHashMap();
+            freeIds.forEach((type, ids) -> freeIdsCopy.put(type, Lists.newArrayList(ids)));
+            builder.withTableIds(Maps.newHashMap(noBases), nums == null ? null : Maps.newHashMap(nums),
+                                 Maps.newHashMap(nos), freeIdsCopy);
+        }
+
+        private void backupFlowTables(NodeId nodeId, List<DeviceTableBackup> backups) {
+            if (backups.isEmpty()) {
+                return;
+            }
+            Set<DeviceId> deviceIds = backups.stream()
+                    .map(DeviceTableBackup::deviceId)
+                    .collect(Collectors.toSet());
+            log.debug("Sending flow tables for devices {} to {} as backup.", deviceIds, nodeId);
+            clusterCommunicator.<List<DeviceTableBackup>, Set<DeviceId>>sendAndReceive(backups,
                     FLOW_TABLE_BACKUP,
                     SERIALIZER::encode,
                     SERIALIZER::decode,
                     nodeId)
                     .whenComplete((backedupDevices, error) -> {
                         Set<DeviceId> devicesNotBackedup = error != null ?
-                                deviceFlowTables.keySet() :
-                                Sets.difference(deviceFlowTables.keySet(), backedupDevices);
-                        if (devicesNotBackedup.size() > 0) {
-                            log.warn("Failed to backup devices: {}. Reason: {}",
-                                    devicesNotBackedup, error.getMessage());
-                        }
-                        if (backedupDevices != null) {
-                            backedupDevices.forEach(id -> {
-                                lastBackupTimes.put(id, System.currentTimeMillis());
-                                lastBackupNodes.put(id, nodeId);
-                            });
+                                deviceIds :
+                                Sets.difference(deviceIds, backedupDevices);
+                        if (!devicesNotBackedup.isEmpty()) {
+                            log.warn("Failed to backup devices: {} to {}. Reason: {}",
+                                    devicesNotBackedup, nodeId, error != null ? error.getMessage() : "rejected");
+                            // the next run sends these devices in full
+                            devicesNotBackedup.forEach(id -> lastBackupNodes.remove(id, nodeId));
                         }
                     });
         }
@@ -1117,7 +1657,7 @@ public class NewDistributedFlowTableStore
          */
         public Map<FlowTableId,  StoredFlowTableEntry> getFlowTables(DeviceId deviceId) {
             if (persistenceEnabled) {
-                return FLOWTABLES.computeIfAbsent(deviceId, id -> persistenceService
+                return deviceFlowTables.computeIfAbsent(deviceId, id -> persistenceService
                         .<FlowTableId,  StoredFlowTableEntry>persistentMapBuilder()
                         .withName("FlowTable:" + deviceId.toString())
                         .withSerializer(new Serializer() {
@@ -1133,7 +1673,7 @@ public class NewDistributedFlowTableStore
                         })
                         .build());
             } else {
-                return FLOWTABLES.computeIfAbsent(deviceId, id -> Maps.newConcurrentMap());
+                return deviceFlowTables.computeIfAbsent(deviceId, id -> Maps.newConcurrentMap());
             }
         }
 
@@ -1155,6 +1695,19 @@ public class NewDistributedFlowTableStore
             return getFlowTableInternal(table.deviceId(), table.id());
         }
 
+        public FlowTableLayout getFlowTableLayout(DeviceId deviceId, FlowTableId flowTableId) {
+            // tables received as backups get their layout compiled on first use
+            return layouts.computeIfAbsent(deviceId, id -> Maps.newConcurrentMap())
+                    .computeIfAbsent(flowTableId, id -> {
+                        FlowTable table = getFlowTableInternal(deviceId, flowTableId);
+                        return table == null ? null : FlowTableLayout.of(table.flowTable());
+                    });
+        }
+
+        private void removeLayouts(DeviceId deviceId) {
+            layouts.remove(deviceId);
+        }
+
         public void add(FlowTable table) {
             getFlowTables(table.deviceId())
                     .compute(table.id(), (k, stored) -> {
@@ -1162,8 +1715,11 @@ public class NewDistributedFlowTableStore
                         //TODO the key is not updated
                         return (StoredFlowTableEntry) table;
                     });
+            layouts.computeIfAbsent(table.deviceId(), id -> Maps.newConcurrentMap())
+                    .put(table.id(), FlowTableLayout.of(table.flowTable()));
 
-            lastUpdateTimes.put(table.deviceId(), System.currentTimeMillis());
+            changesOf(table.deviceId()).tableChanged(table.id());
+            appTables.put(appTableKey(table.deviceId(), table.id()), new DefaultFlowTable(table));
         }
 
         public FlowTable remove(DeviceId deviceId, FlowTable table) {
@@ -1179,24 +1735,28 @@ public class NewDistributedFlowTableStore
 
             if (stored != null) {
                 log.info("+++++ Remove the table!");
-                FLOWTABLES.get(table.deviceId()).remove(table.id());
-                log.info("@niubin freeFlowtableIDListMap {} ",freeFlowTableIDListMap);
-                log.info("@niubin TableType {} ",freeFlowTableIDListMap.get(table.deviceId()).
-                        get(table.flowTable().getTableType()));
+                deviceFlowTables.get(table.deviceId()).remove(table.id());
+                if (layouts.get(table.deviceId()) != null) {
+                    layouts.get(table.deviceId()).remove(table.id());
+                }
                 freeFlowTableIDListMap.get(table.deviceId()).get(table.flowTable()
                         .getTableType()).add((byte) table.id().value());
                 Collections.sort(freeFlowTableIDListMap.get(table.deviceId()).get(table.flowTable().getTableType()));
                 if (flowEntries.get(table.deviceId()) != null) {
                     flowEntries.get(table.deviceId()).remove(table.id());
-                    flowEntryCount.get(table.deviceId()).remove(table.id());
-                    freeFlowEntryIds.get(table.deviceId()).remove(table.id());
                 }
+                if (flowEntryIdAllocators.get(table.deviceId()) != null) {
+                    flowEntryIdAllocators.get(table.deviceId()).remove(table.id());
+                }
+                DeviceChanges changes = changesOf(table.deviceId());
+                changes.tableChanged(table.id());
+                changes.tableIdsChanged();
+                appTables.remove(appTableKey(table.deviceId(), table.id()));
             } else {
                 log.info("No table exit!");
             }
 
             if (removedRule.get() != null) {
-                lastUpdateTimes.put(deviceId, System.currentTimeMillis());
                 return removedRule.get();
             } else {
                 return null;
@@ -1204,7 +1764,11 @@ public class NewDistributedFlowTableStore
         }
 
         public void purgeFlowTable(DeviceId deviceId) {
-            FLOWTABLES.remove(deviceId);
+            removeAppTables(deviceId);
+            deviceFlowTables.remove(deviceId);
+            removeLayouts(deviceId);
+            // the replica must follow
+            lastBackupNodes.remove(deviceId);
         }
 
         private NodeId getBackupNode(DeviceId deviceId) {
@@ -1218,61 +1782,160 @@ public class NewDistributedFlowTableStore
                 return;
             }
             try {
-                // determine the set of devices that we need to backup during this run.
-                Set<DeviceId> devicesToBackup = mastershipService.getDevicesOf(local)
-                        .stream()
-                        .filter(deviceId -> {
-                            Long lastBackupTime = lastBackupTimes.get(deviceId);
-                            Long lastUpdateTime = lastUpdateTimes.get(deviceId);
-                            NodeId lastBackupNode = lastBackupNodes.get(deviceId);
-                            NodeId newBackupNode = getBackupNode(deviceId);
-                            return lastBackupTime == null
-                                    ||  !Objects.equals(lastBackupNode, newBackupNode)
-                                    || (lastUpdateTime != null && lastUpdateTime > lastBackupTime);
-                        })
-                        .collect(Collectors.toSet());
-
-                // compute a mapping from node to the set of devices whose flow entries it should backup
+                // compute a mapping from node to the set of devices whose flow tables it should backup
                 Map<NodeId, Set<DeviceId>> devicesToBackupByNode = Maps.newHashMap();
-                devicesToBackup.forEach(deviceId -> {
+                mastershipService.getDevicesOf(local).forEach(deviceId -> {
+                    if (ownedDevices.add(deviceId)) {
+                        promote(deviceId);
+                    }
                     NodeId backupLocation = getBackupNode(deviceId);
                     if (backupLocation != null) {
                         devicesToBackupByNode.computeIfAbsent(backupLocation, nodeId -> Sets.newHashSet())
                                 .add(deviceId);
                     }
                 });
-                // send the device flow entries to their respective backup nodes
+                // send the device flow tables, or their changes, to their respective backup nodes
                 devicesToBackupByNode.forEach(this::sendBackups);
             } catch (Exception e) {
                 log.error("Backup failed.", e);
             }
         }
 
-        private Set<DeviceId> onBackupReceipt(Map<DeviceId,
-                Map<FlowTableId, StoredFlowTableEntry>> flowtables) {
-
-            log.debug("Received flowEntries for {} to backup", flowtables.keySet());
+        private Set<DeviceId> onBackupReceipt(List<DeviceTableBackup> backups) {
             Set<DeviceId> backedupDevices = Sets.newHashSet();
-            try {
-                flowtables.forEach((deviceId, deviceFlowTable) -> {
-                    // Only process those devices are that not managed by the local node.
-                    if (!Objects.equals(local, mastershipService.getMasterFor(deviceId))) {
-                        Map<FlowTableId, StoredFlowTableEntry> backupFlowTable =
-                                getFlowTables(deviceId);
-                        backupFlowTable.clear();
-                        backupFlowTable.putAll(deviceFlowTable);
-                        backedupDevices.add(deviceId);
+            for (DeviceTableBackup backup : backups) {
+                log.debug("Received {}", backup);
+                try {
+                    if (applyBackup(backup)) {
+                        backedupDevices.add(backup.deviceId());
                     }
-                });
-            } catch (Exception e) {
-                log.warn("Failure processing backup request", e);
+                } catch (Exception e) {
+                    log.warn("Failure processing backup {}", backup, e);
+                }
             }
             return backedupDevices;
         }
 
+        private boolean applyBackup(DeviceTableBackup backup) {
+            DeviceId deviceId = backup.deviceId();
+            boolean isMaster = Objects.equals(local, mastershipService.getMasterFor(deviceId));
+            if (backup.isHandoff() && isMaster) {
+                mergeHandoff(backup);
+                return true;
+            }
+            // Only process those devices are that not managed by the local node.
+            if (isMaster) {
+                return false;
+            }
+            if (!backup.appliesTo(replicaVersions.get(deviceId))) {
+                // a delta was missed; the master answers with a snapshot
+                log.debug("Backup of {} at version {} does not apply to version {}",
+                        deviceId, backup.baseVersion(), replicaVersions.get(deviceId));
+                return false;
+            }
+
+            Map<FlowTableId, StoredFlowTableEntry> tables = getFlowTables(deviceId);
+            if (backup.isSnapshot()) {
+                tables.clear();
+                flowEntries.put(deviceId, new ConcurrentHashMap<>());
+                flowEntryIdAllocators.remove(deviceId);
+            }
+            Map<FlowTableId, Map<Integer, FlowRule>> entries =
+                    flowEntries.computeIfAbsent(deviceId, id -> new ConcurrentHashMap<>());
+
+            backup.removedTables().forEach(tableId -> {
+                tables.remove(tableId);
+                entries.remove(tableId);
+            });
+            tables.putAll(backup.tables());
+            backup.tables().keySet()
+                    .forEach(tableId -> entries.computeIfAbsent(tableId, id -> new ConcurrentHashMap<>()));
+
+            backup.entries().forEach((tableId, rules) ->
+                    entries.computeIfAbsent(tableId, id -> new ConcurrentHashMap<>()).putAll(rules));
+            backup.removedEntries().forEach((tableId, entryIds) -> {
+                Map<Integer, FlowRule> rules = entries.get(tableId);
+                if (rules != null) {
+                    entryIds.forEach(rules::remove);
+                }
+            });
+
+            if (backup.tableNoBases() != null) {
+                putTableIds(backup);
+            }
+            replicaVersions.put(deviceId, backup.version());
+            removeLayouts(deviceId);
+            return true;
+        }
+
+        /**
+         * Merges the state handed over by the former master of a device into
+         * the state this instance built up since it took over.
+         *
+         * @param backup full snapshot from the former master
+         */
+        private void mergeHandoff(DeviceTableBackup backup) {
+            DeviceId deviceId = backup.deviceId();
+            DeviceChanges changes = changesOf(deviceId);
+            Map<FlowTableId, StoredFlowTableEntry> tables = getFlowTables(deviceId);
+            backup.tables().forEach((tableId, table) -> {
+                if (tables.putIfAbsent(tableId, table) == null) {
+                    changes.tableChanged(tableId);
+                    appTables.put(appTableKey(deviceId, tableId), new DefaultFlowTable(table));
+                }
+            });
+
+            Map<FlowTableId, Map<Integer, FlowRule>> entries =
+                    flowEntries.computeIfAbsent(deviceId, id -> new ConcurrentHashMap<>());
+            backup.entries().forEach((tableId, rules) -> {
+                Map<Integer, FlowRule> storedRules =
+                        entries.computeIfAbsent(tableId, id -> new ConcurrentHashMap<>());
+                FlowEntryIdAllocator allocator = getFlowEntryIdAllocator(deviceId, tableId);
+                rules.forEach((entryId, rule) -> {
+                    if (storedRules.putIfAbsent(entryId, rule) == null) {
+                        allocator.reserve(entryId);
+                        changes.entryChanged(tableId, entryId);
+                    }
+                });
+            });
+
+            if (backup.tableNoBases() != null && !flowTableNoMap.containsKey(deviceId)) {
+                putTableIds(backup);
+                changes.tableIdsChanged();
+            }
+            removeLayouts(deviceId);
+        }
+
+        private void putTableIds(DeviceTableBackup backup) {
+            Map<OFTableType, List<Byte>> freeIds = new ConcurrentHashMap<>();
+            backup.freeTableIds().forEach((type, ids) -> freeIds.put(type, new ArrayList<>(ids)));
+            flowTableNoBaseMap.put(backup.deviceId(), new ConcurrentHashMap<>(backup.tableNoBases()));
+            if (backup.tableNums() != null) {
+                flowTableNumMap.put(backup.deviceId(), new ConcurrentHashMap<>(backup.tableNums()));
+            }
+            flowTableNoMap.put(backup.deviceId(), new ConcurrentHashMap<>(backup.nextTableNos()));
+            freeFlowTableIDListMap.put(backup.deviceId(), freeIds);
+        }
+
+        private void removeAppTables(DeviceId deviceId) {
+            // only the master speaks for the device in appTables
+            if (!Objects.equals(local, mastershipService.getMasterFor(deviceId))) {
+                return;
+            }
+            Map<FlowTableId, StoredFlowTableEntry> tables = deviceFlowTables.get(deviceId);
+            if (tables != null) {
+                tables.keySet().forEach(tableId -> appTables.remove(appTableKey(deviceId, tableId)));
+            }
+        }
+
         public void removeDevice(DeviceId deviceId) {
             log.info("++++ removeDevice");
-            FLOWTABLES.remove(deviceId);
+            removeAppTables(deviceId);
+            deviceFlowTables.remove(deviceId);
+            removeLayouts(deviceId);
+            ownedDevices.remove(deviceId);
+            replicaVersions.remove(deviceId);
+            lastBackupNodes.remove(deviceId);
         }
     }
 //    @Override
@@ -1298,6 +1961,93 @@ public class NewDistributedFlowTableStore
 //        return ImmutableList.copyOf(tableStats);
 //    }
 
+    /**
+     * Block of flow entry ids leased from the master of a device.
+     */
+    private static final class FlowEntryIdLease {
+        private final NodeId master;
+        private final int end;
+        private final AtomicInteger next;
+
+        private FlowEntryIdLease(NodeId master, int start, int size) {
+            this.master = master;
+            this.end = start + size;
+            this.next = new AtomicInteger(start);
+        }
+
+        private int nextId() {
+            int id = next.getAndIncrement();
+            return id < end ? id : FlowEntryIdAllocator.NO_ID;
+        }
+
+        private FlowEntryIdBlock drain(DeviceTableId deviceTableId) {
+            int from = next.getAndSet(end);
+            return from < end ? new FlowEntryIdBlock(deviceTableId.getDeviceId(), deviceTableId.getTableId(),
+                                                     from, end - from) : null;
+        }
+    }
+
+    /**
+     * Changes made to the state of a device since its last backup.
+     */
+    private static final class DeviceChanges {
+        private long version;
+        private Set<FlowTableId> tables = Sets.newHashSet();
+        private Map<FlowTableId, Set<Integer>> entries = Maps.newHashMap();
+        private boolean tableIds;
+
+        private synchronized void tableChanged(FlowTableId tableId) {
+            tables.add(tableId);
+        }
+
+        private synchronized void entryChanged(FlowTableId tableId, int entryId) {
+            entries.computeIfAbsent(tableId, id -> Sets.newHashSet()).add(entryId);
+        }
+
+        private synchronized void tableIdsChanged() {
+            tableIds = true;
+        }
+
+        /**
+         * Hands out the changes recorded so far under the next version and
+         * starts recording anew.
+         *
+         * @param full true if a full snapshot will be sent instead
+         * @return recorded changes, or null if there is no change to send
+         */
+        private synchronized DeviceChanges drain(boolean full) {
+            if (!full && tables.isEmpty() && entries.isEmpty() && !tableIds) {
+                return null;
+            }
+            DeviceChanges drained = new DeviceChanges();
+            drained.version = ++version;
+            drained.tables = tables;
+            drained.entries = entries;
+            drained.tableIds = tableIds;
+            tables = Sets.newHashSet();
+            entries = Maps.newHashMap();
+            tableIds = false;
+            return drained;
+        }
+    }
+
+    private class InternalAppTableListener
+            implements EventuallyConsistentMapListener<DeviceTableId, FlowTable> {
+        @Override
+        public void event(EventuallyConsistentMapEvent<DeviceTableId, FlowTable> event) {
+            switch (event.type()) {
+                case PUT:
+                    indexAppTable(event.key(), event.value());
+                    break;
+                case REMOVE:
+                    unindexAppTable(event.key(), event.value());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
     private class InternalTableStatsListener
             implements EventuallyConsistentMapListener<DeviceId, List<TableStatisticsEntry>> {
         @Override
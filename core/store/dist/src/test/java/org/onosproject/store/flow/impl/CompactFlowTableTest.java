@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.StoredFlowEntry;
+import org.onosproject.net.intent.IntentTestsMocks;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.onosproject.net.NetTestTools.APP_ID;
+import static org.onosproject.net.NetTestTools.did;
+
+/**
+ * Unit tests for the compact flow table layout.
+ */
+public class CompactFlowTableTest {
+
+    private StoredFlowEntry flowEntry(int priority) {
+        return new DefaultFlowEntry(DefaultFlowRule.builder()
+                                            .forDevice(did("device1"))
+                                            .withSelector(new IntentTestsMocks.MockSelector())
+                                            .withTreatment(new IntentTestsMocks.MockTreatment())
+                                            .withPriority(priority)
+                                            .makePermanent()
+                                            .fromApp(APP_ID)
+                                            .build());
+    }
+
+    /**
+     * Tests the table against a hash map through random puts and removals,
+     * which exercise growing the table and reusing the slots of removed keys.
+     */
+    @Test
+    public void testAgainstHashMap() {
+        CompactFlowTable table = new CompactFlowTable();
+        Map<FlowId, Map<StoredFlowEntry, StoredFlowEntry>> expected = Maps.newHashMap();
+        Random random = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            // few distinct keys, so that removals hit
+            FlowId flowId = FlowId.valueOf(random.nextInt(2000) * 0x10000L);
+            if (random.nextInt(3) == 0) {
+                assertThat(table.remove(flowId), is(expected.remove(flowId)));
+            } else {
+                Map<StoredFlowEntry, StoredFlowEntry> entries = CompactFlowTable.newFlowEntryMap();
+                assertThat(table.put(flowId, entries), is(expected.put(flowId, entries)));
+            }
+        }
+        assertThat(table.size(), is(expected.size()));
+        expected.forEach((flowId, entries) -> assertThat(table.get(flowId), sameInstance(entries)));
+        assertThat(table, is(expected));
+    }
+
+    /**
+     * Tests the compute methods and removals through iterators.
+     */
+    @Test
+    public void testComputeAndIterate() {
+        CompactFlowTable table = new CompactFlowTable();
+        FlowId flowId = FlowId.valueOf(1);
+        Map<StoredFlowEntry, StoredFlowEntry> entries =
+                table.computeIfAbsent(flowId, id -> CompactFlowTable.newFlowEntryMap());
+        assertThat(table.computeIfAbsent(flowId, id -> CompactFlowTable.newFlowEntryMap()), sameInstance(entries));
+
+        StoredFlowEntry entry = flowEntry(10);
+        entries.compute(entry, (k, stored) -> entry);
+        assertThat(entries.get(entry), sameInstance(entry));
+        assertThat(entries.computeIfPresent(entry, (k, stored) -> null), nullValue());
+        assertThat(entries.isEmpty(), is(true));
+
+        table.computeIfPresent(flowId, (id, stored) -> stored.isEmpty() ? null : stored);
+        assertThat(table.containsKey(flowId), is(false));
+
+        table.put(FlowId.valueOf(2), CompactFlowTable.newFlowEntryMap());
+        table.put(FlowId.valueOf(3), CompactFlowTable.newFlowEntryMap());
+        table.keySet().removeIf(id -> id.value() == 2);
+        assertThat(table.size(), is(1));
+        assertThat(table.containsKey(FlowId.valueOf(3)), is(true));
+    }
+
+    /**
+     * Tests that an iteration sees every flow id present throughout it
+     * once, while other ids are removed and the table grows under it.
+     */
+    @Test
+    public void testWeaklyConsistentIteration() {
+        CompactFlowTable table = new CompactFlowTable();
+        List<FlowId> kept = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            table.put(FlowId.valueOf(i), CompactFlowTable.newFlowEntryMap());
+            if (i % 2 == 0) {
+                kept.add(FlowId.valueOf(i));
+            }
+        }
+
+        List<FlowId> seen = Lists.newArrayList();
+        Iterator<FlowId> iterator = table.keySet().iterator();
+        int added = 1000;
+        while (iterator.hasNext()) {
+            FlowId flowId = iterator.next();
+            if (flowId.value() < 100) {
+                seen.add(flowId);
+            }
+            // removes the odd ids ahead and grows the table a few times
+            table.remove(FlowId.valueOf(flowId.value() | 1));
+            for (int i = 0; i < 20; i++) {
+                table.put(FlowId.valueOf(added++), CompactFlowTable.newFlowEntryMap());
+            }
+        }
+        kept.forEach(flowId -> assertThat(seen.contains(flowId), is(true)));
+        assertThat(seen.stream().distinct().count(), is((long) seen.size()));
+
+        iterator = table.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().value() >= 100) {
+                iterator.remove();
+            }
+        }
+        assertThat(table.keySet(), containsInAnyOrder(kept.toArray(new FlowId[kept.size()])));
+    }
+
+    /**
+     * Tests the entries of a flow id with more than one entry.
+     */
+    @Test
+    public void testFlowEntryMap() {
+        Map<StoredFlowEntry, StoredFlowEntry> entries = CompactFlowTable.newFlowEntryMap();
+        StoredFlowEntry entry1 = flowEntry(10);
+        StoredFlowEntry entry2 = flowEntry(20);
+        StoredFlowEntry entry3 = flowEntry(30);
+        entries.put(entry1, entry1);
+        entries.put(entry2, entry2);
+        entries.put(entry3, entry3);
+        assertThat(entries.size(), is(3));
+
+        assertThat(entries.remove(entry2), sameInstance(entry2));
+        assertThat(entries.get(entry1), sameInstance(entry1));
+        assertThat(entries.get(entry3), sameInstance(entry3));
+        entries.values().removeIf(e -> e == entry1);
+        assertThat(entries.size(), is(1));
+        assertThat(entries.containsKey(entry3), is(true));
+    }
+}
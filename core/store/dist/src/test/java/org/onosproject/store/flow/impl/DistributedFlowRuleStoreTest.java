@@ -16,6 +16,11 @@
 package org.onosproject.store.flow.impl;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import org.junit.After;
 import org.junit.Before;
@@ -25,7 +30,10 @@ import org.onosproject.cfg.ComponentConfigAdapter;
 import org.onosproject.cluster.NodeId;
 import org.onosproject.cluster.ClusterService;
 import org.onosproject.cluster.ControllerNode;
+import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.core.GroupId;
 import org.onosproject.mastership.MastershipServiceAdapter;
 import org.onosproject.net.device.DeviceServiceAdapter;
 import org.onosproject.net.DeviceId;
@@ -36,26 +44,46 @@ import org.onosproject.net.flow.FlowRuleBatchEntry;
 import org.onosproject.net.flow.DefaultFlowEntry;
 import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRuleBatchEvent;
 import org.onosproject.net.flow.FlowRuleBatchOperation;
+import org.onosproject.net.flow.StoredFlowEntry;
+import org.onosproject.net.flow.criteria.Criteria;
 import org.onosproject.net.intent.IntentTestsMocks;
+import org.onosproject.net.table.FlowTable;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.FlowTableStore;
 import org.onosproject.store.cluster.messaging.ClusterCommunicationServiceAdapter;
+import org.onosproject.store.cluster.messaging.MessageSubject;
 import org.onosproject.store.persistence.PersistenceServiceAdapter;
 import org.onosproject.store.service.TestStorageService;
 
 import org.onlab.packet.Ip4Address;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import org.osgi.service.component.ComponentContext;
 
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.emptyIterable;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertEquals;
 import static org.onosproject.net.NetTestTools.APP_ID;
 import static org.onosproject.net.NetTestTools.did;
+import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.FLOW_TABLE_BACKUP;
+import static org.onosproject.store.flow.impl.FlowStoreMessageSubjects.FLOW_TABLE_DIGEST;
 
 /**
  * Test class for DistributedFlowRuleStore.
@@ -68,6 +96,10 @@ public class DistributedFlowRuleStoreTest {
     private ControllerNode mockControllerNode;
 
     private NodeId nodeId;
+    private NodeId master = new NodeId("1");
+
+    // message handlers registered by the store, by subject
+    private final Map<MessageSubject, Function<byte[], byte[]>> handlers = Maps.newConcurrentMap();
 
     private static final IntentTestsMocks.MockSelector SELECTOR =
             new IntentTestsMocks.MockSelector();
@@ -93,15 +125,15 @@ public class DistributedFlowRuleStoreTest {
                     .fromApp(APP_ID)
                     .build();
 
-    static class MasterOfAll extends MastershipServiceAdapter {
+    class TestMastershipService extends MastershipServiceAdapter {
         @Override
         public MastershipRole getLocalRole(DeviceId deviceId) {
-            return MastershipRole.MASTER;
+            return master.equals(nodeId) ? MastershipRole.MASTER : MastershipRole.STANDBY;
         }
 
         @Override
         public NodeId getMasterFor(DeviceId deviceId) {
-            return new NodeId("1");
+            return master;
         }
     }
 
@@ -141,10 +173,19 @@ public class DistributedFlowRuleStoreTest {
 
         expect(mockClusterService.getLocalNode())
                 .andReturn(mockControllerNode).anyTimes();
+        expect(mockClusterService.getNodes())
+                .andReturn(ImmutableSet.of(mockControllerNode)).anyTimes();
         replay(mockClusterService);
 
-        flowStoreImpl.clusterCommunicator = new ClusterCommunicationServiceAdapter();
-        flowStoreImpl.mastershipService = new MasterOfAll();
+        flowStoreImpl.clusterCommunicator = new ClusterCommunicationServiceAdapter() {
+            @Override
+            public <M, R> void addSubscriber(MessageSubject subject, Function<byte[], M> decoder,
+                                             Function<M, R> handler, Function<R, byte[]> encoder,
+                                             Executor executor) {
+                handlers.put(subject, bytes -> encoder.apply(handler.apply(decoder.apply(bytes))));
+            }
+        };
+        flowStoreImpl.mastershipService = new TestMastershipService();
         flowStoreImpl.deviceService = new DeviceServiceAdapter();
         flowStoreImpl.coreService = new CoreServiceAdapter();
         flowStoreImpl.configService = new ComponentConfigAdapter();
@@ -182,6 +223,64 @@ public class DistributedFlowRuleStoreTest {
         assertEquals("PENDING_ADD", flowEntry1.state().toString());
     }
 
+    private FlowRule pofRule(DeviceId pofDeviceId, int tableId, int priority) {
+        return DefaultFlowRule.builder()
+                .forDevice(pofDeviceId)
+                .forTable(tableId)
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .add(Criteria.matchOffsetLength((short) 1, (short) 0, (short) 48,
+                                                                      "000000000001", "ffffffffffff"))
+                                      .build())
+                .withTreatment(TREATMENT)
+                .withPriority(priority)
+                .makePermanent()
+                .fromApp(APP_ID)
+                .build();
+    }
+
+    private FlowRuleBatchOperation addBatch(DeviceId batchDeviceId, long id, FlowRule... rules) {
+        List<FlowRuleBatchEntry> entries = Lists.newArrayList();
+        for (FlowRule rule : rules) {
+            entries.add(new FlowRuleBatchEntry(FlowRuleBatchEntry.FlowRuleOperation.ADD, rule));
+        }
+        return new FlowRuleBatchOperation(entries, batchDeviceId, id);
+    }
+
+    /**
+     * Tests that a batch for a POF device merging rules of different tables
+     * is stored whole, and fails whole when a rule has no table.
+     */
+    @Test
+    public void testStorePofBatch() {
+        DeviceId pofDeviceId = DeviceId.deviceId("pof:0000000000000001");
+        FlowTableStore tableStore = createNiceMock(FlowTableStore.class);
+        expect(tableStore.getFlowTableInternal(pofDeviceId, FlowTableId.valueOf(1)))
+                .andReturn(createNiceMock(FlowTable.class)).anyTimes();
+        expect(tableStore.getFlowTableInternal(pofDeviceId, FlowTableId.valueOf(2)))
+                .andReturn(createNiceMock(FlowTable.class)).anyTimes();
+        replay(tableStore);
+        flowStoreImpl.flowTableStore = tableStore;
+        List<FlowRuleBatchEvent> events = Lists.newArrayList();
+        flowStoreImpl.setDelegate(events::add);
+
+        FlowRule table1 = pofRule(pofDeviceId, 1, 10);
+        FlowRule table2 = pofRule(pofDeviceId, 2, 20);
+        flowStoreImpl.storeBatch(addBatch(pofDeviceId, 1, table1, table2));
+        assertThat(flowStoreImpl.getFlowEntry(table1).state(), is(FlowEntry.FlowEntryState.PENDING_ADD));
+        assertThat(flowStoreImpl.getFlowEntry(table2).state(), is(FlowEntry.FlowEntryState.PENDING_ADD));
+        assertThat(events.get(0).type(), is(FlowRuleBatchEvent.Type.BATCH_OPERATION_REQUESTED));
+
+        FlowRule table1Other = pofRule(pofDeviceId, 1, 30);
+        FlowRule noTable = pofRule(pofDeviceId, 3, 40);
+        flowStoreImpl.storeBatch(addBatch(pofDeviceId, 2, table1Other, noTable));
+        assertThat(flowStoreImpl.getFlowEntry(table1Other), is(nullValue()));
+        assertThat(flowStoreImpl.getFlowEntry(noTable), is(nullValue()));
+        FlowRuleBatchEvent failed = events.get(1);
+        assertThat(failed.type(), is(FlowRuleBatchEvent.Type.BATCH_OPERATION_COMPLETED));
+        assertThat(failed.result().isSuccess(), is(false));
+        assertThat(failed.result().failedItems(), containsInAnyOrder(table1Other, noTable));
+    }
+
     /**
      * Tests adding a flowrule.
      */
@@ -262,4 +361,217 @@ public class DistributedFlowRuleStoreTest {
         }
         assertThat(sum3, is(0));
     }
+
+    /**
+     * Tests the lookups of the flows of an application.
+     */
+    @Test
+    public void testGetFlowEntriesByApp() {
+        FlowRule otherAppRule = DefaultFlowRule.builder()
+                .forDevice(deviceId)
+                .withSelector(SELECTOR)
+                .withTreatment(TREATMENT)
+                .withPriority(44)
+                .makeTemporary(44)
+                .fromApp(new DefaultApplicationId(2, "other"))
+                .build();
+        flowStoreImpl.addOrUpdateFlowRule(new DefaultFlowEntry(flowRule));
+        flowStoreImpl.addOrUpdateFlowRule(new DefaultFlowEntry(flowRule1));
+        flowStoreImpl.addOrUpdateFlowRule(new DefaultFlowEntry(otherAppRule));
+
+        assertThat(Iterables.size(flowStoreImpl.getFlowEntries(deviceId, APP_ID)), is(2));
+        assertThat(Iterables.getOnlyElement(flowStoreImpl.getFlowEntries(
+                deviceId, new DefaultApplicationId(2, "other"))), is(otherAppRule));
+
+        flowStoreImpl.removeFlowRule(new DefaultFlowEntry(flowRule));
+        assertThat(Iterables.getOnlyElement(flowStoreImpl.getFlowEntries(deviceId, APP_ID)), is(flowRule1));
+        assertThat(flowStoreImpl.getFlowEntries(did("device2"), APP_ID), emptyIterable());
+    }
+
+    private FlowRule groupRule(ApplicationId appId, short groupId, int priority) {
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId)
+                .withSelector(SELECTOR)
+                .withTreatment(TREATMENT)
+                .withPriority(priority)
+                .makePermanent()
+                .fromApp(appId)
+                .withGroupId(new GroupId(groupId))
+                .build();
+    }
+
+    /**
+     * Tests the lookups of the flows of an application and group, with a
+     * group id whose upper bit is set.
+     */
+    @Test
+    public void testGetFlowEntriesByGroup() {
+        FlowRule highGroup = groupRule(APP_ID, (short) 0x8001, 5);
+        FlowRule lowGroup = groupRule(APP_ID, (short) 1, 6);
+        flowStoreImpl.addOrUpdateFlowRule(new DefaultFlowEntry(highGroup));
+        flowStoreImpl.addOrUpdateFlowRule(new DefaultFlowEntry(lowGroup));
+
+        assertThat(Iterables.getOnlyElement(flowStoreImpl.getFlowEntries(deviceId, APP_ID, (short) 0x8001)),
+                   is(highGroup));
+        assertThat(Iterables.getOnlyElement(flowStoreImpl.getFlowEntries(deviceId, APP_ID, (short) 1)),
+                   is(lowGroup));
+        assertThat(Iterables.getOnlyElement(flowStoreImpl.getFlowEntries(APP_ID, (short) 0x8001)),
+                   is(highGroup));
+    }
+
+    /**
+     * Tests the lookups of the flows of an application across the devices
+     * mastered by the node.
+     */
+    @Test
+    public void testGetFlowEntriesByAppOnAllDevices() {
+        FlowRule otherDeviceRule = DefaultFlowRule.builder()
+                .forDevice(did("device2"))
+                .withSelector(SELECTOR)
+                .withTreatment(TREATMENT)
+                .withPriority(22)
+                .makePermanent()
+                .fromApp(APP_ID)
+                .build();
+        flowStoreImpl.addOrUpdateFlowRule(new DefaultFlowEntry(flowRule));
+        flowStoreImpl.addOrUpdateFlowRule(new DefaultFlowEntry(otherDeviceRule));
+
+        assertThat(ImmutableSet.copyOf(flowStoreImpl.getFlowEntries(APP_ID)),
+                   containsInAnyOrder(flowRule, otherDeviceRule));
+        assertThat(flowStoreImpl.getFlowEntries(new DefaultApplicationId(2, "other")), emptyIterable());
+    }
+
+    private StoredFlowEntry backupEntry(int priority) {
+        return new DefaultFlowEntry(DefaultFlowRule.builder()
+                                            .forDevice(deviceId)
+                                            .withSelector(DefaultTrafficSelector.emptySelector())
+                                            .withTreatment(DefaultTrafficTreatment.emptyTreatment())
+                                            .withPriority(priority)
+                                            .makePermanent()
+                                            .fromApp(APP_ID)
+                                            .build(),
+                                    FlowEntry.FlowEntryState.ADDED, 0, 0, 0);
+    }
+
+    /**
+     * Sends a backup of the device to the store, as its master would.
+     *
+     * @param backup backup of the device
+     * @return true if the store took the backup
+     */
+    private boolean sendBackup(FlowTableBackup backup) {
+        Map<DeviceId, FlowTableBackup> backups = Maps.newHashMap();
+        backups.put(deviceId, backup);
+        byte[] reply = handlers.get(FLOW_TABLE_BACKUP).apply(flowStoreImpl.serializer.encode(backups));
+        Set<DeviceId> backedUp = flowStoreImpl.serializer.decode(reply);
+        return backedUp.contains(deviceId);
+    }
+
+    /**
+     * Sends the digest of the device to the store, as its master would.
+     *
+     * @param digest digest of the device
+     * @return buckets the backup is out of sync in, by device
+     */
+    private Map<DeviceId, List<Integer>> sendDigest(FlowTableDigest digest) {
+        Map<DeviceId, FlowTableDigest> digests = Maps.newHashMap();
+        digests.put(deviceId, digest);
+        return flowStoreImpl.serializer.decode(
+                handlers.get(FLOW_TABLE_DIGEST).apply(flowStoreImpl.serializer.encode(digests)));
+    }
+
+    /**
+     * Returns the entries the store holds for the device, once it took
+     * over as master.
+     */
+    private Set<StoredFlowEntry> takeOver() {
+        master = nodeId;
+        return ImmutableSet.copyOf(Iterables.filter(flowStoreImpl.getFlowEntries(deviceId), StoredFlowEntry.class));
+    }
+
+    /**
+     * Tests that deltas are applied in sequence on top of a snapshot.
+     */
+    @Test
+    public void testBackupDeltaSequence() {
+        master = new NodeId("2");
+        StoredFlowEntry first = backupEntry(1);
+        StoredFlowEntry second = backupEntry(2);
+
+        assertThat(sendBackup(FlowTableBackup.snapshot(1, ImmutableList.of(first))), is(true));
+        assertThat(sendBackup(FlowTableBackup.delta(1, 2, ImmutableList.of(second), ImmutableList.of())),
+                   is(true));
+        assertThat(sendBackup(FlowTableBackup.delta(2, 3, ImmutableList.of(), ImmutableList.of(first))),
+                   is(true));
+
+        assertThat(takeOver(), containsInAnyOrder(second));
+    }
+
+    /**
+     * Tests that a delta from another version than the one held is refused
+     * and leaves the backup as it was.
+     */
+    @Test
+    public void testBackupBaseVersionMismatch() {
+        master = new NodeId("2");
+        StoredFlowEntry first = backupEntry(1);
+
+        assertThat(sendBackup(FlowTableBackup.snapshot(1, ImmutableList.of(first))), is(true));
+        assertThat(sendBackup(FlowTableBackup.delta(2, 3, ImmutableList.of(backupEntry(2)), ImmutableList.of())),
+                   is(false));
+
+        assertThat(takeOver(), containsInAnyOrder(first));
+    }
+
+    /**
+     * Tests that a node holding no backup refuses deltas until it is sent
+     * a snapshot, from which the deltas apply again.
+     */
+    @Test
+    public void testBackupSnapshotFallback() {
+        master = new NodeId("2");
+        StoredFlowEntry first = backupEntry(1);
+        StoredFlowEntry second = backupEntry(2);
+        StoredFlowEntry third = backupEntry(3);
+
+        assertThat(sendBackup(FlowTableBackup.delta(4, 5, ImmutableList.of(third), ImmutableList.of())),
+                   is(false));
+        assertThat(sendBackup(FlowTableBackup.snapshot(5, ImmutableList.of(first, second))), is(true));
+        assertThat(sendBackup(FlowTableBackup.delta(5, 6, ImmutableList.of(third), ImmutableList.of(first))),
+                   is(true));
+
+        assertThat(takeOver(), containsInAnyOrder(second, third));
+    }
+
+    /**
+     * Tests that a backup missing entries of a bucket is found out by the
+     * digest check and repaired from the entries of that bucket alone.
+     */
+    @Test
+    public void testCorruptedBucketRepaired() {
+        master = new NodeId("2");
+        StoredFlowEntry first = backupEntry(1);
+        StoredFlowEntry second = backupEntry(2);
+        List<StoredFlowEntry> masterEntries = ImmutableList.of(first, second);
+
+        // the backup took the snapshot but lost an entry since
+        assertThat(sendBackup(FlowTableBackup.snapshot(1, ImmutableList.of(first))), is(true));
+
+        Map<DeviceId, List<Integer>> differences = sendDigest(FlowTableDigest.of(1, masterEntries));
+        int bucket = FlowTableDigest.bucket(second.id());
+        assertThat(differences.keySet(), containsInAnyOrder(deviceId));
+        assertThat(differences.get(deviceId), containsInAnyOrder(bucket));
+
+        // a node behind the digested version asks for a snapshot instead
+        assertThat(sendDigest(FlowTableDigest.of(2, masterEntries)).get(deviceId), is(empty()));
+
+        List<StoredFlowEntry> bucketEntries = ImmutableList.copyOf(
+                Iterables.filter(masterEntries, entry -> FlowTableDigest.bucket(entry.id()) == bucket));
+        FlowTableBackup repair = FlowTableBackup.delta(1, 1, ImmutableList.of(), ImmutableList.of())
+                .withBuckets(differences.get(deviceId), bucketEntries);
+        assertThat(sendBackup(repair), is(true));
+
+        assertThat(sendDigest(FlowTableDigest.of(1, masterEntries)).isEmpty(), is(true));
+        assertThat(takeOver(), containsInAnyOrder(first, second));
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.StoredFlowEntry;
+import org.onosproject.net.intent.IntentTestsMocks;
+
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.onosproject.net.NetTestTools.APP_ID;
+import static org.onosproject.net.NetTestTools.did;
+
+/**
+ * Unit tests for the flow table change log.
+ */
+public class FlowTableChangeLogTest {
+
+    private final DeviceId deviceId = did("device1");
+    private final Map<StoredFlowEntry, StoredFlowEntry> table = Maps.newHashMap();
+
+    private FlowTableChangeLog changeLog;
+    private StoredFlowEntry entry1;
+    private StoredFlowEntry entry2;
+
+    private StoredFlowEntry flowEntry(int priority) {
+        return new DefaultFlowEntry(DefaultFlowRule.builder()
+                                            .forDevice(deviceId)
+                                            .withSelector(new IntentTestsMocks.MockSelector())
+                                            .withTreatment(new IntentTestsMocks.MockTreatment())
+                                            .withPriority(priority)
+                                            .makePermanent()
+                                            .fromApp(APP_ID)
+                                            .build());
+    }
+
+    private void add(StoredFlowEntry entry) {
+        table.put(entry, entry);
+        changeLog.changed(entry);
+    }
+
+    private void remove(StoredFlowEntry entry) {
+        table.remove(entry);
+        changeLog.changed(entry);
+    }
+
+    @Before
+    public void setUp() {
+        changeLog = new FlowTableChangeLog();
+        entry1 = flowEntry(10);
+        entry2 = flowEntry(20);
+    }
+
+    /**
+     * Tests that a delta holds only the entries changed since its base.
+     */
+    @Test
+    public void testDelta() {
+        add(entry1);
+        long acknowledged = changeLog.version();
+        add(entry2);
+
+        FlowTableBackup delta = changeLog.delta(acknowledged, table::get);
+        assertThat(delta.isSnapshot(), is(false));
+        assertThat(delta.baseVersion(), is(acknowledged));
+        assertThat(delta.version(), is(2L));
+        assertThat(delta.updated(), contains(entry2));
+        assertThat(delta.removed(), is(empty()));
+
+        remove(entry1);
+        delta = changeLog.delta(delta.version(), table::get);
+        assertThat(delta.updated(), is(empty()));
+        assertThat(delta.removed(), contains(entry1));
+
+        assertThat(changeLog.delta(0, table::get).updated(), contains(entry2));
+    }
+
+    /**
+     * Tests that no delta is given for versions no longer logged.
+     */
+    @Test
+    public void testPruneAndReset() {
+        add(entry1);
+        add(entry2);
+
+        changeLog.prune(1);
+        assertThat(changeLog.size(), is(1));
+        assertThat(changeLog.delta(0, table::get), is(nullValue()));
+        assertThat(changeLog.delta(1, table::get).updated(), contains(entry2));
+
+        changeLog.reset();
+        assertThat(changeLog.size(), is(0));
+        assertThat(changeLog.delta(1, table::get), is(nullValue()));
+        assertThat(changeLog.delta(2, table::get).updated(), is(empty()));
+        assertThat(changeLog.delta(3, table::get), is(nullValue()));
+    }
+
+    /**
+     * Tests the backup snapshots.
+     */
+    @Test
+    public void testSnapshot() {
+        FlowTableBackup snapshot = FlowTableBackup.snapshot(5, ImmutableList.of(entry1));
+        assertThat(snapshot.isSnapshot(), is(true));
+        assertThat(snapshot.version(), is(5L));
+        assertThat(snapshot.updated(), contains(entry1));
+        assertThat(snapshot.removed(), is(empty()));
+    }
+}
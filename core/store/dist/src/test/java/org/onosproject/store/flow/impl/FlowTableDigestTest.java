@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.FlowEntry.FlowEntryState;
+import org.onosproject.net.flow.StoredFlowEntry;
+import org.onosproject.net.intent.IntentTestsMocks;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.onosproject.net.NetTestTools.APP_ID;
+import static org.onosproject.net.NetTestTools.did;
+
+/**
+ * Unit tests for the flow table digests.
+ */
+public class FlowTableDigestTest {
+
+    private StoredFlowEntry flowEntry(int priority) {
+        return new DefaultFlowEntry(DefaultFlowRule.builder()
+                                            .forDevice(did("device1"))
+                                            .withSelector(new IntentTestsMocks.MockSelector())
+                                            .withTreatment(new IntentTestsMocks.MockTreatment())
+                                            .withPriority(priority)
+                                            .makePermanent()
+                                            .fromApp(APP_ID)
+                                            .build());
+    }
+
+    /**
+     * Tests that digests do not depend on the order of the entries.
+     */
+    @Test
+    public void testSameEntries() {
+        StoredFlowEntry entry1 = flowEntry(10);
+        StoredFlowEntry entry2 = flowEntry(20);
+        FlowTableDigest digest = FlowTableDigest.of(1, ImmutableList.of(entry1, entry2));
+
+        assertThat(digest.version(), is(1L));
+        assertThat(digest.differences(FlowTableDigest.of(1, ImmutableList.of(entry2, entry1))), is(empty()));
+    }
+
+    /**
+     * Tests that digests differ in the buckets of the differing entries.
+     */
+    @Test
+    public void testDifferences() {
+        StoredFlowEntry entry1 = flowEntry(10);
+        StoredFlowEntry entry2 = flowEntry(20);
+        FlowTableDigest digest = FlowTableDigest.of(1, ImmutableList.of(entry1, entry2));
+
+        int bucket = FlowTableDigest.bucket(entry2.id());
+        assertThat(digest.differences(FlowTableDigest.of(1, ImmutableList.of(entry1))), contains(bucket));
+
+        entry2.setState(FlowEntryState.ADDED);
+        List<Integer> differences = digest.differences(FlowTableDigest.of(1, ImmutableList.of(entry1, entry2)));
+        assertThat(differences, contains(bucket));
+    }
+
+    /**
+     * Tests the repairs of backup buckets.
+     */
+    @Test
+    public void testBucketRepair() {
+        StoredFlowEntry entry1 = flowEntry(10);
+        StoredFlowEntry entry2 = flowEntry(20);
+        FlowTableBackup repair = FlowTableBackup.delta(1, 2, ImmutableList.of(entry1), ImmutableList.of())
+                .withBuckets(ImmutableList.of(3), ImmutableList.of(entry2));
+
+        assertThat(repair.isSnapshot(), is(false));
+        assertThat(repair.baseVersion(), is(1L));
+        assertThat(repair.version(), is(2L));
+        assertThat(repair.updated(), contains(entry1, entry2));
+        assertThat(repair.buckets(), contains(3));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.onlab.junit.TestTools;
+import org.onlab.util.KryoNamespace;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.StoredFlowEntry;
+import org.onosproject.net.flow.criteria.Criteria;
+import org.onosproject.store.serializers.KryoNamespaces;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.onosproject.net.NetTestTools.APP_ID;
+import static org.onosproject.net.NetTestTools.did;
+
+/**
+ * Unit tests for the flow table snapshot file.
+ */
+public class FlowTableSnapshotFileTest {
+
+    private static final NodeId NODE1 = new NodeId("node1");
+    private static final NodeId NODE2 = new NodeId("node2");
+    private static final DeviceId DEVICE1 = did("device1");
+
+    private static final long MAX_AGE_MILLIS = 60000;
+
+    private final KryoNamespace namespace = KryoNamespace.newBuilder()
+            .register(KryoNamespaces.POF)
+            .register(FlowTableBackup.class)
+            .build();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StoredFlowEntry flowEntry(int priority) {
+        return new DefaultFlowEntry(DefaultFlowRule.builder()
+                                            .forDevice(DEVICE1)
+                                            .withSelector(DefaultTrafficSelector.builder()
+                                                                  .add(Criteria.matchInPort(PortNumber.portNumber(1)))
+                                                                  .build())
+                                            .withTreatment(DefaultTrafficTreatment.emptyTreatment())
+                                            .withPriority(priority)
+                                            .makePermanent()
+                                            .fromApp(APP_ID)
+                                            .build());
+    }
+
+    private FlowTableSnapshotFile snapshotFile() {
+        return new FlowTableSnapshotFile(folder.getRoot().toPath().resolve("flow-tables.snapshot"), namespace);
+    }
+
+    /**
+     * Tests that the tables written are read back by the same node only.
+     */
+    @Test
+    public void testWriteAndRead() throws Exception {
+        FlowTableSnapshotFile file = snapshotFile();
+        assertThat(file.read(NODE1, MAX_AGE_MILLIS).isEmpty(), is(true));
+
+        StoredFlowEntry entry = flowEntry(10);
+        file.write(NODE1, ImmutableMap.of(DEVICE1, FlowTableBackup.snapshot(3, ImmutableList.of(entry))));
+
+        Map<DeviceId, FlowTableBackup> tables = file.read(NODE1, MAX_AGE_MILLIS);
+        assertThat(tables.keySet(), contains(DEVICE1));
+        assertThat(tables.get(DEVICE1).version(), is(3L));
+        assertThat(tables.get(DEVICE1).updated(), contains(entry));
+
+        assertThat(file.read(NODE2, MAX_AGE_MILLIS).isEmpty(), is(true));
+        // the file holds the records only, not the whole mapping
+        assertThat(Files.size(file.path()), lessThan(64L * 1024));
+    }
+
+    /**
+     * Tests that snapshots older than the given age are ignored.
+     */
+    @Test
+    public void testStaleSnapshot() throws Exception {
+        FlowTableSnapshotFile file = snapshotFile();
+        file.write(NODE1, ImmutableMap.of(DEVICE1, FlowTableBackup.snapshot(3, ImmutableList.of(flowEntry(10)))));
+
+        TestTools.delay(50);
+        assertThat(file.read(NODE1, 10).isEmpty(), is(true));
+        assertThat(file.read(NODE1, MAX_AGE_MILLIS).keySet(), contains(DEVICE1));
+    }
+
+    /**
+     * Tests that snapshots larger than the initial mapping are written whole.
+     */
+    @Test
+    public void testLargeSnapshot() throws Exception {
+        List<StoredFlowEntry> entries = Lists.newArrayList();
+        for (int i = 0; i < 5000; i++) {
+            entries.add(flowEntry(i));
+        }
+        FlowTableSnapshotFile file = snapshotFile();
+        file.write(NODE1, ImmutableMap.of(DEVICE1, FlowTableBackup.snapshot(7, entries)));
+        assertThat(Files.size(file.path()), greaterThan(64L * 1024));
+
+        Map<DeviceId, FlowTableBackup> tables = file.read(NODE1, MAX_AGE_MILLIS);
+        assertThat(tables.get(DEVICE1).version(), is(7L));
+        assertThat(tables.get(DEVICE1).updated().size(), is(entries.size()));
+        assertThat(tables.get(DEVICE1).updated().containsAll(entries), is(true));
+    }
+
+    /**
+     * Tests that damaged snapshots are ignored.
+     */
+    @Test
+    public void testDamagedSnapshot() throws Exception {
+        FlowTableSnapshotFile file = snapshotFile();
+        file.write(NODE1, ImmutableMap.of(DEVICE1, FlowTableBackup.snapshot(3, ImmutableList.of(flowEntry(10)))));
+
+        Path path = file.path();
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(path, bytes);
+        assertThat(file.read(NODE1, MAX_AGE_MILLIS).isEmpty(), is(true));
+
+        file.delete();
+        assertThat(Files.exists(path), is(false));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.table.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.table.DefaultFlowTable;
+import org.onosproject.net.table.DefaultFlowTableEntry;
+import org.onosproject.net.table.FlowTableEntry.FlowTableState;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.StoredFlowTableEntry;
+import org.onosproject.store.impl.VersionedBackup;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.onosproject.net.NetTestTools.did;
+
+/**
+ * Unit tests for the replicated flow table backups.
+ */
+public class DeviceTableBackupTest {
+
+    private static final DeviceId DID = did("pof1");
+    private static final FlowTableId TABLE_ID = FlowTableId.valueOf(2);
+
+    private static StoredFlowTableEntry table() {
+        OFFlowTable ofFlowTable = new OFFlowTable();
+        ofFlowTable.setTableId((byte) 2);
+        ofFlowTable.setTableName("FirstEntryTable");
+        ofFlowTable.setTableSize(128);
+        ofFlowTable.setTableType(OFTableType.OF_MM_TABLE);
+        return new DefaultFlowTableEntry(DefaultFlowTable.builder()
+                .forDevice(DID)
+                .forTable(2)
+                .fromApp(new DefaultApplicationId(1, "test"))
+                .withFlowTable(ofFlowTable)
+                .build());
+    }
+
+    private static DeviceTableBackup roundTrip(DeviceTableBackup backup) {
+        List<DeviceTableBackup> decoded = NewDistributedFlowTableStore.SERIALIZER.decode(
+                NewDistributedFlowTableStore.SERIALIZER.encode(ImmutableList.of(backup)));
+        assertThat(decoded.size(), is(1));
+        return decoded.get(0);
+    }
+
+    @Test
+    public void fullSnapshotSurvivesSerialization() {
+        StoredFlowTableEntry table = table();
+        table.setState(FlowTableState.ADDED);
+        Map<FlowTableId, StoredFlowTableEntry> tables = Maps.newHashMap();
+        tables.put(TABLE_ID, table);
+        Map<OFTableType, List<Byte>> freeIds = Maps.newHashMap();
+        freeIds.put(OFTableType.OF_MM_TABLE, ImmutableList.of((byte) 1));
+
+        DeviceTableBackup backup = roundTrip(DeviceTableBackup.builder(DID, VersionedBackup.SNAPSHOT, 5)
+                .withTables(tables, ImmutableSet.of())
+                .withEntries(ImmutableMap.of(TABLE_ID, ImmutableMap.of()), ImmutableMap.of())
+                .withTableIds(ImmutableMap.of(OFTableType.OF_MM_TABLE, (byte) 0),
+                              ImmutableMap.of(OFTableType.OF_MM_TABLE, (byte) 8),
+                              ImmutableMap.of(OFTableType.OF_MM_TABLE, (byte) 3),
+                              freeIds)
+                .asHandoff()
+                .build());
+
+        assertThat(backup.deviceId(), is(DID));
+        assertThat(backup.version(), is(5L));
+        assertThat(backup.isSnapshot(), is(true));
+        assertThat(backup.appliesTo(null), is(true));
+        assertThat(backup.isHandoff(), is(true));
+        assertThat(backup.tables().get(TABLE_ID).id(), is(TABLE_ID));
+        assertThat(backup.tables().get(TABLE_ID).state(), is(FlowTableState.ADDED));
+        assertThat(backup.entries().get(TABLE_ID).isEmpty(), is(true));
+        assertThat(backup.tableNums().get(OFTableType.OF_MM_TABLE), is((byte) 8));
+        assertThat(backup.nextTableNos().get(OFTableType.OF_MM_TABLE), is((byte) 3));
+        assertThat(backup.freeTableIds().get(OFTableType.OF_MM_TABLE), is(ImmutableList.of((byte) 1)));
+    }
+
+    @Test
+    public void deltaCarriesOnlyChanges() {
+        DeviceTableBackup backup = roundTrip(DeviceTableBackup.builder(DID, 5, 6)
+                .withTables(ImmutableMap.of(), ImmutableSet.of(TABLE_ID))
+                .withEntries(ImmutableMap.of(), ImmutableMap.of(FlowTableId.valueOf(3), ImmutableSet.of(7, 9)))
+                .build());
+
+        assertThat(backup.isSnapshot(), is(false));
+        assertThat(backup.appliesTo(5L), is(true));
+        assertThat(backup.appliesTo(4L), is(false));
+        assertThat(backup.appliesTo(null), is(false));
+        assertThat(backup.isHandoff(), is(false));
+        assertThat(backup.tables().isEmpty(), is(true));
+        assertThat(backup.removedTables(), is(ImmutableSet.of(TABLE_ID)));
+        assertThat(backup.removedEntries().get(FlowTableId.valueOf(3)), is(ImmutableSet.of(7, 9)));
+        assertThat(backup.tableNoBases(), is(nullValue()));
+    }
+}
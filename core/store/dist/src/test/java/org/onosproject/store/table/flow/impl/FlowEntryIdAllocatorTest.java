@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.table.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.onosproject.store.table.flow.impl.FlowEntryIdAllocator.NO_ID;
+
+/**
+ * Unit tests for the flow entry id allocator.
+ */
+public class FlowEntryIdAllocatorTest {
+
+    @Test
+    public void allocatesSequentially() {
+        FlowEntryIdAllocator allocator = new FlowEntryIdAllocator();
+        for (int i = 0; i < 200; i++) {
+            assertThat(allocator.allocate(), is(i));
+        }
+        assertThat(allocator.allocatedCount(), is(200));
+    }
+
+    @Test
+    public void reusesReleasedIds() {
+        FlowEntryIdAllocator allocator = new FlowEntryIdAllocator();
+        for (int i = 0; i < 10; i++) {
+            allocator.allocate();
+        }
+        assertThat(allocator.release(3), is(true));
+        assertThat(allocator.release(3), is(false));
+        assertThat(allocator.release(7), is(true));
+        assertThat(allocator.releasedIds(), is(ImmutableList.of(3, 7)));
+
+        assertThat(allocator.allocate(), is(3));
+        assertThat(allocator.allocate(), is(7));
+        assertThat(allocator.allocate(), is(10));
+        assertThat(allocator.allocatedCount(), is(11));
+    }
+
+    @Test
+    public void honoursCapacity() {
+        FlowEntryIdAllocator allocator = new FlowEntryIdAllocator(3);
+        assertThat(allocator.allocate(), is(0));
+        assertThat(allocator.allocate(), is(1));
+        assertThat(allocator.allocate(), is(2));
+        assertThat(allocator.allocate(), is(NO_ID));
+        allocator.release(1);
+        assertThat(allocator.allocate(), is(1));
+    }
+
+    @Test
+    public void leasesWordAlignedBlocks() {
+        FlowEntryIdAllocator allocator = new FlowEntryIdAllocator();
+        assertThat(allocator.allocate(), is(0));
+
+        int start = allocator.leaseBlock(100);
+        assertThat(start, is(64));
+        assertThat(allocator.isAllocated(64), is(true));
+        assertThat(allocator.isAllocated(191), is(true));
+        assertThat(allocator.isAllocated(192), is(false));
+        assertThat(allocator.allocatedCount(), is(129));
+        assertThat(FlowEntryIdAllocator.blockSize(100), is(128));
+        assertThat(FlowEntryIdAllocator.blockSize(128), is(128));
+
+        // single allocations keep filling the partially used first word
+        assertThat(allocator.allocate(), is(1));
+    }
+
+    @Test
+    public void reserveMarksIdInUse() {
+        FlowEntryIdAllocator allocator = new FlowEntryIdAllocator();
+        assertThat(allocator.reserve(0), is(true));
+        assertThat(allocator.reserve(0), is(false));
+        assertThat(allocator.allocate(), is(1));
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.store.table.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.IpAddress;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.cluster.ClusterServiceAdapter;
+import org.onosproject.cluster.ControllerNode;
+import org.onosproject.cluster.DefaultControllerNode;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.cluster.RoleInfo;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
+import org.onosproject.floodlightpof.protocol.table.OFTableResource;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.onosproject.mastership.MastershipServiceAdapter;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.table.DefaultFlowTable;
+import org.onosproject.net.table.DefaultFlowTableEntry;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.StoredFlowTableEntry;
+import org.onosproject.store.LogicalTimestamp;
+import org.onosproject.store.cluster.messaging.ClusterCommunicationServiceAdapter;
+import org.onosproject.store.cluster.messaging.MessageSubject;
+import org.onosproject.store.flow.ReplicaInfo;
+import org.onosproject.store.flow.ReplicaInfoEvent;
+import org.onosproject.store.persistence.PersistenceServiceAdapter;
+import org.onosproject.store.service.TestStorageService;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.onlab.junit.TestTools.assertAfter;
+import static org.onosproject.net.NetTestTools.did;
+import static org.onosproject.store.impl.VersionedBackup.SNAPSHOT;
+import static org.onosproject.store.table.flow.impl.FlowTableStoreMessageSubjects.FLOW_TABLE_BACKUP;
+
+/**
+ * Tests of the distributed flow table store across two instances.
+ */
+public class NewDistributedFlowTableStoreTest {
+
+    private static final NodeId NODE1 = new NodeId("node1");
+    private static final NodeId NODE2 = new NodeId("node2");
+    private static final NodeId NODE3 = new NodeId("node3");
+    private static final DeviceId DEVICE = did("device1");
+    private static final int TABLE_ID = 1;
+    private static final FlowTableId TABLE = FlowTableId.valueOf(TABLE_ID);
+    private static final DefaultApplicationId APP_ID = new DefaultApplicationId(1, "test");
+
+    // message handlers of every instance, by subject
+    private final Map<NodeId, Map<MessageSubject, Function<byte[], byte[]>>> cluster = Maps.newConcurrentMap();
+
+    // logical clock shared by the instances
+    private final AtomicLong clock = new AtomicLong();
+
+    private NodeId master = NODE1;
+    // devices of the master, as reported to its periodic backup
+    private Set<DeviceId> masterDevices = Collections.emptySet();
+
+    private NewDistributedFlowTableStore store1;
+    private NewDistributedFlowTableStore store2;
+    private ReplicaInfoManager replicaInfo2;
+
+    private class TestMastershipService extends MastershipServiceAdapter {
+        @Override
+        public NodeId getMasterFor(DeviceId deviceId) {
+            return master;
+        }
+
+        @Override
+        public Set<DeviceId> getDevicesOf(NodeId nodeId) {
+            return nodeId.equals(master) ? masterDevices : Collections.emptySet();
+        }
+
+        @Override
+        public RoleInfo getNodesFor(DeviceId deviceId) {
+            return new RoleInfo(master, ImmutableList.of(master.equals(NODE1) ? NODE2 : NODE1));
+        }
+    }
+
+    private class TestClusterCommunicator extends ClusterCommunicationServiceAdapter {
+        private final Map<MessageSubject, Function<byte[], byte[]>> handlers = Maps.newConcurrentMap();
+
+        TestClusterCommunicator(NodeId nodeId) {
+            cluster.put(nodeId, handlers);
+        }
+
+        @Override
+        public void removeSubscriber(MessageSubject subject) {
+            handlers.remove(subject);
+        }
+
+        @Override
+        public <M> CompletableFuture<Void> unicast(M message, MessageSubject subject,
+                                                   Function<M, byte[]> encoder, NodeId toNodeId) {
+            Function<byte[], byte[]> handler = cluster.getOrDefault(toNodeId, Collections.emptyMap()).get(subject);
+            if (handler == null) {
+                return failed();
+            }
+            handler.apply(encoder.apply(message));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public <M, R> CompletableFuture<R> sendAndReceive(M message, MessageSubject subject,
+                                                          Function<M, byte[]> encoder,
+                                                          Function<byte[], R> decoder, NodeId toNodeId) {
+            Function<byte[], byte[]> handler = cluster.getOrDefault(toNodeId, Collections.emptyMap()).get(subject);
+            if (handler == null) {
+                return failed();
+            }
+            return CompletableFuture.completedFuture(decoder.apply(handler.apply(encoder.apply(message))));
+        }
+
+        @Override
+        public <M, R> void addSubscriber(MessageSubject subject, Function<byte[], M> decoder,
+                                         Function<M, R> handler, Function<R, byte[]> encoder,
+                                         Executor executor) {
+            handlers.put(subject, bytes -> encoder.apply(handler.apply(decoder.apply(bytes))));
+        }
+
+        @Override
+        public <M> void addSubscriber(MessageSubject subject, Function<byte[], M> decoder,
+                                      Consumer<M> handler, Executor executor) {
+            handlers.put(subject, bytes -> {
+                handler.accept(decoder.apply(bytes));
+                return null;
+            });
+        }
+
+        private <R> CompletableFuture<R> failed() {
+            CompletableFuture<R> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("unreachable"));
+            return future;
+        }
+    }
+
+    private NewDistributedFlowTableStore createStore(NodeId nodeId, ReplicaInfoManager replicaInfo) {
+        NewDistributedFlowTableStore store = new NewDistributedFlowTableStore();
+        ControllerNode node = new DefaultControllerNode(nodeId, IpAddress.valueOf("127.0.0.1"));
+        store.clusterService = new ClusterServiceAdapter() {
+            @Override
+            public ControllerNode getLocalNode() {
+                return node;
+            }
+        };
+        store.clusterCommunicator = new TestClusterCommunicator(nodeId);
+        store.replicaInfoManager = replicaInfo;
+        store.mastershipService = new TestMastershipService();
+        store.deviceService = new DeviceServiceAdapter();
+        store.coreService = new CoreServiceAdapter();
+        store.configService = new ComponentConfigAdapter();
+        store.persistenceService = new PersistenceServiceAdapter();
+        store.storageService = new TestStorageService();
+        store.clockService = () -> new LogicalTimestamp(clock.incrementAndGet());
+        store.activate(null);
+        store.initializeSwitchStore(DEVICE);
+        return store;
+    }
+
+    @Before
+    public void setUp() {
+        store1 = createStore(NODE1, new ReplicaInfoManager());
+        replicaInfo2 = new ReplicaInfoManager();
+        store2 = createStore(NODE2, replicaInfo2);
+    }
+
+    @After
+    public void tearDown() {
+        store1.deactivate(null);
+        store2.deactivate(null);
+    }
+
+    private void masterChanged(NodeId newMaster) {
+        master = newMaster;
+        replicaInfo2.listenerRegistry.process(new ReplicaInfoEvent(ReplicaInfoEvent.Type.MASTER_CHANGED, DEVICE,
+                new ReplicaInfo(newMaster, Collections.emptyList())));
+    }
+
+    /**
+     * Tests that a non-master hands out ids from a block leased from the
+     * master, and that the leased ids do not count as entries.
+     */
+    @Test
+    public void testLeasedFlowEntryIds() {
+        assertThat(store2.getNewFlowEntryId(DEVICE, TABLE_ID), is(0));
+        assertThat(store2.getNewFlowEntryId(DEVICE, TABLE_ID), is(1));
+        assertThat(store1.getNewFlowEntryId(DEVICE, TABLE_ID), is(64));
+        assertThat(store1.getFlowEntryCount(DEVICE, FlowTableId.valueOf(TABLE_ID)), is(0));
+    }
+
+    /**
+     * Tests that the unused ids of a lease go back to the master the lease
+     * was taken from when the device master changes.
+     */
+    @Test
+    public void testLeaseReturnedOnMasterChange() {
+        assertThat(store2.getNewFlowEntryId(DEVICE, TABLE_ID), is(0));
+
+        masterChanged(NODE3);
+        masterChanged(NODE1);
+        assertThat(store1.getNewFlowEntryId(DEVICE, TABLE_ID), is(1));
+        assertThat(store1.getNewFlowEntryIds(DEVICE, TABLE_ID, 2).join(), is(ImmutableList.of(2, 3)));
+    }
+
+    /**
+     * Tests that a lease from a former master is given back when the next
+     * lease is taken, even if no mastership event was seen.
+     */
+    @Test
+    public void testStaleLeaseReturned() {
+        assertThat(store2.getNewFlowEntryId(DEVICE, TABLE_ID), is(0));
+
+        master = NODE3;
+        assertThat(store2.getNewFlowEntryId(DEVICE, TABLE_ID), is(-1));
+
+        master = NODE1;
+        assertThat(store1.getNewFlowEntryId(DEVICE, TABLE_ID), is(1));
+        assertThat(store2.getNewFlowEntryId(DEVICE, TABLE_ID), is(64));
+    }
+
+    private static FlowRule flowRule(int entryId) {
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE)
+                .forTable(TABLE_ID)
+                .withCookie(entryId)
+                .withPriority(1)
+                .withSelector(DefaultTrafficSelector.emptySelector())
+                .withTreatment(DefaultTrafficTreatment.emptyTreatment())
+                .makePermanent()
+                .build();
+    }
+
+    private static Map<FlowTableId, Map<Integer, FlowRule>> entries(int... entryIds) {
+        Map<Integer, FlowRule> rules = Maps.newHashMap();
+        for (int entryId : entryIds) {
+            rules.put(entryId, flowRule(entryId));
+        }
+        return ImmutableMap.of(TABLE, rules);
+    }
+
+    private static DeviceTableBackup snapshot(long version, int... entryIds) {
+        return DeviceTableBackup.builder(DEVICE, SNAPSHOT, version)
+                .withEntries(entries(entryIds), ImmutableMap.of())
+                .build();
+    }
+
+    private static DeviceTableBackup delta(long baseVersion, int... entryIds) {
+        return DeviceTableBackup.builder(DEVICE, baseVersion, baseVersion + 1)
+                .withEntries(entries(entryIds), ImmutableMap.of())
+                .build();
+    }
+
+    private Set<DeviceId> sendBackup(NodeId nodeId, DeviceTableBackup backup) {
+        List<DeviceTableBackup> backups = Lists.newArrayList(backup);
+        byte[] reply = cluster.get(nodeId).get(FLOW_TABLE_BACKUP)
+                .apply(NewDistributedFlowTableStore.SERIALIZER.encode(backups));
+        return NewDistributedFlowTableStore.SERIALIZER.decode(reply);
+    }
+
+    private static Set<Integer> entryIds(NewDistributedFlowTableStore store) {
+        Map<FlowTableId, Map<Integer, FlowRule>> entries = store.getFlowEntries(DEVICE);
+        if (entries == null || entries.get(TABLE) == null) {
+            return Collections.emptySet();
+        }
+        return ImmutableSet.copyOf(entries.get(TABLE).keySet());
+    }
+
+    /**
+     * Tests that deltas apply to the version they were built on only, and
+     * that a snapshot replaces the replica whatever its version.
+     */
+    @Test
+    public void testBackupVersions() {
+        assertThat(sendBackup(NODE2, delta(0, 0)), is(empty()));
+        assertThat(sendBackup(NODE2, snapshot(1, 0)), is(ImmutableSet.of(DEVICE)));
+        assertThat(sendBackup(NODE2, delta(1, 1)), is(ImmutableSet.of(DEVICE)));
+        assertThat(entryIds(store2), containsInAnyOrder(0, 1));
+
+        // the delta from version 3 does not apply after a missed one
+        assertThat(sendBackup(NODE2, delta(3, 2)), is(empty()));
+        assertThat(entryIds(store2), containsInAnyOrder(0, 1));
+
+        assertThat(sendBackup(NODE2, snapshot(5, 4)), is(ImmutableSet.of(DEVICE)));
+        assertThat(entryIds(store2), containsInAnyOrder(4));
+    }
+
+    /**
+     * Tests that the master ignores backups of its own devices.
+     */
+    @Test
+    public void testBackupIgnoredByMaster() {
+        assertThat(sendBackup(NODE1, snapshot(1, 0)), is(empty()));
+        assertThat(entryIds(store1), is(empty()));
+    }
+
+    /**
+     * Tests that a handoff is merged into the state of the master, keeping
+     * the entries the master already holds.
+     */
+    @Test
+    public void testHandoffMerged() {
+        DeviceTableBackup first = DeviceTableBackup.builder(DEVICE, SNAPSHOT, 0)
+                .withEntries(entries(0), ImmutableMap.of())
+                .asHandoff()
+                .build();
+        FlowRule other = flowRule(2);
+        DeviceTableBackup second = DeviceTableBackup.builder(DEVICE, SNAPSHOT, 0)
+                .withEntries(ImmutableMap.of(TABLE, ImmutableMap.of(0, other, 1, flowRule(1))), ImmutableMap.of())
+                .asHandoff()
+                .build();
+
+        assertThat(sendBackup(NODE1, first), is(ImmutableSet.of(DEVICE)));
+        assertThat(sendBackup(NODE1, second), is(ImmutableSet.of(DEVICE)));
+        assertThat(entryIds(store1), containsInAnyOrder(0, 1));
+        assertThat(store1.getFlowEntries(DEVICE, TABLE).get(0), is(flowRule(0)));
+        // the handed over ids are not given out again
+        assertThat(store1.getNewFlowEntryId(DEVICE, TABLE_ID), is(2));
+    }
+
+    /**
+     * Tests that a new master takes over the replica it holds and backs it
+     * up in turn, and that it hands its state over when it loses the device.
+     */
+    @Test
+    public void testPromoteAndHandOff() {
+        assertThat(sendBackup(NODE2, snapshot(1, 0, 1)), is(ImmutableSet.of(DEVICE)));
+
+        replicaInfo2.mastershipService = new TestMastershipService();
+        masterDevices = ImmutableSet.of(DEVICE);
+        masterChanged(NODE2);
+        // the promoted replica is backed up to the former master
+        assertAfter(1000, () -> assertThat(entryIds(store1), containsInAnyOrder(0, 1)));
+
+        // the ids of the replica are not given out again
+        int entryId = store2.getNewFlowEntryId(DEVICE, TABLE_ID);
+        assertThat(entryId, is(2));
+        store2.addFlowEntry(DEVICE, TABLE, flowRule(entryId));
+
+        masterChanged(NODE1);
+        assertAfter(1000, () -> assertThat(entryIds(store1), containsInAnyOrder(0, 1, 2)));
+    }
+
+    private static StoredFlowTableEntry flowTable() {
+        OFFlowTable ofFlowTable = new OFFlowTable();
+        ofFlowTable.setTableId((byte) TABLE_ID);
+        ofFlowTable.setTableName("FirstEntryTable");
+        ofFlowTable.setTableSize(128);
+        ofFlowTable.setTableType(OFTableType.OF_MM_TABLE);
+        ofFlowTable.setMatchFieldList(Lists.newArrayList());
+        return new DefaultFlowTableEntry(DefaultFlowTable.builder()
+                .forDevice(DEVICE)
+                .forTable(TABLE_ID)
+                .fromApp(APP_ID)
+                .withFlowTable(ofFlowTable)
+                .build());
+    }
+
+    private static DeviceTableBackup tableSnapshot(long version, StoredFlowTableEntry... tables) {
+        Map<FlowTableId, StoredFlowTableEntry> tableMap = Maps.newHashMap();
+        for (StoredFlowTableEntry table : tables) {
+            tableMap.put(table.id(), table);
+        }
+        return DeviceTableBackup.builder(DEVICE, SNAPSHOT, version)
+                .withTables(tableMap, ImmutableSet.of())
+                .build();
+    }
+
+    private static Set<FlowTableId> appTableIds(NewDistributedFlowTableStore store) {
+        Set<FlowTableId> ids = Sets.newHashSet();
+        store.getFlowTablesByAppId(APP_ID).forEach(table -> ids.add(table.id()));
+        return ids;
+    }
+
+    /**
+     * Tests that a new master publishes the tables of the replica it took
+     * over, and withdraws the tables the former master removed without
+     * withdrawing them.
+     */
+    @Test
+    public void testPromotePublishesAppTables() {
+        assertThat(sendBackup(NODE2, tableSnapshot(1, flowTable())), is(ImmutableSet.of(DEVICE)));
+        // only the master publishes the tables of a device
+        assertThat(appTableIds(store2), is(empty()));
+
+        masterChanged(NODE2);
+        assertAfter(1000, () -> assertThat(appTableIds(store2), containsInAnyOrder(TABLE)));
+
+        masterChanged(NODE1);
+        // the table is handed over to the master taking over
+        assertAfter(1000, () -> assertThat(appTableIds(store1), containsInAnyOrder(TABLE)));
+        // which then removes it, but the removal does not reach this instance
+        assertThat(sendBackup(NODE2, tableSnapshot(2)), is(ImmutableSet.of(DEVICE)));
+        assertThat(appTableIds(store2), containsInAnyOrder(TABLE));
+
+        masterChanged(NODE2);
+        assertAfter(1000, () -> assertThat(appTableIds(store2), is(empty())));
+    }
+
+    private static OFFlowTableResource tableResource() {
+        Map<OFTableType, OFTableResource> resources = Maps.newHashMap();
+        for (byte type = 0; type < OFTableType.OF_MAX_TABLE_TYPE.getValue(); type++) {
+            OFTableResource resource = new OFTableResource();
+            resource.setTableType(OFTableType.values()[type]);
+            resource.setTableNum((byte) 4);
+            resources.put(OFTableType.values()[type], resource);
+        }
+        OFFlowTableResource resource = new OFFlowTableResource();
+        resource.setTableResourcesMap(resources);
+        return resource;
+    }
+
+    /**
+     * Tests that global table ids given back by a non-master go back to the
+     * master, which allocates them again.
+     */
+    @Test
+    public void testFreeFlowTableIdsReturnedToMaster() {
+        store1.setFlowTableNoBase(DEVICE, tableResource());
+        assertThat(store1.getNewGlobalFlowTableIds(DEVICE, OFTableType.OF_MM_TABLE, 2).join(),
+                   is(ImmutableList.of(0, 1)));
+
+        store2.addFreeFlowTableIds(DEVICE, OFTableType.OF_MM_TABLE, ImmutableList.of(0));
+        assertThat(store2.getNewGlobalFlowTableIds(DEVICE, OFTableType.OF_MM_TABLE, 2).join(),
+                   is(ImmutableList.of(0, 2)));
+    }
+
+    /**
+     * Tests that table ids are only handed out for as many tables of a type
+     * as the device reported, without running into the ids of the next type.
+     */
+    @Test
+    public void testTableIdsBoundedByTableNum() {
+        store1.setFlowTableNoBase(DEVICE, tableResource());
+        assertThat(store1.getNewGlobalFlowTableIds(DEVICE, OFTableType.OF_MM_TABLE, 6).join(),
+                   is(ImmutableList.of(0, 1, 2, 3)));
+        assertThat(store1.getNewGlobalFlowTableId(DEVICE, OFTableType.OF_MM_TABLE), is(-1));
+        assertThat(store2.getNewGlobalFlowTableIds(DEVICE, OFTableType.OF_MM_TABLE, 1).join().isEmpty(),
+                   is(true));
+        assertThat(store1.getNewGlobalFlowTableId(DEVICE, OFTableType.values()[1]), is(4));
+
+        store1.addFreeFlowTableIds(DEVICE, OFTableType.OF_MM_TABLE, ImmutableList.of(2));
+        assertThat(store1.getNewGlobalFlowTableId(DEVICE, OFTableType.OF_MM_TABLE), is(2));
+    }
+}
@@ -27,6 +27,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -46,6 +47,8 @@ public final class DefaultPofPacketContext implements PofPacketContext {
     private final PofSwitch sw;
     private final OFPacketIn pktin;
     private OFPacketOut pktout = null;
+    private volatile Ethernet parsed;
+    private volatile boolean parseFailed;
 
     private final boolean isBuffered;
 
@@ -71,16 +74,7 @@ public final class DefaultPofPacketContext implements PofPacketContext {
         if (isBuilt.getAndSet(true)) {
             return;
         }
-        pktout = (OFPacketOut) sw.factory().getOFMessage(OFType.PACKET_OUT);
-        pktout.setXid(pktin.getXid());
-        pktout.setLength((short) 2360);
-        pktout.setType(OFType.PACKET_OUT);
-        pktout.setBufferId(-1);
-        pktout.setInPort(65535)
-                .setActionFactory(sw.factory());
-        pktout.setActionsLength((short) actionList.size());
-        pktout.setActions(actionList);
-        pktout.setPacketData(pktin.getPacketData());
+        pktout = packetOut(pktin.getPacketData(), actionList);
     }
 
     @Override
@@ -88,28 +82,48 @@ public final class DefaultPofPacketContext implements PofPacketContext {
         if (isBuilt.getAndSet(true)) {
             return;
         }
-        pktout = (OFPacketOut) sw.factory().getOFMessage(OFType.PACKET_OUT);
-        pktout.setXid(pktin.getXid());
-        pktout.setLength((short) 2360);
-        pktout.setType(OFType.PACKET_OUT);
-        pktout.setBufferId(-1);
-        pktout.setInPort(65535)
-        .setActionFactory(sw.factory());
-        pktout.setActionsLength((short) actionList.size());
-        pktout.setActions(actionList);
-        pktout.setPacketData(ethFrame.serialize());
+        pktout = packetOut(ethFrame.serialize(), actionList);
+    }
+
+    private OFPacketOut packetOut(byte[] data, List<OFAction> actionList) {
+        OFPacketOut out = (OFPacketOut) sw.factory().getOFMessage(OFType.PACKET_OUT);
+        out.setXid(pktin.getXid());
+        out.setLengthU(OFPacketOut.MINIMUM_LENGTH + data.length);
+        out.setType(OFType.PACKET_OUT);
+        out.setBufferId(-1);
+        out.setInPort(65535)
+                .setActionFactory(sw.factory());
+        out.setActionsLength((short) actionList.size());
+        out.setActions(actionList);
+        out.setPacketData(data);
+        return out;
     }
 
     @Override
     public Ethernet parsed() {
         checkPermission(PACKET_READ);
 
+        Ethernet eth = parsed;
+        if (eth == null && !parseFailed) {
+            synchronized (this) {
+                eth = parsed;
+                if (eth == null && !parseFailed) {
+                    eth = parse();
+                    parsed = eth;
+                    parseFailed = eth == null;
+                }
+            }
+        }
+        return eth;
+    }
+
+    private Ethernet parse() {
+        byte[] data = pktin.getPacketData();
         try {
-            return Ethernet.deserializer().deserialize(pktin.getPacketData(), 0, pktin.getPacketData().length);
+            return Ethernet.deserializer().deserialize(data, 0, data.length);
         } catch (BufferUnderflowException | NullPointerException |
                 DeserializationException e) {
-            Logger loG = LoggerFactory.getLogger(getClass());
-            loG.error("packet deserialization problem : {}", e.getMessage());
+            log.error("packet deserialization problem : {}", e.getMessage());
             return null;
         }
     }
@@ -152,6 +166,13 @@ public final class DefaultPofPacketContext implements PofPacketContext {
 
     }
 
+    @Override
+    public ByteBuffer unparsedBuffer() {
+        checkPermission(PACKET_READ);
+
+        return ByteBuffer.wrap(pktin.getPacketData());
+    }
+
     private OFActionOutput buildOutput(Integer port) {
         OFActionOutput act = (OFActionOutput) sw.factory().getAction(OFActionType.OUTPUT);
         act.setPortId(port);
@@ -18,6 +18,7 @@ package org.onosproject.pof.controller;
 import org.onlab.packet.Ethernet;
 import org.onosproject.floodlightpof.protocol.action.OFAction;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Optional;
 
@@ -66,7 +67,8 @@ public interface PofPacketContext {
     void build(Ethernet ethFrame, List<OFAction> actionList);
 
     /**
-     * Provided a handle onto the parsed payload.
+     * Provided a handle onto the parsed payload. The payload is parsed on
+     * the first call only.
      *
      * @return the parsed form of the payload.
      */
@@ -79,6 +81,16 @@ public interface PofPacketContext {
      */
     byte[] unparsed();
 
+    /**
+     * Provide a view of the unparsed data without copying it. The buffer
+     * is backed by the packet-in message and must not be modified.
+     *
+     * @return the unparsed form of the payload.
+     */
+    default ByteBuffer unparsedBuffer() {
+        return ByteBuffer.wrap(unparsed());
+    }
+
     /**
      * Provide the dpid of the switch where the packet in arrived.
      *
@@ -52,6 +52,21 @@ public interface PofSwitch {
      */
     void sendMsg(List<OFMessage> msgs);
 
+    /**
+     * Returns when the work confirmed by a barrier request began: the send
+     * time of the first flow or table modification written ahead of it
+     * since the previous barrier, or of the barrier itself if there was
+     * none. Only the recent barriers are remembered, and only while
+     * outgoing messages are listened to.
+     *
+     * @param xid transaction id of the barrier request
+     * @return start time in nanoseconds as of {@link System#nanoTime()},
+     *         or -1 if unknown
+     */
+    default long barrierStartNanos(int xid) {
+        return -1;
+    }
+
     /**
      * Handle a message from the switch.
      * @param fromSwitch the message to handle
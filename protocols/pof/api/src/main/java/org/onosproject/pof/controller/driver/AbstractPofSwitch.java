@@ -17,7 +17,7 @@
 package org.onosproject.pof.controller.driver;
 
 import com.google.common.collect.Lists;
-import org.jboss.netty.channel.Channel;
+import io.netty.channel.Channel;
 import org.onlab.packet.IpAddress;
 import org.onosproject.floodlightpof.protocol.OFError;
 import org.onosproject.floodlightpof.protocol.OFFeaturesReply;
@@ -43,15 +43,20 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.onlab.util.Tools.groupedThreads;
@@ -68,12 +73,26 @@ public abstract class AbstractPofSwitch extends AbstractHandlerBehaviour
     private Channel channel;
     protected String channelId;
 
+    // batches held back while the channel is above its write buffer high
+    // water mark, in the order they were sent
+    private static final int MAX_DEFERRED_BATCHES = 10000;
+    private final Queue<List<OFMessage>> deferredMsgs = new ArrayDeque<>();
+    private volatile boolean deferring;
+
     private boolean connected;
     protected boolean startDriverHandshakeCalled = false;
     private Dpid dpid;
     private PofAgent agent;
     private final AtomicInteger xidCounter = new AtomicInteger(0);
 
+    // start times of the last barriers sent, in slots picked by their xid;
+    // a slot being written holds an xid that can never map to it
+    private static final int BARRIER_SLOTS = 256;
+    private final AtomicIntegerArray barrierXids = emptyBarrierSlots();
+    private final AtomicLongArray barrierStarts = new AtomicLongArray(BARRIER_SLOTS);
+    // send time of the first flow or table mod not yet followed by a barrier
+    private final AtomicLong firstModNanos = new AtomicLong();
+
     protected Map<Integer, OFPhysicalPort> ports = new ConcurrentHashMap<Integer, OFPhysicalPort>();
     //wenjian
 
@@ -167,7 +186,7 @@ public abstract class AbstractPofSwitch extends AbstractHandlerBehaviour
             } else {
                 // not transitioning to MASTER
                 log.warn("Dropping message for switch {} (role: {}, connected: {}): {}",
-                         dpid, role, channel.isConnected(), msgs);
+                         dpid, role, channel.isActive(), msgs);
             }
         }
     }
@@ -178,6 +197,8 @@ public abstract class AbstractPofSwitch extends AbstractHandlerBehaviour
             msgs.forEach(m -> {
                 if (m.getType() == OFType.PACKET_OUT ||
                         m.getType() == OFType.FLOW_MOD ||
+                        m.getType() == OFType.TABLE_MOD ||
+                        m.getType() == OFType.BARRIER_REQUEST ||
                         //wenjian, stats_request is multipart_request in pof
                         //m.getType() == OFType.STATS_REQUEST) {
                         m.getType() == OFType.MULTIPART_REQUEST) {
@@ -187,13 +208,86 @@ public abstract class AbstractPofSwitch extends AbstractHandlerBehaviour
         }
     }
 
+    private static AtomicIntegerArray emptyBarrierSlots() {
+        AtomicIntegerArray xids = new AtomicIntegerArray(BARRIER_SLOTS);
+        for (int slot = 0; slot < BARRIER_SLOTS; slot++) {
+            xids.set(slot, ~slot);
+        }
+        return xids;
+    }
+
+    private void timeBarriers(List<OFMessage> msgs) {
+        // runs on the write path, so it only touches the preallocated slots
+        if (pofOutgoingMsgListener.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < msgs.size(); i++) {
+            OFMessage m = msgs.get(i);
+            OFType type = m.getType();
+            if (type == OFType.FLOW_MOD || type == OFType.TABLE_MOD) {
+                firstModNanos.compareAndSet(0, now);
+            } else if (type == OFType.BARRIER_REQUEST) {
+                long start = firstModNanos.getAndSet(0);
+                int slot = m.getXid() & (BARRIER_SLOTS - 1);
+                barrierXids.set(slot, ~slot);
+                barrierStarts.set(slot, start != 0 ? start : now);
+                barrierXids.set(slot, m.getXid());
+            }
+        }
+    }
+
+    @Override
+    public long barrierStartNanos(int xid) {
+        int slot = xid & (BARRIER_SLOTS - 1);
+        if (barrierXids.get(slot) != xid) {
+            return -1;
+        }
+        long start = barrierStarts.get(slot);
+        // the slot was reused by a later barrier meanwhile
+        return barrierXids.get(slot) == xid ? start : -1;
+    }
+
     private void sendMsgsOnChannel(List<OFMessage> msgs) {
-        if (channel.isConnected()) {
-            channel.write(msgs);
-            countOutgoingMsg(msgs);
-        } else {
+        if (!channel.isActive()) {
             log.warn("Dropping messages for switch {} because channel is not connected: {}",
                      dpid, msgs);
+            return;
+        }
+        if (!deferring && channel.isWritable()) {
+            writeOnChannel(msgs);
+            return;
+        }
+        synchronized (deferredMsgs) {
+            if (!deferring && channel.isWritable()) {
+                writeOnChannel(msgs);
+            } else if (deferredMsgs.size() < MAX_DEFERRED_BATCHES) {
+                // keep later batches behind the deferred ones
+                deferring = true;
+                deferredMsgs.add(msgs);
+            } else {
+                log.warn("Dropping messages for switch {} because its channel is backed up: {}",
+                         dpid, msgs);
+            }
+        }
+    }
+
+    private void writeOnChannel(List<OFMessage> msgs) {
+        timeBarriers(msgs);
+        channel.writeAndFlush(msgs);
+        countOutgoingMsg(msgs);
+    }
+
+    @Override
+    public final void flushDeferredMsgs() {
+        synchronized (deferredMsgs) {
+            while (channel.isActive() && channel.isWritable() && !deferredMsgs.isEmpty()) {
+                writeOnChannel(deferredMsgs.poll());
+            }
+            if (!channel.isActive()) {
+                deferredMsgs.clear();
+            }
+            deferring = !deferredMsgs.isEmpty();
         }
     }
 
@@ -228,7 +322,7 @@ public abstract class AbstractPofSwitch extends AbstractHandlerBehaviour
     @Override
     public final void setChannel(Channel channel) {
         this.channel = channel;
-        final SocketAddress address = channel.getRemoteAddress();
+        final SocketAddress address = channel.remoteAddress();
         if (address instanceof InetSocketAddress) {
             final InetSocketAddress inetAddress = (InetSocketAddress) address;
             final IpAddress ipAddress = IpAddress.valueOf(inetAddress.getAddress());
@@ -579,7 +673,7 @@ public abstract class AbstractPofSwitch extends AbstractHandlerBehaviour
     @Override
     public String toString() {
         return this.getClass().getName() + " [" + ((channel != null)
-                ? channel.getRemoteAddress() : "?")
+                ? channel.remoteAddress() : "?")
                 + " DPID[" + ((getStringId() != null) ? getStringId() : "?") + "]]";
     }
 
@@ -15,7 +15,7 @@
  */
 package org.onosproject.pof.controller.driver;
 
-import org.jboss.netty.channel.Channel;
+import io.netty.channel.Channel;
 import org.onosproject.floodlightpof.protocol.OFError;
 import org.onosproject.floodlightpof.protocol.OFFeaturesReply;
 import org.onosproject.floodlightpof.protocol.OFMessage;
@@ -185,6 +185,12 @@ public interface PofSwitchDriver extends PofSwitch, HandlerBehaviour {
      */
     void setConnected(boolean connected);
 
+    /**
+     * Writes the messages held back while the channel was not writable,
+     * for as long as the channel stays writable.
+     */
+    void flushDeferredMsgs();
+
     /**
      * Initialises the behaviour.
      * @param dpid a dpid
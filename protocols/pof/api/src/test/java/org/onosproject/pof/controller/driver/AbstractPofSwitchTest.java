@@ -15,11 +15,7 @@
  */
 package org.onosproject.pof.controller.driver;
 
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelConfig;
-import org.jboss.netty.channel.ChannelFactory;
-import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.channel.ChannelPipeline;
+import io.netty.channel.embedded.EmbeddedChannel;
 import org.junit.Before;
 import org.junit.Test;
 import org.onosproject.pof.controller.Dpid;
@@ -27,11 +23,11 @@ import org.onosproject.pof.controller.PofEventListener;
 import org.onosproject.pof.controller.RoleState;
 import org.onosproject.floodlightpof.protocol.OFMessage;
 
-import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 
@@ -42,6 +38,7 @@ public class AbstractPofSwitchTest {
 
     PofSwitchImpl ofSwitch;
     TestExecutorService executorService;
+    EmbeddedChannel channel;
 
     /**
      * Mock executor service that tracks submits.
@@ -70,7 +67,8 @@ public class AbstractPofSwitchTest {
 
         executorService = new TestExecutorService();
         ofSwitch.executorMsgs = executorService;
-        Channel channel = new MockChannel();
+        // an embedded channel is active and keeps what is written to it
+        channel = new EmbeddedChannel();
         ofSwitch.setChannel(channel);
         ofSwitch.role = RoleState.MASTER;
         ofSwitch.addEventListener(new PofEventListenerAdapter());
@@ -109,6 +107,32 @@ public class AbstractPofSwitchTest {
         assertThat(executorService.submittedMessages().get(0), is(ofStatsRequest));
     }
 
+    /**
+     * Tests that messages sent while the channel is not writable are held
+     * back and written in order once it is writable again.
+     */
+    @Test
+    public void testDeferredWhileNotWritable() {
+        OFMessage ofFlowMod = new MockOfFlowMod();
+        OFMessage ofPacketOut = new MockOfPacketOut();
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        ofSwitch.sendMsg(ofFlowMod);
+        assertThat(executorService.submittedMessages(), hasSize(0));
+        assertThat(channel.outboundMessages(), hasSize(0));
+
+        // still held back behind the first message, even once writable
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        ofSwitch.sendMsg(ofPacketOut);
+        assertThat(channel.outboundMessages(), hasSize(0));
+
+        ofSwitch.flushDeferredMsgs();
+        assertThat(executorService.submittedMessages(), contains(ofFlowMod, ofPacketOut));
+        assertThat(channel.outboundMessages(), hasSize(2));
+
+        ofSwitch.sendMsg(ofFlowMod);
+        assertThat(channel.outboundMessages(), hasSize(3));
+    }
+
     protected class PofSwitchImpl extends AbstractPofSwitch {
 
         @Override
@@ -136,148 +160,4 @@ public class AbstractPofSwitchTest {
         public void handleMessage(Dpid dpid, OFMessage msg) {
         }
     }
-
-    private class MockChannel implements Channel {
-
-        @Override
-        public Integer getId() {
-            return null;
-        }
-
-        @Override
-        public ChannelFactory getFactory() {
-            return null;
-        }
-
-        @Override
-        public Channel getParent() {
-            return null;
-        }
-
-        @Override
-        public ChannelConfig getConfig() {
-            return null;
-        }
-
-        @Override
-        public ChannelPipeline getPipeline() {
-            return null;
-        }
-
-        @Override
-        public boolean isOpen() {
-            return false;
-        }
-
-        @Override
-        public boolean isBound() {
-            return false;
-        }
-
-        @Override
-        public boolean isConnected() {
-            // we assume that the channel is connected
-            return true;
-        }
-
-        @Override
-        public SocketAddress getLocalAddress() {
-            return null;
-        }
-
-        @Override
-        public SocketAddress getRemoteAddress() {
-            return null;
-        }
-
-        @Override
-        public ChannelFuture write(Object message) {
-            return null;
-        }
-
-        @Override
-        public ChannelFuture write(Object message, SocketAddress remoteAddress) {
-            return null;
-        }
-
-        @Override
-        public ChannelFuture bind(SocketAddress localAddress) {
-            return null;
-        }
-
-        @Override
-        public ChannelFuture connect(SocketAddress remoteAddress) {
-            return null;
-        }
-
-        @Override
-        public ChannelFuture disconnect() {
-            return null;
-        }
-
-        @Override
-        public ChannelFuture unbind() {
-            return null;
-        }
-
-        @Override
-        public ChannelFuture close() {
-            return null;
-        }
-
-        @Override
-        public ChannelFuture getCloseFuture() {
-            return null;
-        }
-
-        @Override
-        public int getInterestOps() {
-            return 0;
-        }
-
-        @Override
-        public boolean isReadable() {
-            return false;
-        }
-
-        @Override
-        public boolean isWritable() {
-            return false;
-        }
-
-        @Override
-        public ChannelFuture setInterestOps(int interestOps) {
-            return null;
-        }
-
-        @Override
-        public ChannelFuture setReadable(boolean readable) {
-            return null;
-        }
-
-        @Override
-        public boolean getUserDefinedWritability(int index) {
-            return false;
-        }
-
-        @Override
-        public void setUserDefinedWritability(int index, boolean isWritable) {
-
-        }
-
-        @Override
-        public Object getAttachment() {
-            return null;
-        }
-
-        @Override
-        public void setAttachment(Object attachment) {
-
-        }
-
-        @Override
-        public int compareTo(Channel o) {
-            return 0;
-        }
-    }
 }
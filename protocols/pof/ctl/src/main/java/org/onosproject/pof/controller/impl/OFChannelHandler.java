@@ -17,14 +17,11 @@
 //CHECKSTYLE:OFF
 package org.onosproject.pof.controller.impl;
 
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.channel.ChannelStateEvent;
-import org.jboss.netty.channel.ExceptionEvent;
-import org.jboss.netty.channel.MessageEvent;
-import org.jboss.netty.handler.timeout.IdleStateAwareChannelHandler;
-import org.jboss.netty.handler.timeout.IdleStateEvent;
-import org.jboss.netty.handler.timeout.ReadTimeoutException;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.ReadTimeoutException;
 import org.onosproject.floodlightpof.protocol.OFBarrierReply;
 import org.onosproject.floodlightpof.protocol.OFEchoReply;
 import org.onosproject.floodlightpof.protocol.OFEchoRequest;
@@ -64,7 +61,7 @@ import java.util.concurrent.RejectedExecutionException;
  * Channel handler deals with the switch connection and dispatches
  * switch messages to the appropriate locations.
  */
-class OFChannelHandler extends IdleStateAwareChannelHandler {
+class OFChannelHandler extends ChannelInboundHandlerAdapter {
     private static final Logger log = LoggerFactory.getLogger(OFChannelHandler.class);
 
     private static final String RESET_BY_PEER = "Connection reset by peer";
@@ -304,7 +301,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
                 drep.setHardwareDescription("POF Switch");
                 drep.setSoftwareDescription("1.4.5");
                 log.info("Received switch description reply {} from switch at {}",
-                         drep, h.channel.getRemoteAddress());
+                         drep, h.channel.remoteAddress());
                 h.sw = h.controller.getOFSwitchInstance(h.thisdpid, drep);
                 h.sw.setFeaturesReply(h.featuresReply);
                 h.sw.setConnected(true);
@@ -520,6 +517,11 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
                 h.dispatchMessage(m);
             }
 
+            @Override
+            void processOFMultipartReply(OFChannelHandler h, OFMessage m) {
+                h.dispatchMessage(m);
+            }
+
             @Override
             void processOFExperimenter(OFChannelHandler h, OFExperimenter m)
                     throws SwitchStateException {
@@ -820,6 +822,9 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
                 processOFStatisticsReply(h, (OFFlowTableResource)m);
                 //processOFFlowTableResourceReply(h, (OFFlowTableResource) m);
                 break;
+            case MULTIPART_REPLY:
+                processOFMultipartReply(h, m);
+                break;
             case EXPERIMENTER:
                 processOFExperimenter(h, (OFExperimenter) m);
                 break;
@@ -839,7 +844,6 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
             case QUEUE_GET_CONFIG_REQUEST:
             case BARRIER_REQUEST:
             //case STATS_REQUEST: // multipart request in 1.3//wenjian
-            case MULTIPART_REPLY:
             case FEATURES_REQUEST:
             case FLOW_MOD:
             case GROUP_MOD:
@@ -871,7 +875,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
                 throws IOException, SwitchStateException {
             // we only expect hello in the WAIT_HELLO state
             log.warn("Received Hello outside WAIT_HELLO state; switch {} is not complaint.",
-                     h.channel.getRemoteAddress());
+                     h.channel.remoteAddress());
         }
 
         void processOFBarrierReply(OFChannelHandler h, OFBarrierReply m)
@@ -884,7 +888,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
             /*wenjian
             if (h.ofVersion == null) {
                 log.error("No OF version set for {}. Not sending Echo REPLY",
-                        h.channel.getRemoteAddress());
+                        h.channel.remoteAddress());
                 return;
             }
 
@@ -902,7 +906,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
 //            reply.setXid(m.getXid());
             List<OFMessage> rlist = new ArrayList<OFMessage>(1);
             rlist.add(reply);
-            h.channel.write(rlist);
+            h.channel.writeAndFlush(rlist);
         }
 
         void processOFEchoReply(OFChannelHandler h, OFEchoReply m)
@@ -954,6 +958,12 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
             unhandledMessageReceived(h, m);
         }
 
+        // answers the flow statistics requests, only sent once the switch is active
+        void processOFMultipartReply(OFChannelHandler h, OFMessage m)
+                throws IOException {
+            unhandledMessageReceived(h, m);
+        }
+
         //edited by hdy to save table resource to sw.
         void processOFFlowTableResourceReply(OFChannelHandler h, OFFlowTableResource m)
                 throws IOException, SwitchStateException {
@@ -994,17 +1004,15 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
     //*************************
 
     @Override
-    public void channelConnected(ChannelHandlerContext ctx,
-            ChannelStateEvent e) throws Exception {
-        channel = e.getChannel();
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        channel = ctx.channel();
         log.info("New switch connection from {}",
-                channel.getRemoteAddress());
+                channel.remoteAddress());
         setState(ChannelState.WAIT_HELLO);
     }
 
     @Override
-    public void channelDisconnected(ChannelHandlerContext ctx,
-            ChannelStateEvent e) throws Exception {
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         log.info("Switch disconnected callback for sw:{}. Cleaning up ...",
                 getSwitchInfoString());
         if (thisdpid != 0) {
@@ -1033,46 +1041,46 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
     }
 
     @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
             throws Exception {
-        if (e.getCause() instanceof ReadTimeoutException) {
+        if (cause instanceof ReadTimeoutException) {
             // switch timeout
             log.error("Disconnecting switch {} due to read timeout",
                     getSwitchInfoString());
-            ctx.getChannel().close();
-        } else if (e.getCause() instanceof HandshakeTimeoutException) {
+            ctx.channel().close();
+        } else if (cause instanceof HandshakeTimeoutException) {
             log.error("Disconnecting switch {}: failed to complete handshake",
                     getSwitchInfoString());
-            ctx.getChannel().close();
-        } else if (e.getCause() instanceof ClosedChannelException) {
+            ctx.channel().close();
+        } else if (cause instanceof ClosedChannelException) {
             log.debug("Channel for sw {} already closed", getSwitchInfoString());
-        } else if (e.getCause() instanceof IOException) {
-            if (!e.getCause().getMessage().equals(RESET_BY_PEER) &&
-                    !e.getCause().getMessage().equals(BROKEN_PIPE)) {
+        } else if (cause instanceof IOException) {
+            if (!RESET_BY_PEER.equals(cause.getMessage()) &&
+                    !BROKEN_PIPE.equals(cause.getMessage())) {
                 log.error("Disconnecting switch {} due to IO Error: {}",
-                          getSwitchInfoString(), e.getCause().getMessage());
+                          getSwitchInfoString(), cause.getMessage());
                 if (log.isDebugEnabled()) {
                     // still print stack trace if debug is enabled
-                    log.debug("StackTrace for previous Exception: ", e.getCause());
+                    log.debug("StackTrace for previous Exception: ", cause);
                 }
             }
-            ctx.getChannel().close();
-        } else if (e.getCause() instanceof SwitchStateException) {
+            ctx.channel().close();
+        } else if (cause instanceof SwitchStateException) {
             log.error("Disconnecting switch {} due to switch state error: {}",
-                    getSwitchInfoString(), e.getCause().getMessage());
+                    getSwitchInfoString(), cause.getMessage());
             if (log.isDebugEnabled()) {
                 // still print stack trace if debug is enabled
-                log.debug("StackTrace for previous Exception: ", e.getCause());
+                log.debug("StackTrace for previous Exception: ", cause);
             }
-            ctx.getChannel().close();
+            ctx.channel().close();
         }
-        else if (e.getCause() instanceof RejectedExecutionException) {
+        else if (cause instanceof RejectedExecutionException) {
             log.warn("Could not process message: queue full");
         } else {
             log.error("Error while processing message from switch "
                     + getSwitchInfoString()
-                    + "state " + this.state, e.getCause());
-            ctx.getChannel().close();
+                    + "state " + this.state, cause);
+            ctx.channel().close();
         }
     }
 
@@ -1082,19 +1090,36 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
     }
 
     @Override
-    public void channelIdle(ChannelHandlerContext ctx, IdleStateEvent e)
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt)
             throws Exception {
-        List<OFMessage> msglist = new ArrayList<OFMessage>(1);
-        msglist.add(factory.getOFMessage(OFType.ECHO_REQUEST));
-        e.getChannel().write(msglist);
+        if (evt instanceof IdleStateEvent) {
+            List<OFMessage> msglist = new ArrayList<OFMessage>(1);
+            msglist.add(factory.getOFMessage(OFType.ECHO_REQUEST));
+            ctx.channel().writeAndFlush(msglist);
+        } else {
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx)
+            throws Exception {
+        // the outbound buffer crossed one of the write buffer water marks;
+        // the switch holds back its messages until it drains below the low one
+        log.debug("Channel for sw {} is {}writable", getSwitchInfoString(),
+                  ctx.channel().isWritable() ? "" : "not ");
+        if (sw != null && ctx.channel().isWritable()) {
+            sw.flushDeferredMsgs();
+        }
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+    public void channelRead(ChannelHandlerContext ctx, Object msg)
             throws Exception {
-        if (e.getMessage() instanceof List) {
+        if (msg instanceof List) {
             @SuppressWarnings("unchecked")
-            List<OFMessage> msglist = (List<OFMessage>) e.getMessage();
+            List<OFMessage> msglist = (List<OFMessage>) msg;
 
 
             for (OFMessage ofm : msglist) {
@@ -1102,7 +1127,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
                 state.processOFMessage(this, ofm);
             }
         } else {
-            state.processOFMessage(this, (OFMessage) e.getMessage());
+            state.processOFMessage(this, (OFMessage) msg);
         }
     }
 
@@ -1134,10 +1159,10 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
             return sw.toString();
         }
         String channelString;
-        if (channel == null || channel.getRemoteAddress() == null) {
+        if (channel == null || channel.remoteAddress() == null) {
             channelString = "?";
         } else {
-            channelString = channel.getRemoteAddress().toString();
+            channelString = channel.remoteAddress().toString();
         }
         String dpidString;
         if (featuresReply == null) {
@@ -1164,7 +1189,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
     private void sendHandshakeHelloMessage() throws IOException {
         List<OFMessage> msg = new ArrayList<OFMessage>();
         msg.add(factory.getOFMessage(OFType.HELLO));
-        channel.write(msg);
+        channel.writeAndFlush(msg);
     }
 
     /**
@@ -1174,7 +1199,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
     private void sendHandshakeFeaturesRequestMessage() throws IOException {
         List<OFMessage> msg = new ArrayList<OFMessage>();
         msg.add(factory.getOFMessage(OFType.FEATURES_REQUEST));
-        channel.write(msg);
+        channel.writeAndFlush(msg);
     }
 
     /**
@@ -1193,7 +1218,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
         msglist.add(config);
         OFGetConfigRequest getConfigRequest = (OFGetConfigRequest) factory.getOFMessage(OFType.GET_CONFIG_REQUEST);
         msglist.add(getConfigRequest);
-        channel.write(msglist);
+        channel.writeAndFlush(msglist);
     }
     ChannelState getStateForTesting() {
         return state;
@@ -14,13 +14,15 @@
  * limitations under the License.
  */
 
+
 package org.onosproject.pof.controller.impl;
 
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.onosproject.floodlightpof.protocol.OFMessage;
 import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
 import org.onosproject.floodlightpof.protocol.factory.OFMessageFactory;
@@ -29,43 +31,37 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
-//import org.onosproject.floodlightpof.protocol.OFFactories;
-//import org.onosproject.floodlightpof.protocol.OFMessageReader;
-
-
 /**
- * Decode an pof message from a Channel, for use in a netty pipeline.
+ * Decodes POF messages from the channel.
+ * <p>
+ * The POF message parsers work on Netty 3 channel buffers, so the readable
+ * bytes of the (pooled, usually direct) inbound buffer are handed to them
+ * through a wrapper sharing the same memory instead of being copied.
  */
-public class OFMessageDecoder extends FrameDecoder {
+public class OFMessageDecoder extends ByteToMessageDecoder {
 
     OFMessageFactory factory = new BasicFactory();
     protected static Logger log = LoggerFactory.getLogger(OFMessageDecoder.class);
 
     @Override
-    protected Object decode(ChannelHandlerContext ctx, Channel channel,
-            ChannelBuffer buffer) throws Exception {
-        if (!channel.isConnected()) {
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in,
+                          List<Object> out) throws Exception {
+        if (!ctx.channel().isActive()) {
             // In testing, I see decode being called AFTER decode last.
             // This check avoids that from reading corrupted frames
-            return null;
+            return;
         }
 
-        // Note that a single call to decode results in reading a single
-        // OFMessage from the channel buffer, which is passed on to, and processed
-        // by, the controller (in OFChannelHandler).
-        // This is different from earlier behavior (with the original openflowj),
-        // where we parsed all the messages in the buffer, before passing on
-        // a list of the parsed messages to the controller.
-        // The performance *may or may not* not be as good as before.
-
-        //OFMessageReader<OFMessage> reader = OFFactories.getGenericReader();
-        //OFMessage message = reader.readFrom(buffer);
+        // All complete messages in the buffer are parsed at once and passed
+        // on as a single list to the controller (in OFChannelHandler); a
+        // trailing partial message is left in the buffer for the next read.
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(in.nioBuffer());
+        List<OFMessage> messages = factory.parseOFMessage(buffer);
+        in.skipBytes(buffer.readerIndex());
 
-        List<OFMessage> message = factory.parseOFMessage(buffer);
-        if (message != null) {
-            //TODO Nothing
+        if (messages != null && !messages.isEmpty()) {
+            out.add(messages);
         }
-        return message;
     }
 
 }
@@ -14,46 +14,50 @@
  * limitations under the License.
  */
 
+
 package org.onosproject.pof.controller.impl;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import org.onosproject.floodlightpof.protocol.OFMessage;
 
 import java.util.List;
 
 /**
- * Encode an openflow message for output into a ChannelBuffer, for use in a
- * netty pipeline.
+ * Encodes lists of POF messages written to the channel.
+ * <p>
+ * The POF message serializers write to Netty 3 channel buffers, so the
+ * messages are serialized into a scratch buffer that is reused for every
+ * write on this channel and then copied in one go into the outbound buffer
+ * taken from the channel's (pooled) allocator.
  */
-public class OFMessageEncoder extends OneToOneEncoder {
+public class OFMessageEncoder extends MessageToByteEncoder<List<OFMessage>> {
 
-    @Override
-    protected Object encode(ChannelHandlerContext ctx, Channel channel,
-                            Object msg) throws Exception {
-        if (!(msg instanceof List)) {
-            return msg;
-        }
-
-        @SuppressWarnings("unchecked")
-        List<OFMessage> msglist = (List<OFMessage>) msg;
-        /* XXX S can't get length of OFMessage in loxigen's openflowj??
-        int size = 0;
-        for (OFMessage ofm : msglist) {
-            size += ofm.getLengthU();
-        }*/
+    private static final int INITIAL_SCRATCH_SIZE = 4 * 1024;
+    // do not hold on to the memory of an exceptionally large write
+    private static final int MAX_RETAINED_SCRATCH_SIZE = 1024 * 1024;
 
-        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+    private ChannelBuffer scratch = ChannelBuffers.dynamicBuffer(INITIAL_SCRATCH_SIZE);
 
+    @Override
+    protected void encode(ChannelHandlerContext ctx, List<OFMessage> msglist,
+                          ByteBuf out) throws Exception {
+        scratch.clear();
         for (OFMessage ofm : msglist) {
             if (ofm != null) {
-                ofm.writeTo(buf);
+                ofm.writeTo(scratch);
             }
         }
-        return buf;
+
+        out.writeBytes(scratch.array(), scratch.arrayOffset() + scratch.readerIndex(),
+                       scratch.readableBytes());
+
+        if (scratch.capacity() > MAX_RETAINED_SCRATCH_SIZE) {
+            scratch = ChannelBuffers.dynamicBuffer(INITIAL_SCRATCH_SIZE);
+        }
     }
 
 }
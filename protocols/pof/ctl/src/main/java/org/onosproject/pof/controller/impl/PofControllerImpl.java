@@ -25,6 +25,7 @@ import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.Service;
+import org.onlab.metrics.MetricsService;
 import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.CoreService;
 import org.onosproject.floodlightpof.protocol.OFMessage;
@@ -47,15 +48,16 @@ import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Dictionary;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static org.onlab.util.Tools.get;
 import static org.onlab.util.Tools.groupedThreads;
 
 
@@ -65,6 +67,8 @@ public class PofControllerImpl implements PofController {
     private static final String APP_ID = "org.onosproject.pof-base";
     private static final String DEFAULT_OFPORT = "6643";
     private static final int DEFAULT_WORKER_THREADS = 16;
+    private static final int DEFAULT_DISPATCH_THREADS = 0;
+    private static final int DEFAULT_DISPATCH_BATCH_SIZE = 32;
 
     private static final Logger log =
             LoggerFactory.getLogger(PofControllerImpl.class);
@@ -82,6 +86,9 @@ public class PofControllerImpl implements PofController {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected ComponentConfigService cfgService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected MetricsService metricsService;
+
     @Property(name = "pofPorts", value = DEFAULT_OFPORT,
             label = "Port numbers (comma separated) used by OpenFlow protocol; default is 6643")
     private String pofPorts = DEFAULT_OFPORT;
@@ -90,11 +97,17 @@ public class PofControllerImpl implements PofController {
             label = "Number of controller worker threads; default is 16")
     private int workerThreads = DEFAULT_WORKER_THREADS;
 
-    protected ExecutorService executorMsgs =
-        Executors.newFixedThreadPool(32, groupedThreads("onos/pof", "event-stats-%d", log));
+    @Property(name = "dispatchThreads", intValue = DEFAULT_DISPATCH_THREADS,
+            label = "Number of threads handling switch messages; default 0 uses one per core")
+    private int dispatchThreads = DEFAULT_DISPATCH_THREADS;
+
+    @Property(name = "dispatchBatchSize", intValue = DEFAULT_DISPATCH_BATCH_SIZE,
+            label = "Number of messages of one switch handled before yielding to other switches; default is 32")
+    private int dispatchBatchSize = DEFAULT_DISPATCH_BATCH_SIZE;
 
-    private final ExecutorService executorBarrier =
-        Executors.newFixedThreadPool(4, groupedThreads("onos/pof", "event-barrier-%d", log));
+    // messages of each switch are handled in order, on a lane of their own;
+    // replaced on reconfiguration while the channel threads dispatch
+    protected volatile PofMessageDispatcher dispatcher;
 
     protected ConcurrentMap<Dpid, PofSwitch> connectedSwitches =
             new ConcurrentHashMap<>();
@@ -137,10 +150,48 @@ public class PofControllerImpl implements PofController {
         log.info("+++++ PofControllerimpl is started");
         coreService.registerApplication(APP_ID, this::preDeactivate);
         cfgService.registerProperties(getClass());
+        readDispatchConfig(context.getProperties());
+        dispatcher = newDispatcher();
         ctrl.setConfigParams(context.getProperties());
         ctrl.start(agent, driverService);
     }
 
+    private PofMessageDispatcher newDispatcher() {
+        return new PofMessageDispatcher(dispatchThreads, dispatchBatchSize,
+                                        groupedThreads("onos/pof", "dispatch-%d", log), metricsService);
+    }
+
+    /**
+     * Reads the dispatcher settings.
+     *
+     * @param properties component properties
+     * @return true if the settings changed
+     */
+    private boolean readDispatchConfig(Dictionary<?, ?> properties) {
+        int newThreads = dispatchThreads;
+        int newBatchSize = dispatchBatchSize;
+        try {
+            String s = get(properties, "dispatchThreads");
+            newThreads = isNullOrEmpty(s) ? dispatchThreads : Integer.parseInt(s.trim());
+
+            s = get(properties, "dispatchBatchSize");
+            newBatchSize = isNullOrEmpty(s) ? dispatchBatchSize : Integer.parseInt(s.trim());
+        } catch (NumberFormatException | ClassCastException e) {
+            log.warn("Invalid dispatcher settings, keeping threads = {}, batch size = {}",
+                     dispatchThreads, dispatchBatchSize);
+            return false;
+        }
+        if (newThreads < 0 || newBatchSize <= 0) {
+            log.warn("Invalid dispatcher settings, keeping threads = {}, batch size = {}",
+                     dispatchThreads, dispatchBatchSize);
+            return false;
+        }
+        boolean changed = newThreads != dispatchThreads || newBatchSize != dispatchBatchSize;
+        dispatchThreads = newThreads;
+        dispatchBatchSize = newBatchSize;
+        return changed;
+    }
+
     private void preDeactivate() {
         // Close listening channel and all OF channels before deactivating
         ctrl.stop();
@@ -151,6 +202,7 @@ public class PofControllerImpl implements PofController {
     public void deactivate() {
         preDeactivate();
         cfgService.unregisterProperties(getClass(), false);
+        dispatcher.shutdown();
         connectedSwitches.clear();
         activeMasterSwitches.clear();
         activeEqualSwitches.clear();
@@ -159,6 +211,11 @@ public class PofControllerImpl implements PofController {
     @Modified
     public void modified(ComponentContext context) {
         ctrl.stop();
+        if (readDispatchConfig(context.getProperties())) {
+            PofMessageDispatcher old = dispatcher;
+            dispatcher = newDispatcher();
+            old.shutdown();
+        }
         ctrl.setConfigParams(context.getProperties());
         ctrl.start(agent, driverService);
     }
@@ -237,6 +294,10 @@ public class PofControllerImpl implements PofController {
 
     @Override
     public void processPacket(Dpid dpid, OFMessage msg) {
+        dispatcher.dispatch(dpid, () -> handleMessage(dpid, msg));
+    }
+
+    private void handleMessage(Dpid dpid, OFMessage msg) {
         switch (msg.getType()) {
             case PORT_STATUS:
                 for (PofSwitchListener l : ofSwitchListener) {
@@ -249,12 +310,19 @@ public class PofControllerImpl implements PofController {
                 }
                 break;
             case PACKET_IN:
+                PofSwitch sw = this.getSwitch(dpid);
+                if (sw == null) {
+                    log.debug("Dropping packet-in from disconnected switch {}", dpid);
+                    break;
+                }
                 PofPacketContext pktCtx = DefaultPofPacketContext
-                        .packetContextFromPacketIn(this.getSwitch(dpid),
-                                (OFPacketIn) msg);
+                        .packetContextFromPacketIn(sw, (OFPacketIn) msg);
                 for (PacketListener p : ofPacketListener.values()) {
                     p.handlePacket(pktCtx);
                 }
+                if (monitorAllEvents) {
+                    new OFMessageHandler(dpid, msg).run();
+                }
                 break;
             //added by hdy to process table resource
             case RESOURCE_REPORT:
@@ -264,11 +332,11 @@ public class PofControllerImpl implements PofController {
                     l.setTableResource(dpid, (OFFlowTableResource) msg);
                 }
                 break;
-            // TODO: Consider using separate threadpool for sensitive messages.
-            //    ie. Back to back error could cause us to starve.
             case FLOW_REMOVED:
             case ERROR:
-                executorMsgs.execute(new OFMessageHandler(dpid, msg));
+            case BARRIER_REPLY:
+            case MULTIPART_REPLY:
+                new OFMessageHandler(dpid, msg).run();
                 break;
 
             default:
@@ -653,6 +721,7 @@ public class PofControllerImpl implements PofController {
             for (PofSwitchListener l : ofSwitchListener) {
                 l.switchRemoved(dpid);
             }
+            dispatcher.removeLane(dpid);
         }
 
         @Override
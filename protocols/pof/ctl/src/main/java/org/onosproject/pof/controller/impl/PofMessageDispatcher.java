@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.pof.controller.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+import org.onlab.metrics.MetricsComponent;
+import org.onlab.metrics.MetricsFeature;
+import org.onlab.metrics.MetricsService;
+import org.onosproject.pof.controller.Dpid;
+import org.slf4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Dispatches the messages received from POF switches to a bounded pool of
+ * worker threads through one ordered lane per switch.
+ * <p>
+ * Messages of a switch run one at a time in the order they were received.
+ * Lanes are not pinned to a thread; a lane holds a worker for at most
+ * {@code batchSize} messages before yielding it, so that a chatty switch
+ * cannot starve the others.
+ */
+final class PofMessageDispatcher {
+
+    private static final Logger log = getLogger(PofMessageDispatcher.class);
+
+    private static final String COMPONENT_NAME = "PofMessageDispatcher";
+    private static final String QUEUE_DEPTH = "queueDepth";
+    private static final String LATENCY = "latency";
+
+    private final ExecutorService workers;
+    private final int batchSize;
+    private final MetricsService metricsService;
+    private final MetricsComponent metricsComponent;
+    private final ConcurrentMap<Dpid, Lane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param threads        number of worker threads, or 0 to match the
+     *                       number of available processors
+     * @param batchSize      maximum number of messages a lane handles before
+     *                       yielding its worker
+     * @param threadFactory  factory of the worker threads
+     * @param metricsService metrics service the lane metrics are registered
+     *                       with, or null to keep them local
+     */
+    PofMessageDispatcher(int threads, int batchSize, ThreadFactory threadFactory,
+                         MetricsService metricsService) {
+        checkArgument(threads >= 0, "threads must not be negative");
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        this.workers = Executors.newFixedThreadPool(
+                threads == 0 ? Runtime.getRuntime().availableProcessors() : threads, threadFactory);
+        this.batchSize = batchSize;
+        this.metricsService = metricsService;
+        this.metricsComponent = metricsService == null ? null : metricsService.registerComponent(COMPONENT_NAME);
+    }
+
+    /**
+     * Queues a task on the lane of the given switch.
+     *
+     * @param dpid switch the task belongs to
+     * @param task task to run
+     */
+    void dispatch(Dpid dpid, Runnable task) {
+        // queued under the lock of the mapping, so that the lane cannot be dropped meanwhile
+        lanes.compute(dpid, (id, lane) -> {
+            Lane target = lane == null ? new Lane(id) : lane;
+            target.retiring = false;
+            target.enqueue(task);
+            return target;
+        });
+    }
+
+    /**
+     * Drops the lane of a switch that went away. Tasks already queued on
+     * the lane still run first; the lane is dropped once it is drained, so
+     * that the tasks of a switch that comes back stay behind them.
+     *
+     * @param dpid switch identifier
+     */
+    void removeLane(Dpid dpid) {
+        lanes.computeIfPresent(dpid, (id, lane) -> {
+            lane.retiring = true;
+            return lane.retireIfIdle();
+        });
+    }
+
+    /**
+     * Returns the number of tasks waiting on the lane of a switch.
+     *
+     * @param dpid switch identifier
+     * @return queue depth, 0 if the switch has no lane
+     */
+    int queueDepth(Dpid dpid) {
+        Lane lane = lanes.get(dpid);
+        return lane == null ? 0 : lane.depth.get();
+    }
+
+    /**
+     * Returns the latency of the tasks dispatched on the lane of a switch,
+     * measured from the time they were queued until they completed.
+     *
+     * @param dpid switch identifier
+     * @return latency timer, or null if the switch has no lane
+     */
+    Timer latency(Dpid dpid) {
+        Lane lane = lanes.get(dpid);
+        return lane == null ? null : lane.latency;
+    }
+
+    /**
+     * Stops the workers; queued tasks are discarded.
+     */
+    void shutdown() {
+        workers.shutdownNow();
+        lanes.values().forEach(Lane::unregisterMetrics);
+        lanes.clear();
+    }
+
+    /**
+     * Ordered queue of the tasks of one switch.
+     */
+    private final class Lane implements Runnable {
+
+        private final Dpid dpid;
+        private final Queue<QueuedTask> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // set while the switch is gone; written under the lock of the mapping
+        private volatile boolean retiring;
+        private final Timer latency;
+        private final MetricsFeature feature;
+
+        private Lane(Dpid dpid) {
+            this.dpid = dpid;
+            if (metricsService != null) {
+                this.feature = metricsComponent.registerFeature(dpid.toString());
+                unregisterMetrics();
+                this.latency = metricsService.createTimer(metricsComponent, feature, LATENCY);
+                metricsService.registerMetric(metricsComponent, feature, QUEUE_DEPTH,
+                                              (Gauge<Integer>) depth::get);
+            } else {
+                this.feature = null;
+                this.latency = new Timer();
+            }
+        }
+
+        private void enqueue(Runnable task) {
+            tasks.add(new QueuedTask(task));
+            depth.incrementAndGet();
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    log.debug("Dropping messages of {}: dispatcher is stopped", dpid);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < batchSize; i++) {
+                    QueuedTask task = tasks.poll();
+                    if (task == null) {
+                        break;
+                    }
+                    depth.decrementAndGet();
+                    task.run();
+                }
+            } finally {
+                scheduled.set(false);
+                // pick up tasks queued while this lane was running, behind other lanes
+                if (!tasks.isEmpty()) {
+                    schedule();
+                } else if (retiring) {
+                    lanes.computeIfPresent(dpid, (id, lane) -> lane == this ? retireIfIdle() : lane);
+                }
+            }
+        }
+
+        /**
+         * Returns the lane to keep in the mapping: none once a retiring lane
+         * has no task left to run.
+         */
+        private Lane retireIfIdle() {
+            if (retiring && tasks.isEmpty() && !scheduled.get()) {
+                unregisterMetrics();
+                return null;
+            }
+            return this;
+        }
+
+        private void unregisterMetrics() {
+            if (metricsService == null) {
+                return;
+            }
+            String prefix = COMPONENT_NAME + "." + dpid.toString() + ".";
+            metricsService.removeMatching((name, metric) -> name.startsWith(prefix));
+        }
+
+        /**
+         * Task stamped with the time it was queued.
+         */
+        private final class QueuedTask {
+            private final Runnable task;
+            private final long queuedNanos = System.nanoTime();
+
+            private QueuedTask(Runnable task) {
+                this.task = task;
+            }
+
+            private void run() {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.warn("Failed to handle message from {}", dpid, e);
+                } finally {
+                    latency.update(System.nanoTime() - queuedNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.pof.controller.impl;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.floodlightpof.protocol.OFMessage;
+import org.onosproject.floodlightpof.protocol.OFType;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests of the POF message decoder.
+ */
+public class OFMessageDecoderTest {
+
+    private final BasicFactory factory = new BasicFactory();
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new OFMessageDecoder());
+    }
+
+    private OFMessage message(OFType type, int xid) {
+        OFMessage msg = factory.getOFMessage(type);
+        msg.setXid(xid);
+        return msg;
+    }
+
+    private static byte[] encode(OFMessage... msgs) {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        for (OFMessage msg : msgs) {
+            msg.writeTo(buffer);
+        }
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        return bytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<OFMessage> readMessages() {
+        return (List<OFMessage>) channel.readInbound();
+    }
+
+    /**
+     * Tests that all complete messages of a read are passed on as one list.
+     */
+    @Test
+    public void testCompleteMessages() {
+        byte[] bytes = encode(message(OFType.HELLO, 1), message(OFType.BARRIER_REQUEST, 2));
+        channel.writeInbound(Unpooled.wrappedBuffer(bytes));
+
+        List<OFMessage> msgs = readMessages();
+        assertThat(msgs, hasSize(2));
+        assertThat(msgs.get(0).getType(), is(OFType.HELLO));
+        assertThat(msgs.get(1).getXid(), is(2));
+        assertThat(channel.readInbound(), is(nullValue()));
+    }
+
+    /**
+     * Tests that a trailing partial message is kept until the rest of it
+     * is read, and that only the complete messages are skipped.
+     */
+    @Test
+    public void testPartialFrame() {
+        byte[] bytes = encode(message(OFType.HELLO, 1), message(OFType.BARRIER_REQUEST, 2));
+        int split = bytes.length - 3;
+
+        channel.writeInbound(Unpooled.wrappedBuffer(bytes, 0, split));
+        List<OFMessage> msgs = readMessages();
+        assertThat(msgs, hasSize(1));
+        assertThat(msgs.get(0).getXid(), is(1));
+
+        channel.writeInbound(Unpooled.wrappedBuffer(bytes, split, bytes.length - split));
+        msgs = readMessages();
+        assertThat(msgs, hasSize(1));
+        assertThat(msgs.get(0).getType(), is(OFType.BARRIER_REQUEST));
+        assertThat(msgs.get(0).getXid(), is(2));
+    }
+
+    /**
+     * Tests that nothing is passed on until a partial header is complete.
+     */
+    @Test
+    public void testPartialHeader() {
+        byte[] bytes = encode(message(OFType.BARRIER_REQUEST, 3));
+
+        channel.writeInbound(Unpooled.wrappedBuffer(bytes, 0, 2));
+        assertThat(channel.readInbound(), is(nullValue()));
+
+        channel.writeInbound(Unpooled.wrappedBuffer(bytes, 2, bytes.length - 2));
+        List<OFMessage> msgs = readMessages();
+        assertThat(msgs, hasSize(1));
+        assertThat(msgs.get(0).getXid(), is(3));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.pof.controller.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+import org.onosproject.pof.controller.Dpid;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.onlab.junit.TestTools.assertAfter;
+
+/**
+ * Tests of the dispatcher of switch messages.
+ */
+public class PofMessageDispatcherTest {
+
+    private static final Dpid DPID1 = new Dpid(1);
+    private static final Dpid DPID2 = new Dpid(2);
+
+    private final List<String> handled = Collections.synchronizedList(Lists.newArrayList());
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    private PofMessageDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        dispatcher.shutdown();
+    }
+
+    private PofMessageDispatcher newDispatcher(int threads, int batchSize) {
+        return new PofMessageDispatcher(threads, batchSize, Executors.defaultThreadFactory(), null);
+    }
+
+    private Runnable task(String name) {
+        return () -> handled.add(name);
+    }
+
+    // holds the worker of the lane until the gate opens
+    private Runnable blocking() {
+        return () -> {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    /**
+     * Tests that the messages of a switch are handled in the order they
+     * were received, whatever the number of workers.
+     */
+    @Test
+    public void testOrderPerSwitch() throws InterruptedException {
+        dispatcher = newDispatcher(4, 2);
+        CountDownLatch done = new CountDownLatch(100);
+        List<String> expected = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            String name = "m" + i;
+            expected.add(name);
+            dispatcher.dispatch(DPID1, () -> {
+                handled.add(name);
+                done.countDown();
+            });
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(handled, is(expected));
+    }
+
+    /**
+     * Tests that a lane yields its worker to the other lanes after a batch.
+     */
+    @Test
+    public void testBatchYielding() {
+        dispatcher = newDispatcher(1, 2);
+        dispatcher.dispatch(DPID1, blocking());
+        for (int i = 1; i <= 4; i++) {
+            dispatcher.dispatch(DPID1, task("a" + i));
+        }
+        dispatcher.dispatch(DPID2, task("b1"));
+        dispatcher.dispatch(DPID2, task("b2"));
+        gate.countDown();
+
+        assertAfter(1000, () -> assertThat(handled, is(ImmutableList.of("a1", "b1", "b2", "a2", "a3", "a4"))));
+    }
+
+    /**
+     * Tests that the lane of a removed switch is dropped only once its
+     * queued messages are handled, and that the messages of a switch that
+     * comes back meanwhile stay behind them.
+     */
+    @Test
+    public void testRemovedLaneDrained() {
+        dispatcher = newDispatcher(2, 2);
+        dispatcher.dispatch(DPID1, blocking());
+        dispatcher.dispatch(DPID1, task("a1"));
+        dispatcher.removeLane(DPID1);
+        assertThat(dispatcher.latency(DPID1), is(notNullValue()));
+
+        dispatcher.dispatch(DPID1, task("a2"));
+        gate.countDown();
+        assertAfter(1000, () -> assertThat(handled, is(ImmutableList.of("a1", "a2"))));
+        // the switch came back, so the lane stays
+        assertThat(dispatcher.latency(DPID1), is(notNullValue()));
+
+        dispatcher.removeLane(DPID1);
+        assertAfter(1000, () -> assertThat(dispatcher.latency(DPID1), is(nullValue())));
+    }
+
+    /**
+     * Tests that a busy lane that was removed is dropped once drained.
+     */
+    @Test
+    public void testBusyLaneDroppedWhenDrained() {
+        dispatcher = newDispatcher(1, 2);
+        dispatcher.dispatch(DPID1, blocking());
+        dispatcher.removeLane(DPID1);
+        assertThat(dispatcher.latency(DPID1), is(notNullValue()));
+
+        gate.countDown();
+        assertAfter(1000, () -> assertThat(dispatcher.latency(DPID1), is(nullValue())));
+    }
+}
@@ -18,12 +18,15 @@ package org.onosproject.provider.lldp.impl;
 import java.util.Dictionary;
 import java.util.EnumSet;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -182,7 +185,11 @@ public class LldpLinkProvider extends AbstractProvider implements ProbedLinkProv
 
     // Most recent time a tracked link was seen; links are tracked if their
     // destination connection point is mastered by this controller instance.
-    private final Map<LinkKey, Long> linkTimes = Maps.newConcurrentMap();
+    private final Map<LinkKey, LinkSeen> linkTimes = Maps.newConcurrentMap();
+    // The same sightings, oldest first, so that the pruner only looks at the
+    // links that went stale rather than at every tracked link.
+    private final NavigableSet<LinkSeen> linkExpiries = new ConcurrentSkipListSet<>();
+    private final AtomicLong sightings = new AtomicLong();
 
     private ApplicationId appId;
 
@@ -703,18 +710,21 @@ public class LldpLinkProvider extends AbstractProvider implements ProbedLinkProv
                 // TODO: There is still a slight possibility of mastership
                 // change occurring right with link going stale. This will
                 // result in the stale link not being pruned.
-                Maps.filterEntries(linkTimes, e -> {
-                    if (!masterService.isLocalMaster(e.getKey().dst().deviceId())) {
-                        return true;
+                LinkSeen oldest;
+                while ((oldest = linkExpiries.pollFirst()) != null) {
+                    if (!isStale(oldest.time)) {
+                        // neither this link nor any seen after it is stale
+                        linkExpiries.add(oldest);
+                        break;
                     }
-                    if (isStale(e.getValue())) {
-                        providerService.linkVanished(new DefaultLinkDescription(e.getKey().src(),
-                                                                                e.getKey().dst(),
+                    // a link seen again since has a newer sighting queued
+                    if (linkTimes.remove(oldest.key, oldest) &&
+                            masterService.isLocalMaster(oldest.key.dst().deviceId())) {
+                        providerService.linkVanished(new DefaultLinkDescription(oldest.key.src(),
+                                                                                oldest.key.dst(),
                                                                                 DIRECT));
-                        return true;
                     }
-                    return false;
-                }).clear();
+                }
 
             } catch (Exception e) {
                 // Catch all exceptions to avoid task being suppressed
@@ -733,6 +743,38 @@ public class LldpLinkProvider extends AbstractProvider implements ProbedLinkProv
         }
     }
 
+    /**
+     * Time a tracked link was last seen at, ordered by that time.
+     */
+    private static final class LinkSeen implements Comparable<LinkSeen> {
+        private final LinkKey key;
+        private final long time;
+        // tells sightings made in the same millisecond apart
+        private final long sequence;
+
+        private LinkSeen(LinkKey key, long time, long sequence) {
+            this.key = key;
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(LinkSeen other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof LinkSeen && sequence == ((LinkSeen) obj).sequence;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(sequence);
+        }
+    }
+
     /**
      * Provides processing context for the device link discovery helpers.
      */
@@ -764,7 +806,14 @@ public class LldpLinkProvider extends AbstractProvider implements ProbedLinkProv
 
         @Override
         public void touchLink(LinkKey key) {
-            linkTimes.put(key, System.currentTimeMillis());
+            linkTimes.compute(key, (k, previous) -> {
+                if (previous != null) {
+                    linkExpiries.remove(previous);
+                }
+                LinkSeen seen = new LinkSeen(k, System.currentTimeMillis(), sightings.incrementAndGet());
+                linkExpiries.add(seen);
+                return seen;
+            });
         }
 
         @Override
@@ -15,6 +15,7 @@
  */
 package org.onosproject.provider.lldpcommon;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 
 import org.jboss.netty.util.Timeout;
@@ -39,6 +40,7 @@ import org.onosproject.net.link.ProbedLinkProvider;
 import org.slf4j.Logger;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Set;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -53,6 +55,12 @@ import static org.slf4j.LoggerFactory.getLogger;
  * fast. Every probeRate milliseconds, loop over all fast ports and send an
  * LLDP, send an LLDP for a single slow port. Based on FlowVisor topology
  * discovery implementation.
+ * <p>
+ * The ports are spread over a number of slices, and the probes of one slice
+ * are sent at a time, so that each port is still probed once every probeRate
+ * milliseconds while a switch never gets the probes of all of its ports in
+ * one burst.
+ * </p>
  */
 public class LinkDiscovery implements TimerTask {
 
@@ -64,10 +72,14 @@ public class LinkDiscovery implements TimerTask {
     private final Ethernet ethPacket;
     private final Ethernet bddpEth;
 
+    // number of slices the ports of a switch are probed in
+    private static final int PROBE_SLICES = 4;
+
     private Timeout timeout;
     private volatile boolean isStopped;
-    // Set of ports to be probed
-    private final Set<Long> ports = Sets.newConcurrentHashSet();
+    // Set of ports to be probed, by slice
+    private final List<Set<Long>> ports;
+    private int slice;
 
     /**
      * Instantiates discovery manager for the given physical switch. Creates a
@@ -81,6 +93,12 @@ public class LinkDiscovery implements TimerTask {
         this.device = device;
         this.context = context;
 
+        ImmutableList.Builder<Set<Long>> slices = ImmutableList.builder();
+        for (int i = 0; i < PROBE_SLICES; i++) {
+            slices.add(Sets.newConcurrentHashSet());
+        }
+        ports = slices.build();
+
         ethPacket = new Ethernet();
         ethPacket.setEtherType(Ethernet.TYPE_LLDP);
         ethPacket.setDestinationMACAddress(MacAddress.ONOS_LLDP);
@@ -126,7 +144,7 @@ public class LinkDiscovery implements TimerTask {
      * @param port the port
      */
     public void addPort(Port port) {
-        boolean newPort = ports.add(port.number().toLong());
+        boolean newPort = slice(port.number().toLong()).add(port.number().toLong());
         boolean isMaster = context.mastershipService().isLocalMaster(device.id());
         if (newPort && isMaster) {
             log.debug("Sending initial probe to port {}@{}", port.number().toLong(), device.id());
@@ -139,7 +157,11 @@ public class LinkDiscovery implements TimerTask {
      * @param port the port number
      */
     public void removePort(PortNumber port) {
-        ports.remove(port.toLong());
+        slice(port.toLong()).remove(port.toLong());
+    }
+
+    private Set<Long> slice(long port) {
+        return ports.get((int) Math.floorMod(port, (long) PROBE_SLICES));
     }
 
     /**
@@ -200,9 +222,9 @@ public class LinkDiscovery implements TimerTask {
     }
 
     /**
-     * Execute this method every t milliseconds. Loops over all ports
-     * labeled as fast and sends out an LLDP. Send out an LLDP on a single slow
-     * port.
+     * Execute this method every t milliseconds. Sends out an LLDP on each
+     * port of the next slice, so that all ports are probed once every probe
+     * rate.
      *
      * @param t timeout
      */
@@ -212,13 +234,16 @@ public class LinkDiscovery implements TimerTask {
             return;
         }
 
-        if (context.mastershipService().isLocalMaster(device.id())) {
+        Set<Long> probed = ports.get(slice);
+        slice = (slice + 1) % PROBE_SLICES;
+        if (!probed.isEmpty() && context.mastershipService().isLocalMaster(device.id())) {
             log.trace("Sending probes from {}", device.id());
-            ports.forEach(this::sendProbes);
+            probed.forEach(this::sendProbes);
         }
 
         if (!isStopped()) {
-            timeout = Timer.getTimer().newTimeout(this, context.probeRate(), MILLISECONDS);
+            timeout = Timer.getTimer().newTimeout(this, Math.max(1, context.probeRate() / PROBE_SLICES),
+                                                  MILLISECONDS);
         }
     }
 
@@ -274,6 +299,6 @@ public class LinkDiscovery implements TimerTask {
     }
 
     public boolean containsPort(long portNumber) {
-        return ports.contains(portNumber);
+        return slice(portNumber).contains(portNumber);
     }
 }
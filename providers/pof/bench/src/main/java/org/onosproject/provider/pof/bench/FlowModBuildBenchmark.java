@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.bench;
+
+import org.onosproject.floodlightpof.protocol.OFFlowMod;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.provider.pof.flow.impl.FlowModBuilder;
+import org.onosproject.store.table.flow.impl.NewDistributedFlowTableStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.DEVICE_ID;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.activeStore;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.addTable;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.flowRule;
+
+/**
+ * Throughput of translating flow rules into POF flow mods, including the
+ * table layout lookup and the entry bookkeeping in the flow table store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FlowModBuildBenchmark {
+
+    // power of two, rules are cycled through with a mask
+    private static final int RULE_COUNT = 1024;
+
+    private final BasicFactory factory = new BasicFactory();
+
+    private NewDistributedFlowTableStore store;
+    private FlowRule[] rules;
+    private int next;
+    private long xid;
+
+    @Setup
+    public void setUp() {
+        store = activeStore();
+        int tableId = (int) addTable(store).id().value();
+        FlowTableId flowTableId = FlowTableId.valueOf(tableId);
+
+        // the entries are stored up front, as for rules being modified
+        rules = new FlowRule[RULE_COUNT];
+        for (int i = 0; i < RULE_COUNT; i++) {
+            rules[i] = flowRule(tableId, store.getNewFlowEntryId(DEVICE_ID, tableId));
+            store.addFlowEntry(DEVICE_ID, flowTableId, rules[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.deactivate(null);
+    }
+
+    @Benchmark
+    public OFFlowMod buildFlowAdd() {
+        return FlowModBuilder.builder(nextRule(), factory, store, Optional.of(xid++), Optional.empty())
+                .buildFlowAdd();
+    }
+
+    @Benchmark
+    public OFFlowMod buildFlowMod() {
+        return FlowModBuilder.builder(nextRule(), factory, store, Optional.of(xid++), Optional.empty())
+                .buildFlowMod();
+    }
+
+    private FlowRule nextRule() {
+        FlowRule rule = rules[next];
+        next = (next + 1) & (RULE_COUNT - 1);
+        return rule;
+    }
+}
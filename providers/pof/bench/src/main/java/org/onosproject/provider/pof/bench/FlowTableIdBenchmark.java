@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.bench;
+
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.store.table.flow.impl.NewDistributedFlowTableStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.DEVICE_ID;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.TABLE_TYPE;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.activeStore;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.addTable;
+
+/**
+ * Throughput of the table and entry id allocation of the flow table store
+ * on the device master. Every allocated id is freed again right away, so
+ * the id spaces never run out and each operation sees the same state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FlowTableIdBenchmark {
+
+    @Param({"1", "64"})
+    private int count;
+
+    private NewDistributedFlowTableStore store;
+    private int tableId;
+    private FlowTableId flowTableId;
+
+    @Setup
+    public void setUp() {
+        store = activeStore();
+        tableId = (int) addTable(store).id().value();
+        flowTableId = FlowTableId.valueOf(tableId);
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.deactivate(null);
+    }
+
+    @Benchmark
+    public int flowEntryIds() {
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            last = store.getNewFlowEntryId(DEVICE_ID, tableId);
+            store.addFreeFlowEntryIds(DEVICE_ID, flowTableId, last);
+        }
+        return last;
+    }
+
+    @Benchmark
+    public int flowEntryIdBatch() {
+        List<Integer> ids = store.getNewFlowEntryIds(DEVICE_ID, tableId, count).join();
+        ids.forEach(id -> store.addFreeFlowEntryIds(DEVICE_ID, flowTableId, id));
+        return ids.size();
+    }
+
+    @Benchmark
+    public int globalTableIds() {
+        // freed table ids are handed out again before new ones, as in the store
+        List<Byte> freeIds = store.getFreeFlowTableIDListMap(DEVICE_ID).get(TABLE_TYPE);
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            last = store.getNewGlobalFlowTableId(DEVICE_ID, TABLE_TYPE);
+            freeIds.add((byte) last);
+        }
+        return last;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.bench;
+
+import com.google.common.collect.ImmutableList;
+import org.onlab.junit.TestUtils;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.cluster.ClusterServiceAdapter;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.floodlightpof.protocol.OFMatch20;
+import org.onosproject.floodlightpof.protocol.OFPacketIn;
+import org.onosproject.floodlightpof.protocol.OFType;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
+import org.onosproject.floodlightpof.protocol.table.OFTableResource;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.onosproject.mastership.MastershipServiceAdapter;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.MastershipRole;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.criteria.Criteria;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.instructions.DefaultPofActions;
+import org.onosproject.net.flow.instructions.DefaultPofInstructions;
+import org.onosproject.net.table.DefaultFlowTable;
+import org.onosproject.net.table.DefaultFlowTableEntry;
+import org.onosproject.net.table.FlowTable;
+import org.onosproject.net.table.FlowTableStore;
+import org.onosproject.store.LogicalTimestamp;
+import org.onosproject.store.cluster.messaging.ClusterCommunicationServiceAdapter;
+import org.onosproject.store.persistence.PersistenceServiceAdapter;
+import org.onosproject.store.service.LogicalClockService;
+import org.onosproject.store.service.TestStorageService;
+import org.onosproject.store.table.flow.impl.NewDistributedFlowTableStore;
+import org.onosproject.store.table.flow.impl.ReplicaInfoManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Devices, tables, rules and messages shared by the POF benchmarks. They
+ * mirror what a POF application programs into an exact/masked match table
+ * keyed on the Ethernet header.
+ */
+final class PofBenchmarkFixtures {
+
+    static final int POF_DEVICE_ID = 1;
+    static final DeviceId DEVICE_ID = DeviceId.deviceId("pof:0000000000000001");
+    static final ApplicationId APP_ID = new DefaultApplicationId(1, "org.onosproject.pof.bench");
+    static final OFTableType TABLE_TYPE = OFTableType.OF_MM_TABLE;
+
+    // tables of each type and entries of each table announced by the device
+    static final int TABLE_NUM = 16;
+    static final int TABLE_SIZE = 1 << 16;
+
+    static final int FRAME_SIZE = 128;
+
+    private static final NodeId LOCAL = new ClusterServiceAdapter().getLocalNode().id();
+
+    // destination MAC, source MAC and ethertype, as field id/offset/length in bits
+    private static final short[][] FIELDS = {
+            {0, 0, 48},
+            {1, 48, 48},
+            {2, 96, 16},
+    };
+    private static final String[] FIELD_NAMES = {"DMAC", "SMAC", "TYPE"};
+
+    private PofBenchmarkFixtures() {
+    }
+
+    /**
+     * Returns an activated flow table store mastering every device on this
+     * instance, wired with the adapters used by the store's unit tests.
+     * Backups are turned off so only the caller's work is measured.
+     *
+     * @return activated store
+     */
+    static NewDistributedFlowTableStore activeStore() {
+        NewDistributedFlowTableStore store = new NewDistributedFlowTableStore();
+        TestUtils.setField(store, "storageService", new TestStorageService());
+        AtomicLong clock = new AtomicLong();
+        TestUtils.setField(store, "clockService",
+                           (LogicalClockService) () -> new LogicalTimestamp(clock.incrementAndGet()));
+        TestUtils.setField(store, "replicaInfoManager", new ReplicaInfoManager());
+        TestUtils.setField(store, "clusterCommunicator", new ClusterCommunicationServiceAdapter());
+        TestUtils.setField(store, "clusterService", new ClusterServiceAdapter());
+        TestUtils.setField(store, "deviceService", new DeviceServiceAdapter());
+        TestUtils.setField(store, "coreService", new CoreServiceAdapter());
+        TestUtils.setField(store, "configService", new ComponentConfigAdapter());
+        TestUtils.setField(store, "mastershipService", new MasterOfAll());
+        TestUtils.setField(store, "persistenceService", new PersistenceServiceAdapter());
+        TestUtils.setField(store, "backupEnabled", false);
+        store.activate(null);
+
+        store.initializeSwitchStore(DEVICE_ID);
+        store.setFlowTableNoBase(DEVICE_ID, resourceReport());
+        return store;
+    }
+
+    /**
+     * Allocates and stores a new match table of the benchmark device.
+     *
+     * @param store flow table store
+     * @return the stored table
+     */
+    static FlowTable addTable(FlowTableStore store) {
+        int globalTableId = store.getNewGlobalFlowTableId(DEVICE_ID, TABLE_TYPE);
+        byte smallTableId = (byte) (globalTableId - store.getFlowTableNoBaseMap(DEVICE_ID).get(TABLE_TYPE));
+
+        ArrayList<OFMatch20> matchFields = new ArrayList<>(FIELDS.length);
+        for (int i = 0; i < FIELDS.length; i++) {
+            OFMatch20 field = new OFMatch20();
+            field.setFieldName(FIELD_NAMES[i]);
+            field.setFieldId(FIELDS[i][0]);
+            field.setOffset(FIELDS[i][1]);
+            field.setLength(FIELDS[i][2]);
+            matchFields.add(field);
+        }
+
+        OFFlowTable ofFlowTable = new OFFlowTable();
+        ofFlowTable.setTableId(smallTableId);
+        ofFlowTable.setTableName("BenchTable" + globalTableId);
+        ofFlowTable.setTableSize(TABLE_SIZE);
+        ofFlowTable.setTableType(TABLE_TYPE);
+        ofFlowTable.setMatchFieldNum((byte) matchFields.size());
+        ofFlowTable.setMatchFieldList(matchFields);
+
+        FlowTable table = DefaultFlowTable.builder()
+                .withFlowTable(ofFlowTable)
+                .forTable(globalTableId)
+                .forDevice(DEVICE_ID)
+                .fromApp(APP_ID)
+                .build();
+        store.addOrUpdateFlowTable(new DefaultFlowTableEntry(table));
+        return table;
+    }
+
+    /**
+     * Returns a rule of the given table matching the Ethernet header of a
+     * host and forwarding to a port, as built by POF applications.
+     *
+     * @param tableId global id of the table
+     * @param entryId flow entry id of the rule
+     * @return flow rule
+     */
+    static FlowRule flowRule(int tableId, int entryId) {
+        ArrayList<Criterion> criteria = new ArrayList<>(FIELDS.length);
+        criteria.add(Criteria.matchOffsetLength(FIELD_NAMES[0], FIELDS[0][0], FIELDS[0][1], FIELDS[0][2],
+                                                mac(entryId), mac(-1)));
+        criteria.add(Criteria.matchOffsetLength(FIELD_NAMES[1], FIELDS[1][0], FIELDS[1][1], FIELDS[1][2],
+                                                mac(0), mac(0)));
+        criteria.add(Criteria.matchOffsetLength(FIELD_NAMES[2], FIELDS[2][0], FIELDS[2][1], FIELDS[2][2],
+                                                new byte[] {0x08, 0x00}, new byte[] {-1, -1}));
+
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE_ID)
+                .forTable(tableId)
+                .withCookie(entryId)
+                .withPriority(entryId % 0xffff + 1)
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .add(Criteria.matchOffsetLength(criteria))
+                                      .build())
+                .withTreatment(DefaultTrafficTreatment.builder()
+                                       .add(DefaultPofInstructions.applyActions(ImmutableList.of(
+                                               DefaultPofActions.setField((short) 1, (short) 48, 48,
+                                                                          mac(entryId), mac(-1)).action(),
+                                               DefaultPofActions.output((short) 0, (short) 0, (short) 0,
+                                                                        entryId % 8 + 1).action())))
+                                       .build())
+                .makePermanent()
+                .build();
+    }
+
+    /**
+     * Returns a packet-in of a minimum sized frame as sent by the switches
+     * for table misses.
+     *
+     * @param factory POF message factory
+     * @param xid     transaction id of the message
+     * @return packet-in
+     */
+    static OFPacketIn packetIn(BasicFactory factory, int xid) {
+        byte[] frame = new byte[FRAME_SIZE];
+        System.arraycopy(mac(xid), 0, frame, 0, 6);
+        frame[12] = 0x08;
+
+        OFPacketIn packetIn = (OFPacketIn) factory.getOFMessage(OFType.PACKET_IN);
+        packetIn.setXid(xid);
+        packetIn.setBufferId(-1);
+        packetIn.setTotalLength((short) frame.length);
+        packetIn.setReason(OFPacketIn.OFPacketInReason.NO_MATCH);
+        packetIn.setDeviceId(POF_DEVICE_ID);
+        packetIn.setPortId(xid % 8 + 1);
+        packetIn.setPacketData(frame);
+        packetIn.setLengthU(OFPacketIn.MINIMUM_LENGTH + frame.length);
+        return packetIn;
+    }
+
+    /**
+     * Returns the messages of a single write of the given size.
+     *
+     * @param size   number of messages
+     * @param source message of the given index
+     * @param <T>    message type
+     * @return messages
+     */
+    static <T> List<T> batch(int size, IntFunction<T> source) {
+        List<T> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(source.apply(i));
+        }
+        return messages;
+    }
+
+    private static byte[] mac(int value) {
+        return new byte[] {0x02, 0x00, (byte) (value >>> 24), (byte) (value >>> 16),
+                (byte) (value >>> 8), (byte) value};
+    }
+
+    private static OFFlowTableResource resourceReport() {
+        Map<OFTableType, OFTableResource> resources = new HashMap<>();
+        for (byte type = 0; type < OFTableType.OF_MAX_TABLE_TYPE.getValue(); type++) {
+            OFTableResource resource = new OFTableResource();
+            resource.setTableType(OFTableType.values()[type]);
+            resource.setTableNum((byte) TABLE_NUM);
+            resource.setKeyLength((short) 320);
+            resource.setTotalSize(TABLE_SIZE);
+            resources.put(OFTableType.values()[type], resource);
+        }
+        OFFlowTableResource report = new OFFlowTableResource();
+        report.setTableResourcesMap(resources);
+        return report;
+    }
+
+    // Mastership service electing this instance master of all devices.
+    private static class MasterOfAll extends MastershipServiceAdapter {
+        @Override
+        public MastershipRole getLocalRole(DeviceId deviceId) {
+            return MastershipRole.MASTER;
+        }
+
+        @Override
+        public NodeId getMasterFor(DeviceId deviceId) {
+            return LOCAL;
+        }
+    }
+}
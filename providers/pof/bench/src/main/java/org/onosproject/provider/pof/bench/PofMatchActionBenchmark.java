@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.bench;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.criteria.Criteria;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.instructions.DefaultPofActions;
+import org.onosproject.net.flow.instructions.DefaultPofInstructions;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.flowRule;
+
+/**
+ * Throughput of building the POF matches and actions of a rule, and of
+ * whole rules, as done by applications for every rule they program.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PofMatchActionBenchmark {
+
+    private static final short DMAC_ID = 0;
+    private static final short DMAC_OFFSET = 0;
+    private static final short DMAC_LENGTH = 48;
+
+    private final byte[] mac = {0x02, 0x00, 0x00, 0x00, 0x00, 0x01};
+    private final byte[] macMask = {-1, -1, -1, -1, -1, -1};
+
+    private int entryId;
+
+    @Benchmark
+    public Criterion criterionFromBytes() {
+        return Criteria.matchOffsetLength("DMAC", DMAC_ID, DMAC_OFFSET, DMAC_LENGTH, mac, macMask);
+    }
+
+    @Benchmark
+    public Criterion criterionFromHexString() {
+        return Criteria.matchOffsetLength("DMAC", DMAC_ID, DMAC_OFFSET, DMAC_LENGTH,
+                                          "020000000001", "ffffffffffff");
+    }
+
+    @Benchmark
+    public Criterion criterionList() {
+        ArrayList<Criterion> list = new ArrayList<>(3);
+        list.add(Criteria.matchOffsetLength("DMAC", DMAC_ID, DMAC_OFFSET, DMAC_LENGTH, mac, macMask));
+        list.add(Criteria.matchOffsetLength("SMAC", (short) 1, (short) 48, (short) 48, mac, macMask));
+        list.add(Criteria.matchOffsetLength("TYPE", (short) 2, (short) 96, (short) 16,
+                                            new byte[] {0x08, 0x00}, new byte[] {-1, -1}));
+        return Criteria.matchOffsetLength(list);
+    }
+
+    @Benchmark
+    public Instruction applyActions() {
+        return DefaultPofInstructions.applyActions(ImmutableList.of(
+                DefaultPofActions.setField((short) 1, (short) 48, 48, mac, macMask).action(),
+                DefaultPofActions.addField((short) 3, (short) 96, 32, "0a000001").action(),
+                DefaultPofActions.output((short) 0, (short) 0, (short) 0, 1).action()));
+    }
+
+    @Benchmark
+    public FlowRule flowRuleBuild() {
+        return flowRule(1, entryId++);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.onosproject.floodlightpof.protocol.OFMessage;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.pof.controller.impl.OFMessageDecoder;
+import org.onosproject.pof.controller.impl.OFMessageEncoder;
+import org.onosproject.provider.pof.flow.impl.FlowModBuilder;
+import org.onosproject.store.table.flow.impl.NewDistributedFlowTableStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.DEVICE_ID;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.activeStore;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.addTable;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.batch;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.flowRule;
+import static org.onosproject.provider.pof.bench.PofBenchmarkFixtures.packetIn;
+
+/**
+ * Throughput of the controller side POF channel codec, run in an embedded
+ * channel: encoding writes of flow mods built from rules, and decoding reads
+ * of packet-ins. Each operation handles one write or read of the given
+ * number of messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PofMessageCodecBenchmark {
+
+    @Param({"1", "16", "64"})
+    private int batchSize;
+
+    private EmbeddedChannel encoderChannel;
+    private EmbeddedChannel decoderChannel;
+
+    private List<OFMessage> flowMods;
+    private ByteBuf packetIns;
+
+    @Setup
+    public void setUp() {
+        BasicFactory factory = new BasicFactory();
+
+        NewDistributedFlowTableStore store = activeStore();
+        int tableId = (int) addTable(store).id().value();
+        flowMods = batch(batchSize, i -> {
+            FlowRule rule = flowRule(tableId, store.getNewFlowEntryId(DEVICE_ID, tableId));
+            return FlowModBuilder.builder(rule, factory, store, Optional.of((long) i), Optional.empty())
+                    .buildFlowAdd();
+        });
+        store.deactivate(null);
+
+        encoderChannel = new EmbeddedChannel(new OFMessageEncoder());
+        decoderChannel = new EmbeddedChannel(new OFMessageDecoder());
+
+        // the switches' packet-ins as read from the socket
+        EmbeddedChannel channel = new EmbeddedChannel(new OFMessageEncoder());
+        channel.writeOutbound(batch(batchSize, i -> (OFMessage) packetIn(factory, i)));
+        ByteBuf encoded = channel.readOutbound();
+        packetIns = Unpooled.directBuffer(encoded.readableBytes()).writeBytes(encoded);
+        encoded.release();
+        channel.finish();
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoderChannel.finishAndReleaseAll();
+        decoderChannel.finishAndReleaseAll();
+        packetIns.release();
+    }
+
+    @Benchmark
+    public int encodeFlowMods() {
+        encoderChannel.writeOutbound(flowMods);
+        ByteBuf out = encoderChannel.readOutbound();
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+    @Benchmark
+    public List<OFMessage> decodePacketIns() {
+        decoderChannel.writeInbound(packetIns.retainedDuplicate());
+        return decoderChannel.readInbound();
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * JMH microbenchmarks of the POF flow programming path: building matches,
+ * actions and flow mods, encoding and decoding POF messages and allocating
+ * table and entry ids in the flow table store.
+ * <p>
+ * The module is left out of the default builds. With maven it is built
+ * with the {@code bench} profile:
+ * <pre>
+ * mvn -Pbench -pl providers/pof/bench -am install -DskipTests
+ * java -jar providers/pof/bench/target/pof-benchmarks.jar -rf json -rff pof-bench.json
+ * </pre>
+ * and with buck from its own target:
+ * <pre>
+ * onos-buck build //providers/pof/bench:pof-benchmarks --show-output
+ * </pre>
+ * No reference results are kept; compare runs made on the same machine.
+ */
+package org.onosproject.provider.pof.bench;
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.emulator;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import org.onlab.packet.Data;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.MacAddress;
+import org.onosproject.floodlightpof.protocol.OFFeaturesReply;
+import org.onosproject.floodlightpof.protocol.OFGetConfigReply;
+import org.onosproject.floodlightpof.protocol.OFMessage;
+import org.onosproject.floodlightpof.protocol.OFPacketIn;
+import org.onosproject.floodlightpof.protocol.OFPhysicalPort;
+import org.onosproject.floodlightpof.protocol.OFPortStatus;
+import org.onosproject.floodlightpof.protocol.OFSetConfig;
+import org.onosproject.floodlightpof.protocol.OFType;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
+import org.onosproject.floodlightpof.protocol.table.OFTableResource;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.slf4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Emulated POF switch holding one connection to the controller.
+ * <p>
+ * The switch completes the POF handshake, reports its ports and table
+ * resources, accepts flow and table modifications, answers barriers, echoes
+ * and statistics requests, and can generate packet-ins on request. It keeps
+ * counters of the messages it received for throughput measurements, and the
+ * time it took to answer each request, from reading the request off the
+ * connection to writing out the reply, for latency measurements.
+ */
+@Sharable
+public final class EmulatedPofSwitch extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = getLogger(EmulatedPofSwitch.class);
+
+    private static final short MISS_SEND_LENGTH = (short) 0xffff;
+    private static final short EXPERIMENTAL_ETHER_TYPE = (short) 0x88b5;
+    private static final int PORT_SPEED = 10000000;
+    private static final int HEADER_LENGTH = 14;
+
+    private final int deviceId;
+    private final int portCount;
+    private final int tableNum;
+    private final int tableSize;
+    private final int keyLength;
+    private final byte[] frame;
+    private final BasicFactory factory = new BasicFactory();
+
+    private final AtomicLong flowMods = new AtomicLong();
+    private final AtomicLong tableMods = new AtomicLong();
+    private final AtomicLong barriers = new AtomicLong();
+    private final AtomicLong statsRequests = new AtomicLong();
+    private final AtomicLong packetOuts = new AtomicLong();
+    private final AtomicLong packetIns = new AtomicLong();
+    private final MessageWindow flowModWindow = new MessageWindow();
+    private final MessageWindow tableModWindow = new MessageWindow();
+    private final LatencyHistogram replyLatency = new LatencyHistogram();
+
+    private volatile Channel channel;
+    private volatile boolean active;
+
+    // only touched by the packet-in generator
+    private double packetInCredit;
+    private int nextInPort = 1;
+
+    /**
+     * Creates an emulated switch.
+     *
+     * @param deviceId     POF device id reported in the features reply
+     * @param portCount    number of ports reported
+     * @param tableNum     number of tables reported for each table type
+     * @param tableSize    number of entries reported for each table type
+     * @param keyLength    key length in bits reported for each table type
+     * @param packetInSize size in bytes of the generated packet-in frames
+     */
+    EmulatedPofSwitch(int deviceId, int portCount, int tableNum, int tableSize,
+                      int keyLength, int packetInSize) {
+        this.deviceId = deviceId;
+        this.portCount = portCount;
+        this.tableNum = tableNum;
+        this.tableSize = tableSize;
+        this.keyLength = keyLength;
+        this.frame = frame(deviceId, packetInSize);
+    }
+
+    /**
+     * Returns the POF device id of the switch.
+     *
+     * @return device id
+     */
+    public int deviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Indicates whether the switch has reported its ports and resources to
+     * the controller.
+     *
+     * @return true if the handshake is complete
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Returns the number of flow-mods received.
+     *
+     * @return flow-mod count
+     */
+    public long flowMods() {
+        return flowMods.get();
+    }
+
+    /**
+     * Returns the number of table-mods received.
+     *
+     * @return table-mod count
+     */
+    public long tableMods() {
+        return tableMods.get();
+    }
+
+    /**
+     * Returns the number of barrier requests answered.
+     *
+     * @return barrier count
+     */
+    public long barriers() {
+        return barriers.get();
+    }
+
+    /**
+     * Returns the number of statistics requests answered.
+     *
+     * @return statistics request count
+     */
+    public long statsRequests() {
+        return statsRequests.get();
+    }
+
+    /**
+     * Returns the number of packet-outs received.
+     *
+     * @return packet-out count
+     */
+    public long packetOuts() {
+        return packetOuts.get();
+    }
+
+    /**
+     * Returns the number of packet-ins sent.
+     *
+     * @return packet-in count
+     */
+    public long packetIns() {
+        return packetIns.get();
+    }
+
+    /**
+     * Returns the rate at which flow-mods were received, between the first
+     * and the last flow-mod since the counters were reset.
+     *
+     * @return flow-mods per second; 0 if fewer than two were received
+     */
+    public double flowModRate() {
+        return flowModWindow.rate();
+    }
+
+    /**
+     * Returns the rate at which table-mods were received, between the first
+     * and the last table-mod since the counters were reset.
+     *
+     * @return table-mods per second; 0 if fewer than two were received
+     */
+    public double tableModRate() {
+        return tableModWindow.rate();
+    }
+
+    /**
+     * Returns the time it took to answer the requests received since the
+     * counters were reset.
+     *
+     * @return reply latency distribution
+     */
+    public LatencyHistogram replyLatency() {
+        return replyLatency;
+    }
+
+    /**
+     * Resets all message counters.
+     */
+    public void resetCounters() {
+        flowMods.set(0);
+        tableMods.set(0);
+        barriers.set(0);
+        statsRequests.set(0);
+        packetOuts.set(0);
+        packetIns.set(0);
+        flowModWindow.reset();
+        tableModWindow.reset();
+        replyLatency.reset();
+    }
+
+    /**
+     * Opens the connection to the controller.
+     *
+     * @param bootstrap  client bootstrap to connect with
+     * @param controller controller address
+     * @return connection future
+     */
+    ChannelFuture connect(Bootstrap bootstrap, InetSocketAddress controller) {
+        return bootstrap.clone()
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast("codec", new PofMessageCodec());
+                        ch.pipeline().addLast("switch", EmulatedPofSwitch.this);
+                    }
+                })
+                .connect(controller);
+    }
+
+    /**
+     * Closes the connection to the controller.
+     */
+    void disconnect() {
+        active = false;
+        Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    /**
+     * Sends packet-ins to the controller. Fractions of packets are carried
+     * over to the next call, so that low rates are met on average.
+     *
+     * @param count number of packet-ins to send
+     */
+    void sendPacketIns(double count) {
+        Channel ch = channel;
+        if (!active || ch == null || !ch.isWritable()) {
+            // do not pile up packets the controller is not reading
+            packetInCredit = 0;
+            return;
+        }
+        packetInCredit += count;
+        int n = (int) packetInCredit;
+        if (n == 0) {
+            return;
+        }
+        packetInCredit -= n;
+
+        List<OFMessage> messages = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            messages.add(packetIn());
+        }
+        ch.writeAndFlush(messages);
+        packetIns.addAndGet(n);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        channel = ctx.channel();
+        send(factory.getOFMessage(OFType.HELLO));
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        active = false;
+        channel = null;
+        log.debug("Emulated switch {} disconnected", deviceId);
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        long received = System.nanoTime();
+        for (OFMessage m : (List<OFMessage>) msg) {
+            handle(m, received);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.warn("Emulated switch {} closing its connection: {}", deviceId, cause.getMessage());
+        ctx.close();
+    }
+
+    private void handle(OFMessage m, long received) {
+        switch (m.getType()) {
+            case FEATURES_REQUEST:
+                answer(featuresReply(m.getXid()), received);
+                break;
+            case SET_CONFIG:
+                if (((OFSetConfig) m).getMissSendLength() != MISS_SEND_LENGTH) {
+                    log.debug("Emulated switch {} ignores miss send length {}",
+                              deviceId, ((OFSetConfig) m).getMissSendLength());
+                }
+                break;
+            case GET_CONFIG_REQUEST:
+                // the controller expects the resources and the ports right
+                // after the configuration
+                List<OFMessage> handshake = new ArrayList<>(portCount + 2);
+                handshake.add(configReply(m.getXid()));
+                handshake.add(resourceReport());
+                for (int port = 1; port <= portCount; port++) {
+                    handshake.add(portStatus(port, OFPortStatus.OFPortReason.OFPPR_ADD));
+                }
+                answer(handshake, received);
+                active = true;
+                log.debug("Emulated switch {} completed its handshake", deviceId);
+                break;
+            case ECHO_REQUEST:
+                answer(reply(OFType.ECHO_REPLY, m), received);
+                break;
+            case BARRIER_REQUEST:
+                barriers.incrementAndGet();
+                answer(reply(OFType.BARRIER_REPLY, m), received);
+                break;
+            case MULTIPART_REQUEST:
+                statsRequests.incrementAndGet();
+                answer(reply(OFType.MULTIPART_REPLY, m), received);
+                break;
+            case PORT_STATUS:
+                // port statistics are requested with a port status message
+                statsRequests.incrementAndGet();
+                List<OFMessage> ports = new ArrayList<>(portCount);
+                for (int port = 1; port <= portCount; port++) {
+                    ports.add(portStatus(port, OFPortStatus.OFPortReason.OFPPR_MODIFY));
+                }
+                answer(ports, received);
+                break;
+            case FLOW_MOD:
+                flowMods.incrementAndGet();
+                flowModWindow.record();
+                break;
+            case TABLE_MOD:
+                tableMods.incrementAndGet();
+                tableModWindow.record();
+                break;
+            case PACKET_OUT:
+                packetOuts.incrementAndGet();
+                break;
+            case HELLO:
+            case ECHO_REPLY:
+            default:
+                log.trace("Emulated switch {} ignores {}", deviceId, m.getType());
+                break;
+        }
+    }
+
+    private void send(OFMessage message) {
+        send(Collections.singletonList(message));
+    }
+
+    private void answer(OFMessage reply, long received) {
+        answer(Collections.singletonList(reply), received);
+    }
+
+    // Sends the reply to a request read at the given time and records how
+    // long the request took to be answered once the reply is written out.
+    private void answer(List<OFMessage> replies, long received) {
+        Channel ch = channel;
+        if (ch != null) {
+            ch.writeAndFlush(replies).addListener(f -> {
+                if (f.isSuccess()) {
+                    replyLatency.record(System.nanoTime() - received);
+                }
+            });
+        }
+    }
+
+    private void send(List<OFMessage> messages) {
+        Channel ch = channel;
+        if (ch != null) {
+            ch.writeAndFlush(messages);
+        }
+    }
+
+    private OFMessage reply(OFType type, OFMessage request) {
+        OFMessage reply = factory.getOFMessage(type);
+        reply.setXid(request.getXid());
+        return reply;
+    }
+
+    private OFMessage featuresReply(int xid) {
+        OFFeaturesReply reply = (OFFeaturesReply) factory.getOFMessage(OFType.FEATURES_REPLY);
+        reply.setXid(xid);
+        reply.setDeviceId(deviceId);
+        reply.setPortNum((short) portCount);
+        reply.setTableNum((short) (tableNum * OFTableType.OF_MAX_TABLE_TYPE.getValue()));
+        return reply;
+    }
+
+    private OFMessage configReply(int xid) {
+        OFGetConfigReply reply = (OFGetConfigReply) factory.getOFMessage(OFType.GET_CONFIG_REPLY);
+        reply.setXid(xid);
+        reply.setMissSendLength(MISS_SEND_LENGTH);
+        return reply;
+    }
+
+    private OFMessage resourceReport() {
+        Map<OFTableType, OFTableResource> resources = new HashMap<>();
+        for (byte type = 0; type < OFTableType.OF_MAX_TABLE_TYPE.getValue(); type++) {
+            OFTableResource resource = new OFTableResource();
+            resource.setTableType(OFTableType.values()[type]);
+            resource.setTableNum((byte) tableNum);
+            resource.setKeyLength((short) keyLength);
+            resource.setTotalSize(tableSize);
+            resources.put(OFTableType.values()[type], resource);
+        }
+        OFFlowTableResource report = (OFFlowTableResource) factory.getOFMessage(OFType.RESOURCE_REPORT);
+        report.setTableResourcesMap(resources);
+        return report;
+    }
+
+    private OFMessage portStatus(int portId, OFPortStatus.OFPortReason reason) {
+        OFPhysicalPort port = new OFPhysicalPort();
+        port.setDeviceId(deviceId);
+        port.setPortId(portId);
+        port.setName("eth" + portId);
+        port.setHardwareAddress(MacAddress.valueOf(((long) deviceId << 16) | portId).toBytes());
+        port.setCurrentSpeed(PORT_SPEED);
+        port.setMaxSpeed(PORT_SPEED);
+        port.setOpenflowEnable((byte) 1);
+
+        OFPortStatus status = (OFPortStatus) factory.getOFMessage(OFType.PORT_STATUS);
+        status.setReason((byte) reason.ordinal());
+        status.setDesc(port);
+        return status;
+    }
+
+    private OFMessage packetIn() {
+        int inPort = nextInPort;
+        nextInPort = inPort % portCount + 1;
+
+        OFPacketIn packetIn = (OFPacketIn) factory.getOFMessage(OFType.PACKET_IN);
+        packetIn.setBufferId(-1);
+        packetIn.setTotalLength((short) frame.length);
+        packetIn.setReason(OFPacketIn.OFPacketInReason.NO_MATCH);
+        packetIn.setDeviceId(deviceId);
+        packetIn.setPortId(inPort);
+        packetIn.setPacketData(frame);
+        packetIn.setLengthU(OFPacketIn.MINIMUM_LENGTH + frame.length);
+        return packetIn;
+    }
+
+    // Builds the frame carried by the packet-ins: a broadcast frame of an
+    // experimental ether type, padded to the requested size.
+    private static byte[] frame(int deviceId, int size) {
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(MacAddress.valueOf((long) deviceId << 16));
+        eth.setDestinationMACAddress(MacAddress.BROADCAST);
+        eth.setEtherType(EXPERIMENTAL_ETHER_TYPE);
+        eth.setPayload(new Data(new byte[Math.max(0, size - HEADER_LENGTH)]));
+        return eth.serialize();
+    }
+
+    /**
+     * Arrival times of the first and the last message of a kind.
+     */
+    private static final class MessageWindow {
+        private final AtomicLong count = new AtomicLong();
+        private volatile long firstNanos;
+        private volatile long lastNanos;
+
+        private void record() {
+            long now = System.nanoTime();
+            if (count.getAndIncrement() == 0) {
+                firstNanos = now;
+            }
+            lastNanos = now;
+        }
+
+        private double rate() {
+            long n = count.get();
+            long elapsed = lastNanos - firstNanos;
+            if (n < 2 || elapsed <= 0) {
+                return 0;
+            }
+            return (n - 1) * 1e9 / elapsed;
+        }
+
+        private void reset() {
+            count.set(0);
+        }
+    }
+}
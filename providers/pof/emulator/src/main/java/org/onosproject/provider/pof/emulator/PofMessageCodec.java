@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.emulator;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageCodec;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.onosproject.floodlightpof.protocol.OFMessage;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+
+import java.util.List;
+
+/**
+ * Switch side POF message codec. Decodes all complete messages of a read
+ * as one list and encodes lists of messages into a single buffer, the same
+ * way the controller side codec does.
+ */
+final class PofMessageCodec extends ByteToMessageCodec<List<OFMessage>> {
+
+    private final BasicFactory factory = new BasicFactory();
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, List<OFMessage> messages,
+                          ByteBuf out) throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        for (OFMessage message : messages) {
+            message.writeTo(buffer);
+        }
+        out.writeBytes(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(),
+                       buffer.readableBytes());
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in,
+                          List<Object> out) throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(in.nioBuffer());
+        List<OFMessage> messages = factory.parseOFMessage(buffer);
+        in.skipBytes(buffer.readerIndex());
+
+        if (messages != null && !messages.isEmpty()) {
+            out.add(messages);
+        }
+    }
+}
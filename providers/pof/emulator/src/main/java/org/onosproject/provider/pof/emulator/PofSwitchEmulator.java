@@ -0,0 +1,281 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.emulator;
+
+import com.google.common.collect.ImmutableList;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.Service;
+import org.onosproject.cfg.ComponentConfigService;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.onlab.util.Tools.get;
+import static org.onlab.util.Tools.groupedThreads;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Emulator of POF switches connecting to the POF controller over loopback
+ * TCP connections. To be used for load-testing the POF southbound only.
+ */
+@Component(immediate = true)
+@Service(value = PofSwitchEmulator.class)
+public class PofSwitchEmulator {
+
+    private static final Logger log = getLogger(PofSwitchEmulator.class);
+
+    private static final String FORMAT =
+            "Settings: enabled={}, controller={}:{}, switchCount={}, " +
+                    "portCount={}, tableNum={}, packetInRate={}";
+
+    // period of the packet-in generator
+    private static final long TICK_MILLIS = 10;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    @Property(name = "enabled", boolValue = false,
+            label = "Enables or disables the emulated switches")
+    private boolean enabled = false;
+
+    private static final String DEFAULT_CONTROLLER_ADDRESS = "127.0.0.1";
+    @Property(name = "controllerAddress", value = DEFAULT_CONTROLLER_ADDRESS,
+            label = "Address the emulated switches connect to")
+    private String controllerAddress = DEFAULT_CONTROLLER_ADDRESS;
+
+    private static final int DEFAULT_CONTROLLER_PORT = 6643;
+    @Property(name = "controllerPort", intValue = DEFAULT_CONTROLLER_PORT,
+            label = "POF port the emulated switches connect to")
+    private int controllerPort = DEFAULT_CONTROLLER_PORT;
+
+    private static final int DEFAULT_SWITCH_COUNT = 10;
+    @Property(name = "switchCount", intValue = DEFAULT_SWITCH_COUNT,
+            label = "Number of switches to emulate")
+    private int switchCount = DEFAULT_SWITCH_COUNT;
+
+    private static final int DEFAULT_FIRST_DEVICE_ID = 1000;
+    @Property(name = "firstDeviceId", intValue = DEFAULT_FIRST_DEVICE_ID,
+            label = "POF device id of the first emulated switch")
+    private int firstDeviceId = DEFAULT_FIRST_DEVICE_ID;
+
+    private static final int DEFAULT_PORT_COUNT = 4;
+    @Property(name = "portCount", intValue = DEFAULT_PORT_COUNT,
+            label = "Number of ports of each emulated switch")
+    private int portCount = DEFAULT_PORT_COUNT;
+
+    private static final int DEFAULT_TABLE_NUM = 8;
+    @Property(name = "tableNum", intValue = DEFAULT_TABLE_NUM,
+            label = "Number of tables reported for each table type")
+    private int tableNum = DEFAULT_TABLE_NUM;
+
+    private static final int DEFAULT_TABLE_SIZE = 4096;
+    @Property(name = "tableSize", intValue = DEFAULT_TABLE_SIZE,
+            label = "Number of entries reported for each table type")
+    private int tableSize = DEFAULT_TABLE_SIZE;
+
+    private static final int DEFAULT_KEY_LENGTH = 320;
+    @Property(name = "keyLength", intValue = DEFAULT_KEY_LENGTH,
+            label = "Key length in bits reported for each table type")
+    private int keyLength = DEFAULT_KEY_LENGTH;
+
+    private static final int DEFAULT_PACKET_IN_RATE = 0;
+    @Property(name = "packetInRate", intValue = DEFAULT_PACKET_IN_RATE,
+            label = "Packet-in/s rate of each switch; 0 for no packets")
+    private volatile int packetInRate = DEFAULT_PACKET_IN_RATE;
+
+    private static final int DEFAULT_PACKET_IN_SIZE = 64;
+    @Property(name = "packetInSize", intValue = DEFAULT_PACKET_IN_SIZE,
+            label = "Size in bytes of the frames carried by the packet-ins")
+    private int packetInSize = DEFAULT_PACKET_IN_SIZE;
+
+    private EventLoopGroup eventLoopGroup;
+    private ScheduledExecutorService packetInGenerator;
+    private volatile List<EmulatedPofSwitch> switches = ImmutableList.of();
+
+    @Activate
+    public void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        modified(context);
+        log.info("Started");
+    }
+
+    @Deactivate
+    public void deactivate() {
+        cfgService.unregisterProperties(getClass(), false);
+        tearDown();
+        log.info("Stopped");
+    }
+
+    @Modified
+    public void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
+
+        boolean newEnabled;
+        String newControllerAddress;
+        int newControllerPort, newSwitchCount, newFirstDeviceId, newPortCount;
+        int newTableNum, newTableSize, newKeyLength, newPacketInRate, newPacketInSize;
+        try {
+            String s = get(properties, "enabled");
+            newEnabled = isNullOrEmpty(s) ? enabled : Boolean.parseBoolean(s.trim());
+
+            s = get(properties, "controllerAddress");
+            newControllerAddress = isNullOrEmpty(s) ? controllerAddress : s.trim();
+
+            newControllerPort = intValue(properties, "controllerPort", controllerPort);
+            newSwitchCount = intValue(properties, "switchCount", switchCount);
+            newFirstDeviceId = intValue(properties, "firstDeviceId", firstDeviceId);
+            newPortCount = intValue(properties, "portCount", portCount);
+            newTableNum = intValue(properties, "tableNum", tableNum);
+            newTableSize = intValue(properties, "tableSize", tableSize);
+            newKeyLength = intValue(properties, "keyLength", keyLength);
+            newPacketInRate = intValue(properties, "packetInRate", packetInRate);
+            newPacketInSize = intValue(properties, "packetInSize", packetInSize);
+        } catch (NumberFormatException e) {
+            log.warn(e.getMessage());
+            return;
+        }
+
+        // Any change in the following parameters implies hard restart
+        if (newEnabled != enabled || !Objects.equals(newControllerAddress, controllerAddress) ||
+                newControllerPort != controllerPort || newSwitchCount != switchCount ||
+                newFirstDeviceId != firstDeviceId || newPortCount != portCount ||
+                newTableNum != tableNum || newTableSize != tableSize ||
+                newKeyLength != keyLength || newPacketInSize != packetInSize) {
+            enabled = newEnabled;
+            controllerAddress = newControllerAddress;
+            controllerPort = newControllerPort;
+            switchCount = newSwitchCount;
+            firstDeviceId = newFirstDeviceId;
+            portCount = newPortCount;
+            tableNum = newTableNum;
+            tableSize = newTableSize;
+            keyLength = newKeyLength;
+            packetInSize = newPacketInSize;
+            restartEmulation();
+        }
+
+        // The packet-in rate is picked up by the generator on its next tick
+        packetInRate = newPacketInRate;
+
+        log.info(FORMAT, enabled, controllerAddress, controllerPort, switchCount,
+                 portCount, tableNum, packetInRate);
+    }
+
+    /**
+     * Returns the emulated switches.
+     *
+     * @return emulated switches; empty if the emulator is disabled
+     */
+    public List<EmulatedPofSwitch> switches() {
+        return switches;
+    }
+
+    /**
+     * Resets the message counters of all emulated switches.
+     */
+    public void resetCounters() {
+        switches.forEach(EmulatedPofSwitch::resetCounters);
+    }
+
+    private static int intValue(Dictionary<?, ?> properties, String name, int current) {
+        String s = get(properties, name);
+        return isNullOrEmpty(s) ? current : Integer.parseInt(s.trim());
+    }
+
+    // Resets emulation based on the current configuration parameters.
+    private synchronized void restartEmulation() {
+        tearDown();
+        if (enabled) {
+            setUp();
+        }
+    }
+
+    private synchronized void setUp() {
+        eventLoopGroup = new NioEventLoopGroup(0, groupedThreads("onos/pof-emulator", "io-%d", log));
+        Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true);
+        InetSocketAddress controller = new InetSocketAddress(controllerAddress, controllerPort);
+
+        ImmutableList.Builder<EmulatedPofSwitch> builder = ImmutableList.builder();
+        for (int i = 0; i < switchCount; i++) {
+            EmulatedPofSwitch sw = new EmulatedPofSwitch(firstDeviceId + i, portCount, tableNum,
+                                                         tableSize, keyLength, packetInSize);
+            sw.connect(bootstrap, controller).addListener(f -> {
+                if (!f.isSuccess()) {
+                    log.warn("Emulated switch {} failed to connect to {}: {}",
+                             sw.deviceId(), controller, f.cause().getMessage());
+                }
+            });
+            builder.add(sw);
+        }
+        switches = builder.build();
+
+        packetInGenerator = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("onos/pof-emulator", "packet-in", log));
+        packetInGenerator.scheduleAtFixedRate(this::generatePacketIns,
+                                              TICK_MILLIS, TICK_MILLIS, MILLISECONDS);
+    }
+
+    private synchronized void tearDown() {
+        if (packetInGenerator != null) {
+            packetInGenerator.shutdownNow();
+            packetInGenerator = null;
+        }
+        switches.forEach(EmulatedPofSwitch::disconnect);
+        switches = ImmutableList.of();
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdownGracefully();
+            eventLoopGroup = null;
+        }
+    }
+
+    private void generatePacketIns() {
+        int rate = packetInRate;
+        if (rate <= 0) {
+            return;
+        }
+        double perTick = rate * TICK_MILLIS / 1000.0;
+        try {
+            switches.forEach(sw -> sw.sendPacketIns(perTick));
+        } catch (Exception e) {
+            // keep the generator scheduled
+            log.warn("Unable to generate packet-ins", e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.emulator.cli;
+
+import org.apache.karaf.shell.commands.Argument;
+import org.apache.karaf.shell.commands.Command;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.provider.pof.emulator.PofSwitchEmulator;
+
+import static org.onosproject.cli.StartStopCompleter.START;
+
+/**
+ * Starts or stops the POF switch emulation.
+ */
+@Command(scope = "onos", name = "pof-emulator",
+        description = "Starts or stops the POF switch emulation")
+public class PofEmulatorControlCommand extends AbstractShellCommand {
+
+    @Argument(index = 0, name = "cmd", description = "Control command: start/stop",
+            required = true, multiValued = false)
+    String cmd = null;
+
+    @Argument(index = 1, name = "switchCount", description = "Number of switches to emulate",
+            required = false, multiValued = false)
+    Integer switchCount = null;
+
+    @Argument(index = 2, name = "packetInRate", description = "Packet-in/s rate of each switch",
+            required = false, multiValued = false)
+    Integer packetInRate = null;
+
+    @Override
+    protected void execute() {
+        ComponentConfigService service = get(ComponentConfigService.class);
+        String name = PofSwitchEmulator.class.getName();
+        if (switchCount != null) {
+            service.setProperty(name, "switchCount", switchCount.toString());
+        }
+        if (packetInRate != null) {
+            service.setProperty(name, "packetInRate", packetInRate.toString());
+        }
+        service.setProperty(name, "enabled", cmd.equals(START) ? "true" : "false");
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.emulator.cli;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.provider.pof.emulator.EmulatedPofSwitch;
+import org.onosproject.provider.pof.emulator.LatencyHistogram;
+import org.onosproject.provider.pof.emulator.PofSwitchEmulator;
+
+import java.util.List;
+
+/**
+ * Lists the message counters of the emulated POF switches.
+ */
+@Command(scope = "onos", name = "pof-emulator-stats",
+        description = "Lists the message counters of the emulated POF switches")
+public class PofEmulatorStatsCommand extends AbstractShellCommand {
+
+    private static final String FORMAT =
+            "deviceId=%d, active=%s, flowMods=%d (%.1f/s), tableMods=%d (%.1f/s), " +
+                    "barriers=%d, statsRequests=%d, packetIns=%d, packetOuts=%d, " +
+                    "replies=%d (mean=%.0fus, p50<=%dus, p99<=%dus, max=%dus)";
+    private static final String TOTAL_FORMAT =
+            "total: switches=%d, active=%d, flowMods=%d, tableMods=%d, " +
+                    "barriers=%d, statsRequests=%d, packetIns=%d, packetOuts=%d, " +
+                    "replies=%d (max=%dus)";
+
+    @Option(name = "-r", aliases = "--reset", description = "Reset the counters after listing them",
+            required = false, multiValued = false)
+    private boolean reset = false;
+
+    @Option(name = "-s", aliases = "--short", description = "Show totals only",
+            required = false, multiValued = false)
+    private boolean shortOnly = false;
+
+    @Override
+    protected void execute() {
+        PofSwitchEmulator emulator = get(PofSwitchEmulator.class);
+        List<EmulatedPofSwitch> switches = emulator.switches();
+
+        int active = 0;
+        long flowMods = 0, tableMods = 0, barriers = 0, statsRequests = 0, packetIns = 0, packetOuts = 0;
+        long replies = 0, maxLatency = 0;
+        for (EmulatedPofSwitch sw : switches) {
+            LatencyHistogram latency = sw.replyLatency();
+            if (!shortOnly) {
+                print(FORMAT, sw.deviceId(), sw.isActive(), sw.flowMods(), sw.flowModRate(),
+                      sw.tableMods(), sw.tableModRate(), sw.barriers(), sw.statsRequests(),
+                      sw.packetIns(), sw.packetOuts(), latency.count(), latency.meanMicros(),
+                      latency.percentileMicros(50), latency.percentileMicros(99), latency.maxMicros());
+            }
+            active += sw.isActive() ? 1 : 0;
+            flowMods += sw.flowMods();
+            tableMods += sw.tableMods();
+            barriers += sw.barriers();
+            statsRequests += sw.statsRequests();
+            packetIns += sw.packetIns();
+            packetOuts += sw.packetOuts();
+            replies += latency.count();
+            maxLatency = Math.max(maxLatency, latency.maxMicros());
+        }
+        print(TOTAL_FORMAT, switches.size(), active, flowMods, tableMods,
+              barriers, statsRequests, packetIns, packetOuts, replies, maxLatency);
+
+        if (reset) {
+            emulator.resetCounters();
+        }
+    }
+
+}
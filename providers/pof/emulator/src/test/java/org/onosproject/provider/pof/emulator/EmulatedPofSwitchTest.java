@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.emulator;
+
+import com.google.common.collect.ImmutableList;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.floodlightpof.protocol.OFFeaturesReply;
+import org.onosproject.floodlightpof.protocol.OFMessage;
+import org.onosproject.floodlightpof.protocol.OFType;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests of the request handling of the emulated POF switch.
+ */
+public class EmulatedPofSwitchTest {
+
+    private static final int DEVICE_ID = 1000;
+    private static final int PORT_COUNT = 4;
+
+    private final BasicFactory factory = new BasicFactory();
+    private EmulatedPofSwitch sw;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        sw = new EmulatedPofSwitch(DEVICE_ID, PORT_COUNT, 8, 4096, 320, 64);
+        channel = new EmbeddedChannel(sw);
+        // the switch greets the controller as soon as it is connected
+        assertThat(read().get(0).getType(), is(OFType.HELLO));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private OFMessage request(OFType type, int xid) {
+        OFMessage request = factory.getOFMessage(type);
+        request.setXid(xid);
+        return request;
+    }
+
+    private void write(OFMessage... messages) {
+        channel.writeInbound(ImmutableList.copyOf(messages));
+    }
+
+    private List<OFMessage> read() {
+        return channel.readOutbound();
+    }
+
+    /**
+     * Tests that the handshake requests are answered and complete the
+     * handshake once the ports and resources are reported.
+     */
+    @Test
+    public void testHandshake() {
+        write(request(OFType.FEATURES_REQUEST, 1));
+        List<OFMessage> replies = read();
+        assertThat(replies.size(), is(1));
+        assertThat(replies.get(0).getType(), is(OFType.FEATURES_REPLY));
+        assertThat(replies.get(0).getXid(), is(1));
+        assertThat(((OFFeaturesReply) replies.get(0)).getDeviceId(), is(DEVICE_ID));
+        assertThat(sw.isActive(), is(false));
+
+        write(request(OFType.SET_CONFIG, 2), request(OFType.GET_CONFIG_REQUEST, 3));
+        replies = read();
+        assertThat(replies.size(), is(PORT_COUNT + 2));
+        assertThat(replies.get(0).getType(), is(OFType.GET_CONFIG_REPLY));
+        assertThat(replies.get(0).getXid(), is(3));
+        assertThat(replies.get(1).getType(), is(OFType.RESOURCE_REPORT));
+        for (OFMessage port : replies.subList(2, replies.size())) {
+            assertThat(port.getType(), is(OFType.PORT_STATUS));
+        }
+        assertThat(sw.isActive(), is(true));
+        assertThat(sw.replyLatency().count(), is(2L));
+    }
+
+    /**
+     * Tests that each request is answered with its own transaction id and
+     * timed, and that modifications are counted without being answered.
+     */
+    @Test
+    public void testRequestsAnsweredAndTimed() {
+        write(request(OFType.FLOW_MOD, 10), request(OFType.FLOW_MOD, 11),
+              request(OFType.TABLE_MOD, 12), request(OFType.BARRIER_REQUEST, 13),
+              request(OFType.ECHO_REQUEST, 14), request(OFType.MULTIPART_REQUEST, 15));
+
+        List<OFMessage> barrier = read();
+        assertThat(barrier.get(0).getType(), is(OFType.BARRIER_REPLY));
+        assertThat(barrier.get(0).getXid(), is(13));
+        List<OFMessage> echo = read();
+        assertThat(echo.get(0).getType(), is(OFType.ECHO_REPLY));
+        assertThat(echo.get(0).getXid(), is(14));
+        List<OFMessage> stats = read();
+        assertThat(stats.get(0).getType(), is(OFType.MULTIPART_REPLY));
+        assertThat(stats.get(0).getXid(), is(15));
+        assertThat(read(), is(nullValue()));
+
+        assertThat(sw.flowMods(), is(2L));
+        assertThat(sw.tableMods(), is(1L));
+        assertThat(sw.barriers(), is(1L));
+        assertThat(sw.statsRequests(), is(1L));
+
+        LatencyHistogram latency = sw.replyLatency();
+        assertThat(latency.count(), is(3L));
+        assertThat(latency.percentileMicros(50), lessThanOrEqualTo(latency.percentileMicros(99)));
+        assertThat(latency.percentileMicros(99), lessThanOrEqualTo(latency.maxMicros()));
+
+        sw.resetCounters();
+        assertThat(sw.flowMods(), is(0L));
+        assertThat(sw.replyLatency().count(), is(0L));
+        assertThat(sw.replyLatency().percentileMicros(99), is(0L));
+    }
+
+    /**
+     * Tests that the latency percentiles report the upper end of the power
+     * of two bucket they fall into.
+     */
+    @Test
+    public void testLatencyPercentiles() {
+        LatencyHistogram latency = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            latency.record(5_000);
+        }
+        latency.record(1_000_000);
+
+        assertThat(latency.count(), is(100L));
+        assertThat(latency.maxMicros(), is(1000L));
+        assertThat(latency.percentileMicros(50), is(7L));
+        assertThat(latency.percentileMicros(99), is(7L));
+        assertThat(latency.percentileMicros(100), is(1000L));
+    }
+}
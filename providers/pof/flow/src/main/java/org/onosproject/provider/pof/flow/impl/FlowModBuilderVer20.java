@@ -32,8 +32,8 @@ import org.onosproject.net.flow.criteria.PofCriterion;
 import org.onosproject.net.flow.instructions.Instruction;
 import org.onosproject.net.flow.instructions.PofAction;
 import org.onosproject.net.flow.instructions.PofInstruction;
-import org.onosproject.net.table.FlowTable;
 import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.FlowTableLayout;
 import org.onosproject.net.table.FlowTableStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +42,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 
@@ -57,8 +59,10 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
     private TrafficSelector selector;
     private TrafficTreatment treatment;
     private FlowRule flowRule;
-    private FlowTable flowTable;
+    private FlowTableId tableId;
+    private FlowTableLayout layout;
     private DeviceId deviceId;
+    private int matchKeyLength;
     private int flowEntryId;
     protected FlowTableStore flowTableStore;
 
@@ -82,56 +86,55 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
         this.deviceId = flowRule.deviceId();
         this.flowEntryId = (int) flowRule.id().value();
         this.flowTableStore = flowTableStore;
-        FlowTable flowtable = flowTableStore.getFlowTableInternal(flowRule.deviceId(), FlowTableId
-                .valueOf(flowRule.tableId()));
-        if (flowtable == null) {
+        this.tableId = FlowTableId.valueOf(flowRule.tableId());
+        this.layout = flowTableStore.getFlowTableLayout(deviceId, tableId);
+        if (layout == null) {
             log.info("++++ flow table is null");
         }
-        this.flowTable = flowtable;
     }
 
 
     @Override
     public OFFlowMod buildFlowAdd() {
+        if (layout == null) {
+            log.error("No flow table {} on {}", tableId, deviceId);
+            return null;
+        }
         List<OFMatchX> matchXList = buildMatch();
         List<OFInstruction> insList = buildInstruction();
 
-        OFTableType tableType = null;
-
-        if (flowTable == null) {
-            log.error("++++ flow table is null");
-        }
-        
-        tableType = flowTable.flowTable().getTableType();
-        if ((tableType == OFTableType.OF_LINEAR_TABLE && flowTable.flowTable()
-                .getMatchFieldNum() != 0 && matchXList != null && matchXList.size() != 0)
-                || (tableType != OFTableType.OF_LINEAR_TABLE && (flowTable.flowTable().getMatchFieldNum() == 0
-                || matchXList.isEmpty() || matchXList.size() != flowTable.flowTable().getMatchFieldNum()))
-                || insList.size() == 0 || insList == null) {
+        if (!isValidEntry(matchXList, insList)) {
             //return FLOWENTRYID_INVALID;
-            log.error("ERROR in check table in buildFlowAdd1");
+            log.error("ERROR in check table in buildFlowAdd, matchKeyLength: {}, keyLength: {}",
+                      matchKeyLength, layout.keyLength());
             return null;
         }
 
-        if (null != matchXList) {
-            int totalFiledLength = 0;
-            for (OFMatchX matchX : matchXList) {
-                if (matchX == null) {
-                    log.error("ERROR in check table in buildFlowAdd2");
-                    return null;
-                }
-                log.info("OFMatchX: " + matchX.toString());
-                totalFiledLength += matchX.getLength();
-            }
-            if (totalFiledLength != flowTable.flowTable().getKeyLength()) {
-                log.error("ERROR in check table in buildFlowAdd3, totalFiledLength: {}, getKeyLength: {}",
-                        totalFiledLength, flowTable.flowTable().getKeyLength());
-                return null;
+        //add flow entry
+        return addFlowEntry(deviceId, tableId, matchXList, insList, (short) flowRule().priority(), true);
+    }
+
+    /**
+     * Checks a built entry against the table layout. The key length of the
+     * matches was summed up by {@link #buildMatch()}, so this does not depend
+     * on the size of the table schema.
+     *
+     * @param matchXList the matches of the entry
+     * @param insList the instructions of the entry
+     * @return true if the entry fits the table
+     */
+    private boolean isValidEntry(List<OFMatchX> matchXList, List<OFInstruction> insList) {
+        if (insList == null || insList.isEmpty()) {
+            return false;
+        }
+        if (layout.tableType() == OFTableType.OF_LINEAR_TABLE) {
+            if (layout.fieldCount() != 0 && !matchXList.isEmpty()) {
+                return false;
             }
+        } else if (layout.fieldCount() == 0 || matchXList.size() != layout.fieldCount()) {
+            return false;
         }
-
-        //add flow entry
-        return addFlowEntry(deviceId, flowTable.id(), matchXList, insList, (short) flowRule().priority(), true);
+        return matchKeyLength == layout.keyLength();
     }
 
     private OFFlowMod addFlowEntry(DeviceId deviceID, FlowTableId globalTableId,
@@ -139,11 +142,11 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
                                    List<OFInstruction> instructionList,
                                    short priority, boolean counterEnable) {
 
-        log.info("buildver20.addflowentry");
-        OFTableType tableType = flowTable.flowTable().getTableType();
+        OFTableType tableType = layout.tableType();
         byte smallFlowTableId = flowTableStore.parseToSmallTableId(deviceID, (byte) globalTableId.value());
 
         OFFlowMod newFlowEntry = new OFFlowMod();
+        newFlowEntry.setXid(xid.intValue());
         newFlowEntry.setTableId(smallFlowTableId);
         newFlowEntry.setTableType(tableType);
         newFlowEntry.setIndex(flowEntryId);
@@ -156,44 +159,27 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
         newFlowEntry.setCommand((byte) OFFlowMod.OFFlowEntryCmd.OFPFC_ADD.ordinal());
         newFlowEntry.setLengthU(OFFlowMod.MAXIMAL_LENGTH);
 
-        flowTableStore.addFlowEntry(deviceID, flowTable.id(), this.flowRule);
-        log.info("buildver20. newflowentry:{}", newFlowEntry.toString());
+        flowTableStore.addFlowEntry(deviceID, tableId, this.flowRule);
+        log.debug("buildver20. newflowentry:{}", newFlowEntry);
         return newFlowEntry;
     }
 
     @Override
     public OFFlowMod buildFlowMod() {
+        if (layout == null) {
+            log.error("No flow table {} on {}", tableId, deviceId);
+            return null;
+        }
         List<OFMatchX> matchXList = buildMatch();
         List<OFInstruction> insList = buildInstruction();
 
-        OFTableType tableType;
-        tableType = flowTable.flowTable().getTableType();
-
-        if ((tableType == OFTableType.OF_LINEAR_TABLE && flowTable.flowTable().getMatchFieldNum() != 0
-                && !matchXList.isEmpty()) || (tableType != OFTableType.OF_LINEAR_TABLE
-                && (flowTable.flowTable().getMatchFieldNum() == 0
-                || matchXList.size() != flowTable.flowTable()
-                .getMatchFieldNum())) || insList.size() == 0 || insList == null) {
+        if (!isValidEntry(matchXList, insList)) {
             //return FLOWENTRYID_INVALID;
-            log.error("ERROR in check table in buildFlowAdd4");
+            log.error("ERROR in check table in buildFlowMod, matchKeyLength: {}, keyLength: {}",
+                      matchKeyLength, layout.keyLength());
             return null;
         }
 
-        if (null != matchXList) {
-            int totalFiledLength = 0;
-            for (OFMatchX matchX : matchXList) {
-                if (matchX == null) {
-                    log.error("ERROR in check table in buildFlowAdd5");
-                    return null;
-                }
-                totalFiledLength += matchX.getLength();
-            }
-            if (totalFiledLength != flowTable.flowTable().getKeyLength()) {
-                log.error("ERROR in check table in buildFlowAdd6");
-                return null;
-            }
-        }
-
         //mod flow entry
         return modFlowEntry(deviceId, (int) flowRule()
                 .id().value(), matchXList, insList, (short) flowRule().priority(), true);
@@ -204,13 +190,14 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
                                    List<OFMatchX> matchList,
                                    List<OFInstruction> instructionList,
                                    short priority, boolean counterEnable) {
-        FlowRule oldFlowEntry = flowTableStore.getFlowEntries(deviceID, flowTable.id())
+        FlowRule oldFlowEntry = flowTableStore.getFlowEntries(deviceID, tableId)
                 .get(flowEntryID);
 
 
         OFFlowMod oldFlowMod = new OFFlowMod();
+        oldFlowMod.setXid(xid.intValue());
         oldFlowMod.setTableId((byte) oldFlowEntry.tableId());
-        oldFlowMod.setTableType(flowTable.flowTable().getTableType());
+        oldFlowMod.setTableType(layout.tableType());
         oldFlowMod.setIndex(flowEntryID);
 
         oldFlowMod.setLengthU(OFFlowMod.MAXIMAL_LENGTH);
@@ -222,7 +209,7 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
         oldFlowMod.setPriority(priority);
         oldFlowMod.setCommand((byte) OFFlowMod.OFFlowEntryCmd.OFPFC_MODIFY.ordinal());
 
-        flowTableStore.modifyFlowEntry(deviceID, flowTable.id(), oldFlowEntry);
+        flowTableStore.modifyFlowEntry(deviceID, tableId, oldFlowEntry);
 
         return oldFlowMod;
     }
@@ -231,31 +218,57 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
     public OFFlowMod buildFlowDel() {
 
         //del flow entry
-        log.info("delFlowEntry : {}", deviceId.toString());
-        log.info("delFlowEntry : {}", flowTable.id().value());
-        log.info("delFlowEntry : {}", flowRule().id().value());
         return delFlowEntry(deviceId, (int) flowRule().id().value());
     }
 
 
     private OFFlowMod delFlowEntry(DeviceId deviceID, int flowEntryID) {
 
-        log.info("delFlowEntry deviceId: {}, Table ID: {}, entry ID: {}", deviceID, flowTable
-                .id(), flowEntryID);
+        log.debug("delFlowEntry deviceId: {}, Table ID: {}, entry ID: {}", deviceID, tableId, flowEntryID);
 
-        FlowRule oldFlowEntry = flowTableStore.getFlowEntries(deviceID, flowTable.id())
-                .get(flowEntryID);
+        if (layout == null) {
+            log.error("No flow table {} on {}", tableId, deviceId);
+            return null;
+        }
+        Map<Integer, FlowRule> entries = flowTableStore.getFlowEntries(deviceID, tableId);
+        FlowRule oldFlowEntry = entries == null ? null : entries.get(flowEntryID);
+        if (oldFlowEntry == null) {
+            log.error("No flow entry {} in table {} on {}", flowEntryID, tableId, deviceId);
+            return null;
+        }
 
         OFFlowMod oldFlowMod = new OFFlowMod();
+        oldFlowMod.setXid(xid.intValue());
         oldFlowMod.setTableId((byte) oldFlowEntry.tableId());
-        oldFlowMod.setTableType(flowTable.flowTable().getTableType());
+        oldFlowMod.setTableType(layout.tableType());
         oldFlowMod.setIndex(flowEntryID);
         oldFlowMod.setLengthU(OFFlowMod.MAXIMAL_LENGTH);
         oldFlowMod.setCommand((byte) OFFlowMod.OFFlowEntryCmd.OFPFC_DELETE.ordinal());
 
-        flowTableStore.deleteFlowEntry(deviceID, flowTable.id(), flowEntryID);
+        flowTableStore.deleteFlowEntry(deviceID, tableId, flowEntryID);
         return oldFlowMod;
     }
+    /**
+     * To MatchX. When the criterion describes exactly the given table field,
+     * the table field is reused as the field description and the criterion's
+     * value and mask arrays are handed over as they are, so nothing but the
+     * match itself is allocated.
+     *
+     * @param pc the criterion to convert
+     * @param matchFieldInTable the corresponding match field of the table
+     * @return OFMatchX
+     */
+    private OFMatchX toMatchX(PofCriterion pc, OFMatch20 matchFieldInTable) {
+        if (matchFieldInTable.getFieldId() == pc.fieldId()
+                && matchFieldInTable.getOffset() == pc.offset()
+                && matchFieldInTable.getLength() == pc.length()
+                && (Objects.equals(pc.fieldName(), matchFieldInTable.getFieldName())
+                    || (pc.fieldName() == null && pc.fieldId() != OFMatch20.METADATA_FIELD_ID))) {
+            return new OFMatchX(matchFieldInTable, pc.value(), pc.mask());
+        }
+        return toMatchX(pc);
+    }
+
     /**
      * To MatchX.
      * @return OFMatchX
@@ -275,17 +288,16 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
 
 
     /**
-     * Builds the match for the flow mod.
+     * Builds the match for the flow mod, checking each criterion against the
+     * corresponding field of the table layout and summing up the key length
+     * of the entry on the way.
      *
      * @return the match
      */
-    // CHECKSTYLE IGNORE MethodLength FOR NEXT 300 LINES
     protected List<OFMatchX> buildMatch() {
-        List<OFMatchX> matchXList = new ArrayList<>();
-        if (flowTable.flowTable().getTableType() != OFTableType.OF_LINEAR_TABLE) {
-//            log.info("++++ flowTable: " + flowTable.toString());
-            int matchFieldNum = flowTable.flowTable().getMatchFieldNum();
-            List<OFMatch20> matchFieldList = flowTable.flowTable().getMatchFieldList();
+        matchKeyLength = 0;
+        if (layout != null && layout.tableType() != OFTableType.OF_LINEAR_TABLE) {
+            int matchFieldNum = layout.fieldCount();
             Set<Criterion> criterions = selector.criteria();
 
             Criterion criterion = criterions.iterator().next();
@@ -297,34 +309,31 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
                     log.error("match field number in the entry should be {}", matchFieldNum);
                     return new ArrayList<>();
                 }
+                List<OFMatchX> matchXList = new ArrayList<>(matchFieldNum);
+                int keyLength = 0;
                 for (int i = 0; i < matchFieldNum; i++) {
                     PofCriterion pc = (PofCriterion) list.get(i);
-                    OFMatchX matchX = toMatchX(pc);
-                    if (matchX == null) {
-                        log.error("parse matchX error");
-                        return new ArrayList<>();
-                    }
-                    OFMatch20 matchFieldInTable = matchFieldList.get(i);
-                    if (matchX.getFieldId() == OFMatch20.METADATA_FIELD_ID && matchFieldInTable.getFieldName() != null) {
-                        if (!matchFieldInTable.getFieldName().equalsIgnoreCase(matchX.getFieldName())) {
-                            log.error("matchX[" + i + "] should be metadata[name= " + matchFieldInTable
-                                    .getFieldName() + "]");
-                           return new ArrayList<>();
-                        }
-                    } else {
-                        if (matchFieldInTable.getFieldId() != matchX.getFieldId()) {
-                            log.error("matchX[" + i + "] should be field[id= " + matchFieldInTable.getFieldId() + "]");
+                    OFMatch20 matchFieldInTable = layout.field(i);
+                    if (pc.fieldId() == OFMatch20.METADATA_FIELD_ID && matchFieldInTable.getFieldName() != null) {
+                        if (!matchFieldInTable.getFieldName().equalsIgnoreCase(pc.fieldName())) {
+                            log.error("matchX[{}] should be metadata[name= {}]", i,
+                                      matchFieldInTable.getFieldName());
                             return new ArrayList<>();
                         }
+                    } else if (layout.fieldId(i) != pc.fieldId()) {
+                        log.error("matchX[{}] should be field[id= {}]", i, layout.fieldId(i));
+                        return new ArrayList<>();
                     }
 
-                    matchXList.add(matchX);
+                    matchXList.add(toMatchX(pc, matchFieldInTable));
+                    keyLength += pc.length();
                 }
-
+                matchKeyLength = keyLength;
+                return matchXList;
             }
         }
 
-        return matchXList;
+        return new ArrayList<>();
     }
 
 
@@ -353,7 +362,6 @@ public class FlowModBuilderVer20 extends FlowModBuilder {
                     log.warn("Instruction type {} not yet implemented.", i.type());
             }
         }
-        log.info("++++ buildInstruction: return instrustions.");
         return ofIns;
     }
 
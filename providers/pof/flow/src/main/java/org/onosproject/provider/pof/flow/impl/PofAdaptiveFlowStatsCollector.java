@@ -0,0 +1,335 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.flow.impl;
+
+import com.google.common.collect.Maps;
+import org.onlab.osgi.DefaultServiceDirectory;
+import org.onosproject.floodlightpof.protocol.OFMultipartRequest;
+import org.onosproject.floodlightpof.protocol.OFType;
+import org.onosproject.floodlightpof.protocol.statistics.OFFlowStatisticsRequest;
+import org.onosproject.floodlightpof.protocol.statistics.OFStatisticsType;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowEntry.FlowLiveType;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.table.FlowTable;
+import org.onosproject.net.table.FlowTableStore;
+import org.onosproject.pof.controller.Dpid;
+import org.onosproject.pof.controller.PofSwitch;
+import org.onosproject.pof.controller.RoleState;
+import org.slf4j.Logger;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Adaptively collects flow statistics for the specified POF switch.
+ * <p>
+ * Flow entries are classified by how long they have lived, as done by the
+ * OpenFlow adaptive collector. Statistics are requested per flow table, and
+ * each table is polled at the rate of its youngest entry: tables holding new
+ * or short-lived entries every round, tables holding only mid-lived entries
+ * every second round and tables holding only long-lived entries every third
+ * round. Every table of the switch is polled once every sixth round. The
+ * first round of each switch is delayed by a random fraction of the poll
+ * interval so that polls of different switches do not line up.
+ * </p>
+ * <p>
+ * The live type of each entry is kept by the collector rather than in the
+ * flow rule store, and the poll intervals are those of this collector only.
+ * A table whose last request is not answered yet is not polled again before
+ * the next round polling every table.
+ * </p>
+ */
+class PofAdaptiveFlowStatsCollector {
+
+    private final Logger log = getLogger(getClass());
+
+    private static final int MID_POLL_TIMES = 2;
+    private static final int LONG_POLL_TIMES = 3;
+    private static final int ENTIRE_POLL_TIMES = 6;
+
+    private static final int MIN_CAL_AND_POLL_FREQUENCY = 2;
+    private static final int MAX_CAL_AND_POLL_FREQUENCY = 60;
+
+    private static final long MILLIS = 1000L;
+
+    // statistics requests are numbered apart from the batches of the rule
+    // provider, numbered from 1, and of the table provider, from 2^30
+    private static final int XID_BASE = 1 << 29;
+    private static final int XID_COUNT = 1 << 29;
+
+    private final ScheduledExecutorService scheduler;
+    private final PofSwitch sw;
+    private final DeviceId did;
+    private final FlowTableStore flowTableStore;
+    private final FlowRuleService flowRuleService;
+
+    private int calAndPollInterval;
+    private int midPollInterval;
+    private int longPollInterval;
+    private int entirePollInterval;
+
+    // live type of every entry seen in the last round, by flow id
+    private Map<FlowId, FlowLiveType> liveTypes = Maps.newHashMap();
+
+    // tables with a request not answered yet, with the round it was sent in
+    private final Map<Integer, Long> pendingTables = Maps.newHashMap();
+    // table of each request not answered yet, by xid
+    private final Map<Integer, Integer> pendingXids = Maps.newHashMap();
+    private int nextXid;
+
+    private ScheduledFuture<?> pollTask;
+    private long round;
+
+    /**
+     * Creates a new adaptive collector for the given switch.
+     *
+     * @param scheduler      executor running the polls of all switches
+     * @param sw             switch to poll
+     * @param flowTableStore flow table store, used to map global table ids
+     * @param pollInterval   poll frequency of the youngest entries, in seconds
+     */
+    PofAdaptiveFlowStatsCollector(ScheduledExecutorService scheduler, PofSwitch sw,
+                                  FlowTableStore flowTableStore, int pollInterval) {
+        this(scheduler, sw, flowTableStore,
+             DefaultServiceDirectory.getService(FlowRuleService.class), pollInterval);
+    }
+
+    /**
+     * Creates a new adaptive collector for the given switch.
+     *
+     * @param scheduler       executor running the polls of all switches
+     * @param sw              switch to poll
+     * @param flowTableStore  flow table store, used to map global table ids
+     * @param flowRuleService flow rule service, source of the entries to classify
+     * @param pollInterval    poll frequency of the youngest entries, in seconds
+     */
+    PofAdaptiveFlowStatsCollector(ScheduledExecutorService scheduler, PofSwitch sw,
+                                  FlowTableStore flowTableStore, FlowRuleService flowRuleService,
+                                  int pollInterval) {
+        this.scheduler = scheduler;
+        this.sw = sw;
+        this.did = DeviceId.deviceId(Dpid.uri(sw.getId()));
+        this.flowTableStore = flowTableStore;
+        this.flowRuleService = flowRuleService;
+        initPollIntervals(pollInterval);
+    }
+
+    private void initPollIntervals(int pollInterval) {
+        calAndPollInterval = Math.max(MIN_CAL_AND_POLL_FREQUENCY,
+                                      Math.min(pollInterval, MAX_CAL_AND_POLL_FREQUENCY));
+        midPollInterval = MID_POLL_TIMES * calAndPollInterval;
+        longPollInterval = LONG_POLL_TIMES * calAndPollInterval;
+        entirePollInterval = ENTIRE_POLL_TIMES * calAndPollInterval;
+    }
+
+    /**
+     * Adjusts adaptive poll frequency.
+     *
+     * @param pollInterval poll frequency of the youngest entries, in seconds
+     */
+    synchronized void adjustCalAndPollInterval(int pollInterval) {
+        initPollIntervals(pollInterval);
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            schedule();
+        }
+        log.debug("calAndPollInterval={} is adjusted for {}", calAndPollInterval, sw.getStringId());
+    }
+
+    /**
+     * Starts adaptive flow statistic collection.
+     */
+    synchronized void start() {
+        log.debug("Starting AdaptiveStats collection for {}", sw.getStringId());
+        round = 0;
+        liveTypes = Maps.newHashMap();
+        pendingTables.clear();
+        pendingXids.clear();
+        schedule();
+    }
+
+    /**
+     * Stops adaptive flow statistic collection.
+     */
+    synchronized void stop() {
+        log.debug("Stopping AdaptiveStats collection for {}", sw.getStringId());
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+    }
+
+    private void schedule() {
+        long period = calAndPollInterval * MILLIS;
+        long jitter = ThreadLocalRandom.current().nextLong(period);
+        pollTask = scheduler.scheduleWithFixedDelay(this::poll, jitter, period,
+                                                    TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a single poll round.
+     */
+    synchronized void poll() {
+        if (sw.getRole() != RoleState.MASTER || !sw.isConnected()) {
+            return;
+        }
+        try {
+            if (round % ENTIRE_POLL_TIMES == 0) {
+                log.trace("Collecting entire AdaptiveStats for {}", sw.getStringId());
+                pollAllTables();
+            } else {
+                pollDueTables();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to collect flow statistics for {}", sw.getStringId(), e);
+        }
+        round++;
+    }
+
+    private void pollAllTables() {
+        for (FlowTable table : flowTableStore.getFlowTables(did)) {
+            sendFlowStatsRequest((int) table.id().value());
+        }
+    }
+
+    private void pollDueTables() {
+        Map<FlowId, FlowLiveType> seen = Maps.newHashMap();
+        Map<Integer, FlowLiveType> youngest = Maps.newHashMap();
+        for (FlowEntry fe : flowRuleService.getFlowEntries(did)) {
+            FlowLiveType liveType = checkAndMoveLiveFlow(fe, liveTypes.get(fe.id()));
+            seen.put(fe.id(), liveType);
+            youngest.merge(fe.tableId(), liveType,
+                           (a, b) -> a.compareTo(b) <= 0 ? a : b);
+        }
+        // entries gone from the store are dropped with the old map
+        liveTypes = seen;
+
+        youngest.forEach((tableId, liveType) -> {
+            if (isDue(liveType)) {
+                sendFlowStatsRequest(tableId);
+            }
+        });
+    }
+
+    private boolean isDue(FlowLiveType liveType) {
+        switch (liveType) {
+            case MID:
+                return round % MID_POLL_TIMES == 0;
+            case LONG:
+                return round % LONG_POLL_TIMES == 0;
+            default:
+                // immediate, short and not yet classified entries
+                return true;
+        }
+    }
+
+    // moves the entry to an older live type once it outlived its current one
+    private FlowLiveType checkAndMoveLiveFlow(FlowEntry fe, FlowLiveType liveType) {
+        long fromLastSeen = (System.currentTimeMillis() - fe.lastSeen()) / MILLIS;
+        long liveTime = fe.life() + fromLastSeen;
+
+        if (liveType == FlowLiveType.UNKNOWN || liveType == null) {
+            liveType = calFlowLiveType(liveTime);
+        } else if (liveType == FlowLiveType.IMMEDIATE && liveTime >= calAndPollInterval) {
+            liveType = FlowLiveType.SHORT;
+        } else if (liveType == FlowLiveType.SHORT && liveTime >= midPollInterval) {
+            liveType = FlowLiveType.MID;
+        } else if (liveType == FlowLiveType.MID && liveTime >= longPollInterval) {
+            liveType = FlowLiveType.LONG;
+        }
+        return liveType;
+    }
+
+    /**
+     * Returns the live type the collector last gave to the given entry.
+     *
+     * @param flowId flow id of the entry
+     * @return live type, or null if the entry was not seen in the last round
+     */
+    synchronized FlowLiveType liveType(FlowId flowId) {
+        return liveTypes.get(flowId);
+    }
+
+    /**
+     * Notes that the switch answered a statistics request.
+     *
+     * @param xid transaction id of the reply
+     */
+    synchronized void statsReplyReceived(int xid) {
+        Integer tableId = pendingXids.remove(xid);
+        if (tableId != null) {
+            pendingTables.remove(tableId);
+        }
+    }
+
+    /**
+     * Calculates the flow live type.
+     *
+     * @param life the flow life time in seconds
+     * @return computed flow live type
+     */
+    FlowLiveType calFlowLiveType(long life) {
+        if (life < 0) {
+            return FlowLiveType.UNKNOWN;
+        } else if (life < calAndPollInterval) {
+            return FlowLiveType.IMMEDIATE;
+        } else if (life < midPollInterval) {
+            return FlowLiveType.SHORT;
+        } else if (life < longPollInterval) {
+            return FlowLiveType.MID;
+        } else {
+            return FlowLiveType.LONG;
+        }
+    }
+
+    // asks the switch for the statistics of a single table
+    private void sendFlowStatsRequest(int globalTableId) {
+        Long sentRound = pendingTables.get(globalTableId);
+        if (sentRound != null && round % ENTIRE_POLL_TIMES != 0) {
+            log.trace("Table {} of {} did not answer since round {}",
+                      globalTableId, sw.getStringId(), sentRound);
+            return;
+        }
+        byte tableId = flowTableStore.parseToSmallTableId(did, globalTableId);
+
+        OFFlowStatisticsRequest body = new OFFlowStatisticsRequest();
+        body.setTableId(tableId);
+
+        OFMultipartRequest request =
+                (OFMultipartRequest) sw.factory().getOFMessage(OFType.MULTIPART_REQUEST);
+        request.setStatisticType(OFStatisticsType.FLOW);
+        request.setStatistics(Collections.singletonList(body));
+        request.setLengthU(request.getLengthU() + body.getLength());
+        int xid = XID_BASE + nextXid;
+        nextXid = (nextXid + 1) % XID_COUNT;
+        request.setXid(xid);
+        pendingXids.values().remove(globalTableId);
+        pendingXids.put(xid, globalTableId);
+        pendingTables.put(globalTableId, round);
+
+        log.trace("Requesting flow stats of table {} from {}", globalTableId, sw.getStringId());
+        sw.sendMsg(request);
+    }
+}
@@ -19,6 +19,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -33,6 +34,7 @@ import org.onosproject.floodlightpof.protocol.OFError;
 import org.onosproject.floodlightpof.protocol.OFFlowMod;
 import org.onosproject.floodlightpof.protocol.OFMessage;
 import org.onosproject.floodlightpof.protocol.OFPortStatus;
+import org.onosproject.floodlightpof.protocol.OFType;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.driver.DriverService;
@@ -46,6 +48,7 @@ import org.onosproject.net.flow.FlowRuleProviderRegistry;
 import org.onosproject.net.flow.FlowRuleProviderService;
 import org.onosproject.net.provider.AbstractProvider;
 import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.statistic.DefaultLoad;
 import org.onosproject.net.table.FlowTableStore;
 import org.onosproject.pof.controller.Dpid;
 import org.onosproject.pof.controller.PofController;
@@ -57,16 +60,23 @@ import org.onosproject.pof.controller.ThirdPartyMessage;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static org.onlab.util.Tools.get;
+import static org.onlab.util.Tools.groupedThreads;
 import static org.slf4j.LoggerFactory.getLogger;
 
 
@@ -96,6 +106,8 @@ public class PofRuleProvider extends AbstractProvider
     protected FlowTableStore flowTableStore;
 
     private static final int DEFAULT_POLL_FREQUENCY = 5;
+    private static final int STATS_THREADS = 2;
+
     @Property(name = "flowPollFrequency", intValue = DEFAULT_POLL_FREQUENCY,
             label = "Frequency (in seconds) for polling flow statistics")
     private int flowPollFrequency = DEFAULT_POLL_FREQUENCY;
@@ -109,8 +121,16 @@ public class PofRuleProvider extends AbstractProvider
 
     private final InternalFlowProvider listener = new InternalFlowProvider();
 
-    private Cache<Long, InternalCacheEntry> pendingBatches;
+    // batches waiting for their barrier reply, keyed by the barrier xid
+    private Cache<Integer, InternalCacheEntry> pendingBatches;
+
+    // flow mods of pending batches, keyed by their xid, to attribute errors
+    private final Map<Integer, InternalCacheEntry> pendingFlowMods = Maps.newConcurrentMap();
+
+    private final AtomicInteger xidCounter = new AtomicInteger(1);
 
+    private ScheduledExecutorService statsScheduler;
+    private final Map<Dpid, PofAdaptiveFlowStatsCollector> afsCollectors = Maps.newConcurrentMap();
 
     /**
      * Creates an OpenFlow host provider.
@@ -134,15 +154,17 @@ public class PofRuleProvider extends AbstractProvider
 
         pendingBatches = createBatchCache();
 
-        //createCollectors();
-
-
+        statsScheduler = Executors.newScheduledThreadPool(
+                STATS_THREADS, groupedThreads("onos/pof", "flow-stats-collector-%d", log));
+        createCollectors();
     }
 
     @Deactivate
     public void deactivate(ComponentContext context) {
         cfgService.unregisterProperties(getClass(), false);
-        //stopCollectors();
+        stopCollectors();
+        statsScheduler.shutdownNow();
+        statsScheduler = null;
         providerRegistry.unregister(this);
         providerService = null;
 
@@ -163,7 +185,7 @@ public class PofRuleProvider extends AbstractProvider
 
         if (newFlowPollFrequency != flowPollFrequency) {
             flowPollFrequency = newFlowPollFrequency;
-            //adjustRate();
+            adjustRate();
         }
 
         log.info("Settings: flowPollFrequency={}", flowPollFrequency);
@@ -174,87 +196,77 @@ public class PofRuleProvider extends AbstractProvider
 
         if (newAdaptiveFlowSampling != adaptiveFlowSampling) {
             // stop previous collector
-            //stopCollectors();
+            stopCollectors();
             adaptiveFlowSampling = newAdaptiveFlowSampling;
             // create new collectors
-            //createCollectors();
+            createCollectors();
         }
 
         log.info("Settings: adaptiveFlowSampling={}", adaptiveFlowSampling);
     }
 
-    private Cache<Long, InternalCacheEntry> createBatchCache() {
+    private Cache<Integer, InternalCacheEntry> createBatchCache() {
         return CacheBuilder.newBuilder()
                 .expireAfterWrite(10, TimeUnit.SECONDS)
-                .removalListener((RemovalNotification<Long, InternalCacheEntry> notification) -> {
+                .removalListener((RemovalNotification<Integer, InternalCacheEntry> notification) -> {
+                    InternalCacheEntry entry = notification.getValue();
+                    entry.flowModXids().forEach(pendingFlowMods::remove);
                     if (notification.getCause() == RemovalCause.EXPIRED) {
-                        providerService.batchOperationCompleted(notification.getKey(),
-                                notification.getValue().failedCompletion());
+                        providerService.batchOperationCompleted(entry.batchId(),
+                                entry.failedCompletion());
                     }
                 }).build();
     }
 
-//    private void createCollectors() {
-//        controller.getSwitches().forEach(this::createCollector);
-//    }
+    private int nextXid() {
+        return xidCounter.getAndIncrement();
+    }
+
+    private void createCollectors() {
+        if (statsScheduler == null) {
+            // not activated yet
+            return;
+        }
+        controller.getSwitches().forEach(this::createCollector);
+    }
 
-    /*wenjian
     private void createCollector(PofSwitch sw) {
-        if (adaptiveFlowSampling) {
-            // NewAdaptiveFlowStatsCollector Constructor
-            NewAdaptiveFlowStatsCollector fsc =
-                    new NewAdaptiveFlowStatsCollector(driverService, sw, flowPollFrequency);
-            fsc.start();
-            afsCollectors.put(new Dpid(sw.getId()), fsc);
-        } else {
-            FlowStatsCollector fsc = new FlowStatsCollector(timer, sw, flowPollFrequency);
-            fsc.start();
-            simpleCollectors.put(new Dpid(sw.getId()), fsc);
-        }
-        TableStatisticsCollector tsc = new TableStatisticsCollector(timer, sw, flowPollFrequency);
-        tsc.start();
-        tableStatsCollectors.put(new Dpid(sw.getId()), tsc);
+        if (sw == null || !adaptiveFlowSampling) {
+            // POF switches have no non-adaptive flow stats collection yet
+            return;
+        }
+        PofAdaptiveFlowStatsCollector fsc =
+                new PofAdaptiveFlowStatsCollector(statsScheduler, sw, flowTableStore, flowPollFrequency);
+        PofAdaptiveFlowStatsCollector old = afsCollectors.put(new Dpid(sw.getId()), fsc);
+        if (old != null) {
+            old.stop();
+        }
+        fsc.start();
     }
 
     private void stopCollectors() {
-        if (adaptiveFlowSampling) {
-            // NewAdaptiveFlowStatsCollector Destructor
-            afsCollectors.values().forEach(NewAdaptiveFlowStatsCollector::stop);
-            afsCollectors.clear();
-        } else {
-            simpleCollectors.values().forEach(FlowStatsCollector::stop);
-            simpleCollectors.clear();
-        }
-        tableStatsCollectors.values().forEach(TableStatisticsCollector::stop);
-        tableStatsCollectors.clear();
+        afsCollectors.values().forEach(PofAdaptiveFlowStatsCollector::stop);
+        afsCollectors.clear();
     }
-    */
 
-    /*wenjian
     private void adjustRate() {
         DefaultLoad.setPollInterval(flowPollFrequency);
-        if (adaptiveFlowSampling) {
-            // NewAdaptiveFlowStatsCollector calAndPollInterval
-            afsCollectors.values().forEach(fsc -> fsc.adjustCalAndPollInterval(flowPollFrequency));
-        } else {
-            simpleCollectors.values().forEach(fsc -> fsc.adjustPollInterval(flowPollFrequency));
-        }
-        tableStatsCollectors.values().forEach(tsc -> tsc.adjustPollInterval(flowPollFrequency));
+        afsCollectors.values().forEach(fsc -> fsc.adjustCalAndPollInterval(flowPollFrequency));
     }
-    */
 
     @Override
     public void applyFlowRule(FlowRule... flowRules) {
+        Map<PofSwitch, List<OFMessage>> msgs = Maps.newHashMap();
         for (FlowRule flowRule : flowRules) {
-            applyRule(flowRule);
+            applyRule(flowRule, msgs);
         }
+        msgs.forEach(PofSwitch::sendMsg);
     }
 
 
-    private void applyRule(FlowRule flowRule) {
+    private void applyRule(FlowRule flowRule, Map<PofSwitch, List<OFMessage>> msgs) {
         Dpid dpid = Dpid.dpid(flowRule.deviceId().uri());
         PofSwitch sw = controller.getSwitch(dpid);
-        log.info("++++ sqy applyRule");
         if (sw == null) {
             return;
         }
@@ -262,15 +274,17 @@ public class PofRuleProvider extends AbstractProvider
         FlowRuleExtPayLoad flowRuleExtPayLoad = flowRule.payLoad();
         if (hasPayload(flowRuleExtPayLoad)) {
             OFMessage msg = new ThirdPartyMessage(flowRuleExtPayLoad.payLoad());
-            sw.sendMsg(msg);
+            msgs.computeIfAbsent(sw, k -> new ArrayList<>()).add(msg);
             return;
         }
-        log.info("++++ sqy before ofMessage:");
         OFMessage ofMessage = FlowModBuilder.builder(flowRule, sw.factory(), flowTableStore,
                 Optional.empty(), Optional.of(driverService)).buildFlowAdd();
-        log.info("++++ sqy ofMessage: " + ofMessage.toString());
-
-        sw.sendMsg(ofMessage);
+        if (ofMessage == null) {
+            log.warn("Unable to build flow mod for {}", flowRule);
+            return;
+        }
+        log.debug("Adding flow entry {} on {}", flowRule.id(), dpid);
+        msgs.computeIfAbsent(sw, k -> new ArrayList<>()).add(ofMessage);
 
 //        DefaultFlowEntry flowEntry = (DefaultFlowEntry) flowRule;
 //        flowEntry.setState(FlowEntry.FlowEntryState.ADDED);
@@ -286,13 +300,14 @@ public class PofRuleProvider extends AbstractProvider
 
     @Override
     public void removeFlowRule(FlowRule... flowRules) {
+        Map<PofSwitch, List<OFMessage>> msgs = Maps.newHashMap();
         for (FlowRule flowRule : flowRules) {
-            log.info("++++ ++++++++++pofruleprovider; {}", flowRule.deviceId().toString());
-            removeRule(flowRule);
+            removeRule(flowRule, msgs);
         }
+        msgs.forEach(PofSwitch::sendMsg);
     }
 
-    private void removeRule(FlowRule flowRule) {
+    private void removeRule(FlowRule flowRule, Map<PofSwitch, List<OFMessage>> msgs) {
         Dpid dpid = Dpid.dpid(flowRule.deviceId().uri());
         PofSwitch sw = controller.getSwitch(dpid);
 
@@ -300,16 +315,20 @@ public class PofRuleProvider extends AbstractProvider
             return;
         }
 
-        log.info("delFlowEntry : {}", flowRule.id().toString());
+        log.debug("Deleting flow entry {} on {}", flowRule.id(), dpid);
         FlowRuleExtPayLoad flowRuleExtPayLoad = flowRule.payLoad();
         if (hasPayload(flowRuleExtPayLoad)) {
             OFMessage msg = new ThirdPartyMessage(flowRuleExtPayLoad.payLoad());
-            sw.sendMsg(msg);
+            msgs.computeIfAbsent(sw, k -> new ArrayList<>()).add(msg);
+            return;
+        }
+        OFMessage ofMessage = FlowModBuilder.builder(flowRule, sw.factory(), flowTableStore,
+                Optional.empty(), Optional.of(driverService)).buildFlowDel();
+        if (ofMessage == null) {
+            log.warn("Unable to build flow mod to delete {}", flowRule);
             return;
         }
-        log.info("++++ ++++++++++pofruleprovider; {}");
-        sw.sendMsg(FlowModBuilder.builder(flowRule, sw.factory(), flowTableStore,
-                Optional.empty(), Optional.of(driverService)).buildFlowDel());
+        msgs.computeIfAbsent(sw, k -> new ArrayList<>()).add(ofMessage);
 
 //        DefaultFlowEntry flowEntry = (DefaultFlowEntry) flowRule;
 //        flowEntry.setState(FlowEntry.FlowEntryState.REMOVED);
@@ -332,13 +351,19 @@ public class PofRuleProvider extends AbstractProvider
     @Override
     public void executeBatch(FlowRuleBatchOperation batch) {
         checkNotNull(batch);
-        log.info("+++++ PofFlowRuleProvider executeBatch()");
-        pendingBatches.put(batch.id(), new InternalCacheEntry(batch));
-
 
         Dpid dpid = Dpid.dpid(batch.deviceId().uri());
-
         PofSwitch sw = controller.getSwitch(dpid);
+        InternalCacheEntry entry = new InternalCacheEntry(batch);
+        if (sw == null) {
+            log.warn("Switch {} is not connected; failing batch {}", dpid, batch.id());
+            providerService.batchOperationCompleted(batch.id(), entry.failedCompletion());
+            return;
+        }
+
+        // all flow mods of the batch and the closing barrier go out in a
+        // single write; the batch completes when the barrier is answered
+        List<OFMessage> msgs = new ArrayList<>(batch.size() + 1);
         OFFlowMod mod;
 
         for (FlowRuleBatchEntry fbe : batch.getOperations()) {
@@ -347,19 +372,16 @@ public class PofRuleProvider extends AbstractProvider
             FlowRuleExtPayLoad flowRuleExtPayLoad = fbe.target().payLoad();
 
             if (hasPayload(flowRuleExtPayLoad)) {
-                log.info("+++++ PofFlowRuleProvider hasPayload(flowRuleExtPayLoad)?");
-                OFMessage msg = new ThirdPartyMessage(flowRuleExtPayLoad.payLoad());
-                sw.sendMsg(msg);
+                msgs.add(new ThirdPartyMessage(flowRuleExtPayLoad.payLoad()));
                 continue;
             }
-            log.info("+++++ before flowModBuilder");
+            int xid = nextXid();
             FlowModBuilder builder =
                     FlowModBuilder.builder(fbe.target(), sw.factory(), flowTableStore,
-                            Optional.empty(), Optional.of(driverService));
+                            Optional.of((long) xid), Optional.of(driverService));
 
 //            DefaultFlowEntry flowEntry = (DefaultFlowEntry) fbe.target();
 
-            log.info("+++++ PofFlowRuleProvider fbe.operator() :{}", fbe.operator());
             switch (fbe.operator()) {
                 case ADD:
                     mod = builder.buildFlowAdd();
@@ -380,23 +402,25 @@ public class PofRuleProvider extends AbstractProvider
                             fbe.operator(), fbe);
                     continue;
             }
-            sw.sendMsg(mod);
-/*            providerService
-                    .batchOperationCompleted(batch.id(),
-                            pendingBatches.getIfPresent(batch.id()).completed());*/
-
-        }
-        //wenjian
-        /*
-        OFBarrierRequest.Builder builder = sw.factory().buildBarrierRequest()
-                .setXid(batch.id());
-        sw.sendMsg(builder.build());
-        */
-        //wenjian
-//        List<OFMessage> ofbr = new ArrayList<OFMessage>(1);
-//        ofbr.add(sw.factory().getOFMessage(OFType.BARRIER_REQUEST));
-//        sw.sendMsg(ofbr);
+            if (mod == null) {
+                log.warn("Unable to build {} flow mod for {}", fbe.operator(), fbe.target());
+                entry.appendFailure(fbe.target());
+                continue;
+            }
+            entry.addFlowMod(xid, fbe.target());
+            msgs.add(mod);
+        }
+
+        int barrierXid = nextXid();
+        OFMessage barrier = sw.factory().getOFMessage(OFType.BARRIER_REQUEST);
+        barrier.setXid(barrierXid);
+        msgs.add(barrier);
 
+        entry.flowModXids().forEach(xid -> pendingFlowMods.put(xid, entry));
+        pendingBatches.put(barrierXid, entry);
+        log.debug("Sending batch {} to {}: {} messages, barrier xid {}",
+                  batch.id(), dpid, msgs.size(), barrierXid);
+        sw.sendMsg(msgs);
     }
 
     private boolean hasPayload(FlowRuleExtPayLoad flowRuleExtPayLoad) {
@@ -410,10 +434,9 @@ public class PofRuleProvider extends AbstractProvider
 
         @Override
         public void switchAdded(Dpid dpid) {
-
-            PofSwitch sw = controller.getSwitch(dpid);
-
-            //createCollector(controller.getSwitch(dpid));
+            if (statsScheduler != null) {
+                createCollector(controller.getSwitch(dpid));
+            }
         }
 
         @Override
@@ -423,21 +446,10 @@ public class PofRuleProvider extends AbstractProvider
 
         @Override
         public void switchRemoved(Dpid dpid) {
-//            if (adaptiveFlowSampling) {
-//                NewAdaptiveFlowStatsCollector collector = afsCollectors.remove(dpid);
-//                if (collector != null) {
-//                    collector.stop();
-//                }
-//            } else {
-//                FlowStatsCollector collector = simpleCollectors.remove(dpid);
-//                if (collector != null) {
-//                    collector.stop();
-//                }
-//            }
-//            TableStatisticsCollector tsc = tableStatsCollectors.remove(dpid);
-//            if (tsc != null) {
-//                tsc.stop();
-//            }
+            PofAdaptiveFlowStatsCollector collector = afsCollectors.remove(dpid);
+            if (collector != null) {
+                collector.stop();
+            }
         }
 
         @Override
@@ -479,6 +491,12 @@ public class PofRuleProvider extends AbstractProvider
                     break;
                     wenjian*/
                 case MULTIPART_REPLY:
+                    // the replies are not decoded into flow entries yet, they
+                    // only tell the collector which tables answered
+                    PofAdaptiveFlowStatsCollector collector = afsCollectors.get(dpid);
+                    if (collector != null) {
+                        collector.statsReplyReceived(msg.getXid());
+                    }
                     /*wenjian, i am sorry that pof is not this reply yet
                     if (((OFFlowStatisticsReply) msg).getStatsType() == OFStatisticsType.FLOW) {
                         pushFlowMetrics(dpid, (OFFlowStatsReply) msg);
@@ -487,23 +505,22 @@ public class PofRuleProvider extends AbstractProvider
                     }
                     */
                     break;
-                /*wenjian
                 case BARRIER_REPLY:
                     try {
                         InternalCacheEntry entry = pendingBatches.getIfPresent(msg.getXid());
                         if (entry != null) {
                             providerService
-                                    .batchOperationCompleted(msg.getXid(),
+                                    .batchOperationCompleted(entry.batchId(),
                                                              entry.completed());
                         } else {
-                            log.warn("Received unknown Barrier Reply: {}",
-                                     msg.getXid());
+                            // may confirm a table batch of the table provider
+                            log.debug("Received unknown Barrier Reply: {}",
+                                      msg.getXid());
                         }
                     } finally {
                         pendingBatches.invalidate(msg.getXid());
                     }
                     break;
-                    wenjian*/
                 case ERROR:
                     /*wenjian
                     // TODO: This needs to get suppressed in a better way.
@@ -535,7 +552,12 @@ public class PofRuleProvider extends AbstractProvider
                                               + " tell us which one.");
                         }
                         */
-                        log.error("FLOW_MOD_FAILED");
+                        InternalCacheEntry entry = pendingFlowMods.get(msg.getXid());
+                        if (entry != null) {
+                            entry.appendFailure(msg.getXid());
+                        } else {
+                            log.error("No matching batch for this error: {}", error);
+                        }
                     }
                     break;
                 default:
@@ -630,12 +652,42 @@ public class PofRuleProvider extends AbstractProvider
     private class InternalCacheEntry {
 
         private final FlowRuleBatchOperation operation;
+        // written when the batch is sent, read when errors come back
+        private final Map<Integer, FlowRule> flowMods = Maps.newConcurrentMap();
         private final Set<FlowRule> failures = Sets.newConcurrentHashSet();
 
         public InternalCacheEntry(FlowRuleBatchOperation operation) {
             this.operation = operation;
         }
 
+        /**
+         * Returns the id of the batch operation.
+         *
+         * @return batch id
+         */
+        public long batchId() {
+            return operation.id();
+        }
+
+        /**
+         * Records the flow mod sent for a rule of the batch.
+         *
+         * @param xid  transaction id of the flow mod
+         * @param rule the rule the flow mod was built from
+         */
+        public void addFlowMod(int xid, FlowRule rule) {
+            flowMods.put(xid, rule);
+        }
+
+        /**
+         * Returns the transaction ids of the flow mods sent for the batch.
+         *
+         * @return flow mod xids
+         */
+        public Set<Integer> flowModXids() {
+            return flowMods.keySet();
+        }
+
         /**
          * Appends a failed rule to the set of failed items.
          *
@@ -645,6 +697,18 @@ public class PofRuleProvider extends AbstractProvider
             failures.add(rule);
         }
 
+        /**
+         * Appends the rule of a failed flow mod to the set of failed items.
+         *
+         * @param xid transaction id of the failed flow mod
+         */
+        public void appendFailure(int xid) {
+            FlowRule rule = flowMods.get(xid);
+            if (rule != null) {
+                failures.add(rule);
+            }
+        }
+
         /**
          * Fails the entire batch and returns the failed operation.
          *
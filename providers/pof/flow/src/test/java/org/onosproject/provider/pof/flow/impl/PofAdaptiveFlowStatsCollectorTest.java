@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.floodlightpof.protocol.OFMessage;
+import org.onosproject.floodlightpof.protocol.OFType;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowEntry.FlowLiveType;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.table.FlowTableStore;
+import org.onosproject.pof.controller.Dpid;
+import org.onosproject.pof.controller.PofSwitch;
+import org.onosproject.pof.controller.RoleState;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.captureInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests of the POF adaptive flow statistics collector.
+ */
+public class PofAdaptiveFlowStatsCollectorTest {
+
+    private static final DeviceId DEVICE_ID = DeviceId.deviceId("pof:0000000000000001");
+    private static final Dpid DPID = Dpid.dpid(DEVICE_ID.uri());
+    private static final int POLL_INTERVAL = 5;
+
+    private final Capture<OFMessage> sent = Capture.newInstance(CaptureType.ALL);
+    private final Capture<Integer> polledTables = Capture.newInstance(CaptureType.ALL);
+
+    private List<FlowEntry> entries = Lists.newArrayList();
+    private PofAdaptiveFlowStatsCollector collector;
+
+    @Before
+    public void setUp() {
+        PofSwitch sw = createNiceMock(PofSwitch.class);
+        expect(sw.getId()).andReturn(DPID.value()).anyTimes();
+        expect(sw.getRole()).andReturn(RoleState.MASTER).anyTimes();
+        expect(sw.isConnected()).andReturn(true).anyTimes();
+        expect(sw.factory()).andReturn(new BasicFactory()).anyTimes();
+        sw.sendMsg(capture(sent));
+        expectLastCall().anyTimes();
+        replay(sw);
+
+        FlowTableStore flowTableStore = createNiceMock(FlowTableStore.class);
+        expect(flowTableStore.getFlowTables(DEVICE_ID)).andReturn(Collections.emptyList()).anyTimes();
+        expect(flowTableStore.parseToSmallTableId(eq(DEVICE_ID), captureInt(polledTables)))
+                .andReturn((byte) 0).anyTimes();
+        replay(flowTableStore);
+
+        FlowRuleServiceAdapter flowRuleService = new FlowRuleServiceAdapter() {
+            @Override
+            public Iterable<FlowEntry> getFlowEntries(DeviceId deviceId) {
+                return ImmutableList.copyOf(entries);
+            }
+        };
+
+        collector = new PofAdaptiveFlowStatsCollector(null, sw, flowTableStore,
+                                                      flowRuleService, POLL_INTERVAL);
+    }
+
+    private static FlowEntry flowEntry(int tableId, int entryId, long lifeSecs) {
+        return new DefaultFlowEntry(DefaultFlowRule.builder()
+                                            .forDevice(DEVICE_ID)
+                                            .forTable(tableId)
+                                            .withCookie(entryId)
+                                            .withPriority(1)
+                                            .withSelector(DefaultTrafficSelector.emptySelector())
+                                            .withTreatment(DefaultTrafficTreatment.emptyTreatment())
+                                            .makePermanent()
+                                            .build(),
+                                    FlowEntry.FlowEntryState.ADDED, lifeSecs, 0, 0);
+    }
+
+    // runs a round and answers every request sent in it
+    private void pollAndAnswer() {
+        int answered = sent.getValues().size();
+        collector.poll();
+        sent.getValues().subList(answered, sent.getValues().size())
+                .forEach(request -> collector.statsReplyReceived(request.getXid()));
+    }
+
+    /**
+     * Tests the classification of entries by their life time.
+     */
+    @Test
+    public void testCalFlowLiveType() {
+        assertThat(collector.calFlowLiveType(-1), is(FlowLiveType.UNKNOWN));
+        assertThat(collector.calFlowLiveType(0), is(FlowLiveType.IMMEDIATE));
+        assertThat(collector.calFlowLiveType(POLL_INTERVAL), is(FlowLiveType.SHORT));
+        assertThat(collector.calFlowLiveType(2 * POLL_INTERVAL), is(FlowLiveType.MID));
+        assertThat(collector.calFlowLiveType(3 * POLL_INTERVAL), is(FlowLiveType.LONG));
+    }
+
+    /**
+     * Tests that the live types are kept by the collector and that each
+     * table is polled at the rate of its youngest entry.
+     */
+    @Test
+    public void testTablesPolledByYoungestEntry() {
+        FlowEntry young = flowEntry(1, 1, 0);
+        FlowEntry old = flowEntry(2, 2, 100);
+        entries.add(young);
+        entries.add(old);
+
+        // the first round polls every table, of which the store has none
+        collector.poll();
+        assertThat(sent.hasCaptured(), is(false));
+
+        pollAndAnswer();
+        pollAndAnswer();
+        pollAndAnswer();
+        assertThat(polledTables.getValues(), contains(1, 1, 1, 2));
+        assertThat(sent.getValues().size(), is(4));
+        assertThat(sent.getValues().get(0).getType(), is(OFType.MULTIPART_REQUEST));
+
+        assertThat(collector.liveType(young.id()), is(FlowLiveType.IMMEDIATE));
+        assertThat(collector.liveType(old.id()), is(FlowLiveType.LONG));
+        // the stored entries are left as they were
+        assertThat(young.liveType(), is(FlowLiveType.UNKNOWN));
+        assertThat(old.liveType(), is(FlowLiveType.UNKNOWN));
+    }
+
+    /**
+     * Tests that entries gone from the store are forgotten.
+     */
+    @Test
+    public void testRemovedEntryForgotten() {
+        FlowEntry entry = flowEntry(1, 1, 0);
+        entries.add(entry);
+
+        collector.poll();
+        collector.poll();
+        assertThat(collector.liveType(entry.id()), is(FlowLiveType.IMMEDIATE));
+
+        entries.clear();
+        collector.poll();
+        assertThat(collector.liveType(entry.id()), is(nullValue()));
+    }
+
+    /**
+     * Tests that a table is not polled again before it answered, unless
+     * every table is polled.
+     */
+    @Test
+    public void testUnansweredTableNotPolledAgain() {
+        entries.add(flowEntry(1, 1, 0));
+
+        collector.poll();
+        collector.poll();
+        collector.poll();
+        assertThat(polledTables.getValues(), contains(1));
+
+        collector.statsReplyReceived(sent.getValues().get(0).getXid());
+        collector.poll();
+        assertThat(polledTables.getValues(), contains(1, 1));
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.flow.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.floodlightpof.protocol.OFError;
+import org.onosproject.floodlightpof.protocol.OFMessage;
+import org.onosproject.floodlightpof.protocol.OFType;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.driver.DriverService;
+import org.onosproject.net.flow.CompletedBatchOperation;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleBatchEntry;
+import org.onosproject.net.flow.FlowRuleBatchOperation;
+import org.onosproject.net.flow.FlowRuleProvider;
+import org.onosproject.net.flow.FlowRuleProviderRegistry;
+import org.onosproject.net.flow.FlowRuleProviderService;
+import org.onosproject.net.flow.TableStatisticsEntry;
+import org.onosproject.net.flow.instructions.DefaultPofActions;
+import org.onosproject.net.flow.instructions.DefaultPofInstructions;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.FlowTableLayout;
+import org.onosproject.net.table.FlowTableStore;
+import org.onosproject.pof.controller.Dpid;
+import org.onosproject.pof.controller.PofController;
+import org.onosproject.pof.controller.PofEventListener;
+import org.onosproject.pof.controller.PofSwitch;
+import org.osgi.service.component.ComponentContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests of the POF flow rule provider.
+ */
+public class PofRuleProviderTest {
+
+    private static final DeviceId DEVICE_ID = DeviceId.deviceId("pof:0000000000000001");
+    private static final Dpid DPID = Dpid.dpid(DEVICE_ID.uri());
+    private static final int TABLE_ID = 1;
+    private static final int MISSING_TABLE_ID = 2;
+
+    private final BasicFactory factory = new BasicFactory();
+    private final TestProviderService providerService = new TestProviderService();
+    private final Capture<List<OFMessage>> sent = Capture.newInstance(CaptureType.ALL);
+    private final Capture<PofEventListener> eventListener = Capture.newInstance();
+
+    private PofRuleProvider provider;
+
+    @Before
+    public void setUp() {
+        PofSwitch sw = createNiceMock(PofSwitch.class);
+        expect(sw.factory()).andReturn(factory).anyTimes();
+        expect(sw.getId()).andReturn(DPID.value()).anyTimes();
+        sw.sendMsg(capture(sent));
+        expectLastCall().anyTimes();
+        replay(sw);
+
+        PofController controller = createNiceMock(PofController.class);
+        expect(controller.getSwitch(DPID)).andReturn(sw).anyTimes();
+        expect(controller.getSwitches()).andReturn(Collections.emptyList()).anyTimes();
+        controller.addEventListener(capture(eventListener));
+        replay(controller);
+
+        FlowTableStore flowTableStore = createNiceMock(FlowTableStore.class);
+        expect(flowTableStore.getFlowTableLayout(DEVICE_ID, FlowTableId.valueOf(TABLE_ID)))
+                .andReturn(FlowTableLayout.of(linearTable())).anyTimes();
+        expect(flowTableStore.getFlowEntries(eq(DEVICE_ID), anyObject(FlowTableId.class)))
+                .andReturn(new ConcurrentHashMap<>()).anyTimes();
+        replay(flowTableStore);
+
+        ComponentContext context = createNiceMock(ComponentContext.class);
+        expect(context.getProperties()).andReturn(new Hashtable<>()).anyTimes();
+        replay(context);
+
+        provider = new PofRuleProvider();
+        provider.providerRegistry = new TestProviderRegistry();
+        provider.controller = controller;
+        provider.cfgService = new ComponentConfigAdapter();
+        provider.driverService = createNiceMock(DriverService.class);
+        replay(provider.driverService);
+        provider.flowTableStore = flowTableStore;
+        provider.activate(context);
+    }
+
+    @After
+    public void tearDown() {
+        provider.deactivate(null);
+    }
+
+    private static OFFlowTable linearTable() {
+        OFFlowTable table = new OFFlowTable();
+        table.setTableId((byte) 0);
+        table.setTableName("LinearTable");
+        table.setTableSize(16);
+        table.setTableType(OFTableType.OF_LINEAR_TABLE);
+        table.setMatchFieldList(new ArrayList<>());
+        return table;
+    }
+
+    private static FlowRule flowRule(int tableId, int entryId) {
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE_ID)
+                .forTable(tableId)
+                .withCookie(entryId)
+                .withPriority(1)
+                .withSelector(DefaultTrafficSelector.emptySelector())
+                .withTreatment(DefaultTrafficTreatment.builder()
+                                       .add(DefaultPofInstructions.applyActions(ImmutableList.of(
+                                               DefaultPofActions.output((short) 0, (short) 0, (short) 0, 1)
+                                                       .action())))
+                                       .build())
+                .makePermanent()
+                .build();
+    }
+
+    private static FlowRuleBatchOperation addBatch(long id, FlowRule... rules) {
+        List<FlowRuleBatchEntry> entries = Lists.newArrayList();
+        for (FlowRule rule : rules) {
+            entries.add(new FlowRuleBatchEntry(FlowRuleBatchEntry.FlowRuleOperation.ADD, rule));
+        }
+        return new FlowRuleBatchOperation(entries, DEVICE_ID, id);
+    }
+
+    private OFMessage reply(OFType type, OFMessage request) {
+        OFMessage reply = factory.getOFMessage(type);
+        reply.setXid(request.getXid());
+        return reply;
+    }
+
+    private OFMessage flowModFailed(OFMessage flowMod) {
+        OFError error = (OFError) reply(OFType.ERROR, flowMod);
+        error.setErrorType(OFError.OFErrorType.OFPET_FLOW_MOD_FAILED.getValue());
+        return error;
+    }
+
+    /**
+     * Tests that the flow mods of a batch and the barrier closing it are
+     * sent at once, and that the barrier reply completes the batch.
+     */
+    @Test
+    public void testBatchCompletedByBarrier() {
+        provider.executeBatch(addBatch(1, flowRule(TABLE_ID, 1), flowRule(TABLE_ID, 2)));
+
+        List<OFMessage> msgs = sent.getValue();
+        assertThat(msgs.size(), is(3));
+        assertThat(msgs.get(0).getType(), is(OFType.FLOW_MOD));
+        assertThat(msgs.get(2).getType(), is(OFType.BARRIER_REQUEST));
+        assertThat(providerService.completed.isEmpty(), is(true));
+
+        eventListener.getValue().handleMessage(DPID, reply(OFType.BARRIER_REPLY, msgs.get(2)));
+        CompletedBatchOperation completed = providerService.completed.get(1L);
+        assertThat(completed.isSuccess(), is(true));
+        assertThat(completed.failedItems(), is(empty()));
+
+        // a repeated reply matches no pending batch any more
+        providerService.completed.clear();
+        eventListener.getValue().handleMessage(DPID, reply(OFType.BARRIER_REPLY, msgs.get(2)));
+        assertThat(providerService.completed.isEmpty(), is(true));
+    }
+
+    /**
+     * Tests that a flow mod reported as failed before the barrier reply
+     * fails its rule only.
+     */
+    @Test
+    public void testFailedFlowModReportedAtBarrier() {
+        FlowRule failed = flowRule(TABLE_ID, 1);
+        provider.executeBatch(addBatch(2, failed, flowRule(TABLE_ID, 2)));
+        List<OFMessage> msgs = sent.getValue();
+
+        eventListener.getValue().handleMessage(DPID, flowModFailed(msgs.get(0)));
+        eventListener.getValue().handleMessage(DPID, reply(OFType.BARRIER_REPLY, msgs.get(2)));
+
+        CompletedBatchOperation completed = providerService.completed.get(2L);
+        assertThat(completed.isSuccess(), is(false));
+        assertThat(completed.failedItems(), contains(failed));
+    }
+
+    /**
+     * Tests that a rule whose flow mod cannot be built is not sent and is
+     * reported as failed once the barrier is answered.
+     */
+    @Test
+    public void testUnbuildableRuleFailsBatch() {
+        FlowRule unbuildable = flowRule(MISSING_TABLE_ID, 1);
+        provider.executeBatch(addBatch(3, unbuildable, flowRule(TABLE_ID, 2)));
+        List<OFMessage> msgs = sent.getValue();
+        assertThat(msgs.size(), is(2));
+
+        eventListener.getValue().handleMessage(DPID, reply(OFType.BARRIER_REPLY, msgs.get(1)));
+        CompletedBatchOperation completed = providerService.completed.get(3L);
+        assertThat(completed.isSuccess(), is(false));
+        assertThat(completed.failedItems(), contains(unbuildable));
+    }
+
+    /**
+     * Tests that removing a rule whose flow mod cannot be built sends nothing.
+     */
+    @Test
+    public void testUnbuildableRemoveNotSent() {
+        provider.removeFlowRule(flowRule(MISSING_TABLE_ID, 1));
+        assertThat(sent.hasCaptured(), is(false));
+    }
+
+    private class TestProviderRegistry implements FlowRuleProviderRegistry {
+        @Override
+        public FlowRuleProviderService register(FlowRuleProvider provider) {
+            return providerService;
+        }
+
+        @Override
+        public void unregister(FlowRuleProvider provider) {
+        }
+
+        @Override
+        public Set<ProviderId> getProviders() {
+            return ImmutableSet.of();
+        }
+    }
+
+    private class TestProviderService implements FlowRuleProviderService {
+        private final Map<Long, CompletedBatchOperation> completed = new ConcurrentHashMap<>();
+
+        @Override
+        public void flowRemoved(FlowEntry flowEntry) {
+        }
+
+        @Override
+        public void pushFlowMetrics(DeviceId deviceId, Iterable<FlowEntry> flowEntries) {
+        }
+
+        @Override
+        public void pushFlowMetricsWithoutFlowMissing(DeviceId deviceId, Iterable<FlowEntry> flowEntries) {
+        }
+
+        @Override
+        public void pushTableStatistics(DeviceId deviceId, List<TableStatisticsEntry> tableStatsEntries) {
+        }
+
+        @Override
+        public void batchOperationCompleted(long batchId, CompletedBatchOperation operation) {
+            completed.put(batchId, operation);
+        }
+
+        @Override
+        public FlowRuleProvider provider() {
+            return provider;
+        }
+    }
+}
@@ -16,29 +16,32 @@
 
 package org.onosproject.provider.pof.message.impl;
 
-import com.codahale.metrics.Meter;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import org.onlab.metrics.MetricsComponent;
-import org.onlab.metrics.MetricsFeature;
-import org.onlab.metrics.MetricsService;
 import org.onosproject.cpman.ControlMessage;
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.DefaultControlMessage;
 import org.onosproject.cpman.message.ControlMessageProviderService;
 import org.onosproject.floodlightpof.protocol.OFMessage;
 import org.onosproject.floodlightpof.protocol.OFType;
 import org.onosproject.net.DeviceId;
+import org.onosproject.pof.controller.PofSwitch;
 import org.slf4j.Logger;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.onosproject.provider.pof.message.impl.PofControlMessageMapper.lookupControlMessageType;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
- * Collects the OpenFlow messages and aggregates using MetricsService.
+ * Counts the POF messages exchanged with a switch, per message type and
+ * direction, and the latency of its barriers. Counting only adds to striped
+ * counters, so it is safe on the message paths; the counters are summed up
+ * when the aggregated statistics are reported or a snapshot is asked for.
  */
 public class PofControlMessageAggregator implements Runnable {
 
@@ -49,101 +52,162 @@ public class PofControlMessageAggregator implements Runnable {
                     OFType.FLOW_REMOVED);
 //, OFType.STATS_REQUEST, OFType.STATS_REPLY
 
-    private final Map<OFType, Meter> rateMeterMap = Maps.newHashMap();
-    private final Map<OFType, Meter> countMeterMap = Maps.newHashMap();
+    private static final OFType[] TYPES = OFType.values();
 
+    private final LongAdder[] inCounts = newCounters();
+    private final LongAdder[] inBytes = newCounters();
+    private final LongAdder[] outCounts = newCounters();
+    private final LongAdder[] outBytes = newCounters();
+
+    private final LatencyHistogram barrierLatency = new LatencyHistogram();
+
+    // totals at the previous report, for the reported rates
+    private final long[] lastCounts = new long[TYPES.length];
+    private final long[] lastBytes = new long[TYPES.length];
+    private long lastReport;
+
+    private final long since;
     private final DeviceId deviceId;
+    private final PofSwitch sw;
     private final ControlMessageProviderService providerService;
 
-    private static final String RATE_NAME = "rate";
-    private static final String COUNT_NAME = "count";
-
     private Set<ControlMessage> controlMessages = Sets.newConcurrentHashSet();
 
-    // TODO: this needs to be configurable
-    private static final int EXECUTE_PERIOD_IN_SECOND = 60;
+    private static final int SECONDS_PER_MINUTE = 60;
 
     /**
-     * Generates an OpenFlow message aggregator instance.
-     * The instance is for aggregating a specific OpenFlow message
-     * type of an OpenFlow switch.
+     * Generates a POF message aggregator instance for a POF switch.
      *
-     * @param metricsService metrics service reference object
      * @param providerService control message provider service reference object
      * @param deviceId device identification
+     * @param sw switch timing its barriers, or null if not connected
      */
-    public PofControlMessageAggregator(MetricsService metricsService,
-                                       ControlMessageProviderService providerService,
-                                       DeviceId deviceId) {
-        MetricsComponent mc = metricsService.registerComponent(deviceId.toString());
-
-        OF_TYPE_SET.forEach(type -> {
-            MetricsFeature metricsFeature = mc.registerFeature(type.toString());
-            Meter rateMeter = metricsService.createMeter(mc, metricsFeature, RATE_NAME);
-            Meter countMeter = metricsService.createMeter(mc, metricsFeature, COUNT_NAME);
-            rateMeterMap.put(type, rateMeter);
-            countMeterMap.put(type, countMeter);
-        });
-
+    public PofControlMessageAggregator(ControlMessageProviderService providerService,
+                                       DeviceId deviceId, PofSwitch sw) {
         this.deviceId = deviceId;
+        this.sw = sw;
         this.providerService = providerService;
-        metricsService.notifyReporters();
+        this.since = System.currentTimeMillis();
+        this.lastReport = since;
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[TYPES.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
     }
 
     /**
-     * Increments the meter rate by n, and the meter count by 1.
+     * Counts a message received from the switch.
      *
-     * @param msg OpenFlow message
+     * @param msg POF message
      */
-    public void increment(OFMessage msg) {
-        rateMeterMap.get(msg.getType()).mark(msg.toString().length());
-        countMeterMap.get(msg.getType()).mark(1);
+    public void incoming(OFMessage msg) {
+        int type = msg.getType().ordinal();
+        inCounts[type].increment();
+        inBytes[type].add(msg.getLengthU());
+
+        if (msg.getType() == OFType.BARRIER_REPLY && sw != null) {
+            long start = sw.barrierStartNanos(msg.getXid());
+            if (start >= 0) {
+                barrierLatency.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Counts a message sent to the switch.
+     *
+     * @param msg POF message
+     */
+    public void outgoing(OFMessage msg) {
+        int type = msg.getType().ordinal();
+        outCounts[type].increment();
+        outBytes[type].add(msg.getLengthU());
+    }
+
+    /**
+     * Returns the counters and the barrier latency of the switch.
+     *
+     * @return control message snapshot
+     */
+    public ControlMessageStats snapshot() {
+        return new ControlMessageStats(deviceId, since, System.currentTimeMillis(),
+                                       counters(inCounts, inBytes),
+                                       counters(outCounts, outBytes),
+                                       barrierLatency.snapshot());
+    }
+
+    private static Map<String, ControlMessageStats.Counter> counters(LongAdder[] counts,
+                                                                     LongAdder[] bytes) {
+        ImmutableMap.Builder<String, ControlMessageStats.Counter> builder = ImmutableMap.builder();
+        for (int i = 0; i < TYPES.length; i++) {
+            long count = counts[i].sum();
+            if (count != 0) {
+                builder.put(TYPES[i].toString(), new ControlMessageStats.Counter(count, bytes[i].sum()));
+            }
+        }
+        return builder.build();
     }
 
     @Override
     public void run() {
-        // update 1 minute statistic information of all control messages
-        OF_TYPE_SET.forEach(type -> controlMessages.add(
+        long now = System.currentTimeMillis();
+        long seconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(now - lastReport));
+        lastReport = now;
+
+        // update the statistic information of all control messages since the last report
+        OF_TYPE_SET.forEach(type -> {
+            int i = type.ordinal();
+            long count = inCounts[i].sum() + outCounts[i].sum();
+            long bytes = inBytes[i].sum() + outBytes[i].sum();
+            long newCount = count - lastCounts[i];
+            long newBytes = bytes - lastBytes[i];
+            lastCounts[i] = count;
+            lastBytes[i] = bytes;
+
+            controlMessages.add(
                 new DefaultControlMessage(lookupControlMessageType(type),
-                        deviceId, getLoad(type), getRate(type), getCount(type),
-                        System.currentTimeMillis())));
+                        deviceId, getLoad(newCount, newBytes), getRate(newBytes, seconds),
+                        getCount(newCount, seconds), now));
+        });
         log.debug("sent aggregated control message");
         providerService.updateStatsInfo(deviceId, ImmutableSet.copyOf(controlMessages));
         controlMessages.clear();
     }
 
     /**
-     * Returns the average load value.
+     * Returns the average message length.
      *
-     * @param type OpenFlow message type
+     * @param count number of messages
+     * @param bytes total length of the messages
      * @return load value
      */
-    private long getLoad(OFType type) {
-        if (countMeterMap.get(type).getOneMinuteRate() == 0D) {
-            return 0L;
-        }
-        return (long) (rateMeterMap.get(type).getOneMinuteRate() /
-                       countMeterMap.get(type).getOneMinuteRate());
+    private long getLoad(long count, long bytes) {
+        return count == 0 ? 0L : bytes / count;
     }
 
     /**
-     * Returns the average meter rate within recent 1 minute.
+     * Returns the average bytes per second.
      *
-     * @param type OpenFlow message type
+     * @param bytes   total length of the messages
+     * @param seconds period of the messages
      * @return rate value
      */
-    private long getRate(OFType type) {
-        return (long) rateMeterMap.get(type).getOneMinuteRate();
+    private long getRate(long bytes, long seconds) {
+        return bytes / seconds;
     }
 
     /**
-     * Returns the average meter count within recent 1 minute.
+     * Returns the average number of messages per minute.
      *
-     * @param type OpenFlow message type
+     * @param count   number of messages
+     * @param seconds period of the messages
      * @return count value
      */
-    private long getCount(OFType type) {
-        return (long) (countMeterMap.get(type).getOneMinuteRate()
-                * EXECUTE_PERIOD_IN_SECOND);
+    private long getCount(long count, long seconds) {
+        return count * SECONDS_PER_MINUTE / seconds;
     }
 }
@@ -21,15 +21,14 @@ import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
-import org.onlab.metrics.MetricsService;
 import org.onlab.util.SharedScheduledExecutorService;
 import org.onlab.util.SharedScheduledExecutors;
+import org.onosproject.cpman.ControlMessageStats;
 import org.onosproject.cpman.message.ControlMessageProvider;
 import org.onosproject.cpman.message.ControlMessageProviderRegistry;
 import org.onosproject.cpman.message.ControlMessageProviderService;
 import org.onosproject.floodlightpof.protocol.OFMessage;
 import org.onosproject.floodlightpof.protocol.OFPortStatus;
-import org.onosproject.floodlightpof.protocol.OFType;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTableResource;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.provider.AbstractProvider;
@@ -43,10 +42,12 @@ import org.onosproject.pof.controller.RoleState;
 import org.slf4j.Logger;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.onosproject.net.DeviceId.deviceId;
+import static org.onosproject.pof.controller.Dpid.dpid;
 import static org.onosproject.pof.controller.Dpid.uri;
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -65,9 +66,6 @@ public class PofControlMessageProvider extends AbstractProvider
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected PofController controller;
 
-    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
-    protected MetricsService metricsService;
-
     private ControlMessageProviderService providerService;
 
     private final InternalDeviceProvider listener = new InternalDeviceProvider();
@@ -78,7 +76,8 @@ public class PofControlMessageProvider extends AbstractProvider
     private final InternalOutgoingMessageProvider outMsgListener =
                     new InternalOutgoingMessageProvider();
 
-    private HashMap<Dpid, PofControlMessageAggregator> aggregators = Maps.newHashMap();
+    // read on the message paths of all switches
+    private final Map<Dpid, PofControlMessageAggregator> aggregators = Maps.newConcurrentMap();
     private SharedScheduledExecutorService executor;
     private static final int AGGR_INIT_DELAY = 1;
     private static final int AGGR_PERIOD = 1;
@@ -128,6 +127,12 @@ public class PofControlMessageProvider extends AbstractProvider
         log.info("Stopped");
     }
 
+    @Override
+    public ControlMessageStats messageStats(DeviceId deviceId) {
+        PofControlMessageAggregator aggregator = aggregators.get(dpid(deviceId.uri()));
+        return aggregator == null ? null : aggregator.snapshot();
+    }
+
     private void connectInitialDevices() {
         for (PofSwitch sw: controller.getSwitches()) {
             try {
@@ -158,8 +163,7 @@ public class PofControlMessageProvider extends AbstractProvider
 
             DeviceId deviceId = deviceId(uri(dpid));
             PofControlMessageAggregator ofcma =
-                    new PofControlMessageAggregator(metricsService,
-                            providerService, deviceId);
+                    new PofControlMessageAggregator(providerService, deviceId, sw);
             ScheduledFuture result = executor.scheduleAtFixedRate(ofcma,
                     AGGR_INIT_DELAY, AGGR_PERIOD, AGGR_TIME_UNIT, true);
             aggregators.put(dpid, ofcma);
@@ -215,16 +219,11 @@ public class PofControlMessageProvider extends AbstractProvider
      */
     private class InternalIncomingMessageProvider implements PofEventListener {
 
-
-        //       || msg.getType() == OFType.STATS_REPLY
         @Override
         public void handleMessage(Dpid dpid, OFMessage msg) {
-            if (msg.getType() == OFType.PACKET_IN ||
-                    msg.getType() == OFType.FLOW_MOD) {
-                aggregators.computeIfPresent(dpid, (k, v) -> {
-                    v.increment(msg);
-                    return v;
-                });
+            PofControlMessageAggregator aggregator = aggregators.get(dpid);
+            if (aggregator != null) {
+                aggregator.incoming(msg);
             }
         }
     }
@@ -236,10 +235,10 @@ public class PofControlMessageProvider extends AbstractProvider
 
         @Override
         public void handleMessage(Dpid dpid, OFMessage msg) {
-            aggregators.computeIfPresent(dpid, (k, v) -> {
-                v.increment(msg);
-                return v;
-            });
+            PofControlMessageAggregator aggregator = aggregators.get(dpid);
+            if (aggregator != null) {
+                aggregator.outgoing(msg);
+            }
         }
     }
 }
@@ -15,8 +15,6 @@
  */
 package org.onosproject.provider.pof.packet.impl;
 
-import org.onlab.packet.DeserializationException;
-import org.onlab.packet.Ethernet;
 import org.onosproject.floodlightpof.protocol.OFPort;
 import org.onosproject.floodlightpof.protocol.action.OFAction;
 import org.onosproject.floodlightpof.protocol.instruction.OFInstructionApplyActions;
@@ -28,8 +26,6 @@ import org.onosproject.net.packet.DefaultPacketContext;
 import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.OutboundPacket;
 import org.onosproject.pof.controller.PofPacketContext;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
@@ -38,8 +34,6 @@ import java.util.List;
  */
 public class PofCorePacketContext extends DefaultPacketContext {
 
-    private static final Logger log = LoggerFactory.getLogger(PofCorePacketContext.class);
-
     private final PofPacketContext ofPktCtx;
 
     /**
@@ -61,22 +55,13 @@ public class PofCorePacketContext extends DefaultPacketContext {
     @Override
     public void send() {
         if (!this.block()) {
-            if (outPacket() == null) {
-                sendPacket(null);
-            } else {
-                try {
-                    Ethernet eth = Ethernet.deserializer()
-                            .deserialize(outPacket().data().array(), 0,
-                                         outPacket().data().array().length);
-                    sendPacket(eth);
-                } catch (DeserializationException e) {
-                    log.warn("Unable to deserialize packet");
-                }
-            }
+            // The outbound packet always carries the packet-in frame, which
+            // the POF context sends as is; no need to re-parse it here.
+            sendPacket();
         }
     }
 
-    private void sendPacket(Ethernet eth) {
+    private void sendPacket() {
         List<Instruction> ins = treatmentBuilder().build().allInstructions();
         DefaultPofInstructions.PofInstructionApplyActions pofInstructionApplyActions;
         List<OFAction> actionList = null;
@@ -91,11 +76,7 @@ public class PofCorePacketContext extends DefaultPacketContext {
                 break; //for now...
             }
         }
-        if (eth == null) {
-            ofPktCtx.build(actionList);
-        } else {
-            ofPktCtx.build(eth, actionList);
-        }
+        ofPktCtx.build(actionList);
         ofPktCtx.send();
     }
 
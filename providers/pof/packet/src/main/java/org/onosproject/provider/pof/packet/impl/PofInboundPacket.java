@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.packet.impl;
+
+import org.onlab.packet.Ethernet;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.pof.controller.PofPacketContext;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+/**
+ * Inbound packet backed by a POF packet context. The frame is parsed only
+ * when a packet processor first asks for it, and the raw bytes are shared
+ * with the packet-in message.
+ */
+final class PofInboundPacket implements InboundPacket {
+
+    private final ConnectPoint receivedFrom;
+    private final PofPacketContext pktCtx;
+    private final ByteBuffer unparsed;
+
+    /**
+     * Creates an inbound packet for the given packet-in context.
+     *
+     * @param receivedFrom connection point where received
+     * @param pktCtx       POF packet context
+     * @param unparsed     unparsed raw bytes
+     */
+    PofInboundPacket(ConnectPoint receivedFrom, PofPacketContext pktCtx,
+                     ByteBuffer unparsed) {
+        this.receivedFrom = receivedFrom;
+        this.pktCtx = pktCtx;
+        this.unparsed = unparsed;
+    }
+
+    @Override
+    public ConnectPoint receivedFrom() {
+        return receivedFrom;
+    }
+
+    @Override
+    public Ethernet parsed() {
+        return pktCtx.parsed();
+    }
+
+    @Override
+    public ByteBuffer unparsed() {
+        return unparsed;
+    }
+
+    @Override
+    public Optional<Long> cookie() {
+        return pktCtx.cookie();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(receivedFrom, unparsed);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof PofInboundPacket) {
+            final PofInboundPacket other = (PofInboundPacket) obj;
+            return Objects.equals(this.receivedFrom, other.receivedFrom) &&
+                    Objects.equals(this.unparsed, other.unparsed);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("receivedFrom", receivedFrom)
+                .toString();
+    }
+}
@@ -30,8 +30,8 @@ import org.onosproject.net.DeviceId;
 import org.onosproject.net.PortNumber;
 import org.onosproject.net.flow.instructions.DefaultPofInstructions;
 import org.onosproject.net.flow.instructions.Instruction;
-import org.onosproject.net.packet.DefaultInboundPacket;
 import org.onosproject.net.packet.DefaultOutboundPacket;
+import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.OutboundPacket;
 import org.onosproject.net.packet.PacketProvider;
 import org.onosproject.net.packet.PacketProviderRegistry;
@@ -135,13 +135,30 @@ public class PofPacketProvider extends AbstractProvider implements PacketProvide
                     break;
             }
         }
-        sw.sendMsg(packetOut(sw, packet.data().array(), actionList));
+        sw.sendMsg(packetOut(sw, frame(packet.data()), actionList));
+    }
+
+    /**
+     * Returns the frame held by the given buffer, sharing the backing array
+     * when the buffer spans all of it.
+     *
+     * @param data outbound packet data
+     * @return ethernet frame bytes
+     */
+    private static byte[] frame(ByteBuffer data) {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+                && data.remaining() == data.array().length) {
+            return data.array();
+        }
+        byte[] eth = new byte[data.remaining()];
+        data.duplicate().get(eth);
+        return eth;
     }
 
     private OFPacketOut packetOut(PofSwitch sw, byte[] eth, List<OFAction> actionList) {
 
         OFPacketOut pktout = (OFPacketOut) sw.factory().getOFMessage(OFType.PACKET_OUT);
-        pktout.setLength((short) 2360);
+        pktout.setLengthU(OFPacketOut.MINIMUM_LENGTH + eth.length);
         pktout.setType(OFType.PACKET_OUT);
         pktout.setBufferId(-1);
         pktout.setInPort(65535)
@@ -161,15 +178,14 @@ public class PofPacketProvider extends AbstractProvider implements PacketProvide
         @Override
         public void handlePacket(PofPacketContext pktCtx) {
             DeviceId id = DeviceId.deviceId(Dpid.uri(pktCtx.dpid().value()));
-            DefaultInboundPacket inPkt = new DefaultInboundPacket(
+            ByteBuffer unparsed = pktCtx.unparsedBuffer();
+            InboundPacket inPkt = new PofInboundPacket(
                     new ConnectPoint(id, PortNumber.portNumber(pktCtx.inPort())),
-                    pktCtx.parsed(), ByteBuffer.wrap(pktCtx.unparsed()),
-                    pktCtx.cookie());
+                    pktCtx, unparsed);
 
             DefaultOutboundPacket outPkt = null;
             if (!pktCtx.isBuffered()) {
-                outPkt = new DefaultOutboundPacket(id, null,
-                        ByteBuffer.wrap(pktCtx.unparsed()));
+                outPkt = new DefaultOutboundPacket(id, null, unparsed.duplicate());
             }
 
             PofCorePacketContext corePktCtx =
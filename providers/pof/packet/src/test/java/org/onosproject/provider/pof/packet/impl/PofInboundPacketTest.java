@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.provider.pof.packet.impl;
+
+import org.junit.Test;
+import org.onlab.packet.Data;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.MacAddress;
+import org.onosproject.floodlightpof.protocol.OFPacketIn;
+import org.onosproject.floodlightpof.protocol.OFType;
+import org.onosproject.floodlightpof.protocol.factory.BasicFactory;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.pof.controller.DefaultPofPacketContext;
+import org.onosproject.pof.controller.PofPacketContext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Tests of the lazily parsed POF inbound packet.
+ */
+public class PofInboundPacketTest {
+
+    private static final ConnectPoint CP =
+            new ConnectPoint(DeviceId.deviceId("pof:0000000000000001"), PortNumber.portNumber(1));
+    private static final MacAddress SRC = MacAddress.valueOf("00:00:00:00:00:01");
+    private static final MacAddress DST = MacAddress.valueOf("00:00:00:00:00:02");
+
+    private static byte[] frame() {
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(SRC);
+        eth.setDestinationMACAddress(DST);
+        eth.setEtherType((short) 0x1234);
+        eth.setPayload(new Data(new byte[] {1, 2, 3, 4}));
+        return eth.serialize();
+    }
+
+    private static OFPacketIn packetIn(byte[] frame) {
+        OFPacketIn packetIn = (OFPacketIn) new BasicFactory().getOFMessage(OFType.PACKET_IN);
+        packetIn.setBufferId(-1);
+        packetIn.setTotalLength((short) frame.length);
+        packetIn.setReason(OFPacketIn.OFPacketInReason.NO_MATCH);
+        packetIn.setPortId(1);
+        packetIn.setPacketData(frame);
+        packetIn.setLengthU(OFPacketIn.MINIMUM_LENGTH + frame.length);
+        return packetIn;
+    }
+
+    private static PofInboundPacket inboundPacket(OFPacketIn packetIn) {
+        PofPacketContext pktCtx = DefaultPofPacketContext.packetContextFromPacketIn(null, packetIn);
+        return new PofInboundPacket(CP, pktCtx, pktCtx.unparsedBuffer());
+    }
+
+    /**
+     * Tests that the frame is parsed only when first asked for, and once.
+     */
+    @Test
+    public void testLazyParsing() {
+        OFPacketIn packetIn = packetIn(frame());
+        PofInboundPacket inPkt = inboundPacket(packetIn);
+
+        // a change made after the packet was created shows in the parsed
+        // frame, so nothing was parsed up front
+        packetIn.getPacketData()[11] = 3;
+
+        Ethernet eth = inPkt.parsed();
+        assertThat(eth.getSourceMAC(), is(MacAddress.valueOf("00:00:00:00:00:03")));
+        assertThat(eth.getDestinationMAC(), is(DST));
+        assertThat(inPkt.parsed(), sameInstance(eth));
+    }
+
+    /**
+     * Tests that the raw bytes are shared with the packet-in.
+     */
+    @Test
+    public void testUnparsedShared() {
+        OFPacketIn packetIn = packetIn(frame());
+        PofInboundPacket inPkt = inboundPacket(packetIn);
+
+        assertThat(inPkt.unparsed().array(), sameInstance(packetIn.getPacketData()));
+        assertThat(inPkt.receivedFrom(), is(CP));
+    }
+
+    /**
+     * Tests that a frame that cannot be parsed yields no parsed packet.
+     */
+    @Test
+    public void testMalformedFrame() {
+        PofInboundPacket inPkt = inboundPacket(packetIn(new byte[] {1, 2, 3}));
+
+        assertThat(inPkt.parsed(), is(nullValue()));
+        assertThat(inPkt.parsed(), is(nullValue()));
+        assertThat(inPkt.unparsed().remaining(), is(3));
+    }
+}
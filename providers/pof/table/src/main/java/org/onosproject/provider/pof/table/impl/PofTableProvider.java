@@ -18,6 +18,7 @@ import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
+import org.onosproject.floodlightpof.protocol.OFError;
 import org.onosproject.floodlightpof.protocol.OFMatch20;
 import org.onosproject.floodlightpof.protocol.OFMessage;
 import org.onosproject.floodlightpof.protocol.OFPortStatus;
@@ -47,18 +48,22 @@ import org.onosproject.pof.controller.RoleState;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static org.onlab.util.Tools.get;
+import static org.onlab.util.Tools.groupedThreads;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
@@ -87,6 +92,7 @@ public class PofTableProvider extends AbstractProvider
     protected FlowTableStore tableStore;
 
     private static final int DEFAULT_POLL_FREQUENCY = 5;
+    private static final int STATS_THREADS = 1;
     @Property(name = "flowPollFrequency", intValue = DEFAULT_POLL_FREQUENCY,
             label = "Frequency (in seconds) for polling flow statistics")
     private int flowPollFrequency = DEFAULT_POLL_FREQUENCY;
@@ -100,14 +106,20 @@ public class PofTableProvider extends AbstractProvider
 
     private final InternalFlowProvider listener = new InternalFlowProvider();
 
-    private Cache<Long, InternalCacheEntry> pendingBatches;
+    // batches waiting for their barrier reply, keyed by the barrier xid
+    private Cache<Integer, InternalCacheEntry> pendingBatches;
 
-    private final Timer timer = new Timer("onos-pof-collector");
-    private final Map<Dpid, TableStatsCollector> simpleCollectors = Maps.newHashMap();
+    // table mods of pending batches, keyed by their xid, to attribute errors
+    private final Map<Integer, InternalCacheEntry> pendingTableMods = Maps.newConcurrentMap();
 
-//    NewAdaptiveFlowStatsCollector Set
-//    private final Map<Dpid, NewAdaptiveFlowStatsCollector> afsCollectors = Maps.newHashMap();
-//    private final Map<Dpid, TableStatsCollector> collectors = Maps.newHashMap();
+    // the rule provider numbers its messages to the same switches from 1, and
+    // both providers see all barrier replies and errors, so keep apart from it
+    private static final int XID_BASE = 1 << 30;
+
+    private final AtomicInteger xidCounter = new AtomicInteger(XID_BASE);
+
+    private ScheduledExecutorService statsScheduler;
+    private final Map<Dpid, TableStatsCollector> collectors = Maps.newConcurrentMap();
 
     /**
      * Creates an pof table provider.
@@ -128,7 +140,9 @@ public class PofTableProvider extends AbstractProvider
 
         pendingBatches = createBatchCache();
 
-//        createCollectors();
+        statsScheduler = Executors.newScheduledThreadPool(
+                STATS_THREADS, groupedThreads("onos/pof", "table-stats-collector-%d", log));
+        createCollectors();
 
         log.info("Started with flowPollFrequency = {}, adaptiveTableSampling = {}",
                 flowPollFrequency, adaptiveTableSampling);
@@ -137,7 +151,9 @@ public class PofTableProvider extends AbstractProvider
     @Deactivate
     public void deactivate(ComponentContext context) {
         cfgService.unregisterProperties(getClass(), false);
-//        stopCollectors();
+        stopCollectors();
+        statsScheduler.shutdownNow();
+        statsScheduler = null;
         providerRegistry.unregister(this);
         providerService = null;
 
@@ -158,7 +174,7 @@ public class PofTableProvider extends AbstractProvider
 
         if (newFlowPollFrequency != flowPollFrequency) {
             flowPollFrequency = newFlowPollFrequency;
-//            adjustRate();
+            collectors.values().forEach(tsc -> tsc.adjustPollInterval(flowPollFrequency));
         }
 
         log.info("Settings: flowPollFrequency={}", flowPollFrequency);
@@ -169,70 +185,58 @@ public class PofTableProvider extends AbstractProvider
 
         if (newadaptiveTableSampling != adaptiveTableSampling) {
             // stop previous collector
-//            stopCollectors();
+            stopCollectors();
             adaptiveTableSampling = newadaptiveTableSampling;
             // create new collectors
-//            createCollectors();
+            createCollectors();
         }
 
         log.info("Settings: adaptiveTableSampling={}", adaptiveTableSampling);
     }
 
-    private Cache<Long, InternalCacheEntry> createBatchCache() {
+    private Cache<Integer, InternalCacheEntry> createBatchCache() {
         return CacheBuilder.newBuilder()
                 .expireAfterWrite(10, TimeUnit.SECONDS)
-                .removalListener((RemovalNotification<Long, InternalCacheEntry> notification) -> {
+                .removalListener((RemovalNotification<Integer, InternalCacheEntry> notification) -> {
+                    InternalCacheEntry entry = notification.getValue();
+                    entry.tableModXids().forEach(pendingTableMods::remove);
                     if (notification.getCause() == RemovalCause.EXPIRED) {
-                        providerService.batchOperationCompleted(notification.getKey(),
-                                                                notification.getValue().failedCompletion());
+                        providerService.batchOperationCompleted(entry.batchId(),
+                                                                entry.failedCompletion());
                     }
                 }).build();
     }
 
-//    private void createCollectors() {
-//        controller.getSwitches().forEach(this::createCollector);
-//    }
-//
-//    private void createCollector(PofSwitch sw) {
-//        if (adaptiveTableSampling) {
-//            // NewAdaptiveFlowStatsCollector Constructor
-//            NewAdaptiveFlowStatsCollector fsc =
-//                    new NewAdaptiveFlowStatsCollector(driverService, sw, flowPollFrequency);
-//            fsc.start();
-//            afsCollectors.put(new Dpid(sw.getId()), fsc);
-//        } else {
-//            TableStatsCollector fsc = new TableStatsCollector(timer, sw, flowPollFrequency);
-//            fsc.start();
-//            simpleCollectors.put(new Dpid(sw.getId()), fsc);
-//        }
-////        TableStatisticsCollector tsc = new TableStatisticsCollector(timer, sw, flowPollFrequency);
-////        tsc.start();
-////        tableStatsCollectors.put(new Dpid(sw.getId()), tsc);
-//    }
-
-//    private void stopCollectors() {
-//        if (adaptiveTableSampling) {
-//            // NewAdaptiveFlowStatsCollector Destructor
-//            afsCollectors.values().forEach(NewAdaptiveFlowStatsCollector::stop);
-//            afsCollectors.clear();
-//        } else {
-//            simpleCollectors.values().forEach(TableStatsCollector::stop);
-//            simpleCollectors.clear();
-//        }
-//        tableStatsCollectors.values().forEach(TableStatisticsCollector::stop);
-//        tableStatsCollectors.clear();
-//    }
-
-//    private void adjustRate() {
-//        DefaultLoad.setPollInterval(flowPollFrequency);
-//        if (adaptiveTableSampling) {
-//            // NewAdaptiveFlowStatsCollector calAndPollInterval
-//            afsCollectors.values().forEach(fsc -> fsc.adjustCalAndPollInterval(flowPollFrequency));
-//        } else {
-//            simpleCollectors.values().forEach(fsc -> fsc.adjustPollInterval(flowPollFrequency));
-//        }
-//        tableStatsCollectors.values().forEach(tsc -> tsc.adjustPollInterval(flowPollFrequency));
-//    }
+    private int nextXid() {
+        return xidCounter.getAndIncrement();
+    }
+
+    private void createCollectors() {
+        if (statsScheduler == null) {
+            // not activated yet
+            return;
+        }
+        controller.getSwitches().forEach(this::createCollector);
+    }
+
+    private void createCollector(PofSwitch sw) {
+        if (sw == null || !adaptiveTableSampling) {
+            // POF switches have no non-adaptive table stats collection
+            return;
+        }
+        TableStatsCollector tsc = new TableStatsCollector(statsScheduler, sw, tableStore, flowPollFrequency);
+        TableStatsCollector old = collectors.put(new Dpid(sw.getId()), tsc);
+        if (old != null) {
+            old.stop();
+        }
+        tsc.start();
+    }
+
+    private void stopCollectors() {
+        collectors.values().forEach(TableStatsCollector::stop);
+        collectors.clear();
+    }
+
     //added by hdy
     private OFFlowTable buildOFFlowTable(FlowTable flowTable) {
 
@@ -323,15 +327,20 @@ public class PofTableProvider extends AbstractProvider
     public void executeBatch(FlowTableBatchOperation batch) {
         checkNotNull(batch);
 
-        pendingBatches.put(batch.id(), new InternalCacheEntry(batch));
-
         Dpid dpid = Dpid.dpid(batch.deviceId().uri());
         PofSwitch sw = controller.getSwitch(dpid);
-        OFTableMod tablemod = (OFTableMod) sw.factory().getOFMessage(OFType.TABLE_MOD);
+        InternalCacheEntry entry = new InternalCacheEntry(batch);
+        if (sw == null) {
+            log.warn("Switch {} is not connected; failing table batch {}", dpid, batch.id());
+            providerService.batchOperationCompleted(batch.id(), entry.failedCompletion());
+            return;
+        }
 
-        for (FlowTableBatchEntry fbe : batch.getOperations()) {
-            // flow is the third party privacy flow
+        // all table mods of the batch and the closing barrier go out in a
+        // single write; the batch completes when the barrier is answered
+        List<OFMessage> msgs = new ArrayList<>(batch.size() + 1);
 
+        for (FlowTableBatchEntry fbe : batch.getOperations()) {
             OFFlowTable flowTable = buildOFFlowTable(fbe.target());
 
             switch (fbe.operator()) {
@@ -342,21 +351,32 @@ public class PofTableProvider extends AbstractProvider
                     flowTable.setCommand(OFTableMod.OFTableModCmd.OFPTC_MODIFY);
                     break;
                 case REMOVE:
-
                     flowTable.setCommand(OFTableMod.OFTableModCmd.OFPTC_DELETE);
                     break;
                 default:
-                    log.error("Unsupported batch operation {}; skipping flowmod {}",
+                    log.error("Unsupported batch operation {}; skipping tablemod {}",
                             fbe.operator(), fbe);
                     continue;
             }
+            int xid = nextXid();
+            OFTableMod tablemod = (OFTableMod) sw.factory().getOFMessage(OFType.TABLE_MOD);
+            tablemod.setXid(xid);
             tablemod.setFlowTable(flowTable);
             tablemod.setType(OFType.TABLE_MOD);
-            sw.sendMsg(tablemod);
+            entry.addTableMod(xid, fbe.target());
+            msgs.add(tablemod);
         }
-//        OFBarrierRequest.Builder builder = sw.factory().buildBarrierRequest()
-//                .setXid(batch.id());
-//        sw.sendMsg(builder.build());
+
+        int barrierXid = nextXid();
+        OFMessage barrier = sw.factory().getOFMessage(OFType.BARRIER_REQUEST);
+        barrier.setXid(barrierXid);
+        msgs.add(barrier);
+
+        entry.tableModXids().forEach(xid -> pendingTableMods.put(xid, entry));
+        pendingBatches.put(barrierXid, entry);
+        log.debug("Sending table batch {} to {}: {} messages, barrier xid {}",
+                  batch.id(), dpid, msgs.size(), barrierXid);
+        sw.sendMsg(msgs);
     }
 
     private boolean hasPayload(FlowTableExtPayLoad flowTableExtPayLoad) {
@@ -370,10 +390,9 @@ public class PofTableProvider extends AbstractProvider
 
         @Override
         public void switchAdded(Dpid dpid) {
-
-            PofSwitch sw = controller.getSwitch(dpid);
-
-//            createCollector(controller.getSwitch(dpid));
+            if (statsScheduler != null) {
+                createCollector(controller.getSwitch(dpid));
+            }
         }
 
         @Override
@@ -383,21 +402,10 @@ public class PofTableProvider extends AbstractProvider
 
         @Override
         public void switchRemoved(Dpid dpid) {
-            if (adaptiveTableSampling) {
-//                NewAdaptiveFlowStatsCollector collector = afsCollectors.remove(dpid);
-//                if (collector != null) {
-//                    collector.stop();
-//                }
-            } else {
-//                FlowStatsCollector collector = simpleCollectors.remove(dpid);
-//                if (collector != null) {
-//                    collector.stop();
-//                }
+            TableStatsCollector collector = collectors.remove(dpid);
+            if (collector != null) {
+                collector.stop();
             }
-//            TableStatisticsCollector tsc = tableStatsCollectors.remove(dpid);
-//            if (tsc != null) {
-//                tsc.stop();
-//            }
         }
 
         @Override
@@ -420,76 +428,36 @@ public class PofTableProvider extends AbstractProvider
                 // We are shutting down, nothing to be done
                 return;
             }
-            DeviceId deviceId = DeviceId.deviceId(Dpid.uri(dpid));
-/*            switch (msg.getType()) {
-                case FLOW_REMOVED:
-                    OFFlowRemoved removed = (OFFlowRemoved) msg;
-
-                    FlowEntry fr = new FlowEntryBuilder(deviceId, removed, driverService).build();
-                    providerService.flowRemoved(fr);
-
-                    if (adaptiveTableSampling) {
-                        // Removed TypedFlowEntry to deviceFlowEntries in NewAdaptiveFlowStatsCollector
-                        NewAdaptiveFlowStatsCollector collector = afsCollectors.get(dpid);
-                        if (collector != null) {
-                            collector.flowRemoved(fr);
-                        }
-                    }
-                    break;
-                case STATS_REPLY:
-                    if (((OFStatsReply) msg).getStatsType() == OFStatsType.FLOW) {
-                        pushFlowMetrics(dpid, (OFFlowStatsReply) msg);
-                    } else if (((OFStatsReply) msg).getStatsType() == OFStatsType.TABLE) {
-                        pushTableStatistics(dpid, (OFTableStatsReply) msg);
-                    }
-                    break;
+            switch (msg.getType()) {
                 case BARRIER_REPLY:
                     try {
                         InternalCacheEntry entry = pendingBatches.getIfPresent(msg.getXid());
                         if (entry != null) {
                             providerService
-                                    .batchOperationCompleted(msg.getXid(),
+                                    .batchOperationCompleted(entry.batchId(),
                                                              entry.completed());
                         } else {
-                            log.warn("Received unknown Barrier Reply: {}",
-                                     msg.getXid());
+                            log.debug("Received unknown Barrier Reply: {}",
+                                      msg.getXid());
                         }
                     } finally {
                         pendingBatches.invalidate(msg.getXid());
                     }
                     break;
                 case ERROR:
-                    // TODO: This needs to get suppressed in a better way.
-                    if (msg instanceof OFBadRequestErrorMsg &&
-                            ((OFBadRequestErrorMsg) msg).getCode() == OFBadRequestCode.BAD_TYPE) {
-                        log.debug("Received error message {} from {}", msg, dpid);
-                    } else {
-                        log.warn("Received error message {} from {}", msg, dpid);
-                    }
-
-                    OFErrorMsg error = (OFErrorMsg) msg;
-                    if (error.getErrType() == OFErrorType.FLOW_MOD_FAILED) {
-                        OFFlowModFailedErrorMsg fmFailed = (OFFlowModFailedErrorMsg) error;
-                        if (fmFailed.getData().getParsedMessage().isPresent()) {
-                            OFMessage m = fmFailed.getData().getParsedMessage().get();
-                            OFFlowMod fm = (OFFlowMod) m;
-                            InternalCacheEntry entry =
-                                    pendingBatches.getIfPresent(msg.getXid());
-                            if (entry != null) {
-                                entry.appendFailure(new FlowEntryBuilder(deviceId, fm, driverService).build());
-                            } else {
-                                log.error("No matching batch for this error: {}", error);
-                            }
+                    OFError error = (OFError) msg;
+                    if (error.getErrorType() == OFError.OFErrorType.OFPET_TABLE_MOD_FAILED.getValue()) {
+                        InternalCacheEntry entry = pendingTableMods.get(msg.getXid());
+                        if (entry != null) {
+                            entry.appendFailure(msg.getXid());
                         } else {
-                            // FIXME: Potentially add flowtracking to avoid this message.
-                            log.error("Flow installation failed but switch didn't"
-                                              + " tell us which one.");
+                            log.error("No matching table batch for this error: {}", error);
                         }
                     }
                     break;
                 default:
                     log.debug("Unhandled message type: {}", msg.getType());
-            }*/
+            }
         }
 
         @Override
@@ -577,12 +545,41 @@ public class PofTableProvider extends AbstractProvider
     private class InternalCacheEntry {
 
         private final FlowTableBatchOperation operation;
+        private final Map<Integer, FlowTable> tableMods = Maps.newHashMap();
         private final Set<FlowTable> failures = Sets.newConcurrentHashSet();
 
         public InternalCacheEntry(FlowTableBatchOperation operation) {
             this.operation = operation;
         }
 
+        /**
+         * Returns the id of the batch operation.
+         *
+         * @return batch id
+         */
+        public long batchId() {
+            return operation.id();
+        }
+
+        /**
+         * Records the table mod sent for a table of the batch.
+         *
+         * @param xid   transaction id of the table mod
+         * @param table the table the table mod was built from
+         */
+        public void addTableMod(int xid, FlowTable table) {
+            tableMods.put(xid, table);
+        }
+
+        /**
+         * Returns the transaction ids of the table mods sent for the batch.
+         *
+         * @return table mod xids
+         */
+        public Set<Integer> tableModXids() {
+            return tableMods.keySet();
+        }
+
         /**
          * Appends a failed rule to the set of failed items.
          *
@@ -592,6 +589,18 @@ public class PofTableProvider extends AbstractProvider
             failures.add(table);
         }
 
+        /**
+         * Appends the table of a failed table mod to the set of failed items.
+         *
+         * @param xid transaction id of the failed table mod
+         */
+        public void appendFailure(int xid) {
+            FlowTable table = tableMods.get(xid);
+            if (table != null) {
+                failures.add(table);
+            }
+        }
+
         /**
          * Fails the entire batch and returns the failed operation.
          *
@@ -15,18 +15,39 @@
  */
 package org.onosproject.provider.pof.table.impl;
 
-import org.onlab.util.SharedExecutors;
+import com.google.common.collect.Maps;
+import org.onosproject.floodlightpof.protocol.OFMultipartRequest;
+import org.onosproject.floodlightpof.protocol.OFType;
+import org.onosproject.floodlightpof.protocol.statistics.OFFlowStatisticsRequest;
+import org.onosproject.floodlightpof.protocol.statistics.OFStatisticsType;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.table.FlowTable;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.FlowTableStore;
+import org.onosproject.pof.controller.Dpid;
 import org.onosproject.pof.controller.PofSwitch;
 import org.onosproject.pof.controller.RoleState;
 import org.slf4j.Logger;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
- * Collects flow statistics for the specified switch.
+ * Adaptively collects table statistics for the specified switch.
+ * <p>
+ * Each flow table is polled on its own schedule: every round while its
+ * number of entries changes, and twice as rarely after every poll finding it
+ * unchanged, down to once every {@link #MAX_IDLE_ROUNDS} rounds. Statistics
+ * are requested per table rather than for the whole switch, and the first
+ * round of each switch is delayed by a random fraction of the poll interval
+ * so that polls of different switches do not line up.
+ * </p>
  */
 class TableStatsCollector {
 
@@ -34,23 +55,35 @@ class TableStatsCollector {
 
     public static final int SECONDS = 1000;
 
+    static final int MAX_IDLE_ROUNDS = 8;
+
+    private final ScheduledExecutorService scheduler;
     private final PofSwitch sw;
-    private Timer timer;
-    private TimerTask task;
+    private final DeviceId did;
+    private final FlowTableStore tableStore;
 
     private int pollInterval;
+    private ScheduledFuture<?> pollTask;
+    private long round;
+
+    // schedule of each table: entry count, rounds between polls and next poll
+    private final Map<FlowTableId, TableSchedule> schedules = Maps.newHashMap();
 
     /**
      * Creates a new collector for the given switch and poll frequency.
      *
-     * @param timer        timer to use for scheduling
+     * @param scheduler    executor running the polls of all switches
      * @param sw           switch to pull
+     * @param tableStore   flow table store, source of the tables to poll
      * @param pollInterval poll frequency in seconds
      */
-    TableStatsCollector(Timer timer, PofSwitch sw, int pollInterval) {
-        this.timer = timer;
+    TableStatsCollector(ScheduledExecutorService scheduler, PofSwitch sw,
+                        FlowTableStore tableStore, int pollInterval) {
+        this.scheduler = scheduler;
         this.sw = sw;
-        this.pollInterval = pollInterval;
+        this.did = DeviceId.deviceId(Dpid.uri(sw.getId()));
+        this.tableStore = tableStore;
+        this.pollInterval = Math.max(1, pollInterval);
     }
 
     /**
@@ -59,39 +92,90 @@ class TableStatsCollector {
      * @param pollInterval poll frequency in seconds
      */
     synchronized void adjustPollInterval(int pollInterval) {
-        this.pollInterval = pollInterval;
-        task.cancel();
-        task = new InternalTimerTask();
-        timer.scheduleAtFixedRate(task, pollInterval * SECONDS, pollInterval * 1000);
-    }
-
-    private class InternalTimerTask extends TimerTask {
-        @Override
-        public void run() {
-            if (sw.getRole() == RoleState.MASTER) {
-                log.trace("Collecting stats for {}", sw.getStringId());
-//                OFFlowStatsRequest request = sw.factory().buildFlowStatsRequest()
-//                        .setMatch(sw.factory().matchWildcardAll())
-//                        .setTableId(TableId.ALL)
-//                        .setOutPort(OFPort.NO_MASK)
-//                        .build();
-//                sw.sendMsg(request);
-            }
+        this.pollInterval = Math.max(1, pollInterval);
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            schedule();
         }
     }
 
     public synchronized void start() {
-        // Initially start polling quickly. Then drop down to configured value
-        log.debug("Starting Stats collection thread for {}", sw.getStringId());
-        task = new InternalTimerTask();
-        SharedExecutors.getTimer().scheduleAtFixedRate(task, 1 * SECONDS,
-                                                       pollInterval * SECONDS);
+        log.debug("Starting Stats collection for {}", sw.getStringId());
+        round = 0;
+        schedules.clear();
+        schedule();
     }
 
     public synchronized void stop() {
-        log.debug("Stopping Stats collection thread for {}", sw.getStringId());
-        task.cancel();
-        task = null;
+        log.debug("Stopping Stats collection for {}", sw.getStringId());
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+    }
+
+    private void schedule() {
+        long period = pollInterval * (long) SECONDS;
+        long jitter = ThreadLocalRandom.current().nextLong(period);
+        pollTask = scheduler.scheduleWithFixedDelay(this::poll, jitter, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a single poll round.
+     */
+    synchronized void poll() {
+        if (sw.getRole() != RoleState.MASTER || !sw.isConnected()) {
+            return;
+        }
+        try {
+            Map<FlowTableId, TableSchedule> current = Maps.newHashMap();
+            for (FlowTable table : tableStore.getFlowTables(did)) {
+                int count = tableStore.getFlowEntryCount(did, table.id());
+                TableSchedule schedule = schedules.get(table.id());
+                if (schedule == null || schedule.entryCount != count) {
+                    // new or changed table, poll it every round again
+                    schedule = new TableSchedule(count, 1, round);
+                }
+                if (schedule.nextRound <= round) {
+                    sendTableStatsRequest((int) table.id().value());
+                    int interval = Math.min(schedule.interval * 2, MAX_IDLE_ROUNDS);
+                    schedule = new TableSchedule(count, interval, round + schedule.interval);
+                }
+                current.put(table.id(), schedule);
+            }
+            // tables gone from the store are dropped with the old map
+            schedules.clear();
+            schedules.putAll(current);
+        } catch (RuntimeException e) {
+            log.warn("Unable to collect table statistics for {}", sw.getStringId(), e);
+        }
+        round++;
     }
 
+    // asks the switch for the statistics of a single table
+    private void sendTableStatsRequest(int globalTableId) {
+        OFFlowStatisticsRequest body = new OFFlowStatisticsRequest();
+        body.setTableId(tableStore.parseToSmallTableId(did, globalTableId));
+
+        OFMultipartRequest request =
+                (OFMultipartRequest) sw.factory().getOFMessage(OFType.MULTIPART_REQUEST);
+        request.setStatisticType(OFStatisticsType.FLOW);
+        request.setStatistics(Collections.singletonList(body));
+        request.setLengthU(request.getLengthU() + body.getLength());
+
+        log.trace("Requesting stats of table {} from {}", globalTableId, sw.getStringId());
+        sw.sendMsg(request);
+    }
+
+    private static final class TableSchedule {
+        private final int entryCount;
+        private final int interval;
+        private final long nextRound;
+
+        private TableSchedule(int entryCount, int interval, long nextRound) {
+            this.entryCount = entryCount;
+            this.interval = interval;
+            this.nextRound = nextRound;
+        }
+    }
 }
@@ -23,6 +23,8 @@ import com.google.common.collect.ListMultimap;
 import org.onlab.util.ItemNotFoundException;
 import org.onosproject.app.ApplicationService;
 import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
 import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.device.DeviceService;
@@ -52,6 +54,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.StreamSupport;
 
 import static org.onlab.util.Tools.nullIsIllegal;
@@ -76,6 +82,9 @@ public class FlowsWebResource extends AbstractWebResource {
     private static final String DEVICE_ID = "deviceId";
     private static final String FLOW_ID = "flowId";
     private static final String TABLE_ID = "tableId";
+    private static final int UNALLOCATED_TABLE_ID = -1;
+    private static final String REST_APP_ID = "org.onosproject.rest";
+    private static final long TABLE_CREATION_TIMEOUT_SECONDS = 10;
 
     private final FlowRuleService service = get(FlowRuleService.class);
     private final FlowTableService tableService = get(FlowTableService.class);
@@ -129,10 +138,12 @@ public class FlowsWebResource extends AbstractWebResource {
                 if (appId != null) {
                     tableArray.forEach(tableJson -> ((ObjectNode) tableJson).put("appId", appId));
                 }
+                // the table ids are allocated below, in one request per device
+                // and table type, rather than by the codec one table at a time
+                tableArray.forEach(tableJson -> ((ObjectNode) tableJson).put(TABLE_ID, UNALLOCATED_TABLE_ID));
 
-                List<FlowTable> tables = codec(FlowTable.class).decode(tableArray, this);
-
-                tableService.applyFlowTables(tables.toArray(new FlowTable[tables.size()]));
+                List<FlowTable> decoded = codec(FlowTable.class).decode(tableArray, this);
+                List<FlowTable> tables = createFlowTables(decoded);
                 tables.forEach(flowTable -> {
                     ObjectNode tableNode = mapper().createObjectNode();
                     tableNode.put(DEVICE_ID, flowTable.deviceId().toString())
@@ -164,6 +175,33 @@ public class FlowsWebResource extends AbstractWebResource {
         return Response.ok(root).build();
     }
 
+    // Creates the tables of each device as one batch, all devices at once.
+    private List<FlowTable> createFlowTables(List<FlowTable> decoded) {
+        ListMultimap<DeviceId, OFFlowTable> byDevice = ArrayListMultimap.create();
+        decoded.forEach(table -> byDevice.put(table.deviceId(), table.flowTable()));
+        // the codec creates the tables on behalf of the REST application
+        ApplicationId tableAppId = get(CoreService.class).registerApplication(REST_APP_ID);
+
+        List<CompletableFuture<List<FlowTable>>> created = new ArrayList<>();
+        byDevice.keySet().forEach(deviceId ->
+                created.add(tableService.createFlowTables(deviceId, byDevice.get(deviceId), tableAppId)));
+
+        List<FlowTable> tables = new ArrayList<>(decoded.size());
+        for (CompletableFuture<List<FlowTable>> future : created) {
+            try {
+                tables.addAll(future.get(TABLE_CREATION_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("Flow tables were not confirmed in time", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return tables;
+    }
+
     /**
      * Gets flow entries of a device. Returns array of all flow rules for the
      * specified device.